@@ -0,0 +1,127 @@
+package com.taobao.arthas.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
+import com.taobao.arthas.core.advisor.AdviceListenerManager;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+
+/**
+ * <pre>
+ * listener 回调时创建 ArthasMethod 和 Advice 的开销。
+ *
+ * allocating 和以前一样每次调用都创建 ArthasMethod 和 Advice ；pooled 使用缓存的 ArthasMethod 和线程复用的 Advice 。
+ * 使用 gc profiler 运行，pooled 的 gc.alloc.rate.norm 应该接近 0 B/op ：
+ *
+ * java -jar target/benchmarks.jar AdviceAllocationBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdviceAllocationBenchmark {
+
+    private static final String METHOD_NAME = "hello";
+    private static final String METHOD_DESC = "(Ljava/lang/String;)Ljava/lang/String;";
+
+    private final Object target = new Object();
+    private final Object[] args = new Object[] { "arthas" };
+    private final Object returnObject = "hello arthas";
+
+    private Class<?> clazz;
+    private int methodId;
+    private ConsumeListener pooledListener;
+    private ConsumeListener allocatingListener;
+
+    /**
+     * 模拟计算条件表达式的 listener ，用 Blackhole 消费 advice ，避免被逃逸分析优化掉
+     */
+    static class ConsumeListener extends AdviceListenerAdapter {
+        private final boolean pooled;
+        Blackhole blackhole;
+
+        ConsumeListener(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
+                throws Throwable {
+        }
+
+        @Override
+        public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
+                Object[] args, Object returnObject) throws Throwable {
+            if (pooled) {
+                Advice advice = Advice.borrowForAfterReturning(loader, clazz, method, target, args, returnObject);
+                try {
+                    consume(advice);
+                } finally {
+                    advice.release();
+                }
+            } else {
+                consume(Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject));
+            }
+        }
+
+        @Override
+        public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
+                Object[] args, Throwable throwable) throws Throwable {
+        }
+
+        private void consume(Advice advice) {
+            blackhole.consume(advice);
+            blackhole.consume(advice.getMethod());
+            blackhole.consume(advice.getReturnObj());
+        }
+    }
+
+    @Setup
+    public void setup(Blackhole blackhole) throws Throwable {
+        BenchmarkHelper.init();
+        clazz = AdviceAllocationBenchmark.class;
+        ClassLoader loader = clazz.getClassLoader();
+        methodId = AdviceListenerManager.methodId(loader, clazz.getName(), METHOD_NAME, METHOD_DESC);
+
+        pooledListener = new ConsumeListener(true);
+        pooledListener.blackhole = blackhole;
+        allocatingListener = new ConsumeListener(false);
+        allocatingListener.blackhole = blackhole;
+        // 有 listener 时才缓存 ArthasMethod
+        AdviceListenerManager.registerAdviceListener(loader, clazz.getName(), METHOD_NAME, METHOD_DESC,
+                pooledListener);
+    }
+
+    @TearDown
+    public void tearDown() {
+        AdviceListenerManager.unRegisterAdviceListener(pooledListener);
+    }
+
+    @Benchmark
+    public void allocating() throws Throwable {
+        allocatingListener.afterReturning(clazz.getClassLoader(), clazz,
+                new ArthasMethod(clazz, methodId, METHOD_NAME, METHOD_DESC), target, args, returnObject);
+    }
+
+    @Benchmark
+    public void pooled() throws Throwable {
+        pooledListener.afterReturning(clazz, methodId, METHOD_NAME, METHOD_DESC, target, args, returnObject);
+    }
+}
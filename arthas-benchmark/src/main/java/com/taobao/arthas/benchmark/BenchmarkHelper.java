@@ -0,0 +1,132 @@
+package com.taobao.arthas.benchmark;
+
+import java.io.File;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+
+import com.taobao.arthas.core.advisor.AdviceListener;
+import com.taobao.arthas.core.advisor.AdviceListenerManager;
+import com.taobao.arthas.core.advisor.Enhancer;
+import com.taobao.arthas.core.advisor.InvokeTraceable;
+import com.taobao.arthas.core.server.ArthasBootstrap;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.shell.system.ExecStatus;
+import com.taobao.arthas.core.shell.system.Process;
+import com.taobao.arthas.core.shell.system.ProcessAware;
+import com.taobao.arthas.core.util.matcher.EqualsMatcher;
+
+import net.bytebuddy.agent.ByteBuddyAgent;
+
+/**
+ * <pre>
+ * 在 benchmark 的进程里启动 arthas ，并提供增强/还原类的方法。
+ *
+ * SpyAPI 在 java.arthas 包里，只能由 BootstrapClassLoader 加载，打包时 arthas-spy.jar 被复制到 benchmarks.jar 的同一个目录，
+ * 也可以用 -Darthas.spy.jar=... 指定。
+ * </pre>
+ */
+public class BenchmarkHelper {
+
+    private static Instrumentation instrumentation;
+
+    public static synchronized Instrumentation init() throws Throwable {
+        if (instrumentation == null) {
+            Instrumentation inst = ByteBuddyAgent.install();
+            inst.appendToBootstrapClassLoaderSearch(new JarFile(spyJarFile()));
+            ArthasBootstrap.getInstance(inst, "telnetPort=-1;httpPort=-1");
+            instrumentation = inst;
+        }
+        return instrumentation;
+    }
+
+    /**
+     * 和 watch/trace 等命令一样增强方法，listener 的输出被丢弃
+     */
+    public static Enhancer enhance(AdviceListener listener, Class<?> clazz, String methodName) throws Throwable {
+        if (listener instanceof ProcessAware) {
+            ((ProcessAware) listener).setProcess(runningProcess());
+        }
+        Enhancer enhancer = new Enhancer(listener, listener instanceof InvokeTraceable, false,
+                new EqualsMatcher<String>(clazz.getName()), new EqualsMatcher<String>(methodName));
+        Throwable throwable = enhancer.enhance(init(), null).getThrowable();
+        if (throwable != null) {
+            throw throwable;
+        }
+        return enhancer;
+    }
+
+    /**
+     * 移除 listener 并还原类
+     */
+    public static void reset(AdviceListener listener, Enhancer enhancer, Class<?> clazz) throws Throwable {
+        AdviceListenerManager.unRegisterAdviceListener(listener);
+        ArthasBootstrap.getInstance().getTransformerManager().removeTransformer(enhancer);
+        Enhancer.reset(init(), new EqualsMatcher<String>(clazz.getName()));
+    }
+
+    /**
+     * 一直处于运行状态的 CommandProcess ，输出都被丢弃
+     */
+    public static CommandProcess commandProcess() {
+        final AtomicInteger times = new AtomicInteger();
+        return (CommandProcess) Proxy.newProxyInstance(BenchmarkHelper.class.getClassLoader(),
+                new Class<?>[] { CommandProcess.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if ("times".equals(name)) {
+                            return times;
+                        }
+                        if ("isRunning".equals(name)) {
+                            return true;
+                        }
+                        return defaultValue(proxy, method);
+                    }
+                });
+    }
+
+    private static Process runningProcess() {
+        return (Process) Proxy.newProxyInstance(BenchmarkHelper.class.getClassLoader(),
+                new Class<?>[] { Process.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("status".equals(method.getName())) {
+                            return ExecStatus.RUNNING;
+                        }
+                        return defaultValue(proxy, method);
+                    }
+                });
+    }
+
+    private static Object defaultValue(Object proxy, Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType.isInstance(proxy)) {
+            // write 之类的方法返回自己，可以链式调用
+            return proxy;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == int.class) {
+            return 0;
+        }
+        if (returnType == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static File spyJarFile() {
+        String spyJar = System.getProperty("arthas.spy.jar");
+        if (spyJar != null) {
+            return new File(spyJar);
+        }
+        File benchmarkJar = new File(
+                BenchmarkHelper.class.getProtectionDomain().getCodeSource().getLocation().getFile());
+        return new File(benchmarkJar.getParentFile(), "arthas-spy.jar");
+    }
+}
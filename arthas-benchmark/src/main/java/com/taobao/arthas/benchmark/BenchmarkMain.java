@@ -0,0 +1,34 @@
+package com.taobao.arthas.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <pre>
+ * benchmarks.jar 的入口，参数和 jmh 一样，没有指定 -rf/-rff 时结果保存到 jmh-result.json ，方便比较不同版本的结果。
+ *
+ * java -jar target/benchmarks.jar SpyOverheadBenchmark
+ * </pre>
+ */
+public class BenchmarkMain {
+
+    static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(withDefaultResult(args));
+    }
+
+    static String[] withDefaultResult(String[] args) {
+        List<String> result = new ArrayList<String>(Arrays.asList(args));
+        if (!result.contains("-rf")) {
+            result.add("-rf");
+            result.add("json");
+            if (!result.contains("-rff")) {
+                result.add("-rff");
+                result.add(DEFAULT_RESULT_FILE);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+}
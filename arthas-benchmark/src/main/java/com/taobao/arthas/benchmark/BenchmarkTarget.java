@@ -0,0 +1,16 @@
+package com.taobao.arthas.benchmark;
+
+/**
+ * 被增强的目标类，每个 benchmark 只增强 recursive 方法
+ */
+public class BenchmarkTarget {
+
+    private int counter;
+
+    public int recursive(int depth) {
+        if (depth <= 0) {
+            return ++counter;
+        }
+        return recursive(depth - 1) + 1;
+    }
+}
@@ -0,0 +1,90 @@
+package com.taobao.arthas.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
+import com.taobao.arthas.core.advisor.AdviceListenerManager;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.advisor.SpyImpl;
+
+/**
+ * <pre>
+ * SpyImpl 按方法 id 查找 listener 的开销，注册的方法数量增加时不应该变慢。
+ *
+ * 每次调用换一个方法，避免一直命中同一个缓存行。
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerLookupBenchmark {
+
+    private static final String METHOD_DESC = "()V";
+
+    @Param({ "10", "1000", "100000" })
+    public int methods;
+
+    private final SpyImpl spy = new SpyImpl();
+    private final NoopListener listener = new NoopListener();
+    private final Class<?> clazz = ListenerLookupBenchmark.class;
+
+    private int[] methodIds;
+    private int index;
+
+    static class NoopListener extends AdviceListenerAdapter {
+        @Override
+        public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
+                throws Throwable {
+        }
+
+        @Override
+        public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
+                Object[] args, Object returnObject) throws Throwable {
+        }
+
+        @Override
+        public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
+                Object[] args, Throwable throwable) throws Throwable {
+        }
+    }
+
+    @Setup
+    public void setup() throws Throwable {
+        BenchmarkHelper.init();
+        ClassLoader loader = clazz.getClassLoader();
+        methodIds = new int[methods];
+        for (int i = 0; i < methods; ++i) {
+            String methodName = "method" + i;
+            methodIds[i] = AdviceListenerManager.methodId(loader, clazz.getName(), methodName, METHOD_DESC);
+            AdviceListenerManager.registerAdviceListener(loader, clazz.getName(), methodName, METHOD_DESC, listener);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        AdviceListenerManager.unRegisterAdviceListener(listener);
+    }
+
+    @Benchmark
+    public void atEnter() {
+        int i = index;
+        spy.atEnter(clazz, methodIds[i], null, null);
+        index = (++i == methodIds.length) ? 0 : i;
+    }
+}
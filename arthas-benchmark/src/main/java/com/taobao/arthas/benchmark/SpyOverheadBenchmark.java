@@ -0,0 +1,89 @@
+package com.taobao.arthas.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.taobao.arthas.core.advisor.AdviceListener;
+import com.taobao.arthas.core.advisor.AdviceListenerManager;
+import com.taobao.arthas.core.advisor.Enhancer;
+import com.taobao.arthas.core.command.monitor200.BenchmarkListeners;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+
+/**
+ * <pre>
+ * 被增强的方法每次调用的开销。
+ *
+ * baseline  没有增强
+ * none      增强过，但是 listener 已经被移除，只剩下 spy 的调用
+ * monitor/watch/trace  和对应的命令一样增强
+ *
+ * depth 是递归调用的层数，每一层都会经过 spy 。
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpyOverheadBenchmark {
+
+    @Param({ "baseline", "none", "monitor", "watch", "trace" })
+    public String mode;
+
+    @Param({ "1", "10" })
+    public int depth;
+
+    private final BenchmarkTarget target = new BenchmarkTarget();
+
+    private AdviceListener listener;
+    private Enhancer enhancer;
+
+    @Setup
+    public void setup() throws Throwable {
+        BenchmarkHelper.init();
+        if ("baseline".equals(mode)) {
+            return;
+        }
+        CommandProcess process = BenchmarkHelper.commandProcess();
+        if ("monitor".equals(mode)) {
+            listener = BenchmarkListeners.monitor(process);
+        } else if ("trace".equals(mode)) {
+            listener = BenchmarkListeners.trace(process);
+        } else {
+            listener = BenchmarkListeners.watch(process);
+        }
+        listener.create();
+        enhancer = BenchmarkHelper.enhance(listener, BenchmarkTarget.class, "recursive");
+        if ("none".equals(mode)) {
+            // 保留增强后的字节码，只移除 listener
+            AdviceListenerManager.unRegisterAdviceListener(listener);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        if (listener != null) {
+            listener.destroy();
+            BenchmarkHelper.reset(listener, enhancer, BenchmarkTarget.class);
+            listener = null;
+        }
+    }
+
+    @Benchmark
+    public int invoke() {
+        return target.recursive(depth);
+    }
+}
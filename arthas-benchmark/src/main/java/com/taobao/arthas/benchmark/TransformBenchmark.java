@@ -0,0 +1,138 @@
+package com.taobao.arthas.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.alibaba.arthas.deps.org.objectweb.asm.ClassWriter;
+import com.alibaba.arthas.deps.org.objectweb.asm.Label;
+import com.alibaba.arthas.deps.org.objectweb.asm.MethodVisitor;
+import com.alibaba.arthas.deps.org.objectweb.asm.Opcodes;
+import com.taobao.arthas.core.advisor.AdviceListener;
+import com.taobao.arthas.core.advisor.AdviceListenerManager;
+import com.taobao.arthas.core.advisor.Enhancer;
+import com.taobao.arthas.core.command.monitor200.BenchmarkListeners;
+import com.taobao.arthas.core.util.matcher.EqualsMatcher;
+import com.taobao.arthas.core.util.matcher.WildcardMatcher;
+
+/**
+ * <pre>
+ * Enhancer 增强一个大类的开销，包括解析、插入 spy 、计算 frame 和生成字节码。
+ *
+ * 目标类是用 asm 生成的，有 methods 个带分支和方法调用的方法，tracing 为 true 时和 trace 命令一样增强方法调用。
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransformBenchmark {
+
+    private static final String CLASS_NAME = "com/taobao/arthas/benchmark/GeneratedTarget";
+
+    @Param({ "100", "1000" })
+    public int methods;
+
+    @Param({ "false", "true" })
+    public boolean tracing;
+
+    private byte[] classBytes;
+    private Class<?> clazz;
+    private AdviceListener listener;
+    private Enhancer enhancer;
+
+    static class GeneratedClassLoader extends ClassLoader {
+        GeneratedClassLoader() {
+            super(TransformBenchmark.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    @Setup
+    public void setup() throws Throwable {
+        BenchmarkHelper.init();
+        classBytes = generate(methods);
+        clazz = new GeneratedClassLoader().define(CLASS_NAME.replace('/', '.'), classBytes);
+        listener = tracing ? BenchmarkListeners.trace(BenchmarkHelper.commandProcess())
+                : BenchmarkListeners.watch(BenchmarkHelper.commandProcess());
+        // 没有调用 enhance ，transform 不会检查 matchingClasses
+        enhancer = new Enhancer(listener, tracing, false, new EqualsMatcher<String>(clazz.getName()),
+                new WildcardMatcher("method*"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        AdviceListenerManager.unRegisterAdviceListener(listener);
+    }
+
+    @Benchmark
+    public byte[] transform() throws Throwable {
+        return enhancer.transform(clazz.getClassLoader(), CLASS_NAME, clazz, null, classBytes);
+    }
+
+    /**
+     * <pre>
+     * 生成的每个方法：
+     *
+     * public int methodN(int x) {
+     *     if (x > N) {
+     *         return Math.abs(x - N);
+     *     }
+     *     return String.valueOf(x).length() + N;
+     * }
+     * </pre>
+     */
+    static byte[] generate(int methods) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, CLASS_NAME, null, "java/lang/Object", null);
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int i = 0; i < methods; ++i) {
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "(I)I", null, null);
+            mv.visitCode();
+            Label otherwise = new Label();
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitLdcInsn(i);
+            mv.visitJumpInsn(Opcodes.IF_ICMPLE, otherwise);
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitLdcInsn(i);
+            mv.visitInsn(Opcodes.ISUB);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "abs", "(I)I", false);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitLabel(otherwise);
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", "(I)Ljava/lang/String;", false);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+            mv.visitLdcInsn(i);
+            mv.visitInsn(Opcodes.IADD);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,40 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.advisor.AdviceListener;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+
+/**
+ * <pre>
+ * 通过 {@link EnhancerCommand#getAdviceListener} 创建和 monitor/watch/trace 命令一样的 listener ，
+ * 放在 arthas-core 的同一个 package 里，只是为了调用 protected 方法，不需要在 arthas-core 里增加 public 方法。
+ *
+ * watch/trace 的条件表达式总是 false ，测量的是每次调用都要执行的部分，不包括输出结果。
+ * 条件只用 #cost ，不访问 params ，trace 只需要调用的时机。
+ * </pre>
+ */
+public class BenchmarkListeners {
+
+    private static final String FALSE_CONDITION = "#cost < 0";
+
+    public static AdviceListener monitor(CommandProcess process) {
+        MonitorCommand command = new MonitorCommand();
+        command.setCycle(60);
+        command.setNumberOfLimit(Integer.MAX_VALUE);
+        return command.getAdviceListener(process);
+    }
+
+    public static AdviceListener watch(CommandProcess process) {
+        WatchCommand command = new WatchCommand();
+        command.setExpress("{params, returnObj}");
+        command.setConditionExpress(FALSE_CONDITION);
+        command.setNumberOfLimit(Integer.MAX_VALUE);
+        return command.getAdviceListener(process);
+    }
+
+    public static AdviceListener trace(CommandProcess process) {
+        TraceCommand command = new TraceCommand();
+        command.setConditionExpress(FALSE_CONDITION);
+        command.setNumberOfLimit(Integer.MAX_VALUE);
+        return command.getAdviceListener(process);
+    }
+}
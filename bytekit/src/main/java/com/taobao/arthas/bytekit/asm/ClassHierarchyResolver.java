@@ -0,0 +1,222 @@
+package com.taobao.arthas.bytekit.asm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.alibaba.arthas.deps.org.objectweb.asm.ClassReader;
+import com.alibaba.arthas.deps.org.objectweb.asm.Opcodes;
+
+/**
+ * <pre>
+ * 计算 stack map frame 时查找类的继承关系，不触发类加载。
+ *
+ * 依次从以下地方获取类的父类和接口：
+ * 1. 每个 ClassLoader 的缓存
+ * 2. ClassLoader 已经加载的 Class （通过 ClassLoader.findLoadedClass ，不能反射调用时跳过）
+ * 3. ClassLoader.getResourceAsStream 读取 class 文件，只解析文件头
+ * 都找不到时才使用 Class.forName(name, false, loader) 。
+ *
+ * 类的继承关系在 retransform 时不会改变，所以缓存不需要失效，ClassLoader 被回收时缓存也被回收。
+ * </pre>
+ */
+public class ClassHierarchyResolver {
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final Method findLoadedClassMethod = findLoadedClassMethod();
+
+    private final Map<ClassLoader, Map<String, ClassInfo>> caches = new WeakHashMap<ClassLoader, Map<String, ClassInfo>>();
+
+    static class ClassInfo {
+        final String name;
+        final String superName;
+        final String[] interfaces;
+        final boolean isInterface;
+
+        ClassInfo(String name, String superName, String[] interfaces, boolean isInterface) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+    }
+
+    /**
+     * 和 ClassWriter.getCommonSuperClass 的语义一样，类名都是 internal name
+     */
+    public String getCommonSuperClass(String type1, String type2, ClassLoader classLoader) {
+        if (type1.equals(type2)) {
+            return type1;
+        }
+        ClassInfo info1 = getClassInfo(type1, classLoader);
+        ClassInfo info2 = getClassInfo(type2, classLoader);
+
+        Set<String> superTypes2 = getSuperTypes(info2, classLoader);
+        if (superTypes2.contains(type1)) {
+            return type1;
+        }
+        Set<String> superTypes1 = getSuperTypes(info1, classLoader);
+        if (superTypes1.contains(type2)) {
+            return type2;
+        }
+        if (info1.isInterface || info2.isInterface) {
+            return OBJECT;
+        }
+        // 两个都是类，沿着 type1 的父类查找，第一个也是 type2 父类的就是共同的父类
+        for (ClassInfo info = info1; info.superName != null; ) {
+            if (superTypes2.contains(info.superName)) {
+                return info.superName;
+            }
+            info = getClassInfo(info.superName, classLoader);
+        }
+        return OBJECT;
+    }
+
+    /**
+     * @return 所有的父类和接口，包含自己
+     */
+    Set<String> getSuperTypes(ClassInfo info, ClassLoader classLoader) {
+        Set<String> result = new HashSet<String>();
+        List<ClassInfo> queue = new ArrayList<ClassInfo>();
+        queue.add(info);
+        result.add(info.name);
+        for (int i = 0; i < queue.size(); ++i) {
+            ClassInfo current = queue.get(i);
+            if (current.superName != null && result.add(current.superName)) {
+                queue.add(getClassInfo(current.superName, classLoader));
+            }
+            for (String interfaceName : current.interfaces) {
+                if (result.add(interfaceName)) {
+                    queue.add(getClassInfo(interfaceName, classLoader));
+                }
+            }
+        }
+        // 接口的 superName 是 Object
+        result.add(OBJECT);
+        return result;
+    }
+
+    ClassInfo getClassInfo(String type, ClassLoader classLoader) {
+        Map<String, ClassInfo> cache = getCache(classLoader);
+        ClassInfo info = cache.get(type);
+        if (info == null) {
+            info = resolve(type, classLoader);
+            cache.put(type, info);
+        }
+        return info;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        synchronized (caches) {
+            caches.clear();
+        }
+    }
+
+    private Map<String, ClassInfo> getCache(ClassLoader classLoader) {
+        synchronized (caches) {
+            Map<String, ClassInfo> cache = caches.get(classLoader);
+            if (cache == null) {
+                cache = new ConcurrentHashMap<String, ClassInfo>();
+                caches.put(classLoader, cache);
+            }
+            return cache;
+        }
+    }
+
+    private static ClassInfo resolve(String type, ClassLoader classLoader) {
+        Class<?> loadedClass = findLoadedClass(type, classLoader);
+        if (loadedClass != null) {
+            return toClassInfo(loadedClass);
+        }
+
+        ClassInfo info = readClassInfo(type, classLoader);
+        if (info != null) {
+            return info;
+        }
+
+        // 找不到 class 文件，比如动态生成的类，只能加载
+        try {
+            return toClassInfo(Class.forName(type.replace('/', '.'), false, classLoader));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Class<?> findLoadedClass(String type, ClassLoader classLoader) {
+        if (findLoadedClassMethod == null) {
+            return null;
+        }
+        String className = type.replace('/', '.');
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+            try {
+                Class<?> clazz = (Class<?>) findLoadedClassMethod.invoke(loader, className);
+                if (clazz != null) {
+                    return clazz;
+                }
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static ClassInfo readClassInfo(String type, ClassLoader classLoader) {
+        String resource = type + ".class";
+        InputStream is = classLoader == null ? ClassLoader.getSystemResourceAsStream(resource)
+                : classLoader.getResourceAsStream(resource);
+        if (is == null) {
+            return null;
+        }
+        try {
+            ClassReader reader = new ClassReader(is);
+            return new ClassInfo(reader.getClassName(), reader.getSuperName(), reader.getInterfaces(),
+                    (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static ClassInfo toClassInfo(Class<?> clazz) {
+        Class<?> superClass = clazz.getSuperclass();
+        Class<?>[] interfaces = clazz.getInterfaces();
+        String[] interfaceNames = new String[interfaces.length];
+        for (int i = 0; i < interfaces.length; ++i) {
+            interfaceNames[i] = internalName(interfaces[i]);
+        }
+        // 和 class 文件一致，接口的 superName 是 Object
+        String superName = superClass != null ? internalName(superClass) : (clazz.isInterface() ? OBJECT : null);
+        return new ClassInfo(internalName(clazz), superName, interfaceNames, clazz.isInterface());
+    }
+
+    private static String internalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    private static Method findLoadedClassMethod() {
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+            method.setAccessible(true);
+            return method;
+        } catch (Throwable e) {
+            // jdk 9 之后没有 --add-opens 时不能访问
+            return null;
+        }
+    }
+}
@@ -9,6 +9,8 @@ import com.alibaba.arthas.deps.org.objectweb.asm.ClassWriter;
  *
  */
 public class ClassLoaderAwareClassWriter extends ClassWriter {
+    private static final ClassHierarchyResolver classHierarchyResolver = new ClassHierarchyResolver();
+
     private ClassLoader classLoader;
 
     public ClassLoaderAwareClassWriter(int flags, ClassLoader loader) {
@@ -28,29 +30,12 @@ public class ClassLoaderAwareClassWriter extends ClassWriter {
      *
      * 通过重写 getCommonSuperClass() 方法，更正获取ClassLoader的方式，改成使用指定ClassLoader的方式进行。
      * 规避了原有代码采用Object.class.getClassLoader()的方式
+     *
+     * 继承关系由 ClassHierarchyResolver 从已加载的类或者 class 文件里读取，并按 ClassLoader 缓存
      */
     @Override
     protected String getCommonSuperClass(String type1, String type2) {
-        Class<?> c, d;
-        try {
-            c = Class.forName(type1.replace('/', '.'), false, classLoader);
-            d = Class.forName(type2.replace('/', '.'), false, classLoader);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        if (c.isAssignableFrom(d)) {
-            return type1;
-        }
-        if (d.isAssignableFrom(c)) {
-            return type2;
-        }
-        if (c.isInterface() || d.isInterface()) {
-            return "java/lang/Object";
-        } else {
-            do {
-                c = c.getSuperclass();
-            } while (!c.isAssignableFrom(d));
-            return c.getName().replace('.', '/');
-        }
+        // 不使用 Class.forName ，避免在 retransform 时触发应用的类加载和 ClassLoader 的锁
+        return classHierarchyResolver.getCommonSuperClass(type1, type2, classLoader);
     }
 }
@@ -40,6 +40,12 @@ public class InterceptorProcessor {
      */
     private ClassLoader classLoader;
 
+    /**
+     * inline 的回调函数，第一次使用时从 class 文件里读取。MethodProcessor.inline 时会 copy 一份，所以可以重复使用
+     */
+    private volatile MethodNode interceptorInlineMethodNode;
+    private volatile MethodNode exceptionHandlerInlineMethodNode;
+
     public InterceptorProcessor(ClassLoader classLoader) {
         this.classLoader = classLoader;
     }
@@ -167,20 +173,28 @@ public class InterceptorProcessor {
 
             // inline callback
             if(interceptorMethodConfig.isInline()) {
-//                Class<?> forName = Class.forName(Type.getObjectType(interceptorMethodConfig.getOwner()).getClassName());
-
-                Class<?> forName = classLoader.loadClass(Type.getObjectType(interceptorMethodConfig.getOwner()).getClassName());
-                MethodNode toInlineMethodNode = AsmUtils.findMethod(AsmUtils.loadClass(forName).methods, interceptorMethodConfig.getMethodName(), interceptorMethodConfig.getMethodDesc());
+                MethodNode toInlineMethodNode = interceptorInlineMethodNode;
+                if (toInlineMethodNode == null) {
+                    toInlineMethodNode = loadInlineMethodNode(interceptorMethodConfig);
+                    interceptorInlineMethodNode = toInlineMethodNode;
+                }
 
-                methodProcessor.inline(interceptorMethodConfig.getOwner(), toInlineMethodNode);
+                // copy 时 MethodNode.accept 会重置 label ，多个线程同时 transform 时要加锁
+                synchronized (toInlineMethodNode) {
+                    methodProcessor.inline(interceptorMethodConfig.getOwner(), toInlineMethodNode);
+                }
             }
             if(exceptionHandlerConfig != null && exceptionHandlerConfig.isInline()) {
-//                Class<?> forName = Class.forName(Type.getObjectType(exceptionHandlerConfig.getOwner()).getClassName());
-
-                Class<?> forName = classLoader.loadClass(Type.getObjectType(exceptionHandlerConfig.getOwner()).getClassName());
-                MethodNode toInlineMethodNode = AsmUtils.findMethod(AsmUtils.loadClass(forName).methods, exceptionHandlerConfig.getMethodName(), exceptionHandlerConfig.getMethodDesc());
+                MethodNode toInlineMethodNode = exceptionHandlerInlineMethodNode;
+                if (toInlineMethodNode == null) {
+                    toInlineMethodNode = loadInlineMethodNode(exceptionHandlerConfig);
+                    exceptionHandlerInlineMethodNode = toInlineMethodNode;
+                }
 
-                methodProcessor.inline(exceptionHandlerConfig.getOwner(), toInlineMethodNode);
+                // copy 时 MethodNode.accept 会重置 label ，多个线程同时 transform 时要加锁
+                synchronized (toInlineMethodNode) {
+                    methodProcessor.inline(exceptionHandlerConfig.getOwner(), toInlineMethodNode);
+                }
             }
 
 //            System.err.println(Decompiler.toString(methodProcessor.getMethodNode()));
@@ -190,6 +204,13 @@ public class InterceptorProcessor {
         return locations;
     }
 
+    private MethodNode loadInlineMethodNode(InterceptorMethodConfig config) throws Exception {
+//        Class<?> forName = Class.forName(Type.getObjectType(config.getOwner()).getClassName());
+
+        Class<?> forName = classLoader.loadClass(Type.getObjectType(config.getOwner()).getClassName());
+        return AsmUtils.findMethod(AsmUtils.loadClass(forName).methods, config.getMethodName(), config.getMethodDesc());
+    }
+
     private void errorHandler(MethodProcessor methodProcessor, InsnList insnList) {
 //      MethodInsnNode printStackTrace = new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/lang/Throwable", "printStackTrace", "()V", false);
 //      insnList.add(printStackTrace);
@@ -242,6 +263,7 @@ public class InterceptorProcessor {
 
     public void setInterceptorMethodConfig(InterceptorMethodConfig interceptorMethodConfig) {
         this.interceptorMethodConfig = interceptorMethodConfig;
+        this.interceptorInlineMethodNode = null;
     }
 
     public InterceptorMethodConfig getExceptionHandlerConfig() {
@@ -250,6 +272,7 @@ public class InterceptorProcessor {
 
     public void setExceptionHandlerConfig(InterceptorMethodConfig exceptionHandlerConfig) {
         this.exceptionHandlerConfig = exceptionHandlerConfig;
+        this.exceptionHandlerInlineMethodNode = null;
     }
 
 }
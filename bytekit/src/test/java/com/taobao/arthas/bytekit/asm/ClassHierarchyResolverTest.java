@@ -0,0 +1,91 @@
+package com.taobao.arthas.bytekit.asm;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClassHierarchyResolverTest {
+
+    static class Base {
+    }
+
+    static class Child1 extends Base implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+
+    static class Child2 extends Base {
+    }
+
+    /**
+     * 测试里不会引用，resolver 只能从 class 文件里读取
+     */
+    static class NotLoaded extends Child2 implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static class RecordClassLoader extends ClassLoader {
+        final List<String> loaded = new ArrayList<String>();
+
+        RecordClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            loaded.add(name);
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    private static String name(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    private static String name(String className) {
+        return className.replace('.', '/');
+    }
+
+    @Test
+    public void testCommonSuperClass() {
+        ClassHierarchyResolver resolver = new ClassHierarchyResolver();
+        ClassLoader loader = ClassHierarchyResolverTest.class.getClassLoader();
+
+        Assert.assertEquals(name(Base.class), resolver.getCommonSuperClass(name(Child1.class), name(Child2.class), loader));
+        Assert.assertEquals(name(Base.class), resolver.getCommonSuperClass(name(Base.class), name(Child1.class), loader));
+        Assert.assertEquals(name(Base.class), resolver.getCommonSuperClass(name(Child1.class), name(Base.class), loader));
+        Assert.assertEquals(name(AbstractList.class),
+                resolver.getCommonSuperClass(name(ArrayList.class), name(LinkedList.class), loader));
+        Assert.assertEquals("java/util/AbstractMap",
+                resolver.getCommonSuperClass(name(HashMap.class), name(TreeMap.class), loader));
+
+        // 接口
+        Assert.assertEquals(name(List.class), resolver.getCommonSuperClass(name(List.class), name(ArrayList.class), loader));
+        Assert.assertEquals(name(Runnable.class),
+                resolver.getCommonSuperClass(name(Child1.class), name(Runnable.class), loader));
+        Assert.assertEquals(name(Object.class),
+                resolver.getCommonSuperClass(name(RandomAccess.class), name(LinkedList.class), loader));
+    }
+
+    @Test
+    public void testNotLoadClass() {
+        ClassHierarchyResolver resolver = new ClassHierarchyResolver();
+        RecordClassLoader loader = new RecordClassLoader(ClassHierarchyResolverTest.class.getClassLoader());
+
+        String notLoaded = name(ClassHierarchyResolverTest.class.getName() + "$NotLoaded");
+        Assert.assertEquals(name(Child2.class), resolver.getCommonSuperClass(notLoaded, name(Child2.class), loader));
+        Assert.assertEquals(name(Base.class), resolver.getCommonSuperClass(notLoaded, name(Child1.class), loader));
+        Assert.assertEquals(name(Serializable.class),
+                resolver.getCommonSuperClass(name(Serializable.class), notLoaded, loader));
+        Assert.assertTrue(loader.loaded.toString(), loader.loaded.isEmpty());
+    }
+}
@@ -47,6 +47,51 @@ public class GlobalOptions {
     )
     public static volatile boolean isBatchReTransform = true;
 
+    /**
+     * 批量增强时每批的类数量<br/>
+     * 一次 retransform 太多的类会导致很长时间的 safepoint 停顿
+     */
+    @Option(level = 1,
+            name = "batch-re-transform-size",
+            summary = "Option to set the number of classes in each reTransform batch",
+            description = "This option sets the max number of classes reTransformed at once in batch mode, default value 100."
+    )
+    public static volatile int batchReTransformSize = 100;
+
+    /**
+     * 批量增强时两批之间的间隔，单位毫秒
+     */
+    @Option(level = 1,
+            name = "batch-re-transform-interval",
+            summary = "Option to set the pause in ms between reTransform batches",
+            description = "This option sets the pause in milliseconds between two reTransform batches, default value 10."
+    )
+    public static volatile long batchReTransformInterval = 10;
+
+    /**
+     * watch/trace 等命令结束后，是否在后台自动恢复被增强的类
+     */
+    @Option(level = 1,
+            name = "auto-reset",
+            summary = "Option to restore enhanced classes automatically after commands end",
+            description = "This option enables to reTransform enhanced classes in background after the last command "
+                    + "using them ends, methods without any listener are restored to the original bytecode, default value true."
+    )
+    public static volatile boolean autoReset = true;
+
+    /**
+     * watch/trace 等命令在被增强的方法里输出的结果，每个 job 最多缓存的数量<br/>
+     * 结果由 arthas 的线程异步写到终端，终端太慢，缓存满了时丢弃最早的结果
+     */
+    @Option(level = 1,
+            name = "async-output-queue-size",
+            summary = "Option to set the max number of pending results of each job",
+            description = "This option sets the max number of results of each job waiting to be written to the terminal, "
+                    + "the earliest results are dropped when the terminal is too slow, "
+                    + "takes effect for new jobs, default value 1024."
+    )
+    public static volatile int asyncOutputQueueSize = 1024;
+
     /**
      * 是否支持json格式化输出<br/>
      * 这个开关打开后，使用json格式输出目标对象，配合-x参数使用
@@ -103,6 +148,62 @@ public class GlobalOptions {
     )
     public static volatile String jobTimeout = "1d";
 
+    /**
+     * tt 命令最多保存的记录数量
+     */
+    @Option(level = 1,
+            name = "tt-max-count",
+            summary = "Option to set the max number of tt time fragments",
+            description = "This option sets the max number of time fragments retained by tt, "
+                    + "the others are evicted by tt-eviction-policy, 0 means no limit, default value 1000."
+    )
+    public static volatile int ttMaxCount = 1000;
+
+    /**
+     * tt 命令保存的记录的估算大小上限，单位 byte
+     */
+    @Option(level = 1,
+            name = "tt-max-size",
+            summary = "Option to set the max estimated bytes of tt time fragments",
+            description = "This option sets the max estimated bytes retained by tt time fragments, "
+                    + "the others are evicted by tt-eviction-policy, 0 means no limit, default value 104857600(100MB)."
+    )
+    public static volatile long ttMaxSize = 100 * 1024 * 1024;
+
+    /**
+     * tt 命令的记录超过上限时的淘汰策略，fifo 或者 lru
+     */
+    @Option(level = 1,
+            name = "tt-eviction-policy",
+            summary = "Option to set the eviction policy of tt time fragments",
+            description = "This option sets which time fragment is evicted first when tt exceeds its limits, "
+                    + "fifo: the earliest recorded, lru: the least recently viewed, default value fifo."
+    )
+    public static volatile String ttEvictionPolicy = "fifo";
+
+    /**
+     * tt 命令是否只保存 target 对象的弱引用
+     */
+    @Option(level = 1,
+            name = "tt-weak-target",
+            summary = "Option to retain tt target objects by weak references",
+            description = "This option enables tt to retain the target objects by weak references, "
+                    + "so they can be garbage collected, but the time fragment can not be replayed then, default value false."
+    )
+    public static volatile boolean ttWeakTarget = false;
+
+    /**
+     * tt --snapshot 保存快照的堆外缓冲区大小，写满后覆盖最早的快照
+     */
+    @Option(level = 1,
+            name = "tt-snapshot-buffer-size",
+            summary = "Option to set the off-heap buffer size in bytes of tt snapshots",
+            description = "This option sets the off-heap buffer size in bytes for tt --snapshot, "
+                    + "the earliest snapshots are overwritten when it is full, "
+                    + "takes effect on the next tt -t --snapshot, default value 64MB."
+    )
+    public static volatile int ttSnapshotBufferSize = 64 * 1024 * 1024;
+
     /**
      * 是否打印parent类里的field
      * @see com.taobao.arthas.core.view.ObjectView
@@ -5,21 +5,37 @@ package com.taobao.arthas.core.advisor;
  */
 public class Advice {
 
-    private final ClassLoader loader;
-    private final Class<?> clazz;
-    private final ArthasMethod method;
-    private final Object target;
-    private final Object[] params;
-    private final Object returnObj;
-    private final Throwable throwExp;
+    private ClassLoader loader;
+    private Class<?> clazz;
+    private ArthasMethod method;
+    private Object target;
+    private Object[] params;
+    private Object returnObj;
+    private Throwable throwExp;
 
     private final static int ACCESS_BEFORE = 1;
     private final static int ACCESS_AFTER_RETUNING = 1 << 1;
     private final static int ACCESS_AFTER_THROWING = 1 << 2;
 
-    private final boolean isBefore;
-    private final boolean isThrow;
-    private final boolean isReturn;
+    private boolean isBefore;
+    private boolean isThrow;
+    private boolean isReturn;
+
+    /**
+     * 每个线程复用的 Advice ，见 {@link #borrowForBefore}
+     */
+    private static final ThreadLocal<Advice> threadLocalAdvice = new ThreadLocal<Advice>() {
+        @Override
+        protected Advice initialValue() {
+            Advice advice = new Advice(null, null, null, null, null, null, null, 0);
+            advice.pooled = true;
+            return advice;
+        }
+    };
+
+    // 是否是线程复用的对象，以及是否正在使用
+    private boolean pooled;
+    private boolean inUse;
 
     public boolean isBefore() {
         return isBefore;
@@ -82,6 +98,18 @@ public class Advice {
             Object returnObj,
             Throwable throwExp,
             int access) {
+        init(loader, clazz, method, target, params, returnObj, throwExp, access);
+    }
+
+    private Advice init(
+            ClassLoader loader,
+            Class<?> clazz,
+            ArthasMethod method,
+            Object target,
+            Object[] params,
+            Object returnObj,
+            Throwable throwExp,
+            int access) {
         this.loader = loader;
         this.clazz = clazz;
         this.method = method;
@@ -92,6 +120,49 @@ public class Advice {
         isBefore = (access & ACCESS_BEFORE) == ACCESS_BEFORE;
         isThrow = (access & ACCESS_AFTER_THROWING) == ACCESS_AFTER_THROWING;
         isReturn = (access & ACCESS_AFTER_RETUNING) == ACCESS_AFTER_RETUNING;
+        return this;
+    }
+
+    /**
+     * <pre>
+     * 取得当前线程复用的 Advice ，用完之后要调用 {@link #release()} ，热路径上不用每次调用都创建 Advice 。
+     * 只能在不会保存 Advice 的地方使用，比如计算条件表达式和 watch 的表达式；需要保存的（比如 tt ）使用 newFor* 。
+     * 同一个线程里复用的 Advice 还没有 release 时（比如表达式里又调用了被增强的方法）返回新的对象。
+     * </pre>
+     */
+    private static Advice borrow(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
+            Object[] params, Object returnObj, Throwable throwExp, int access) {
+        Advice advice = threadLocalAdvice.get();
+        if (advice.inUse) {
+            return new Advice(loader, clazz, method, target, params, returnObj, throwExp, access);
+        }
+        advice.inUse = true;
+        return advice.init(loader, clazz, method, target, params, returnObj, throwExp, access);
+    }
+
+    public static Advice borrowForBefore(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
+            Object[] params) {
+        return borrow(loader, clazz, method, target, params, null, null, ACCESS_BEFORE);
+    }
+
+    public static Advice borrowForAfterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method,
+            Object target, Object[] params, Object returnObj) {
+        return borrow(loader, clazz, method, target, params, returnObj, null, ACCESS_AFTER_RETUNING);
+    }
+
+    public static Advice borrowForAfterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method,
+            Object target, Object[] params, Throwable throwExp) {
+        return borrow(loader, clazz, method, target, params, null, throwExp, ACCESS_AFTER_THROWING);
+    }
+
+    /**
+     * 归还 borrowFor* 取得的 Advice ，清除对参数，返回值等对象的引用。newFor* 创建的 Advice 不受影响
+     */
+    public void release() {
+        if (pooled) {
+            init(null, null, null, null, null, null, null, 0);
+            inUse = false;
+        }
     }
 
     public static Advice newForBefore(ClassLoader loader,
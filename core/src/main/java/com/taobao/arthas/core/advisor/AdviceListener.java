@@ -25,6 +25,7 @@ public interface AdviceListener {
      *
      * @param loader     类加载器
      * @param className  类名
+     * @param methodId   方法id，增强时分配，见 {@link AdviceListenerManager#methodId}
      * @param methodName 方法名
      * @param methodDesc 方法描述
      * @param target     目标类实例
@@ -33,7 +34,7 @@ public interface AdviceListener {
      * @throws Throwable 通知过程出错
      */
     void before(
-            Class<?> clazz, String methodName, String methodDesc,
+            Class<?> clazz, int methodId, String methodName, String methodDesc,
             Object target, Object[] args) throws Throwable;
 
     /**
@@ -41,6 +42,7 @@ public interface AdviceListener {
      *
      * @param loader       类加载器
      * @param className    类名
+     * @param methodId     方法id，增强时分配，见 {@link AdviceListenerManager#methodId}
      * @param methodName   方法名
      * @param methodDesc   方法描述
      * @param target       目标类实例
@@ -51,7 +53,7 @@ public interface AdviceListener {
      * @throws Throwable 通知过程出错
      */
     void afterReturning(
-            Class<?> clazz, String methodName, String methodDesc,
+            Class<?> clazz, int methodId, String methodName, String methodDesc,
             Object target, Object[] args,
             Object returnObject) throws Throwable;
 
@@ -60,6 +62,7 @@ public interface AdviceListener {
      *
      * @param loader     类加载器
      * @param className  类名
+     * @param methodId   方法id，增强时分配，见 {@link AdviceListenerManager#methodId}
      * @param methodName 方法名
      * @param methodDesc 方法描述
      * @param target     目标类实例
@@ -69,7 +72,7 @@ public interface AdviceListener {
      * @throws Throwable 通知过程出错
      */
     void afterThrowing(
-            Class<?> clazz, String methodName, String methodDesc,
+            Class<?> clazz, int methodId, String methodName, String methodDesc,
             Object target, Object[] args,
             Throwable throwable) throws Throwable;
 
@@ -2,6 +2,8 @@ package com.taobao.arthas.core.advisor;
 
 import java.util.concurrent.atomic.AtomicLong;
 
+import com.taobao.arthas.core.command.express.CompiledExpress;
+import com.taobao.arthas.core.command.express.ExpressCompiler;
 import com.taobao.arthas.core.command.express.ExpressException;
 import com.taobao.arthas.core.command.express.ExpressFactory;
 import com.taobao.arthas.core.shell.command.CommandProcess;
@@ -19,6 +21,10 @@ public abstract class AdviceListenerAdapter implements AdviceListener, ProcessAw
     private static final  AtomicLong ID_GENERATOR = new AtomicLong(0);
     private Process process;
     private long id = ID_GENERATOR.addAndGet(1);
+    /**
+     * 为 null 时处理所有调用
+     */
+    private volatile AdviceSampler sampler;
 
     @Override
     public long id() {
@@ -43,24 +49,53 @@ public abstract class AdviceListenerAdapter implements AdviceListener, ProcessAw
         this.process = process;
     }
 
+    public AdviceSampler getSampler() {
+        return sampler;
+    }
+
+    public void setSampler(AdviceSampler sampler) {
+        this.sampler = sampler;
+    }
+
+    /**
+     * 当前线程正在执行的调用是否没有被抽中，trace 里调用点的回调用来跳过没被抽中的调用
+     */
+    protected boolean isSampledOut() {
+        AdviceSampler sampler = this.sampler;
+        return sampler != null && !sampler.isSampled();
+    }
+
     @Override
-    final public void before(Class<?> clazz, String methodName, String methodDesc, Object target, Object[] args)
-            throws Throwable {
-        before(clazz.getClassLoader(), clazz, new ArthasMethod(clazz, methodName, methodDesc), target, args);
+    final public void before(Class<?> clazz, int methodId, String methodName, String methodDesc, Object target,
+            Object[] args) throws Throwable {
+        AdviceSampler sampler = this.sampler;
+        if (sampler != null && !sampler.enter()) {
+            return;
+        }
+        ArthasMethod method = AdviceListenerManager.arthasMethod(clazz, methodId, methodName, methodDesc);
+        before(clazz.getClassLoader(), clazz, method, target, args);
     }
 
     @Override
-    final public void afterReturning(Class<?> clazz, String methodName, String methodDesc, Object target, Object[] args,
-            Object returnObject) throws Throwable {
-        afterReturning(clazz.getClassLoader(), clazz, new ArthasMethod(clazz, methodName, methodDesc), target, args,
-                returnObject);
+    final public void afterReturning(Class<?> clazz, int methodId, String methodName, String methodDesc,
+            Object target, Object[] args, Object returnObject) throws Throwable {
+        AdviceSampler sampler = this.sampler;
+        if (sampler != null && !sampler.exit()) {
+            return;
+        }
+        ArthasMethod method = AdviceListenerManager.arthasMethod(clazz, methodId, methodName, methodDesc);
+        afterReturning(clazz.getClassLoader(), clazz, method, target, args, returnObject);
     }
 
     @Override
-    final public void afterThrowing(Class<?> clazz, String methodName, String methodDesc, Object target, Object[] args,
-            Throwable throwable) throws Throwable {
-        afterThrowing(clazz.getClassLoader(), clazz, new ArthasMethod(clazz, methodName, methodDesc), target, args,
-                throwable);
+    final public void afterThrowing(Class<?> clazz, int methodId, String methodName, String methodDesc,
+            Object target, Object[] args, Throwable throwable) throws Throwable {
+        AdviceSampler sampler = this.sampler;
+        if (sampler != null && !sampler.exit()) {
+            return;
+        }
+        ArthasMethod method = AdviceListenerManager.arthasMethod(clazz, methodId, methodName, methodDesc);
+        afterThrowing(clazz.getClassLoader(), clazz, method, target, args, throwable);
     }
 
     /**
@@ -104,6 +139,14 @@ public abstract class AdviceListenerAdapter implements AdviceListener, ProcessAw
     public abstract void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target,
             Object[] args, Throwable throwable) throws Throwable;
 
+    /**
+     * listener 需要 spy 函数传递的数据，默认需要参数和返回值。只需要耗时之类的 listener 可以覆盖，
+     * 这样被增强的方法不会创建参数数组和装箱返回值
+     */
+    public AdviceRequirement getAdviceRequirement() {
+        return AdviceRequirement.ALL;
+    }
+
     /**
      * 判断条件是否满足，满足的情况下需要输出结果
      * 
@@ -113,11 +156,23 @@ public abstract class AdviceListenerAdapter implements AdviceListener, ProcessAw
      * @return true 如果条件表达式满足
      */
     protected boolean isConditionMet(String conditionExpress, Advice advice, double cost) throws ExpressException {
-        return StringUtils.isEmpty(conditionExpress)
-                || ExpressFactory.threadLocalExpress(advice).bind(Constants.COST_VARIABLE, cost).is(conditionExpress);
+        if (StringUtils.isEmpty(conditionExpress)) {
+            return true;
+        }
+        // 常用的表达式预先解析，不需要 OGNL
+        CompiledExpress compiledExpress = ExpressCompiler.compile(conditionExpress);
+        if (compiledExpress != null) {
+            Object ret = compiledExpress.get(advice, cost);
+            return null != ret && ret instanceof Boolean && (Boolean) ret;
+        }
+        return ExpressFactory.threadLocalExpress(advice).bind(Constants.COST_VARIABLE, cost).is(conditionExpress);
     }
 
     protected Object getExpressionResult(String express, Advice advice, double cost) throws ExpressException {
+        CompiledExpress compiledExpress = ExpressCompiler.compile(express);
+        if (compiledExpress != null) {
+            return compiledExpress.get(advice, cost);
+        }
         return ExpressFactory.threadLocalExpress(advice).bind(Constants.COST_VARIABLE, cost).get(express);
     }
 
@@ -1,10 +1,13 @@
 package com.taobao.arthas.core.advisor;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
@@ -53,39 +56,20 @@ import com.taobao.arthas.core.shell.system.ProcessAware;
 public class AdviceListenerManager {
     private static final Logger logger = LoggerFactory.getLogger(AdviceListenerManager.class);
     private static final FakeBootstrapClassLoader FAKEBOOTSTRAPCLASSLOADER = new FakeBootstrapClassLoader();
+    private static final AdviceListener[] EMPTY_LISTENERS = new AdviceListener[0];
 
     static {
-        // 清理失效的 AdviceListener
+        // 清理失效的 AdviceListener 。正常情况下 process 结束时已经调用 unRegisterAdviceListener 移除了，这里只是兜底
         ArthasBootstrap.getInstance().getScheduledExecutorService().scheduleWithFixedDelay(new Runnable() {
             @Override
             public void run() {
                 try {
                     if (adviceListenerMap != null) {
+                        reclaimSites();
                         for (Entry<ClassLoader, ClassLoaderAdviceListenerManager> entry : adviceListenerMap.entrySet()) {
                             ClassLoaderAdviceListenerManager adviceListenerManager = entry.getValue();
-                            synchronized (adviceListenerManager) {
-                                for (Entry<String, List<AdviceListener>> eee : adviceListenerManager.map.entrySet()) {
-                                    List<AdviceListener> listeners = eee.getValue();
-                                    List<AdviceListener> newResult = new ArrayList<AdviceListener>();
-                                    for (AdviceListener listener : listeners) {
-                                        if (listener instanceof ProcessAware) {
-                                            ProcessAware processAware = (ProcessAware) listener;
-                                            Process process = processAware.getProcess();
-                                            if (process == null) {
-                                                continue;
-                                            }
-                                            ExecStatus status = process.status();
-                                            if (!status.equals(ExecStatus.TERMINATED)) {
-                                                newResult.add(listener);
-                                            }
-                                        }
-                                    }
-
-                                    if (newResult.size() != listeners.size()) {
-                                        adviceListenerManager.map.put(eee.getKey(), newResult);
-                                    }
-
-                                }
+                            for (ListenerSlot slot : adviceListenerManager.slots.values()) {
+                                slot.removeTerminated();
                             }
                         }
                     }
@@ -102,128 +86,351 @@ public class AdviceListenerManager {
 
     static private ConcurrentWeakKeyHashMap<ClassLoader, ClassLoaderAdviceListenerManager> adviceListenerMap = new ConcurrentWeakKeyHashMap<ClassLoader, ClassLoaderAdviceListenerManager>();
 
-    static class ClassLoaderAdviceListenerManager {
-        private ConcurrentHashMap<String, List<AdviceListener>> map = new ConcurrentHashMap<String, List<AdviceListener>>();
+    /**
+     * id -> AdviceSite ，id 在增强时分配，同一个 ClassLoader 里的同一个方法/调用点，多次增强也使用同一个 id 。SpyImpl 里直接用 id 查数组。
+     * ClassLoader 被回收之后，它的代码不会再执行，对应的 id 会被回收，分配给新的调用点。
+     */
+    private static volatile AdviceSite[] sites = new AdviceSite[1024];
+    private static int nextId = 0;
+    private static int[] freeIds = new int[16];
+    private static int freeIdCount = 0;
+    private static final Object ID_LOCK = new Object();
+
+    /**
+     * 同一个 key 下的 listener ，用不可变数组保存。注册/注销时 copy-on-write ，再用 CAS 原子发布新数组；
+     * SpyImpl 里遍历时不需要加锁，也不会创建 Iterator ，不会有 ConcurrentModificationException 。
+     */
+    static class ListenerSlot {
+        private static final AtomicReferenceFieldUpdater<ListenerSlot, AdviceListener[]> LISTENERS_UPDATER = AtomicReferenceFieldUpdater
+                .newUpdater(ListenerSlot.class, AdviceListener[].class, "listeners");
+
+        private volatile AdviceListener[] listeners = EMPTY_LISTENERS;
+
+        // 方法的 ArthasMethod 缓存，只在有 listener 时保留，listener 都移除之后不再引用被增强的类
+        private volatile ArthasMethod arthasMethod;
+
+        AdviceListener[] listeners() {
+            return listeners;
+        }
 
-        private String key(String className, String methodName, String methodDesc) {
-            return className + methodName + methodDesc;
+        ArthasMethod arthasMethod(Class<?> clazz, int methodId, String methodName, String methodDesc) {
+            ArthasMethod method = arthasMethod;
+            if (method == null || method.getClazz() != clazz) {
+                method = new ArthasMethod(clazz, methodId, methodName, methodDesc);
+                if (listeners.length > 0) {
+                    arthasMethod = method;
+                }
+            }
+            return method;
         }
 
-        private String keyForTrace(String className, String owner, String methodName, String methodDesc) {
-            return className + owner + methodName + methodDesc;
+        void add(AdviceListener listener) {
+            for (;;) {
+                AdviceListener[] current = listeners;
+                for (AdviceListener l : current) {
+                    if (l == listener) {
+                        return;
+                    }
+                }
+                AdviceListener[] newListeners = Arrays.copyOf(current, current.length + 1);
+                newListeners[current.length] = listener;
+                if (LISTENERS_UPDATER.compareAndSet(this, current, newListeners)) {
+                    return;
+                }
+            }
         }
 
-        public void registerAdviceListener(String className, String methodName, String methodDesc,
-                AdviceListener listener) {
-            synchronized (this) {
-                className = className.replace('/', '.');
-                String key = key(className, methodName, methodDesc);
+        void remove(AdviceListener listener) {
+            for (;;) {
+                AdviceListener[] current = listeners;
+                int index = -1;
+                for (int i = 0; i < current.length; ++i) {
+                    if (current[i] == listener) {
+                        index = i;
+                        break;
+                    }
+                }
+                if (index < 0) {
+                    return;
+                }
+                AdviceListener[] newListeners = EMPTY_LISTENERS;
+                if (current.length > 1) {
+                    newListeners = new AdviceListener[current.length - 1];
+                    System.arraycopy(current, 0, newListeners, 0, index);
+                    System.arraycopy(current, index + 1, newListeners, index, current.length - index - 1);
+                }
+                if (LISTENERS_UPDATER.compareAndSet(this, current, newListeners)) {
+                    if (newListeners.length == 0) {
+                        arthasMethod = null;
+                    }
+                    return;
+                }
+            }
+        }
 
-                List<AdviceListener> listeners = map.get(key);
-                if (listeners == null) {
-                    listeners = new ArrayList<AdviceListener>();
-                    map.put(key, listeners);
+        void removeTerminated() {
+            for (;;) {
+                AdviceListener[] current = listeners;
+                if (current.length == 0) {
+                    arthasMethod = null;
+                    return;
+                }
+                List<AdviceListener> newResult = new ArrayList<AdviceListener>(current.length);
+                for (AdviceListener listener : current) {
+                    if (listener instanceof ProcessAware) {
+                        ProcessAware processAware = (ProcessAware) listener;
+                        Process process = processAware.getProcess();
+                        if (process == null) {
+                            continue;
+                        }
+                        ExecStatus status = process.status();
+                        if (!status.equals(ExecStatus.TERMINATED)) {
+                            newResult.add(listener);
+                        }
+                    }
+                }
+                if (newResult.size() == current.length) {
+                    return;
                 }
-                if (!listeners.contains(listener)) {
-                    listeners.add(listener);
+                AdviceListener[] newListeners = newResult.isEmpty() ? EMPTY_LISTENERS
+                        : newResult.toArray(new AdviceListener[newResult.size()]);
+                if (LISTENERS_UPDATER.compareAndSet(this, current, newListeners)) {
+                    return;
                 }
             }
         }
+    }
 
-        public List<AdviceListener> queryAdviceListeners(String className, String methodName, String methodDesc) {
-            className = className.replace('/', '.');
-            String key = key(className, methodName, methodDesc);
+    /**
+     * 一个被织入的 spy 调用点。方法的 enter/exit/exception 共用一个 AdviceSite ，trace 的每个调用点各自一个 AdviceSite
+     * ，但相同 owner/method 的调用点共用同一组 listener 。
+     */
+    public static class AdviceSite {
+        private final WeakReference<ClassLoader> classLoader;
+        private final ListenerSlot slot;
+        private final String owner;
+        private final String methodName;
+        private final String methodDesc;
+        private final int line;
+
+        AdviceSite(ClassLoader classLoader, ListenerSlot slot, String owner, String methodName, String methodDesc,
+                int line) {
+            // 只保存 ClassLoader 的弱引用，不影响 ClassLoader 的回收
+            this.classLoader = new WeakReference<ClassLoader>(classLoader);
+            this.slot = slot;
+            this.owner = owner;
+            this.methodName = methodName;
+            this.methodDesc = methodDesc;
+            this.line = line;
+        }
 
-            List<AdviceListener> listeners = map.get(key);
+        public AdviceListener[] listeners() {
+            return slot.listeners();
+        }
 
-            return listeners;
+        /**
+         * 方法的 ArthasMethod ，有 listener 时缓存，避免每次调用都创建
+         */
+        ArthasMethod arthasMethod(Class<?> clazz, int methodId) {
+            return slot.arthasMethod(clazz, methodId, methodName, methodDesc);
         }
 
-        public void registerTraceAdviceListener(String className, String owner, String methodName, String methodDesc,
-                AdviceListener listener) {
+        /**
+         * trace 调用点的 owner ，方法的 AdviceSite 为 null
+         */
+        public String getOwner() {
+            return owner;
+        }
 
-            className = className.replace('/', '.');
-            String key = keyForTrace(className, owner, methodName, methodDesc);
+        public String getMethodName() {
+            return methodName;
+        }
 
-            List<AdviceListener> listeners = map.get(key);
-            if (listeners == null) {
-                listeners = new ArrayList<AdviceListener>();
-                map.put(key, listeners);
-            }
-            if (!listeners.contains(listener)) {
-                listeners.add(listener);
-            }
+        public String getMethodDesc() {
+            return methodDesc;
         }
 
-        public List<AdviceListener> queryTraceAdviceListeners(String className, String owner, String methodName,
-                String methodDesc) {
-            className = className.replace('/', '.');
-            String key = keyForTrace(className, owner, methodName, methodDesc);
+        /**
+         * trace 调用点的行号，获取不到时为 -1
+         */
+        public int getLine() {
+            return line;
+        }
+    }
 
-            List<AdviceListener> listeners = map.get(key);
+    static class ClassLoaderAdviceListenerManager {
+        private final WeakReference<ClassLoader> classLoader;
+        private ConcurrentHashMap<String, ListenerSlot> slots = new ConcurrentHashMap<String, ListenerSlot>();
+        private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
 
-            return listeners;
+        ClassLoaderAdviceListenerManager(ClassLoader classLoader) {
+            this.classLoader = new WeakReference<ClassLoader>(classLoader);
         }
-    }
 
-    public static void registerAdviceListener(ClassLoader classLoader, String className, String methodName,
-            String methodDesc, AdviceListener listener) {
-        classLoader = wrap(classLoader);
-        className = className.replace('/', '.');
+        private String key(String className, String methodName, String methodDesc) {
+            return className + '|' + methodName + '|' + methodDesc;
+        }
 
-        ClassLoaderAdviceListenerManager manager = adviceListenerMap.get(classLoader);
+        private String keyForTrace(String className, String owner, String methodName, String methodDesc) {
+            return className + '|' + owner + '|' + methodName + '|' + methodDesc;
+        }
 
-        if (manager == null) {
-            manager = new ClassLoaderAdviceListenerManager();
-            adviceListenerMap.put(classLoader, manager);
+        private ListenerSlot slot(String key) {
+            ListenerSlot slot = slots.get(key);
+            if (slot == null) {
+                slot = new ListenerSlot();
+                ListenerSlot old = slots.putIfAbsent(key, slot);
+                if (old != null) {
+                    slot = old;
+                }
+            }
+            return slot;
+        }
+
+        public void registerAdviceListener(String className, String methodName, String methodDesc,
+                AdviceListener listener) {
+            slot(key(className, methodName, methodDesc)).add(listener);
+        }
+
+        public void registerTraceAdviceListener(String className, String owner, String methodName, String methodDesc,
+                AdviceListener listener) {
+            slot(keyForTrace(className, owner, methodName, methodDesc)).add(listener);
+        }
+
+        public int methodId(String className, String methodName, String methodDesc) {
+            String key = key(className, methodName, methodDesc);
+            Integer id = ids.get(key);
+            if (id != null) {
+                return id;
+            }
+            return allocateId(key, slot(key), null, methodName, methodDesc, -1);
         }
-        manager.registerAdviceListener(className, methodName, methodDesc, listener);
-    }
 
-    public static void updateAdviceListeners() {
+        public int invokeId(String className, String owner, String methodName, String methodDesc, int line) {
+            String slotKey = keyForTrace(className, owner, methodName, methodDesc);
+            String key = slotKey + '|' + line;
+            Integer id = ids.get(key);
+            if (id != null) {
+                return id;
+            }
+            return allocateId(key, slot(slotKey), owner, methodName, methodDesc, line);
+        }
 
+        private int allocateId(String key, ListenerSlot slot, String owner, String methodName, String methodDesc,
+                int line) {
+            synchronized (ID_LOCK) {
+                Integer id = ids.get(key);
+                if (id != null) {
+                    return id;
+                }
+                int newId = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+                AdviceSite[] current = sites;
+                if (newId >= current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                }
+                current[newId] = new AdviceSite(classLoader.get(), slot, owner, methodName, methodDesc, line);
+                // volatile write ，保证 SpyImpl 能看到新的 AdviceSite
+                sites = current;
+                ids.put(key, newId);
+                return newId;
+            }
+        }
     }
 
-    public static List<AdviceListener> queryAdviceListeners(ClassLoader classLoader, String className,
-            String methodName, String methodDesc) {
+    private static ClassLoaderAdviceListenerManager manager(ClassLoader classLoader) {
         classLoader = wrap(classLoader);
-        className = className.replace('/', '.');
         ClassLoaderAdviceListenerManager manager = adviceListenerMap.get(classLoader);
-
-        if (manager != null) {
-            return manager.queryAdviceListeners(className, methodName, methodDesc);
+        if (manager == null) {
+            manager = new ClassLoaderAdviceListenerManager(classLoader);
+            ClassLoaderAdviceListenerManager old = adviceListenerMap.putIfAbsent(classLoader, manager);
+            if (old != null) {
+                manager = old;
+            }
         }
+        return manager;
+    }
 
-        return null;
+    public static void registerAdviceListener(ClassLoader classLoader, String className, String methodName,
+            String methodDesc, AdviceListener listener) {
+        className = className.replace('/', '.');
+        manager(classLoader).registerAdviceListener(className, methodName, methodDesc, listener);
     }
 
     public static void registerTraceAdviceListener(ClassLoader classLoader, String className, String owner,
             String methodName, String methodDesc, AdviceListener listener) {
-        classLoader = wrap(classLoader);
         className = className.replace('/', '.');
+        manager(classLoader).registerTraceAdviceListener(className, owner, methodName, methodDesc, listener);
+    }
 
-        ClassLoaderAdviceListenerManager manager = adviceListenerMap.get(classLoader);
+    /**
+     * 取得增强的方法对应的 ArthasMethod ，同一个方法有 listener 时返回同一个对象
+     */
+    static ArthasMethod arthasMethod(Class<?> clazz, int methodId, String methodName, String methodDesc) {
+        AdviceSite site = site(methodId);
+        if (site == null) {
+            return new ArthasMethod(clazz, methodId, methodName, methodDesc);
+        }
+        return site.arthasMethod(clazz, methodId);
+    }
 
-        if (manager == null) {
-            manager = new ClassLoaderAdviceListenerManager();
-            adviceListenerMap.put(classLoader, manager);
+    /**
+     * 从所有的 ListenerSlot 里移除 listener ，在 listener 对应的 process 结束时调用，移除之后 SpyImpl 里马上就看不到这个 listener 了
+     */
+    public static void unRegisterAdviceListener(AdviceListener listener) {
+        for (Entry<ClassLoader, ClassLoaderAdviceListenerManager> entry : adviceListenerMap.entrySet()) {
+            for (ListenerSlot slot : entry.getValue().slots.values()) {
+                slot.remove(listener);
+            }
         }
-        manager.registerTraceAdviceListener(className, owner, methodName, methodDesc, listener);
     }
 
-    public static List<AdviceListener> queryTraceAdviceListeners(ClassLoader classLoader, String className,
-            String owner, String methodName, String methodDesc) {
-        classLoader = wrap(classLoader);
+    /**
+     * 获取方法对应的 id ，不存在时分配一个新的 id 。在增强时调用。
+     */
+    public static int methodId(ClassLoader classLoader, String className, String methodName, String methodDesc) {
         className = className.replace('/', '.');
-        ClassLoaderAdviceListenerManager manager = adviceListenerMap.get(classLoader);
+        return manager(classLoader).methodId(className, methodName, methodDesc);
+    }
 
-        if (manager != null) {
-            return manager.queryTraceAdviceListeners(className, owner, methodName, methodDesc);
-        }
+    /**
+     * 获取 trace 调用点对应的 id ，不存在时分配一个新的 id 。在增强时调用。
+     */
+    public static int invokeId(ClassLoader classLoader, String className, String owner, String methodName,
+            String methodDesc, int line) {
+        className = className.replace('/', '.');
+        return manager(classLoader).invokeId(className, owner, methodName, methodDesc, line);
+    }
 
+    /**
+     * 按 id 查找 AdviceSite ，这个函数在 spy 的热路径上，不能有锁和内存分配
+     */
+    public static AdviceSite site(int id) {
+        AdviceSite[] current = sites;
+        if (id >= 0 && id < current.length) {
+            return current[id];
+        }
         return null;
     }
 
+    /**
+     * 回收已经被回收的 ClassLoader 的 id ，同时释放 AdviceSite 里的方法信息
+     */
+    static void reclaimSites() {
+        synchronized (ID_LOCK) {
+            AdviceSite[] current = sites;
+            for (int i = 0; i < nextId; ++i) {
+                AdviceSite site = current[i];
+                if (site != null && site.classLoader.get() == null) {
+                    current[i] = null;
+                    if (freeIdCount == freeIds.length) {
+                        freeIds = Arrays.copyOf(freeIds, freeIdCount * 2);
+                    }
+                    freeIds[freeIdCount++] = i;
+                }
+            }
+        }
+    }
+
     private static ClassLoader wrap(ClassLoader classLoader) {
         if (classLoader != null) {
             return classLoader;
@@ -0,0 +1,72 @@
+package com.taobao.arthas.core.advisor;
+
+import com.taobao.arthas.core.command.express.CompiledExpress;
+import com.taobao.arthas.core.command.express.ExpressCompiler;
+import com.taobao.arthas.core.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <pre>
+ * listener 需要 spy 函数传递的数据。Enhancer 按需要选择插入的拦截器，不需要的数据不会在被增强的方法里创建：
+ * 不需要参数时不创建 Object[] args ，不需要返回值时不装箱基本类型的返回值。
+ *
+ * 同一个方法被多个命令增强时只插入一次 spy 函数，插入时按所有匹配这个方法的 Enhancer 需要的最大值选择拦截器，
+ * 见 {@link TransformerManager#getAdviceRequirement} 。
+ * </pre>
+ */
+public enum AdviceRequirement {
+    /**
+     * 只需要调用的时机，参数和返回值都为 null ，比如 monitor
+     */
+    TIMING,
+    /**
+     * 需要参数，返回值为 null
+     */
+    ARGS,
+    /**
+     * 需要参数和返回值
+     */
+    ALL;
+
+    /**
+     * TIMING 的拦截器也会传递的 advice 属性
+     */
+    private static final Set<String> TIMING_PROPERTIES = new HashSet<String>(Arrays.asList("target", "clazz",
+            "method", "throwExp", "loader", "isBefore", "isReturn", "isThrow"));
+
+    /**
+     * 按表达式的语法树里在 advice 上访问的属性判断需要的数据。表达式都为空，或者没有访问 params/returnObj 时只需要调用的时机。
+     * {@link ExpressCompiler} 解析不了的表达式（方法调用，#this，#root 等）和不认识的属性都按需要全部数据处理
+     */
+    public static AdviceRequirement of(String... expresses) {
+        AdviceRequirement result = TIMING;
+        for (String express : expresses) {
+            if (StringUtils.isEmpty(express)) {
+                continue;
+            }
+            CompiledExpress compiled = ExpressCompiler.compile(express);
+            if (compiled == null) {
+                return ALL;
+            }
+            for (String property : compiled.getRootProperties()) {
+                if ("params".equals(property)) {
+                    result = ARGS;
+                } else if (!TIMING_PROPERTIES.contains(property)) {
+                    return ALL;
+                }
+            }
+        }
+        return result;
+    }
+
+    public AdviceRequirement max(AdviceRequirement other) {
+        return this.compareTo(other) >= 0 ? this : other;
+    }
+
+    public AdviceRequirement min(AdviceRequirement other) {
+        return this.compareTo(other) <= 0 ? this : other;
+    }
+}
@@ -0,0 +1,114 @@
+package com.taobao.arthas.core.advisor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * 抽样决定一次方法调用是否交给 AdviceListener 处理。在创建 ArthasMethod/Advice 、计算条件表达式之前判断，
+ * 没有被抽中的调用只有 ThreadLocal 里的计数开销。
+ *
+ * sampleRate   : 每个线程每 N 次调用抽取 1 次
+ * maxPerSecond : 所有线程加起来每秒最多抽取多少次
+ *
+ * 只在线程最外层的调用上做决定，被抽中的调用里嵌套的调用（递归，trace 里被增强的子方法）全部处理，
+ * 没被抽中的调用里嵌套的调用全部跳过，保证 before/after 成对，trace 的调用树完整。
+ * </pre>
+ */
+public class AdviceSampler {
+
+    private final int sampleRate;
+    private final int maxPerSecond;
+
+    private final AtomicLong currentSecond = new AtomicLong();
+    private final AtomicInteger permits = new AtomicInteger();
+
+    private final ThreadLocal<State> stateRef = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State();
+        }
+    };
+
+    /**
+     * @param sampleRate   每 N 次调用抽取 1 次，小于等于 1 时不按比例抽样
+     * @param maxPerSecond 每秒最多抽取的次数，小于等于 0 时不限制
+     */
+    public AdviceSampler(int sampleRate, int maxPerSecond) {
+        this.sampleRate = sampleRate;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * 方法进入时调用
+     *
+     * @return true 如果这次调用需要处理
+     */
+    public boolean enter() {
+        State state = stateRef.get();
+        if (state.depth++ == 0) {
+            state.sampled = sample(state);
+        }
+        return state.sampled;
+    }
+
+    /**
+     * 方法返回或者抛出异常时调用
+     *
+     * @return true 如果这次调用需要处理
+     */
+    public boolean exit() {
+        State state = stateRef.get();
+        if (state.depth == 0) {
+            // 监听器注册时方法已经在执行中，没有对应的 enter ，和没有抽样时的行为保持一致
+            return true;
+        }
+        state.depth--;
+        return state.sampled;
+    }
+
+    /**
+     * 当前线程正在执行的调用是否被抽中，用于 trace 里调用点的回调
+     */
+    public boolean isSampled() {
+        State state = stateRef.get();
+        return state.depth == 0 || state.sampled;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getMaxPerSecond() {
+        return maxPerSecond;
+    }
+
+    private boolean sample(State state) {
+        if (sampleRate > 1 && ++state.count < sampleRate) {
+            return false;
+        }
+        state.count = 0;
+        if (maxPerSecond > 0 && !tryAcquire()) {
+            return false;
+        }
+        return true;
+    }
+
+    private boolean tryAcquire() {
+        long second = System.currentTimeMillis() / 1000;
+        long current = currentSecond.get();
+        if (second != current && currentSecond.compareAndSet(current, second)) {
+            permits.set(0);
+        }
+        return permits.incrementAndGet() <= maxPerSecond;
+    }
+
+    private static class State {
+        // 当前线程上这个监听器的调用嵌套深度
+        int depth;
+        // 最外层调用是否被抽中
+        boolean sampled;
+        // 距离上次抽中的调用次数
+        int count;
+    }
+}
@@ -46,6 +46,7 @@ public class AdviceWeaver {
         if (null != listener) {
             // 注销监听器
             advices.remove(listener.id());
+            AdviceListenerManager.unRegisterAdviceListener(listener);
 
             // 触发监听器销毁
             listener.destroy();
@@ -17,6 +17,7 @@ import com.taobao.arthas.core.util.StringUtils;
  */
 public class ArthasMethod {
     private final Class<?> clazz;
+    private final int methodId;
     private final String methodName;
     private final String methodDesc;
 
@@ -110,6 +111,10 @@ public class ArthasMethod {
         return null != loader ? loader : ArthasMethod.class.getClassLoader();
     }
 
+    Class<?> getClazz() {
+        return this.clazz;
+    }
+
     /**
      * 获取方法名称
      *
@@ -119,6 +124,15 @@ public class ArthasMethod {
         return this.methodName;
     }
 
+    /**
+     * 获取增强时分配的方法id，不是通过增强回调创建时为 -1
+     *
+     * @return 返回方法id
+     */
+    public int getMethodId() {
+        return this.methodId;
+    }
+
     @Override
     public String toString() {
         initMethod();
@@ -161,7 +175,12 @@ public class ArthasMethod {
     }
 
     public ArthasMethod(Class<?> clazz, String methodName, String methodDesc) {
+        this(clazz, -1, methodName, methodDesc);
+    }
+
+    public ArthasMethod(Class<?> clazz, int methodId, String methodName, String methodDesc) {
         this.clazz = clazz;
+        this.methodId = methodId;
         this.methodName = methodName;
         this.methodDesc = methodDesc;
     }
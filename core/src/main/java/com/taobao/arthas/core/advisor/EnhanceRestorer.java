@@ -0,0 +1,209 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.alibaba.arthas.deps.org.slf4j.Logger;
+import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.GlobalOptions;
+
+/**
+ * <pre>
+ * watch/trace 等命令结束后，在后台恢复被增强的类，避免忘记 reset 时 spy 函数一直留在字节码里。
+ *
+ * 每个类记录有多少个还在运行的 Enhancer 增强了它（引用计数）。Enhancer 被移除时它增强过的类放入待恢复队列，
+ * 后台线程稍等一会，把同一时间结束的命令的类合并起来，再按 batch-re-transform-size 分批 retransform 。
+ *
+ * retransform 总是从原始的字节码开始，只有还在运行的 Enhancer 会重新插入 spy 函数：
+ * 引用计数为 0 的类恢复为原始字节码；其它的类只保留仍然有 listener 的方法的增强，
+ * 已经没有 listener 的方法也恢复为原始字节码。
+ * </pre>
+ */
+public class EnhanceRestorer {
+    private static final Logger logger = LoggerFactory.getLogger(EnhanceRestorer.class);
+
+    /**
+     * 命令结束后等待的时间，合并同时结束的命令，比如会话关闭时
+     */
+    static final long DELAY_MILLIS = 200;
+
+    private final Instrumentation instrumentation;
+
+    // 类被还在运行的 Enhancer 引用的次数
+    private final Map<Class<?>, Integer> refCounts = new WeakHashMap<Class<?>, Integer>();
+    // 等待恢复的类
+    private final Map<Class<?>, Boolean> pendingClasses = new WeakHashMap<Class<?>, Boolean>();
+
+    private Thread restoreThread;
+    private volatile boolean destroyed;
+
+    public EnhanceRestorer(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * 一个 Enhancer 第一次增强这个类时调用
+     */
+    public synchronized void retain(Class<?> clazz) {
+        Integer count = refCounts.get(clazz);
+        refCounts.put(clazz, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * retransform 失败，增强没有生效时撤销 {@link #retain(Class)} ，不需要恢复
+     */
+    public synchronized void rollback(Class<?> clazz) {
+        decrease(clazz);
+    }
+
+    /**
+     * Enhancer 被移除时调用
+     *
+     * @param classes 这个 Enhancer 增强过的类
+     * @param restore 是否在后台恢复这些类
+     */
+    public synchronized void release(Collection<Class<?>> classes, boolean restore) {
+        for (Class<?> clazz : classes) {
+            decrease(clazz);
+            if (restore) {
+                pendingClasses.put(clazz, Boolean.TRUE);
+            }
+        }
+        if (restore && !classes.isEmpty() && !destroyed) {
+            startThreadIfNecessary();
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * @return 类被还在运行的 Enhancer 引用的次数
+     */
+    public synchronized int getRefCount(Class<?> clazz) {
+        Integer count = refCounts.get(clazz);
+        return count == null ? 0 : count;
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingClasses.size();
+    }
+
+    /**
+     * 马上恢复所有等待中的类，后台线程和测试里调用
+     *
+     * @return retransform 成功的类的数量
+     */
+    int restorePending() {
+        List<Class<?>> classes;
+        synchronized (this) {
+            classes = new ArrayList<Class<?>>(pendingClasses.keySet());
+            pendingClasses.clear();
+        }
+        if (classes.isEmpty()) {
+            return 0;
+        }
+
+        final int batchSize = GlobalOptions.isBatchReTransform ? Math.max(1, GlobalOptions.batchReTransformSize) : 1;
+        final long interval = GlobalOptions.batchReTransformInterval;
+
+        int count = 0;
+        for (int from = 0; from < classes.size() && !destroyed; from += batchSize) {
+            if (from > 0 && interval > 0) {
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            List<Class<?>> batch = classes.subList(from, Math.min(from + batchSize, classes.size()));
+            count += retransform(batch);
+
+            List<Class<?>> restored = new ArrayList<Class<?>>(batch.size());
+            synchronized (this) {
+                // retransform 的过程中有可能有新的命令增强了这个类，按 retransform 之后的引用计数判断
+                for (Class<?> clazz : batch) {
+                    if (getRefCount(clazz) == 0) {
+                        restored.add(clazz);
+                    }
+                }
+            }
+            Enhancer.removeClassBytesCache(restored);
+        }
+        logger.info("restore enhanced classes, total: {}, retransformed: {}", classes.size(), count);
+        return count;
+    }
+
+    private int retransform(List<Class<?>> classes) {
+        try {
+            instrumentation.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+            return classes.size();
+        } catch (Throwable e) {
+            if (classes.size() == 1) {
+                logger.warn("restore class {} failed.", classes.get(0).getName(), e);
+                return 0;
+            }
+            // 逐个重试，找到失败的类，其它的类继续恢复
+            int count = 0;
+            for (int i = 0; i < classes.size(); ++i) {
+                count += retransform(classes.subList(i, i + 1));
+            }
+            return count;
+        }
+    }
+
+    private void decrease(Class<?> clazz) {
+        Integer count = refCounts.get(clazz);
+        if (count == null || count <= 1) {
+            refCounts.remove(clazz);
+        } else {
+            refCounts.put(clazz, count - 1);
+        }
+    }
+
+    private void startThreadIfNecessary() {
+        if (restoreThread != null) {
+            return;
+        }
+        restoreThread = new Thread("arthas-enhance-restorer") {
+            @Override
+            public void run() {
+                while (!destroyed) {
+                    try {
+                        synchronized (EnhanceRestorer.this) {
+                            while (pendingClasses.isEmpty() && !destroyed) {
+                                EnhanceRestorer.this.wait();
+                            }
+                        }
+                        Thread.sleep(DELAY_MILLIS);
+                        restorePending();
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (Throwable e) {
+                        logger.error("restore enhanced classes error", e);
+                    }
+                }
+            }
+        };
+        restoreThread.setDaemon(true);
+        restoreThread.start();
+    }
+
+    public void destroy() {
+        Thread thread;
+        synchronized (this) {
+            destroyed = true;
+            pendingClasses.clear();
+            refCounts.clear();
+            thread = restoreThread;
+            restoreThread = null;
+            this.notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+}
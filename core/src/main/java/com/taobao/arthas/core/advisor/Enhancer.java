@@ -13,13 +13,16 @@ import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.Method;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.alibaba.arthas.deps.org.objectweb.asm.Opcodes;
 import com.alibaba.arthas.deps.org.objectweb.asm.Type;
@@ -45,6 +48,10 @@ import com.taobao.arthas.core.GlobalOptions;
 import com.taobao.arthas.core.advisor.SpyInterceptors.SpyInterceptor1;
 import com.taobao.arthas.core.advisor.SpyInterceptors.SpyInterceptor2;
 import com.taobao.arthas.core.advisor.SpyInterceptors.SpyInterceptor3;
+import com.taobao.arthas.core.advisor.SpyInterceptors.SpyNoArgsInterceptor1;
+import com.taobao.arthas.core.advisor.SpyInterceptors.SpyNoArgsInterceptor2;
+import com.taobao.arthas.core.advisor.SpyInterceptors.SpyNoArgsInterceptor3;
+import com.taobao.arthas.core.advisor.SpyInterceptors.SpyNoReturnInterceptor2;
 import com.taobao.arthas.core.advisor.SpyInterceptors.SpyTraceExcludeJDKInterceptor1;
 import com.taobao.arthas.core.advisor.SpyInterceptors.SpyTraceExcludeJDKInterceptor2;
 import com.taobao.arthas.core.advisor.SpyInterceptors.SpyTraceExcludeJDKInterceptor3;
@@ -69,15 +76,30 @@ public class Enhancer implements ClassFileTransformer {
     private final AdviceListener listener;
     private final boolean isTracing;
     private final boolean skipJDKTrace;
+    private final AdviceRequirement adviceRequirement;
     private final Matcher classNameMatcher;
     private final Matcher methodNameMatcher;
     private final EnhancerAffect affect;
     private Set<Class<?>> matchingClasses = null;
-
-    // 被增强的类的缓存
-    private final static Map<Class<?>/* Class */, Object> classBytesCache = new WeakHashMap<Class<?>, Object>();
+    private TransformerManager transformerManager;
+    // 这次增强里 transform 成功的类，retransform 失败时用于撤销统计
+    private final Map<Class<?>, Boolean> transformedClasses = new ConcurrentHashMap<Class<?>, Boolean>();
+    // 这个 Enhancer 增强过的所有类，被移除时由 EnhanceRestorer 恢复
+    private final Map<Class<?>, Boolean> enhancedClasses = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    // 被增强的类的缓存，transform ，retransform 失败时的撤销和 EnhanceRestorer 在不同的线程里访问，需要同步
+    private final static Map<Class<?>/* Class */, Object> classBytesCache = Collections
+            .synchronizedMap(new WeakHashMap<Class<?>, Object>());
     private static SpyImpl spyImpl = new SpyImpl();
 
+    // 解析拦截器类需要反射读取注解，结果和被增强的类无关，每种组合只解析一次，所有 transform 共用
+    // 下标为 AdviceRequirement * 3 + (不 trace: 0, trace: 1, trace 忽略 jdk: 2)
+    private static final AtomicReferenceArray<List<InterceptorProcessor>> interceptorProcessorsCache = new AtomicReferenceArray<List<InterceptorProcessor>>(
+            AdviceRequirement.values().length * 3);
+
+    // 用于检查是否已插入了 spy函数，如果已有则不重复处理。filter 没有状态，可以共用
+    private static final GroupLocationFilter groupLocationFilter = createGroupLocationFilter();
+
     static {
         SpyAPI.setSpy(spyImpl);
     }
@@ -99,6 +121,9 @@ public class Enhancer implements ClassFileTransformer {
         this.methodNameMatcher = methodNameMatcher;
         this.affect = new EnhancerAffect();
         affect.setListenerId(listener.id());
+        this.adviceRequirement = listener instanceof AdviceListenerAdapter
+                ? ((AdviceListenerAdapter) listener).getAdviceRequirement()
+                : AdviceRequirement.ALL;
     }
 
     @Override
@@ -125,26 +150,6 @@ public class Enhancer implements ClassFileTransformer {
             ClassNode classNode = AsmUtils.toClassNode(classfileBuffer);
 
             // 生成增强字节码
-            DefaultInterceptorClassParser defaultInterceptorClassParser = new DefaultInterceptorClassParser();
-
-            final List<InterceptorProcessor> interceptorProcessors = new ArrayList<InterceptorProcessor>();
-
-            interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyInterceptor1.class));
-            interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyInterceptor2.class));
-            interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyInterceptor3.class));
-
-            if (this.isTracing) {
-                if (this.skipJDKTrace == false) {
-                    interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyTraceInterceptor1.class));
-                    interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyTraceInterceptor2.class));
-                    interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyTraceInterceptor3.class));
-                } else {
-                    interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyTraceExcludeJDKInterceptor1.class));
-                    interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyTraceExcludeJDKInterceptor2.class));
-                    interceptorProcessors.addAll(defaultInterceptorClassParser.parse(SpyTraceExcludeJDKInterceptor3.class));
-                }
-            }
-
             List<MethodNode> matchedMethods = new ArrayList<MethodNode>();
             for (MethodNode methodNode : classNode.methods) {
                 if (!isIgnore(methodNode, methodNameMatcher)) {
@@ -152,30 +157,6 @@ public class Enhancer implements ClassFileTransformer {
                 }
             }
 
-            // 用于检查是否已插入了 spy函数，如果已有则不重复处理
-            GroupLocationFilter groupLocationFilter = new GroupLocationFilter();
-
-            LocationFilter enterFilter = new InvokeContainLocationFilter(Type.getInternalName(SpyAPI.class), "atEnter",
-                    LocationType.ENTER);
-            LocationFilter existFilter = new InvokeContainLocationFilter(Type.getInternalName(SpyAPI.class), "atExit",
-                    LocationType.EXIT);
-            LocationFilter exceptionFilter = new InvokeContainLocationFilter(Type.getInternalName(SpyAPI.class),
-                    "atExceptionExit", LocationType.EXCEPTION_EXIT);
-
-            groupLocationFilter.addFilter(enterFilter);
-            groupLocationFilter.addFilter(existFilter);
-            groupLocationFilter.addFilter(exceptionFilter);
-
-            LocationFilter invokeBeforeFilter = new InvokeCheckLocationFilter(Type.getInternalName(SpyAPI.class),
-                    "atBeforeInvoke", LocationType.INVOKE);
-            LocationFilter invokeAfterFilter = new InvokeCheckLocationFilter(Type.getInternalName(SpyAPI.class),
-                    "atInvokeException", LocationType.INVOKE_COMPLETED);
-            LocationFilter invokeExceptionFilter = new InvokeCheckLocationFilter(Type.getInternalName(SpyAPI.class),
-                    "atInvokeException", LocationType.INVOKE_EXCEPTION_EXIT);
-            groupLocationFilter.addFilter(invokeBeforeFilter);
-            groupLocationFilter.addFilter(invokeAfterFilter);
-            groupLocationFilter.addFilter(invokeExceptionFilter);
-
             for (MethodNode methodNode : matchedMethods) {
                 // 先查找是否有 atBeforeInvoke 函数，如果有，则说明已经有trace了，则直接不再尝试增强，直接插入 listener
                 if(AsmUtils.containsMethodInsnNode(methodNode, Type.getInternalName(SpyAPI.class), "atBeforeInvoke")) {
@@ -197,7 +178,14 @@ public class Enhancer implements ClassFileTransformer {
                         }
                     }
                 }else {
-                    MethodProcessor methodProcessor = new MethodProcessor(classNode, methodNode, groupLocationFilter);
+                    // 其它命令可能需要更多的数据，比如先 monitor 再 watch 同一个方法时，按 watch 的需要插入
+                    AdviceRequirement requirement = transformerManager == null ? adviceRequirement
+                            : transformerManager.getAdviceRequirement(classBeingRedefined, methodNode,
+                                    adviceRequirement);
+                    List<InterceptorProcessor> interceptorProcessors = getInterceptorProcessors(requirement,
+                            isTracing, skipJDKTrace);
+                    MethodProcessor methodProcessor = new SpyMethodProcessor(classNode, methodNode, groupLocationFilter,
+                            inClassLoader);
                     for (InterceptorProcessor interceptor : interceptorProcessors) {
                         try {
                             List<Location> locations = interceptor.process(methodProcessor);
@@ -232,6 +220,11 @@ public class Enhancer implements ClassFileTransformer {
 
             // 增强成功，记录类
             classBytesCache.put(classBeingRedefined, new Object());
+            transformedClasses.put(classBeingRedefined, Boolean.TRUE);
+            if (classBeingRedefined != null && transformerManager != null
+                    && enhancedClasses.put(classBeingRedefined, Boolean.TRUE) == null) {
+                transformerManager.getEnhanceRestorer().retain(classBeingRedefined);
+            }
 
             // dump the class
             dumpClassIfNecessary(className, enhanceClassByteArray, affect);
@@ -248,6 +241,104 @@ public class Enhancer implements ClassFileTransformer {
         return null;
     }
 
+    /**
+     * @return 这个 Enhancer 增强过的类
+     */
+    public Set<Class<?>> getEnhancedClasses() {
+        return Collections.unmodifiableSet(enhancedClasses.keySet());
+    }
+
+    public AdviceRequirement getAdviceRequirement() {
+        return adviceRequirement;
+    }
+
+    /**
+     * @return true 如果这个 Enhancer 会增强这个方法
+     */
+    boolean isMatched(Class<?> classBeingRedefined, MethodNode methodNode) {
+        Set<Class<?>> classes = matchingClasses;
+        return classes != null && classes.contains(classBeingRedefined) && !isIgnore(methodNode, methodNameMatcher);
+    }
+
+    static List<InterceptorProcessor> getInterceptorProcessors(AdviceRequirement adviceRequirement,
+            boolean isTracing, boolean skipJDKTrace) {
+        int index = adviceRequirement.ordinal() * 3 + (isTracing ? (skipJDKTrace ? 2 : 1) : 0);
+        List<InterceptorProcessor> interceptorProcessors = interceptorProcessorsCache.get(index);
+        if (interceptorProcessors != null) {
+            return interceptorProcessors;
+        }
+
+        List<Class<?>> interceptorClasses = new ArrayList<Class<?>>();
+        switch (adviceRequirement) {
+        case TIMING:
+            interceptorClasses.add(SpyNoArgsInterceptor1.class);
+            interceptorClasses.add(SpyNoArgsInterceptor2.class);
+            interceptorClasses.add(SpyNoArgsInterceptor3.class);
+            break;
+        case ARGS:
+            interceptorClasses.add(SpyInterceptor1.class);
+            interceptorClasses.add(SpyNoReturnInterceptor2.class);
+            interceptorClasses.add(SpyInterceptor3.class);
+            break;
+        default:
+            interceptorClasses.add(SpyInterceptor1.class);
+            interceptorClasses.add(SpyInterceptor2.class);
+            interceptorClasses.add(SpyInterceptor3.class);
+        }
+        if (isTracing) {
+            if (skipJDKTrace == false) {
+                interceptorClasses.add(SpyTraceInterceptor1.class);
+                interceptorClasses.add(SpyTraceInterceptor2.class);
+                interceptorClasses.add(SpyTraceInterceptor3.class);
+            } else {
+                interceptorClasses.add(SpyTraceExcludeJDKInterceptor1.class);
+                interceptorClasses.add(SpyTraceExcludeJDKInterceptor2.class);
+                interceptorClasses.add(SpyTraceExcludeJDKInterceptor3.class);
+            }
+        }
+        interceptorProcessors = parseInterceptors(interceptorClasses);
+        interceptorProcessorsCache.set(index, interceptorProcessors);
+        return interceptorProcessors;
+    }
+
+    /**
+     * 并发时可能会解析多次，结果是一样的，不需要加锁
+     */
+    private static List<InterceptorProcessor> parseInterceptors(List<Class<?>> interceptorClasses) {
+        DefaultInterceptorClassParser defaultInterceptorClassParser = new DefaultInterceptorClassParser();
+        List<InterceptorProcessor> interceptorProcessors = new ArrayList<InterceptorProcessor>();
+        for (Class<?> interceptorClass : interceptorClasses) {
+            interceptorProcessors.addAll(defaultInterceptorClassParser.parse(interceptorClass));
+        }
+        return Collections.unmodifiableList(interceptorProcessors);
+    }
+
+    private static GroupLocationFilter createGroupLocationFilter() {
+        GroupLocationFilter groupLocationFilter = new GroupLocationFilter();
+
+        LocationFilter enterFilter = new InvokeContainLocationFilter(Type.getInternalName(SpyAPI.class), "atEnter",
+                LocationType.ENTER);
+        LocationFilter existFilter = new InvokeContainLocationFilter(Type.getInternalName(SpyAPI.class), "atExit",
+                LocationType.EXIT);
+        LocationFilter exceptionFilter = new InvokeContainLocationFilter(Type.getInternalName(SpyAPI.class),
+                "atExceptionExit", LocationType.EXCEPTION_EXIT);
+
+        groupLocationFilter.addFilter(enterFilter);
+        groupLocationFilter.addFilter(existFilter);
+        groupLocationFilter.addFilter(exceptionFilter);
+
+        LocationFilter invokeBeforeFilter = new InvokeCheckLocationFilter(Type.getInternalName(SpyAPI.class),
+                "atBeforeInvoke", LocationType.INVOKE);
+        LocationFilter invokeAfterFilter = new InvokeCheckLocationFilter(Type.getInternalName(SpyAPI.class),
+                "atInvokeException", LocationType.INVOKE_COMPLETED);
+        LocationFilter invokeExceptionFilter = new InvokeCheckLocationFilter(Type.getInternalName(SpyAPI.class),
+                "atInvokeException", LocationType.INVOKE_EXCEPTION_EXIT);
+        groupLocationFilter.addFilter(invokeBeforeFilter);
+        groupLocationFilter.addFilter(invokeAfterFilter);
+        groupLocationFilter.addFilter(invokeExceptionFilter);
+        return groupLocationFilter;
+    }
+
     /**
      * 是否抽象属性
      */
@@ -342,6 +433,20 @@ public class Enhancer implements ClassFileTransformer {
      * @throws UnmodifiableClassException 增强失败
      */
     public synchronized EnhancerAffect enhance(final Instrumentation inst) throws UnmodifiableClassException {
+        return enhance(inst, null);
+    }
+
+    /**
+     * 对象增强，匹配的类分批 retransform ，每批之间暂停一段时间，避免一次 retransform 太多类导致很长的 safepoint 停顿。
+     * 某一批失败时二分查找失败的类，其它的类继续增强。
+     *
+     * @param inst     inst
+     * @param progress 进度回调，可以为 null
+     * @return 增强影响范围
+     * @throws UnmodifiableClassException 增强失败
+     */
+    public synchronized EnhancerAffect enhance(final Instrumentation inst, RetransformProgress progress)
+            throws UnmodifiableClassException {
         // 获取需要增强的类集合
         this.matchingClasses = GlobalOptions.isDisableSubClass
                 ? SearchUtils.searchClass(inst, classNameMatcher)
@@ -355,43 +460,87 @@ public class Enhancer implements ClassFileTransformer {
         affect.setTransformer(this);
 
         try {
-            ArthasBootstrap.getInstance().getTransformerManager().addTransformer(this, isTracing);
-
-            // 批量增强
-            if (GlobalOptions.isBatchReTransform) {
-                final int size = matchingClasses.size();
-                final Class<?>[] classArray = new Class<?>[size];
-                arraycopy(matchingClasses.toArray(), 0, classArray, 0, size);
-                if (classArray.length > 0) {
-                    inst.retransformClasses(classArray);
-                    logger.info("Success to batch transform classes: " + Arrays.toString(classArray));
+            transformerManager = ArthasBootstrap.getInstance().getTransformerManager();
+            transformerManager.addTransformer(this, isTracing);
+
+            final List<Class<?>> classList = new ArrayList<Class<?>>(matchingClasses);
+            final int total = classList.size();
+            final int batchSize = GlobalOptions.isBatchReTransform ? Math.max(1, GlobalOptions.batchReTransformSize) : 1;
+            final long interval = GlobalOptions.batchReTransformInterval;
+
+            Throwable lastError = null;
+            for (int from = 0; from < total; from += batchSize) {
+                if (progress != null && progress.isCancelled()) {
+                    logger.info("enhance cancelled, retransformed {} of {} classes.", from, total);
+                    affect.setCancelled(true);
+                    break;
                 }
-            } else {
-                // for each 增强
-                for (Class<?> clazz : matchingClasses) {
-                    try {
-                        inst.retransformClasses(clazz);
-                        logger.info("Success to transform class: " + clazz);
-                    } catch (Throwable t) {
-                        logger.warn("retransform {} failed.", clazz, t);
-                        if (t instanceof UnmodifiableClassException) {
-                            throw (UnmodifiableClassException) t;
-                        } else if (t instanceof RuntimeException) {
-                            throw (RuntimeException) t;
-                        } else {
-                            throw new RuntimeException(t);
-                        }
-                    }
+                if (from > 0 && interval > 0) {
+                    Thread.sleep(interval);
+                }
+
+                int to = Math.min(from + batchSize, total);
+                Throwable error = retransform(inst, classList.subList(from, to));
+                if (error != null) {
+                    lastError = error;
+                }
+                if (progress != null && total > batchSize) {
+                    progress.onProgress(to, total);
                 }
             }
+
+            // 所有的类都增强失败时才作为错误返回，部分失败时在结果里列出失败的类
+            if (lastError != null && affect.cCnt() == 0) {
+                affect.setThrowable(lastError);
+            }
         } catch (Throwable e) {
             logger.error("Enhancer error, matchingClasses: {}", matchingClasses, e);
             affect.setThrowable(e);
+        } finally {
+            transformedClasses.clear();
         }
 
         return affect;
     }
 
+    /**
+     * retransform 一批类，失败时拆成两半分别重试，直到找到失败的类
+     *
+     * @return 最后一个失败的异常，全部成功时返回 null
+     */
+    private Throwable retransform(Instrumentation inst, List<Class<?>> classes) {
+        try {
+            inst.retransformClasses(classes.toArray(new Class<?>[classes.size()]));
+            if (GlobalOptions.verbose) {
+                logger.info("Success to transform classes: {}", classes);
+            }
+            return null;
+        } catch (Throwable t) {
+            // retransform 失败时所有的类都保持原样，撤销这次 transform 的统计
+            for (Class<?> clazz : classes) {
+                if (transformedClasses.remove(clazz) != null) {
+                    classBytesCache.remove(clazz);
+                    if (enhancedClasses.remove(clazz) != null) {
+                        transformerManager.getEnhanceRestorer().rollback(clazz);
+                    }
+                    affect.removeClass(clazz.getClassLoader(), clazz.getName());
+                }
+            }
+
+            if (classes.size() == 1) {
+                logger.warn("retransform {} failed.", classes.get(0), t);
+                affect.addFailedClass(classes.get(0).getName());
+                return t;
+            }
+
+            logger.info("retransform {} classes failed, try to find the failed classes.", classes.size(), t);
+            int middle = classes.size() / 2;
+            Throwable first = retransform(inst, classes.subList(0, middle));
+            Throwable second = retransform(inst, classes.subList(middle, classes.size()));
+            return second != null ? second : first;
+        }
+    }
+
     /**
      * 重置指定的Class
      *
@@ -406,7 +555,11 @@ public class Enhancer implements ClassFileTransformer {
         final EnhancerAffect affect = new EnhancerAffect();
         final Set<Class<?>> enhanceClassSet = new HashSet<Class<?>>();
 
-        for (Class<?> classInCache : classBytesCache.keySet()) {
+        List<Class<?>> classesInCache;
+        synchronized (classBytesCache) {
+            classesInCache = new ArrayList<Class<?>>(classBytesCache.keySet());
+        }
+        for (Class<?> classInCache : classesInCache) {
             if (classNameMatcher.matching(classInCache.getName())) {
                 enhanceClassSet.add(classInCache);
             }
@@ -433,6 +586,15 @@ public class Enhancer implements ClassFileTransformer {
         return affect;
     }
 
+    /**
+     * 类已经恢复为原始字节码，从缓存里删除
+     */
+    static void removeClassBytesCache(Collection<Class<?>> classes) {
+        for (Class<?> clazz : classes) {
+            classBytesCache.remove(clazz);
+        }
+    }
+
     // 批量增强
     private static void enhance(Instrumentation inst, ClassFileTransformer transformer, Set<Class<?>> classes)
             throws UnmodifiableClassException {
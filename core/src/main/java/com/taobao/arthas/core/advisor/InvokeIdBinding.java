@@ -0,0 +1,93 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import com.alibaba.arthas.deps.org.objectweb.asm.Type;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.AbstractInsnNode;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.InsnList;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.LineNumberNode;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.MethodInsnNode;
+import com.taobao.arthas.bytekit.asm.MethodProcessor;
+import com.taobao.arthas.bytekit.asm.binding.Binding;
+import com.taobao.arthas.bytekit.asm.binding.BindingContext;
+import com.taobao.arthas.bytekit.asm.binding.annotation.BindingParser;
+import com.taobao.arthas.bytekit.asm.binding.annotation.BindingParserHandler;
+import com.taobao.arthas.bytekit.asm.location.Location;
+import com.taobao.arthas.bytekit.asm.location.MethodInsnNodeWare;
+import com.taobao.arthas.bytekit.utils.AsmOpUtils;
+
+/**
+ * 在增强时为 trace 的调用点 (owner/method name/method desc/line number) 分配一个 int id，直接以常量的方式写入字节码。
+ * 
+ * @see MethodIdBinding
+ */
+public class InvokeIdBinding extends Binding {
+
+    @Override
+    public void pushOntoStack(InsnList instructions, BindingContext bindingContext) {
+        MethodProcessor methodProcessor = bindingContext.getMethodProcessor();
+        if (!(methodProcessor instanceof SpyMethodProcessor)) {
+            throw new IllegalArgumentException(
+                    "InvokeIdBinding only works with SpyMethodProcessor, methodProcessor: " + methodProcessor);
+        }
+        Location location = bindingContext.getLocation();
+        if (!(location instanceof MethodInsnNodeWare)) {
+            throw new IllegalArgumentException(
+                    "InvokeIdBinding location is not Invocation location, location: " + location);
+        }
+        MethodInsnNode methodInsnNode = ((MethodInsnNodeWare) location).methodInsnNode();
+
+        int line = -1;
+        if (location.isWhenComplete() == false) {
+            AbstractInsnNode insnNode = methodInsnNode.getPrevious();
+            while (insnNode != null) {
+                if (insnNode instanceof LineNumberNode) {
+                    line = ((LineNumberNode) insnNode).line;
+                    break;
+                }
+                insnNode = insnNode.getPrevious();
+            }
+        } else {
+            AbstractInsnNode insnNode = methodInsnNode.getNext();
+            while (insnNode != null) {
+                if (insnNode instanceof LineNumberNode) {
+                    line = ((LineNumberNode) insnNode).line;
+                    break;
+                }
+                insnNode = insnNode.getNext();
+            }
+        }
+
+        ClassLoader classLoader = ((SpyMethodProcessor) methodProcessor).getClassLoader();
+        int invokeId = AdviceListenerManager.invokeId(classLoader, methodProcessor.getOwner(), methodInsnNode.owner,
+                methodInsnNode.name, methodInsnNode.desc, line);
+        AsmOpUtils.push(instructions, invokeId);
+    }
+
+    @Override
+    public Type getType(BindingContext bindingContext) {
+        return Type.INT_TYPE;
+    }
+
+    @Documented
+    @Retention(RetentionPolicy.RUNTIME)
+    @java.lang.annotation.Target(ElementType.PARAMETER)
+    @BindingParserHandler(parser = InvokeIdBindingParser.class)
+    public static @interface InvokeId {
+
+        boolean optional() default false;
+
+    }
+
+    public static class InvokeIdBindingParser implements BindingParser {
+        @Override
+        public Binding parse(Annotation annotation) {
+            return new InvokeIdBinding();
+        }
+
+    }
+}
@@ -10,6 +10,7 @@ public interface InvokeTraceable {
     /**
      * 调用之前跟踪
      *
+     * @param tracingInvokeId   调用点id，增强时分配，见 {@link AdviceListenerManager#invokeId}
      * @param tracingClassName  调用类名
      * @param tracingMethodName 调用方法名
      * @param tracingMethodDesc 调用方法描述
@@ -17,6 +18,7 @@ public interface InvokeTraceable {
      * @throws Throwable 通知过程出错
      */
     void invokeBeforeTracing(
+            int tracingInvokeId,
             String tracingClassName,
             String tracingMethodName,
             String tracingMethodDesc,
@@ -25,6 +27,7 @@ public interface InvokeTraceable {
     /**
      * 抛异常后跟踪
      *
+     * @param tracingInvokeId   调用点id，增强时分配，见 {@link AdviceListenerManager#invokeId}
      * @param tracingClassName  调用类名
      * @param tracingMethodName 调用方法名
      * @param tracingMethodDesc 调用方法描述
@@ -32,6 +35,7 @@ public interface InvokeTraceable {
      * @throws Throwable 通知过程出错
      */
     void invokeThrowTracing(
+            int tracingInvokeId,
             String tracingClassName,
             String tracingMethodName,
             String tracingMethodDesc,
@@ -41,6 +45,7 @@ public interface InvokeTraceable {
     /**
      * 调用之后跟踪
      *
+     * @param tracingInvokeId   调用点id，增强时分配，见 {@link AdviceListenerManager#invokeId}
      * @param tracingClassName  调用类名
      * @param tracingMethodName 调用方法名
      * @param tracingMethodDesc 调用方法描述
@@ -48,6 +53,7 @@ public interface InvokeTraceable {
      * @throws Throwable 通知过程出错
      */
     void invokeAfterTracing(
+            int tracingInvokeId,
             String tracingClassName,
             String tracingMethodName,
             String tracingMethodDesc,
@@ -0,0 +1,63 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.annotation.Annotation;
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import com.alibaba.arthas.deps.org.objectweb.asm.Type;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.InsnList;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.MethodNode;
+import com.taobao.arthas.bytekit.asm.MethodProcessor;
+import com.taobao.arthas.bytekit.asm.binding.Binding;
+import com.taobao.arthas.bytekit.asm.binding.BindingContext;
+import com.taobao.arthas.bytekit.asm.binding.annotation.BindingParser;
+import com.taobao.arthas.bytekit.asm.binding.annotation.BindingParserHandler;
+import com.taobao.arthas.bytekit.utils.AsmOpUtils;
+
+/**
+ * 在增强时为 classloader|className|methodName|methodDesc 分配一个 int id，直接以常量的方式写入字节码。
+ * 
+ * SpyImpl 里通过 id 查数组就可以拿到 listener，不需要再拆分字符串和拼接 key 。
+ */
+public class MethodIdBinding extends Binding {
+
+    @Override
+    public void pushOntoStack(InsnList instructions, BindingContext bindingContext) {
+        MethodProcessor methodProcessor = bindingContext.getMethodProcessor();
+        if (!(methodProcessor instanceof SpyMethodProcessor)) {
+            throw new IllegalArgumentException(
+                    "MethodIdBinding only works with SpyMethodProcessor, methodProcessor: " + methodProcessor);
+        }
+        ClassLoader classLoader = ((SpyMethodProcessor) methodProcessor).getClassLoader();
+        MethodNode methodNode = methodProcessor.getMethodNode();
+
+        int methodId = AdviceListenerManager.methodId(classLoader, methodProcessor.getOwner(), methodNode.name,
+                methodNode.desc);
+        AsmOpUtils.push(instructions, methodId);
+    }
+
+    @Override
+    public Type getType(BindingContext bindingContext) {
+        return Type.INT_TYPE;
+    }
+
+    @Documented
+    @Retention(RetentionPolicy.RUNTIME)
+    @java.lang.annotation.Target(ElementType.PARAMETER)
+    @BindingParserHandler(parser = MethodIdBindingParser.class)
+    public static @interface MethodId {
+
+        boolean optional() default false;
+
+    }
+
+    public static class MethodIdBindingParser implements BindingParser {
+        @Override
+        public Binding parse(Annotation annotation) {
+            return new MethodIdBinding();
+        }
+
+    }
+}
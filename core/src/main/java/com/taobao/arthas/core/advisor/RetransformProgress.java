@@ -0,0 +1,20 @@
+package com.taobao.arthas.core.advisor;
+
+/**
+ * 分批 retransform 时的进度回调
+ */
+public interface RetransformProgress {
+
+    /**
+     * 每一批 retransform 结束后调用
+     *
+     * @param finished 已经处理的类数量
+     * @param total    需要处理的类数量
+     */
+    void onProgress(int finished, int total);
+
+    /**
+     * @return true 如果不再处理剩下的类
+     */
+    boolean isCancelled();
+}
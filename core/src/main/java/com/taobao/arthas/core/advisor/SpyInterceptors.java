@@ -8,6 +8,8 @@ import com.taobao.arthas.bytekit.asm.interceptor.annotation.AtExceptionExit;
 import com.taobao.arthas.bytekit.asm.interceptor.annotation.AtExit;
 import com.taobao.arthas.bytekit.asm.interceptor.annotation.AtInvoke;
 import com.taobao.arthas.bytekit.asm.interceptor.annotation.AtInvokeException;
+import com.taobao.arthas.core.advisor.InvokeIdBinding.InvokeId;
+import com.taobao.arthas.core.advisor.MethodIdBinding.MethodId;
 
 /**
  * 
@@ -20,25 +22,64 @@ public class SpyInterceptors {
 
         @AtEnter(inline = true)
         public static void atEnter(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.MethodInfo String methodInfo, @Binding.Args Object[] args) {
-            SpyAPI.atEnter(clazz, methodInfo, target, args);
+                @MethodId int methodId, @Binding.Args Object[] args) {
+            SpyAPI.atEnter(clazz, methodId, target, args);
         }
     }
     
     public static class SpyInterceptor2 {
         @AtExit(inline = true)
         public static void atExit(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.MethodInfo String methodInfo, @Binding.Args Object[] args, @Binding.Return Object returnObj) {
-            SpyAPI.atExit(clazz, methodInfo, target, args, returnObj);
+                @MethodId int methodId, @Binding.Args Object[] args, @Binding.Return Object returnObj) {
+            SpyAPI.atExit(clazz, methodId, target, args, returnObj);
         }
     }
     
     public static class SpyInterceptor3 {
         @AtExceptionExit(inline = true)
         public static void atExceptionExit(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.MethodInfo String methodInfo, @Binding.Args Object[] args,
+                @MethodId int methodId, @Binding.Args Object[] args,
                 @Binding.Throwable Throwable throwable) {
-            SpyAPI.atExceptionExit(clazz, methodInfo, target, args, throwable);
+            SpyAPI.atExceptionExit(clazz, methodId, target, args, throwable);
+        }
+    }
+
+    /**
+     * 不需要参数和返回值的拦截器，见 {@link AdviceRequirement#TIMING} ，不创建参数数组，不装箱返回值
+     */
+    public static class SpyNoArgsInterceptor1 {
+
+        @AtEnter(inline = true)
+        public static void atEnter(@Binding.This Object target, @Binding.Class Class<?> clazz,
+                @MethodId int methodId) {
+            SpyAPI.atEnter(clazz, methodId, target, null);
+        }
+    }
+
+    public static class SpyNoArgsInterceptor2 {
+        @AtExit(inline = true)
+        public static void atExit(@Binding.This Object target, @Binding.Class Class<?> clazz,
+                @MethodId int methodId) {
+            SpyAPI.atExit(clazz, methodId, target, null, null);
+        }
+    }
+
+    public static class SpyNoArgsInterceptor3 {
+        @AtExceptionExit(inline = true)
+        public static void atExceptionExit(@Binding.This Object target, @Binding.Class Class<?> clazz,
+                @MethodId int methodId, @Binding.Throwable Throwable throwable) {
+            SpyAPI.atExceptionExit(clazz, methodId, target, null, throwable);
+        }
+    }
+
+    /**
+     * 需要参数，不需要返回值的拦截器，见 {@link AdviceRequirement#ARGS} ，enter 和 exception exit 和 SpyInterceptor1/3 一样
+     */
+    public static class SpyNoReturnInterceptor2 {
+        @AtExit(inline = true)
+        public static void atExit(@Binding.This Object target, @Binding.Class Class<?> clazz,
+                @MethodId int methodId, @Binding.Args Object[] args) {
+            SpyAPI.atExit(clazz, methodId, target, args, null);
         }
     }
 
@@ -52,8 +93,8 @@ public class SpyInterceptors {
                 , "java.lang.Long"
                 , "java.lang.Double"})
         public static void onInvoke(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.InvokeInfo String invokeInfo) {
-            SpyAPI.atBeforeInvoke(clazz, invokeInfo, target);
+                @InvokeId int invokeId) {
+            SpyAPI.atBeforeInvoke(clazz, invokeId, target);
         }
     }
     
@@ -67,8 +108,8 @@ public class SpyInterceptors {
                 , "java.lang.Long"
                 , "java.lang.Double"})
         public static void onInvokeAfter(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.InvokeInfo String invokeInfo) {
-            SpyAPI.atAfterInvoke(clazz, invokeInfo, target);
+                @InvokeId int invokeId) {
+            SpyAPI.atAfterInvoke(clazz, invokeId, target);
         }
     }
     
@@ -82,32 +123,32 @@ public class SpyInterceptors {
                 , "java.lang.Long"
                 , "java.lang.Double"})
         public static void onInvokeException(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.InvokeInfo String invokeInfo, @Binding.Throwable Throwable throwable) {
-            SpyAPI.atInvokeException(clazz, invokeInfo, target, throwable);
+                @InvokeId int invokeId, @Binding.Throwable Throwable throwable) {
+            SpyAPI.atInvokeException(clazz, invokeId, target, throwable);
         }
     }
 
     public static class SpyTraceExcludeJDKInterceptor1 {
         @AtInvoke(name = "", inline = true, whenComplete = false, excludes = "java.**")
         public static void onInvoke(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.InvokeInfo String invokeInfo) {
-            SpyAPI.atBeforeInvoke(clazz, invokeInfo, target);
+                @InvokeId int invokeId) {
+            SpyAPI.atBeforeInvoke(clazz, invokeId, target);
         }
     }
 
     public static class SpyTraceExcludeJDKInterceptor2 {
         @AtInvoke(name = "", inline = true, whenComplete = true, excludes = "java.**")
         public static void onInvokeAfter(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.InvokeInfo String invokeInfo) {
-            SpyAPI.atAfterInvoke(clazz, invokeInfo, target);
+                @InvokeId int invokeId) {
+            SpyAPI.atAfterInvoke(clazz, invokeId, target);
         }
     }
 
     public static class SpyTraceExcludeJDKInterceptor3 {
         @AtInvokeException(name = "", inline = true, excludes = "java.**")
         public static void onInvokeException(@Binding.This Object target, @Binding.Class Class<?> clazz,
-                @Binding.InvokeInfo String invokeInfo, @Binding.Throwable Throwable throwable) {
-            SpyAPI.atInvokeException(clazz, invokeInfo, target, throwable);
+                @InvokeId int invokeId, @Binding.Throwable Throwable throwable) {
+            SpyAPI.atInvokeException(clazz, invokeId, target, throwable);
         }
     }
 
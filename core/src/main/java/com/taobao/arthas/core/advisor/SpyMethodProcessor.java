@@ -0,0 +1,25 @@
+package com.taobao.arthas.core.advisor;
+
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.ClassNode;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.MethodNode;
+import com.taobao.arthas.bytekit.asm.MethodProcessor;
+import com.taobao.arthas.bytekit.asm.location.filter.LocationFilter;
+
+/**
+ * 记录被增强类的 ClassLoader，{@link MethodIdBinding} 和 {@link InvokeIdBinding} 需要用它来分配 id
+ */
+public class SpyMethodProcessor extends MethodProcessor {
+
+    private final ClassLoader classLoader;
+
+    public SpyMethodProcessor(ClassNode classNode, MethodNode methodNode, LocationFilter locationFilter,
+            ClassLoader classLoader) {
+        super(classNode, methodNode, locationFilter);
+        this.classLoader = classLoader;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+}
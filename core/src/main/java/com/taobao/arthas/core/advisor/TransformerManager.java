@@ -7,6 +7,12 @@ import java.security.ProtectionDomain;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.MethodNode;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.util.ClassBytesCache;
+import com.taobao.arthas.core.util.LoadedClassIndex;
+
 /**
  * 
  * @author hengyunabc 2020-05-18
@@ -20,14 +26,25 @@ public class TransformerManager {
 
     private ClassFileTransformer classFileTransformer;
 
+    private LoadedClassIndex loadedClassIndex;
+
+    private ClassBytesCache classBytesCache;
+
+    private EnhanceRestorer enhanceRestorer;
+
     public TransformerManager(Instrumentation instrumentation) {
         this.instrumentation = instrumentation;
+        this.loadedClassIndex = new LoadedClassIndex(instrumentation);
+        this.classBytesCache = new ClassBytesCache();
+        this.enhanceRestorer = new EnhanceRestorer(instrumentation);
 
         classFileTransformer = new ClassFileTransformer() {
 
             @Override
             public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
                     ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+                loadedClassIndex.onTransform(loader, className, classBeingRedefined);
+                classBytesCache.onTransform(classBeingRedefined);
 
                 for (ClassFileTransformer classFileTransformer : watchTransformers) {
                     byte[] transformResult = classFileTransformer.transform(loader, className, classBeingRedefined,
@@ -60,15 +77,65 @@ public class TransformerManager {
         }
     }
 
+    /**
+     * 同一个方法只插入一次 spy 函数，由第一个匹配的 Enhancer 插入，所以插入的拦截器要满足所有匹配这个方法的 listener
+     *
+     * @param requirement 插入的 Enhancer 自己的需要
+     * @return 所有匹配这个方法的 Enhancer 需要的数据的最大值，见 {@link AdviceRequirement}
+     */
+    public AdviceRequirement getAdviceRequirement(Class<?> classBeingRedefined, MethodNode methodNode,
+            AdviceRequirement requirement) {
+        requirement = maxRequirement(watchTransformers, classBeingRedefined, methodNode, requirement);
+        return maxRequirement(traceTransformers, classBeingRedefined, methodNode, requirement);
+    }
+
+    private static AdviceRequirement maxRequirement(List<ClassFileTransformer> transformers,
+            Class<?> classBeingRedefined, MethodNode methodNode, AdviceRequirement requirement) {
+        for (ClassFileTransformer transformer : transformers) {
+            if (requirement == AdviceRequirement.ALL) {
+                break;
+            }
+            if (transformer instanceof Enhancer) {
+                Enhancer enhancer = (Enhancer) transformer;
+                if (enhancer.isMatched(classBeingRedefined, methodNode)) {
+                    requirement = requirement.max(enhancer.getAdviceRequirement());
+                }
+            }
+        }
+        return requirement;
+    }
+
+    /**
+     * 移除 transformer ，如果是 Enhancer ，它增强过的类在后台重新 retransform ，
+     * 已经没有其它 Enhancer 的类恢复为原始字节码，见 {@link EnhanceRestorer}
+     */
     public void removeTransformer(ClassFileTransformer transformer) {
-        watchTransformers.remove(transformer);
-        traceTransformers.remove(transformer);
+        boolean removed = watchTransformers.remove(transformer);
+        removed = traceTransformers.remove(transformer) || removed;
+        if (removed && transformer instanceof Enhancer) {
+            enhanceRestorer.release(((Enhancer) transformer).getEnhancedClasses(), GlobalOptions.autoReset);
+        }
+    }
+
+    public EnhanceRestorer getEnhanceRestorer() {
+        return enhanceRestorer;
+    }
+
+    public LoadedClassIndex getLoadedClassIndex() {
+        return loadedClassIndex;
+    }
+
+    public ClassBytesCache getClassBytesCache() {
+        return classBytesCache;
     }
 
     public void destroy() {
         watchTransformers.clear();
         traceTransformers.clear();
+        enhanceRestorer.destroy();
         instrumentation.removeTransformer(classFileTransformer);
+        loadedClassIndex.destroy();
+        classBytesCache.clear();
     }
 
 }
@@ -0,0 +1,51 @@
+package com.taobao.arthas.core.command.express;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * <pre>
+ * 由 {@link ExpressCompiler} 预先解析好的表达式，用于 watch/trace 等命令在每次调用时计算条件表达式和观察表达式。
+ * 只支持 OGNL 的一个常用子集，属性访问在第一次计算时解析成 Method/Field 并缓存，计算时不创建 OgnlContext ，
+ * #cost 也不需要装箱后放到 context 里。
+ *
+ * 遇到和 OGNL 语义不能保证一致的那一步（比如对象为 null ，Map 的属性，BigDecimal 比较等），只有这一步用 OGNL 计算，
+ * 不会从头用 OGNL 再算一次，每个 getter 只执行一次。
+ * </pre>
+ */
+public abstract class CompiledExpress {
+
+    private final String express;
+    private final Set<String> rootProperties;
+
+    protected CompiledExpress(String express, Set<String> rootProperties) {
+        this.express = express;
+        this.rootProperties = Collections.unmodifiableSet(rootProperties);
+    }
+
+    /**
+     * 计算表达式
+     *
+     * @param root 根对象，一般是 Advice
+     * @param cost 绑定到 #cost 的值
+     * @return 表达式的值，和 OGNL 计算的结果一致
+     * @throws ExpressException getter 或者 OGNL 抛出了异常
+     */
+    public abstract Object get(Object root, double cost) throws ExpressException;
+
+    public String getExpress() {
+        return express;
+    }
+
+    /**
+     * @return 表达式里直接在根对象上访问的属性名，比如 params[0].id 和 #cost &gt; 10 里的 params
+     */
+    public Set<String> getRootProperties() {
+        return rootProperties;
+    }
+
+    @Override
+    public String toString() {
+        return express;
+    }
+}
@@ -0,0 +1,758 @@
+package com.taobao.arthas.core.command.express;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.taobao.arthas.core.util.Constants;
+
+import ognl.OgnlOps;
+
+/**
+ * <pre>
+ * 把 watch/trace 等命令里常用的表达式预先解析成 {@link CompiledExpress} ，每个表达式只解析一次。
+ *
+ * 支持的语法（OGNL 的子集）：
+ *   属性和下标：  params[0].id ， returnObj ， throwExp.message ， params.length
+ *   变量：       #cost
+ *   比较：       左边是属性，右边是数字/字符串/true/false/null 常量，运算符 == != &gt; &gt;= &lt; &lt;=
+ *   逻辑运算：   &amp;&amp; || and or ! ，括号
+ *   列表：       {params, returnObj}
+ *
+ * 不支持的表达式（方法调用，静态引用，投影选择等）返回 null ，调用方使用 OGNL 。
+ *
+ * 能否编译只在解析时决定。计算时遇到编译的代码不能保证和 OGNL 语义一致的那一步（比如对象为 null ，Map 的属性，
+ * BigDecimal 比较等），只把这一步交给 OGNL ，在已经算出来的值上计算，前面的 getter 不会再执行一次。
+ * </pre>
+ */
+public class ExpressCompiler {
+
+    private static final int MAX_CACHE_SIZE = 1024;
+    private static final Object NOT_COMPILABLE = new Object();
+    private static final ConcurrentHashMap<String, Object> cache = new ConcurrentHashMap<String, Object>();
+
+    private static final String COST_VARIABLE = "#" + Constants.COST_VARIABLE;
+
+    /**
+     * OGNL 里有特殊含义的标识符，出现时不编译
+     */
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList("this", "root", "new",
+            "instanceof", "in", "not", "eq", "neq", "lt", "lte", "gt", "gte", "shl", "shr", "ushr", "band", "bor",
+            "xor"));
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int GT = 2;
+    private static final int GE = 3;
+    private static final int LT = 4;
+    private static final int LE = 5;
+
+    /**
+     * 编译表达式，结果会被缓存
+     *
+     * @param express 表达式
+     * @return 不支持的表达式返回 null
+     */
+    public static CompiledExpress compile(String express) {
+        Object compiled = cache.get(express);
+        if (compiled == null) {
+            compiled = doCompile(express);
+            if (compiled == null) {
+                compiled = NOT_COMPILABLE;
+            }
+            if (cache.size() >= MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(express, compiled);
+        }
+        return compiled == NOT_COMPILABLE ? null : (CompiledExpress) compiled;
+    }
+
+    private static CompiledExpress doCompile(String express) {
+        try {
+            Parser parser = new Parser(express, tokenize(express));
+            final Node node = parser.parseTop();
+            Set<String> rootProperties = new HashSet<String>();
+            node.collectRootProperties(rootProperties);
+            return new CompiledExpress(express, rootProperties) {
+                @Override
+                public Object get(Object root, double cost) throws ExpressException {
+                    try {
+                        return node.get(root, cost);
+                    } catch (EvaluateException e) {
+                        throw new ExpressException(getExpress(), e.getCause());
+                    }
+                }
+            };
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static List<String> tokenize(String express) {
+        List<String> tokens = new ArrayList<String>();
+        int length = express.length();
+        int i = 0;
+        while (i < length) {
+            char c = express.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (Character.isJavaIdentifierStart(c) || c == '#') {
+                int start = i++;
+                while (i < length && Character.isJavaIdentifierPart(express.charAt(i))) {
+                    i++;
+                }
+                tokens.add(express.substring(start, i));
+            } else if (Character.isDigit(c)) {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(express.charAt(i)) || express.charAt(i) == '.')) {
+                    i++;
+                }
+                tokens.add(express.substring(start, i));
+            } else if (c == '"') {
+                int end = express.indexOf('"', i + 1);
+                if (end < 0 || express.substring(i, end).indexOf('\\') >= 0) {
+                    throw new IllegalArgumentException(express);
+                }
+                tokens.add(express.substring(i, end + 1));
+                i = end + 1;
+            } else if (express.startsWith("==", i) || express.startsWith("!=", i) || express.startsWith(">=", i)
+                    || express.startsWith("<=", i) || express.startsWith("&&", i) || express.startsWith("||", i)) {
+                tokens.add(express.substring(i, i + 2));
+                i += 2;
+            } else if ("><!.[](){},-".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                throw new IllegalArgumentException(express);
+            }
+        }
+        return tokens;
+    }
+
+    private static class Parser {
+        private final String express;
+        private final List<String> tokens;
+        private int pos;
+
+        Parser(String express, List<String> tokens) {
+            this.express = express;
+            this.tokens = tokens;
+        }
+
+        Node parseTop() {
+            Node node;
+            if ("{".equals(peek())) {
+                next();
+                List<Node> elements = new ArrayList<Node>();
+                elements.add(parseOr());
+                while (",".equals(peek())) {
+                    next();
+                    elements.add(parseOr());
+                }
+                expect("}");
+                node = new ListNode(elements.toArray(new Node[0]));
+            } else {
+                node = parseOr();
+            }
+            if (pos != tokens.size()) {
+                throw new IllegalArgumentException(express);
+            }
+            return node;
+        }
+
+        private Node parseOr() {
+            Node left = parseAnd();
+            while ("||".equals(peek()) || "or".equals(peek())) {
+                next();
+                left = new OrNode(left, parseAnd());
+            }
+            return left;
+        }
+
+        private Node parseAnd() {
+            Node left = parseCompare();
+            while ("&&".equals(peek()) || "and".equals(peek())) {
+                next();
+                left = new AndNode(left, parseCompare());
+            }
+            return left;
+        }
+
+        private Node parseCompare() {
+            Node left = parseUnary();
+            String token = peek();
+            int op;
+            if ("==".equals(token)) {
+                op = EQ;
+            } else if ("!=".equals(token)) {
+                op = NE;
+            } else if (">".equals(token)) {
+                op = GT;
+            } else if (">=".equals(token)) {
+                op = GE;
+            } else if ("<".equals(token)) {
+                op = LT;
+            } else if ("<=".equals(token)) {
+                op = LE;
+            } else {
+                return left;
+            }
+            next();
+            Object literal = parseLiteral();
+            if ((literal == null || literal instanceof Boolean) && op != EQ && op != NE) {
+                throw new IllegalArgumentException(express);
+            }
+            return new CompareNode(left, op, literal);
+        }
+
+        private Node parseUnary() {
+            String token = peek();
+            if ("!".equals(token)) {
+                next();
+                return new NotNode(parseUnary());
+            }
+            if ("(".equals(token)) {
+                next();
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            return parseOperand();
+        }
+
+        private Node parseOperand() {
+            String token = next();
+            Node node;
+            if (COST_VARIABLE.equals(token)) {
+                node = new CostNode();
+            } else if (isIdentifier(token)) {
+                node = new PropertyNode(new RootNode(), token);
+            } else {
+                throw new IllegalArgumentException(express);
+            }
+            while (true) {
+                String suffix = peek();
+                if (".".equals(suffix)) {
+                    next();
+                    String name = next();
+                    if (!isIdentifier(name)) {
+                        throw new IllegalArgumentException(express);
+                    }
+                    node = new PropertyNode(node, name);
+                } else if ("[".equals(suffix)) {
+                    next();
+                    String index = next();
+                    if (index == null || !index.matches("\\d{1,9}")) {
+                        throw new IllegalArgumentException(express);
+                    }
+                    expect("]");
+                    node = new IndexNode(node, Integer.parseInt(index));
+                } else {
+                    break;
+                }
+            }
+            // 方法调用等不支持
+            if ("(".equals(peek())) {
+                throw new IllegalArgumentException(express);
+            }
+            return node;
+        }
+
+        private Object parseLiteral() {
+            String token = next();
+            boolean negative = false;
+            if ("-".equals(token)) {
+                negative = true;
+                token = next();
+            }
+            if (token == null) {
+                throw new IllegalArgumentException(express);
+            }
+            if (token.matches("\\d+")) {
+                try {
+                    long value = Long.parseLong(token);
+                    return negative ? -value : value;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(express);
+                }
+            }
+            if (token.matches("\\d+\\.\\d+")) {
+                double value = Double.parseDouble(token);
+                return negative ? -value : value;
+            }
+            if (negative) {
+                throw new IllegalArgumentException(express);
+            }
+            if (token.startsWith("\"")) {
+                return token.substring(1, token.length() - 1);
+            }
+            if ("true".equals(token)) {
+                return Boolean.TRUE;
+            }
+            if ("false".equals(token)) {
+                return Boolean.FALSE;
+            }
+            if ("null".equals(token)) {
+                return null;
+            }
+            throw new IllegalArgumentException(express);
+        }
+
+        private boolean isIdentifier(String token) {
+            return token != null && Character.isJavaIdentifierStart(token.charAt(0)) && !KEYWORDS.contains(token)
+                    && !"true".equals(token) && !"false".equals(token) && !"null".equals(token)
+                    && !"and".equals(token) && !"or".equals(token);
+        }
+
+        private String peek() {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        private String next() {
+            return pos < tokens.size() ? tokens.get(pos++) : null;
+        }
+
+        private void expect(String token) {
+            if (!token.equals(next())) {
+                throw new IllegalArgumentException(express);
+            }
+        }
+    }
+
+    private abstract static class Node {
+        abstract Object get(Object root, double cost);
+
+        /**
+         * 收集直接在根对象上访问的属性名
+         */
+        void collectRootProperties(Set<String> names) {
+        }
+    }
+
+    private static class RootNode extends Node {
+        @Override
+        Object get(Object root, double cost) {
+            return root;
+        }
+    }
+
+    private static class CostNode extends Node {
+        @Override
+        Object get(Object root, double cost) {
+            return cost;
+        }
+    }
+
+    private static class ListNode extends Node {
+        private final Node[] elements;
+
+        ListNode(Node[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        Object get(Object root, double cost) {
+            List<Object> result = new ArrayList<Object>(elements.length);
+            for (Node element : elements) {
+                result.add(element.get(root, cost));
+            }
+            return result;
+        }
+
+        @Override
+        void collectRootProperties(Set<String> names) {
+            for (Node element : elements) {
+                element.collectRootProperties(names);
+            }
+        }
+    }
+
+    private static class PropertyNode extends Node {
+        /**
+         * 同一个位置上的对象可能有多种类型，每种类型的访问方式都缓存，超过之后淘汰最早的
+         */
+        private static final int MAX_CACHED_TYPES = 8;
+
+        private final Node target;
+        private final String name;
+        private volatile PropertyAccessor[] accessors = new PropertyAccessor[0];
+
+        PropertyNode(Node target, String name) {
+            this.target = target;
+            this.name = name;
+        }
+
+        @Override
+        Object get(Object root, double cost) {
+            Object object = target.get(root, cost);
+            if (object == null) {
+                return ognlStep(name, null);
+            }
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                return "length".equals(name) ? Array.getLength(object) : ognlStep(name, object);
+            }
+            // OGNL 对这些类型有专门的 PropertyAccessor ，语义不同
+            if (object instanceof Map || object instanceof Collection || object instanceof Iterator
+                    || object instanceof Enumeration) {
+                return ognlStep(name, object);
+            }
+            return accessor(type).get(object, name);
+        }
+
+        private PropertyAccessor accessor(Class<?> type) {
+            PropertyAccessor[] current = accessors;
+            for (PropertyAccessor accessor : current) {
+                if (accessor.type == type) {
+                    return accessor;
+                }
+            }
+            PropertyAccessor accessor = PropertyAccessor.resolve(type, name);
+            PropertyAccessor[] updated;
+            if (current.length < MAX_CACHED_TYPES) {
+                updated = Arrays.copyOf(current, current.length + 1);
+            } else {
+                updated = new PropertyAccessor[current.length];
+                System.arraycopy(current, 1, updated, 0, current.length - 1);
+            }
+            updated[updated.length - 1] = accessor;
+            // 并发更新时可能丢掉一个，下次再解析
+            accessors = updated;
+            return accessor;
+        }
+
+        @Override
+        void collectRootProperties(Set<String> names) {
+            if (target instanceof RootNode) {
+                names.add(name);
+            } else {
+                target.collectRootProperties(names);
+            }
+        }
+    }
+
+    private static class IndexNode extends Node {
+        private final Node target;
+        private final int index;
+
+        IndexNode(Node target, int index) {
+            this.target = target;
+            this.index = index;
+        }
+
+        @Override
+        Object get(Object root, double cost) {
+            Object object = target.get(root, cost);
+            if (object != null && object.getClass().isArray() && index < Array.getLength(object)) {
+                return Array.get(object, index);
+            }
+            if (object instanceof List && index < ((List<?>) object).size()) {
+                return ((List<?>) object).get(index);
+            }
+            return ognlStep("[" + index + "]", object);
+        }
+
+        @Override
+        void collectRootProperties(Set<String> names) {
+            target.collectRootProperties(names);
+        }
+    }
+
+    private static class NotNode extends Node {
+        private final Node operand;
+
+        NotNode(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object get(Object root, double cost) {
+            return !truth(operand.get(root, cost));
+        }
+
+        @Override
+        void collectRootProperties(Set<String> names) {
+            operand.collectRootProperties(names);
+        }
+    }
+
+    /**
+     * 和 OGNL 一样，返回决定结果的那个操作数的值
+     */
+    private static class AndNode extends Node {
+        private final Node left;
+        private final Node right;
+
+        AndNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object get(Object root, double cost) {
+            Object value = left.get(root, cost);
+            return truth(value) ? right.get(root, cost) : value;
+        }
+
+        @Override
+        void collectRootProperties(Set<String> names) {
+            left.collectRootProperties(names);
+            right.collectRootProperties(names);
+        }
+    }
+
+    private static class OrNode extends Node {
+        private final Node left;
+        private final Node right;
+
+        OrNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object get(Object root, double cost) {
+            Object value = left.get(root, cost);
+            return truth(value) ? value : right.get(root, cost);
+        }
+
+        @Override
+        void collectRootProperties(Set<String> names) {
+            left.collectRootProperties(names);
+            right.collectRootProperties(names);
+        }
+    }
+
+    private static class CompareNode extends Node {
+        private final Node left;
+        private final int op;
+        private final Object literal;
+        // #cost 和数字比较，不需要装箱
+        private final boolean costCompare;
+
+        CompareNode(Node left, int op, Object literal) {
+            this.left = left;
+            this.op = op;
+            this.literal = literal;
+            this.costCompare = left instanceof CostNode && literal instanceof Number;
+        }
+
+        @Override
+        Object get(Object root, double cost) {
+            if (costCompare) {
+                double dv2 = ((Number) literal).doubleValue();
+                return compareResult(cost == dv2 ? 0 : (cost < dv2 ? -1 : 1));
+            }
+            Object value = left.get(root, cost);
+            if (literal == null) {
+                return (value == null) == (op == EQ);
+            }
+            // OGNL 里 null 和数字比较时会把 null 当作 0 ，交给 OgnlOps 处理
+            if (value == null) {
+                return ognlCompare(value);
+            }
+            int result;
+            if (literal instanceof Boolean) {
+                if (!(value instanceof Boolean)) {
+                    return ognlCompare(value);
+                }
+                return value.equals(literal) == (op == EQ);
+            } else if (literal instanceof String) {
+                if (!(value instanceof String)) {
+                    return ognlCompare(value);
+                }
+                result = ((String) value).compareTo((String) literal);
+            } else if (isIntegral(value) && literal instanceof Long) {
+                long lv1 = ((Number) value).longValue();
+                long lv2 = (Long) literal;
+                result = lv1 == lv2 ? 0 : (lv1 < lv2 ? -1 : 1);
+            } else if (isIntegral(value) || value instanceof Double || value instanceof Float) {
+                // 和 OgnlOps.compareWithConversion 一致，NaN 时认为是大于
+                double dv1 = ((Number) value).doubleValue();
+                double dv2 = ((Number) literal).doubleValue();
+                result = dv1 == dv2 ? 0 : (dv1 < dv2 ? -1 : 1);
+            } else {
+                return ognlCompare(value);
+            }
+            return compareResult(result);
+        }
+
+        /**
+         * 和 OGNL 的 ASTEq/ASTGreater 等一样用 OgnlOps 比较，比如 BigDecimal ，Character ，null 和数字
+         */
+        private Boolean ognlCompare(Object value) {
+            try {
+                switch (op) {
+                case EQ:
+                    return OgnlOps.equal(value, literal);
+                case NE:
+                    return !OgnlOps.equal(value, literal);
+                case GT:
+                    return OgnlOps.greater(value, literal);
+                case GE:
+                    return !OgnlOps.less(value, literal);
+                case LT:
+                    return OgnlOps.less(value, literal);
+                default:
+                    return !OgnlOps.greater(value, literal);
+                }
+            } catch (RuntimeException e) {
+                // 不能比较的类型，OGNL 也会抛出异常
+                throw new EvaluateException(e);
+            }
+        }
+
+        @Override
+        void collectRootProperties(Set<String> names) {
+            left.collectRootProperties(names);
+        }
+
+        private Boolean compareResult(int result) {
+            switch (op) {
+            case EQ:
+                return result == 0;
+            case NE:
+                return result != 0;
+            case GT:
+                return result > 0;
+            case GE:
+                return result >= 0;
+            case LT:
+                return result < 0;
+            default:
+                return result <= 0;
+            }
+        }
+
+        private static boolean isIntegral(Object value) {
+            return value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte;
+        }
+    }
+
+    /**
+     * 和 OGNL 的 ASTNot/ASTAnd/ASTOr 一样用 OgnlOps.booleanValue 判断真假
+     */
+    private static boolean truth(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return OgnlOps.booleanValue(value);
+    }
+
+    /**
+     * 编译的代码不能保证和 OGNL 语义一致的一步，用 OGNL 在已经算出来的 target 上计算，
+     * 抛出的异常和整个表达式用 OGNL 计算时一样
+     *
+     * @param step 属性名或者 [下标]
+     */
+    private static Object ognlStep(String step, Object target) {
+        try {
+            return ExpressFactory.threadLocalExpress(target).get(step);
+        } catch (ExpressException e) {
+            throw new EvaluateException(e.getCause());
+        }
+    }
+
+    /**
+     * getter 或者 OGNL 抛出的异常，在 {@link CompiledExpress#get(Object, double)} 里转换为 {@link ExpressException}
+     */
+    private static class EvaluateException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        EvaluateException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * 某个类上某个属性的访问方式，和 OGNL 一样优先使用 getter ，再使用 field ，允许访问 private 成员
+     */
+    private static class PropertyAccessor {
+        final Class<?> type;
+        final Method getter;
+        final Field field;
+
+        PropertyAccessor(Class<?> type, Method getter, Field field) {
+            this.type = type;
+            this.getter = getter;
+            this.field = field;
+        }
+
+        Object get(Object object, String name) {
+            try {
+                if (getter != null) {
+                    return getter.invoke(object);
+                }
+                if (field != null) {
+                    return field.get(object);
+                }
+            } catch (InvocationTargetException e) {
+                // getter 已经执行过了，不能交给 OGNL 重新计算，否则有副作用的 getter 会被调用两次
+                throw new EvaluateException(e.getCause());
+            } catch (Throwable e) {
+                // getter 没有执行，交给 OGNL ，抛出原来的异常信息
+            }
+            return ognlStep(name, object);
+        }
+
+        static PropertyAccessor resolve(Class<?> type, String name) {
+            String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            Method getter = findGetter(type, "get" + capitalized);
+            if (getter == null) {
+                getter = findGetter(type, "is" + capitalized);
+                if (getter != null && getter.getReturnType() != boolean.class
+                        && getter.getReturnType() != Boolean.class) {
+                    getter = null;
+                }
+            }
+            Field field = getter == null ? findField(type, name) : null;
+            return new PropertyAccessor(type, getter, field);
+        }
+
+        private static Method findGetter(Class<?> type, String methodName) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Method method : c.getDeclaredMethods()) {
+                    if (method.getName().equals(methodName) && method.getParameterTypes().length == 0
+                            && !Modifier.isStatic(method.getModifiers()) && method.getReturnType() != void.class) {
+                        return accessible(method) ? method : null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static Field findField(Class<?> type, String name) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers())) {
+                        return accessible(field) ? field : null;
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static boolean accessible(java.lang.reflect.AccessibleObject member) {
+            try {
+                member.setAccessible(true);
+                return true;
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.taobao.arthas.core.command.express;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 
@@ -8,6 +11,7 @@ import ognl.DefaultMemberAccess;
 import ognl.MemberAccess;
 import ognl.Ognl;
 import ognl.OgnlContext;
+import ognl.OgnlException;
 
 /**
  * @author ralf0131 2017-01-04 14:41.
@@ -16,6 +20,21 @@ import ognl.OgnlContext;
 public class OgnlExpress implements Express {
     private static final MemberAccess MEMBER_ACCESS = new DefaultMemberAccess(true);
     private static final Logger logger = LoggerFactory.getLogger(OgnlExpress.class);
+    private static final int MAX_CACHE_SIZE = 64;
+
+    /**
+     * 解析后的表达式 AST ，避免每次计算都重新解析。OGNL 的 AST 节点在计算时会缓存一些状态（比如常量值），
+     * 所以不在线程之间共享：每个 OgnlExpress 一份，OgnlExpress 通过 {@link ExpressFactory#threadLocalExpress(Object)}
+     * 每个线程一个。按 LRU 淘汰。
+     */
+    private final Map<String, Object> expressionCache = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
 
     private Object bindObject;
     private final OgnlContext context;
@@ -34,13 +53,22 @@ public class OgnlExpress implements Express {
     @Override
     public Object get(String express) throws ExpressException {
         try {
-            return Ognl.getValue(express, context, bindObject);
+            return Ognl.getValue(parseExpression(express), context, bindObject);
         } catch (Exception e) {
             logger.error("Error during evaluating the expression:", e);
             throw new ExpressException(express, e);
         }
     }
 
+    private Object parseExpression(String express) throws OgnlException {
+        Object tree = expressionCache.get(express);
+        if (tree == null) {
+            tree = Ognl.parseExpression(express);
+            expressionCache.put(express, tree);
+        }
+        return tree;
+    }
+
     @Override
     public boolean is(String express) throws ExpressException {
         final Object ret = get(express);
@@ -0,0 +1,44 @@
+package com.taobao.arthas.core.command.klass100;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.taobao.arthas.core.util.ClassBytesCache;
+
+/**
+ * 和 {@link ClassDumpTransformer} 类似，但是字节码只保存在内存里，同时放到 {@link ClassBytesCache}
+ */
+class ClassBytesTransformer implements ClassFileTransformer {
+
+    private final Set<Class<?>> classes;
+    private final ClassBytesCache cache;
+    private final Map<Class<?>, byte[]> result = new HashMap<Class<?>, byte[]>();
+
+    public ClassBytesTransformer(Set<Class<?>> classes, ClassBytesCache cache) {
+        this.classes = classes;
+        this.cache = cache;
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+            ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
+        if (classes.contains(classBeingRedefined)) {
+            // 在 transform 里放到缓存，TransformerManager 之后的 retransform 会让它失效，不会缓存过期的字节码
+            cache.put(classBeingRedefined, classfileBuffer);
+            synchronized (result) {
+                result.put(classBeingRedefined, classfileBuffer);
+            }
+        }
+        return null;
+    }
+
+    public Map<Class<?>, byte[]> getResult() {
+        synchronized (result) {
+            return new HashMap<Class<?>, byte[]>(result);
+        }
+    }
+}
@@ -3,10 +3,12 @@ package com.taobao.arthas.core.command.klass100;
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 import com.taobao.arthas.core.command.Constants;
+import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.shell.cli.Completion;
 import com.taobao.arthas.core.shell.cli.CompletionUtils;
 import com.taobao.arthas.core.shell.command.AnnotatedCommand;
 import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.ClassBytesCache;
 import com.taobao.arthas.core.util.ClassUtils;
 import com.taobao.arthas.core.util.Decompiler;
 import com.taobao.arthas.core.util.InstrumentationUtils;
@@ -26,8 +28,8 @@ import com.taobao.text.ui.LabelElement;
 import com.taobao.text.ui.TableElement;
 import com.taobao.text.util.RenderUtil;
 
-import java.io.File;
 import java.lang.instrument.Instrumentation;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -133,13 +135,16 @@ public class JadCommand extends AnnotatedCommand {
         allClasses.add(c);
 
         try {
-            ClassDumpTransformer transformer = new ClassDumpTransformer(allClasses);
-            InstrumentationUtils.retransformClasses(inst, transformer, allClasses);
-
-            Map<Class<?>, File> classFiles = transformer.getDumpResult();
-            File classFile = classFiles.get(c);
+            Map<Class<?>, byte[]> classBytes = getClassBytes(inst, allClasses);
+            Map<String, byte[]> namedClassBytes = new HashMap<String, byte[]>();
+            for (Map.Entry<Class<?>, byte[]> entry : classBytes.entrySet()) {
+                namedClassBytes.put(entry.getKey().getName(), entry.getValue());
+            }
 
-            String source = Decompiler.decompile(classFile.getAbsolutePath(), methodName, hideUnicode);
+            String source = null;
+            if (classBytes.containsKey(c)) {
+                source = Decompiler.decompile(c.getName(), namedClassBytes, methodName, hideUnicode);
+            }
             if (source != null) {
                 source = pattern.matcher(source).replaceAll("");
             } else {
@@ -160,12 +165,36 @@ public class JadCommand extends AnnotatedCommand {
                     c.getProtectionDomain().getCodeSource())).style(Decoration.bold.fg(Color.blue)), process.width()) + "\n");
             process.write(LangRenderUtil.render(source) + "\n");
             process.write(com.taobao.arthas.core.util.Constants.EMPTY_STRING);
-            affect.rCnt(classFiles.keySet().size());
+            affect.rCnt(classBytes.size());
         } catch (Throwable t) {
             logger.error("jad: fail to decompile class: " + c.getName(), t);
         }
     }
 
+    /**
+     * 已经缓存的类不需要再 retransform ，类被增强或者 redefine 之后缓存会失效
+     */
+    private static Map<Class<?>, byte[]> getClassBytes(Instrumentation inst, Set<Class<?>> classes) {
+        ClassBytesCache cache = ArthasBootstrap.getInstance().getTransformerManager().getClassBytesCache();
+        Map<Class<?>, byte[]> result = new HashMap<Class<?>, byte[]>();
+        Set<Class<?>> missed = new HashSet<Class<?>>();
+        for (Class<?> clazz : classes) {
+            byte[] bytes = cache.get(clazz);
+            if (bytes != null) {
+                result.put(clazz, bytes);
+            } else {
+                missed.add(clazz);
+            }
+        }
+
+        if (!missed.isEmpty()) {
+            ClassBytesTransformer transformer = new ClassBytesTransformer(missed, cache);
+            InstrumentationUtils.retransformClasses(inst, transformer, missed);
+            result.putAll(transformer.getResult());
+        }
+        return result;
+    }
+
     private void processMatches(CommandProcess process, Set<Class<?>> matchedClasses) {
         Element usage = new LabelElement("jad -c <hashcode> " + classPattern).style(Decoration.bold.fg(Color.blue));
         process.write("\n Found more than one class for: " + classPattern + ", Please use "
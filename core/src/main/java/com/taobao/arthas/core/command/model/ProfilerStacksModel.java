@@ -0,0 +1,99 @@
+package com.taobao.arthas.core.command.model;
+
+import java.util.List;
+
+import com.taobao.arthas.core.command.monitor200.ContinuousProfiler.StackDiff;
+import com.taobao.arthas.core.command.monitor200.StackTrie.StackCount;
+
+/**
+ * Result model for profiler queryWindows/diffWindows
+ */
+public class ProfilerStacksModel extends ResultModel implements Countable {
+
+    /**
+     * 查询的窗口，比如 3-7
+     */
+    private String target;
+    private long targetSamples;
+
+    /**
+     * diffWindows 时用来比较的窗口
+     */
+    private String base;
+    private long baseSamples;
+
+    /**
+     * queryWindows 的结果， collapsed 格式
+     */
+    private List<StackCount> stacks;
+
+    /**
+     * diffWindows 的结果
+     */
+    private List<StackDiff> diffs;
+
+    @Override
+    public String getType() {
+        return "profiler_stacks";
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    public long getTargetSamples() {
+        return targetSamples;
+    }
+
+    public void setTargetSamples(long targetSamples) {
+        this.targetSamples = targetSamples;
+    }
+
+    public String getBase() {
+        return base;
+    }
+
+    public void setBase(String base) {
+        this.base = base;
+    }
+
+    public long getBaseSamples() {
+        return baseSamples;
+    }
+
+    public void setBaseSamples(long baseSamples) {
+        this.baseSamples = baseSamples;
+    }
+
+    public List<StackCount> getStacks() {
+        return stacks;
+    }
+
+    public void setStacks(List<StackCount> stacks) {
+        this.stacks = stacks;
+    }
+
+    public List<StackDiff> getDiffs() {
+        return diffs;
+    }
+
+    public void setDiffs(List<StackDiff> diffs) {
+        this.diffs = diffs;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        if (stacks != null) {
+            size += stacks.size();
+        }
+        if (diffs != null) {
+            size += diffs.size();
+        }
+        return size;
+    }
+}
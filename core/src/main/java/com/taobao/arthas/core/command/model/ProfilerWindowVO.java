@@ -0,0 +1,53 @@
+package com.taobao.arthas.core.command.model;
+
+/**
+ * 持续 profiling 保存的一个窗口
+ */
+public class ProfilerWindowVO {
+    private long id;
+    private long startTime;
+    private long endTime;
+    private long samples;
+
+    public ProfilerWindowVO() {
+    }
+
+    public ProfilerWindowVO(long id, long startTime, long endTime, long samples) {
+        this.id = id;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.samples = samples;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public void setSamples(long samples) {
+        this.samples = samples;
+    }
+}
@@ -0,0 +1,50 @@
+package com.taobao.arthas.core.command.model;
+
+import java.util.List;
+
+/**
+ * Result model for profiler listWindows
+ */
+public class ProfilerWindowsModel extends ResultModel implements Countable {
+
+    private List<ProfilerWindowVO> windows;
+
+    /**
+     * 正在采样的窗口的开始时间
+     */
+    private long currentWindowStartTime;
+
+    public ProfilerWindowsModel() {
+    }
+
+    public ProfilerWindowsModel(List<ProfilerWindowVO> windows, long currentWindowStartTime) {
+        this.windows = windows;
+        this.currentWindowStartTime = currentWindowStartTime;
+    }
+
+    @Override
+    public String getType() {
+        return "profiler_windows";
+    }
+
+    public List<ProfilerWindowVO> getWindows() {
+        return windows;
+    }
+
+    public void setWindows(List<ProfilerWindowVO> windows) {
+        this.windows = windows;
+    }
+
+    public long getCurrentWindowStartTime() {
+        return currentWindowStartTime;
+    }
+
+    public void setCurrentWindowStartTime(long currentWindowStartTime) {
+        this.currentWindowStartTime = currentWindowStartTime;
+    }
+
+    @Override
+    public int size() {
+        return windows != null ? windows.size() : 0;
+    }
+}
@@ -2,6 +2,7 @@ package com.taobao.arthas.core.command.monitor200;
 
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.advisor.AdviceRequirement;
 import com.taobao.arthas.core.advisor.Advice;
 import com.taobao.arthas.core.advisor.ArthasMethod;
 import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
@@ -22,7 +23,7 @@ public class AbstractTraceAdviceListener extends AdviceListenerAdapter {
 
         @Override
         protected TraceEntity initialValue() {
-            return new TraceEntity();
+            return new TraceEntity(command.getMaxNodes());
         }
     };
 
@@ -39,11 +40,17 @@ public class AbstractTraceAdviceListener extends AdviceListenerAdapter {
         threadBoundEntity.remove();
     }
 
+    @Override
+    public AdviceRequirement getAdviceRequirement() {
+        return AdviceRequirement.of(command.getConditionExpress());
+    }
+
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
-        threadBoundEntity.get().view.begin(clazz.getName() + ":" + method.getName() + "()");
-        threadBoundEntity.get().deep++;
+        TraceEntity traceEntity = threadBoundEntity.get();
+        traceEntity.beginMethod(method.getMethodId(), clazz);
+        traceEntity.deep++;
         // 开始计算本次方法调用耗时
         threadLocalWatch.start();
     }
@@ -51,18 +58,26 @@ public class AbstractTraceAdviceListener extends AdviceListenerAdapter {
     @Override
     public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                                Object returnObject) throws Throwable {
-        threadBoundEntity.get().view.end();
-        final Advice advice = Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject);
-        finishing(advice);
+        threadBoundEntity.get().end();
+        // 只有条件表达式会用到 advice ，使用线程复用的对象
+        final Advice advice = Advice.borrowForAfterReturning(loader, clazz, method, target, args, returnObject);
+        try {
+            finishing(advice);
+        } finally {
+            advice.release();
+        }
     }
 
     @Override
     public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                               Throwable throwable) throws Throwable {
-        int lineNumber = throwable.getStackTrace()[0].getLineNumber();
-        threadBoundEntity.get().view.begin("throw:" + throwable.getClass().getName() + "()" + " #" + lineNumber).end().end();
-        final Advice advice = Advice.newForAfterThrowing(loader, clazz, method, target, args, throwable);
-        finishing(advice);
+        threadBoundEntity.get().throwing(throwable);
+        final Advice advice = Advice.borrowForAfterThrowing(loader, clazz, method, target, args, throwable);
+        try {
+            finishing(advice);
+        } finally {
+            advice.release();
+        }
     }
 
     public TraceCommand getCommand() {
@@ -81,8 +96,8 @@ public class AbstractTraceAdviceListener extends AdviceListenerAdapter {
                         abortProcess(process, command.getNumberOfLimit());
                     } else {
                         process.times().incrementAndGet();
-                        // TODO: concurrency issues for process.write
-                        process.write(threadBoundEntity.get().view.draw() + "\n");
+                        // 满足条件才生成调用树，异步输出，不等待终端
+                        process.writeAsync(threadBoundEntity.get().draw() + "\n");
                     }
                 }
             } catch (Throwable e) {
@@ -91,7 +106,8 @@ public class AbstractTraceAdviceListener extends AdviceListenerAdapter {
                               + ", visit " + LogUtil.loggingFile() + " for more details.\n");
                 process.end();
             } finally {
-                threadBoundEntity.remove();
+                // 保留线程的 TraceEntity ，下次调用复用
+                threadBoundEntity.get().reset();
             }
         }
     }
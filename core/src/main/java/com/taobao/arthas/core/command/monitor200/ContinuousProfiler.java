@@ -0,0 +1,409 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.arthas.deps.org.slf4j.Logger;
+import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.command.monitor200.StackTrie.Frames;
+import com.taobao.arthas.core.command.monitor200.StackTrie.StackCount;
+import com.taobao.arthas.core.server.ArthasBootstrap;
+
+import one.profiler.AsyncProfiler;
+import one.profiler.Counter;
+
+/**
+ * <pre>
+ * 持续 profiling ：AsyncProfiler 以较低的采样频率一直运行，每 windowSeconds 秒把 collapsed 格式的结果保存为一个窗口，
+ * 然后重新开始采样。最多保留 maxWindows 个窗口，可以查询最近一段时间的调用栈，或者比较两段时间的差异。
+ *
+ * 1. 窗口的调用栈保存在 {@link StackTrie} 里，所有窗口共用 frame 名字。淘汰窗口后如果 frame 名字明显多于还在使用的，
+ *    会把所有窗口搬到一个新的 {@link Frames} ，避免 frame 名字一直增长
+ * 2. 定时任务只负责计时，dump 和构建 StackTrie 在单独的线程里执行，不占用 arthas 共用的线程池
+ * 3. 重新开始采样失败时会停止持续 profiling ，不会一直保存空的窗口
+ * </pre>
+ */
+public class ContinuousProfiler {
+    private static final Logger logger = LoggerFactory.getLogger(ContinuousProfiler.class);
+
+    /**
+     * frame 名字少于这个数时不整理
+     */
+    static final int MIN_FRAMES_TO_COMPACT = 4096;
+
+    private static ContinuousProfiler instance;
+
+    private final int maxWindows;
+    private Frames frames = new Frames();
+    /**
+     * 上次整理后 frame 名字的数量
+     */
+    private int compactedFrames;
+    private final LinkedList<Window> windows = new LinkedList<Window>();
+    private long nextWindowId = 1;
+
+    private ArthasBootstrap bootstrap;
+    private AsyncProfiler profiler;
+    private String startArgs;
+    private long windowStartTime;
+    private Future<?> rotateFuture;
+    private ExecutorService rotateExecutor;
+
+    private final Runnable rotateTask = new Runnable() {
+        @Override
+        public void run() {
+            rotate();
+        }
+    };
+
+    ContinuousProfiler(int maxWindows) {
+        this.maxWindows = maxWindows;
+    }
+
+    /**
+     * @return 正在运行的持续 profiling ，没有时返回 null
+     */
+    public static synchronized ContinuousProfiler getInstance() {
+        return instance;
+    }
+
+    /**
+     * 开始持续 profiling
+     *
+     * @param startArgs     AsyncProfiler 的 start 参数，比如 start,event=cpu,interval=100000000
+     * @param windowSeconds 每个窗口的时长
+     * @param maxWindows    最多保留的窗口数
+     * @return AsyncProfiler start 的结果
+     */
+    public static synchronized String start(AsyncProfiler profiler, String startArgs, int windowSeconds,
+            int maxWindows) throws Exception {
+        if (instance != null) {
+            throw new IllegalStateException("Continuous profiling is already started.");
+        }
+        ContinuousProfiler continuousProfiler = new ContinuousProfiler(maxWindows);
+        String result = continuousProfiler.doStart(profiler, startArgs, windowSeconds);
+        instance = continuousProfiler;
+        return result;
+    }
+
+    /**
+     * 停止持续 profiling ，保存的窗口也会被清除
+     */
+    public static synchronized boolean stopInstance() {
+        if (instance == null) {
+            return false;
+        }
+        instance.doStop();
+        instance = null;
+        return true;
+    }
+
+    private static synchronized void removeInstance(ContinuousProfiler continuousProfiler) {
+        if (instance == continuousProfiler) {
+            instance = null;
+        }
+    }
+
+    private synchronized String doStart(AsyncProfiler profiler, String startArgs, int windowSeconds)
+            throws Exception {
+        this.bootstrap = ArthasBootstrap.getInstance();
+        this.profiler = profiler;
+        this.startArgs = startArgs;
+        String result = profiler.execute(startArgs);
+        this.windowStartTime = System.currentTimeMillis();
+        this.rotateExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "arthas-continuous-profiler");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // 窗口对齐到整数倍的时间，方便按时间查找
+        this.rotateFuture = bootstrap.scheduleAtAlignedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rotateExecutor.execute(rotateTask);
+                } catch (RejectedExecutionException e) {
+                    // 已经停止
+                }
+            }
+        }, windowSeconds, TimeUnit.SECONDS);
+        return result;
+    }
+
+    private synchronized void doStop() {
+        if (rotateFuture == null) {
+            // 重新开始采样失败时已经停止
+            return;
+        }
+        cancelRotate();
+        try {
+            profiler.stop();
+        } catch (Throwable e) {
+            logger.warn("stop continuous profiling error", e);
+        }
+    }
+
+    private void cancelRotate() {
+        bootstrap.cancelScheduled(rotateFuture);
+        rotateFuture = null;
+        rotateExecutor.shutdown();
+        windows.clear();
+    }
+
+    /**
+     * 保存当前窗口的结果，重新开始采样。start 会清除 AsyncProfiler 里已经采集的数据。
+     * 在 rotateExecutor 里执行，StackTrie 在锁外构建，查询不用等待
+     */
+    void rotate() {
+        String collapsed;
+        long startTime;
+        long endTime;
+        synchronized (this) {
+            if (rotateFuture == null) {
+                return;
+            }
+            endTime = System.currentTimeMillis();
+            startTime = windowStartTime;
+            try {
+                collapsed = profiler.dumpCollapsed(Counter.SAMPLES);
+                profiler.stop();
+                profiler.execute(startArgs);
+                windowStartTime = endTime;
+            } catch (Throwable e) {
+                logger.error("restart continuous profiling error, continuous profiling is stopped, args: "
+                        + startArgs, e);
+                cancelRotate();
+                collapsed = null;
+            }
+        }
+        if (collapsed == null) {
+            removeInstance(this);
+            return;
+        }
+        addWindow(collapsed, startTime, endTime);
+    }
+
+    Window addWindow(String collapsed, long startTime, long endTime) {
+        StackTrie trie = new StackTrie(new Frames());
+        trie.addCollapsedLines(collapsed);
+        return addWindow(trie, startTime, endTime);
+    }
+
+    private synchronized Window addWindow(StackTrie trie, long startTime, long endTime) {
+        Window window = new Window(nextWindowId++, startTime, endTime, trie.copyTo(frames));
+        windows.addLast(window);
+        boolean evicted = false;
+        while (windows.size() > maxWindows) {
+            windows.removeFirst();
+            evicted = true;
+        }
+        if (evicted && frames.size() > Math.max(MIN_FRAMES_TO_COMPACT, compactedFrames * 2)) {
+            compactFrames();
+        }
+        return window;
+    }
+
+    /**
+     * 把还在保存的窗口搬到一个新的 {@link Frames} ，去掉被淘汰的窗口才用到的 frame 名字
+     */
+    private void compactFrames() {
+        Frames compacted = new Frames();
+        for (Window window : windows) {
+            window.trie = window.trie.copyTo(compacted);
+        }
+        frames = compacted;
+        compactedFrames = compacted.size();
+    }
+
+    synchronized int frameCount() {
+        return frames.size();
+    }
+
+    public synchronized List<Window> getWindows() {
+        return new ArrayList<Window>(windows);
+    }
+
+    public synchronized long getWindowStartTime() {
+        return windowStartTime;
+    }
+
+    /**
+     * @return 结束时间在 fromTime 之后的窗口
+     */
+    public synchronized List<Window> windowsSince(long fromTime) {
+        List<Window> result = new ArrayList<Window>();
+        for (Window window : windows) {
+            if (window.getEndTime() > fromTime) {
+                result.add(window);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return id 在 [fromId, toId] 之间的窗口
+     */
+    public synchronized List<Window> windowsBetween(long fromId, long toId) {
+        List<Window> result = new ArrayList<Window>();
+        for (Window window : windows) {
+            if (window.getId() >= fromId && window.getId() <= toId) {
+                result.add(window);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return id 小于 id 的窗口
+     */
+    public synchronized List<Window> windowsBefore(long id) {
+        List<Window> result = new ArrayList<Window>();
+        for (Window window : windows) {
+            if (window.getId() < id) {
+                result.add(window);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 合并多个窗口的调用栈
+     */
+    public synchronized StackTrie merge(List<Window> selected) {
+        int expectedNodes = 64;
+        for (Window window : selected) {
+            expectedNodes = Math.max(expectedNodes, window.getTrie().nodeCount());
+        }
+        StackTrie result = new StackTrie(frames, expectedNodes);
+        for (Window window : selected) {
+            result.merge(window.getTrie());
+        }
+        return result;
+    }
+
+    /**
+     * 合并多个窗口的调用栈，按 count 从大到小排序。frame 名字会被 rotate 修改，所以要在锁里生成
+     */
+    public synchronized List<StackCount> stackCounts(List<Window> selected) {
+        return merge(selected).toStackCounts();
+    }
+
+    /**
+     * 比较两组窗口的调用栈，按占比的差值的绝对值从大到小排序
+     */
+    public synchronized List<StackDiff> diff(List<Window> base, List<Window> target) {
+        StackTrie baseTrie = merge(base);
+        StackTrie targetTrie = merge(target);
+
+        Map<String, StackDiff> diffs = new HashMap<String, StackDiff>();
+        for (StackCount stackCount : baseTrie.toStackCounts()) {
+            diffs.put(stackCount.getStack(), new StackDiff(stackCount.getStack(), stackCount.getCount(), 0));
+        }
+        for (StackCount stackCount : targetTrie.toStackCounts()) {
+            StackDiff diff = diffs.get(stackCount.getStack());
+            if (diff == null) {
+                diffs.put(stackCount.getStack(), new StackDiff(stackCount.getStack(), 0, stackCount.getCount()));
+            } else {
+                diff.targetCount = stackCount.getCount();
+            }
+        }
+
+        List<StackDiff> result = new ArrayList<StackDiff>(diffs.values());
+        // 两段时间的长度可能不一样，按占比比较
+        long baseTotal = Math.max(1, baseTrie.getTotal());
+        long targetTotal = Math.max(1, targetTrie.getTotal());
+        for (StackDiff diff : result) {
+            diff.delta = (double) diff.targetCount / targetTotal - (double) diff.baseCount / baseTotal;
+        }
+        Collections.sort(result, StackDiff.DELTA_DESC);
+        return result;
+    }
+
+    public static class Window {
+        private final long id;
+        private final long startTime;
+        private final long endTime;
+        // 整理 frame 名字时会被替换，getSamples 在锁外调用
+        private volatile StackTrie trie;
+
+        Window(long id, long startTime, long endTime, StackTrie trie) {
+            this.id = id;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.trie = trie;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public long getSamples() {
+            return trie.getTotal();
+        }
+
+        StackTrie getTrie() {
+            return trie;
+        }
+    }
+
+    public static class StackDiff {
+        static final Comparator<StackDiff> DELTA_DESC = new Comparator<StackDiff>() {
+            @Override
+            public int compare(StackDiff o1, StackDiff o2) {
+                return Double.compare(Math.abs(o2.delta), Math.abs(o1.delta));
+            }
+        };
+
+        private final String stack;
+        private long baseCount;
+        private long targetCount;
+        private double delta;
+
+        StackDiff(String stack, long baseCount, long targetCount) {
+            this.stack = stack;
+            this.baseCount = baseCount;
+            this.targetCount = targetCount;
+        }
+
+        public String getStack() {
+            return stack;
+        }
+
+        public long getBaseCount() {
+            return baseCount;
+        }
+
+        public long getTargetCount() {
+            return targetCount;
+        }
+
+        /**
+         * @return target 里的占比减去 base 里的占比
+         */
+        public double getDelta() {
+            return delta;
+        }
+    }
+}
@@ -5,13 +5,14 @@ import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.taobao.arthas.core.command.Constants;
+import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.shell.command.AnnotatedCommand;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.shell.handlers.Handler;
 import com.taobao.arthas.core.shell.handlers.shell.QExitHandler;
-import com.taobao.arthas.core.shell.session.Session;
 import com.taobao.arthas.core.util.NetUtils;
 import com.taobao.arthas.core.util.NetUtils.Response;
+import com.taobao.arthas.core.util.ThreadCpuSampler;
 import com.taobao.arthas.core.util.ThreadUtil;
 import com.taobao.arthas.core.util.metrics.SumRateCounter;
 import com.taobao.middleware.cli.annotations.Description;
@@ -21,7 +22,6 @@ import com.taobao.middleware.cli.annotations.Summary;
 import com.taobao.text.Color;
 import com.taobao.text.Decoration;
 import com.taobao.text.Style;
-import com.taobao.text.renderers.ThreadRenderer;
 import com.taobao.text.ui.RowElement;
 import com.taobao.text.ui.TableElement;
 import com.taobao.text.util.RenderUtil;
@@ -34,8 +34,8 @@ import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author hengyunabc 2015年11月19日 上午11:57:21
@@ -61,7 +61,7 @@ public class DashboardCommand extends AnnotatedCommand {
     private long interval = 5000;
 
     private volatile long count = 0;
-    private volatile Timer timer;
+    private volatile ScheduledFuture<?> timer;
 
     @Option(shortName = "n", longName = "number-of-execution")
     @Description("The number of times this command will be executed.")
@@ -79,11 +79,8 @@ public class DashboardCommand extends AnnotatedCommand {
     @Override
     public void process(final CommandProcess process) {
 
-        Session session = process.session();
-        timer = new Timer("Timer-for-arthas-dashboard-" + session.getSessionId(), true);
-
         // ctrl-C support
-        process.interruptHandler(new DashboardInterruptHandler(process, timer));
+        process.interruptHandler(new DashboardInterruptHandler(process, this));
 
         /*
          * 通过handle回调，在suspend和end时停止timer，resume时重启timer
@@ -109,22 +106,23 @@ public class DashboardCommand extends AnnotatedCommand {
         process.stdinHandler(new QExitHandler(process));
 
         // start the timer
-        timer.scheduleAtFixedRate(new DashboardTimerTask(process), 0, getInterval());
+        restart(process);
     }
 
     public synchronized void stop() {
         if (timer != null) {
-            timer.cancel();
-            timer.purge();
+            ArthasBootstrap.getInstance().cancelScheduled(timer);
             timer = null;
+            ArthasBootstrap.getInstance().getThreadCpuSampler().release(getInterval());
         }
     }
 
     public synchronized void restart(CommandProcess process) {
         if (timer == null) {
-            Session session = process.session();
-            timer = new Timer("Timer-for-arthas-dashboard-" + session.getSessionId(), true);
-            timer.scheduleAtFixedRate(new DashboardTimerTask(process), 0, getInterval());
+            // 刷新时直接读取后台采样的线程 cpu 使用率
+            ArthasBootstrap.getInstance().getThreadCpuSampler().acquire(getInterval());
+            timer = ArthasBootstrap.getInstance().scheduleAtFixedRate(new DashboardTimerTask(process), 0,
+                    getInterval(), TimeUnit.MILLISECONDS);
         }
     }
 
@@ -263,7 +261,10 @@ public class DashboardCommand extends AnnotatedCommand {
 
     static String drawThreadInfo(int width, int height) {
         Map<String, Thread> threads = ThreadUtil.getThreads();
-        return RenderUtil.render(threads.values().iterator(), new ThreadRenderer(), width, height);
+        ThreadCpuSampler sampler = ArthasBootstrap.getInstance().getThreadCpuSampler();
+        // 第一次刷新时还没有采样结果，不等待，cpu 显示为 n/a
+        ThreadCpuSampler.Sample sample = sampler.getLatest();
+        return RenderUtil.render(ThreadTable.drawThreadTable(threads.values(), sample), width, height);
     }
 
     static String drawMemoryInfoAndGcInfo(int width, int height) {
@@ -367,7 +368,7 @@ public class DashboardCommand extends AnnotatedCommand {
         }
     }
 
-    private class DashboardTimerTask extends TimerTask {
+    private class DashboardTimerTask implements Runnable {
         private CommandProcess process;
 
         public DashboardTimerTask(CommandProcess process) {
@@ -378,8 +379,7 @@ public class DashboardCommand extends AnnotatedCommand {
         public void run() {
             if (count >= getNumOfExecutions()) {
                 // stop the timer
-                timer.cancel();
-                timer.purge();
+                stop();
                 process.write("Process ends after " + getNumOfExecutions() + " time(s).\n");
                 process.end();
                 return;
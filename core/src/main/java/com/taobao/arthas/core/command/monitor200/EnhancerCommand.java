@@ -8,9 +8,12 @@ import java.util.List;
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 import com.taobao.arthas.core.advisor.AdviceListener;
+import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
+import com.taobao.arthas.core.advisor.AdviceSampler;
 import com.taobao.arthas.core.advisor.AdviceWeaver;
 import com.taobao.arthas.core.advisor.Enhancer;
 import com.taobao.arthas.core.advisor.InvokeTraceable;
+import com.taobao.arthas.core.advisor.RetransformProgress;
 import com.taobao.arthas.core.shell.cli.Completion;
 import com.taobao.arthas.core.shell.cli.CompletionUtils;
 import com.taobao.arthas.core.shell.command.AnnotatedCommand;
@@ -40,12 +43,36 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
 
     protected long listenerId;
 
+    protected int sampleRate = 1;
+
+    protected int maxPerSecond = 0;
+
     @Option(longName = "listenerId")
     @Description("The special listenerId")
     public void setListenerId(long listenerId) {
         this.listenerId = listenerId;
     }
 
+    @Option(longName = "sample-rate")
+    @Description("Only capture 1 in N invocations per thread, the others are skipped before any expression is evaluated, default value 1.")
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    @Option(longName = "max-per-second")
+    @Description("Max invocations captured per second, the others are skipped before any expression is evaluated, default value 0 means no limit.")
+    public void setMaxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getMaxPerSecond() {
+        return maxPerSecond;
+    }
+
     /**
      * 类名匹配
      *
@@ -124,6 +151,9 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
                 warn(process, "advice listener is null");
                 return;
             }
+            if (listener instanceof AdviceListenerAdapter && (sampleRate > 1 || maxPerSecond > 0)) {
+                ((AdviceListenerAdapter) listener).setSampler(new AdviceSampler(sampleRate, maxPerSecond));
+            }
             boolean skipJDKTrace = false;
             if(listener instanceof AbstractTraceAdviceListener) {
                 skipJDKTrace = ((AbstractTraceAdviceListener) listener).getCommand().isSkipJDKTrace();
@@ -132,7 +162,12 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
             Enhancer enhancer = new Enhancer(listener, listener instanceof InvokeTraceable, skipJDKTrace, getClassNameMatcher(), getMethodNameMatcher());
             // 注册通知监听器
             process.register(listener, enhancer);
-            EnhancerAffect effect = enhancer.enhance(inst);
+            EnhancerAffect effect = enhancer.enhance(inst, new ProcessRetransformProgress(process));
+
+            if (effect.isCancelled()) {
+                // ctrl-C 或者 q 退出时 process 已经结束
+                return;
+            }
 
             if (effect.getThrowable() != null) {
                 process.write(effect.toString() + ", check arthas log: " + LogUtil.loggingFile() + "\n");
@@ -175,6 +210,27 @@ public abstract class EnhancerCommand extends AnnotatedCommand {
         super.complete(completion);
     }
 
+    /**
+     * 匹配的类比较多，需要分批 retransform 时输出进度，命令结束后不再增强剩下的类
+     */
+    private static class ProcessRetransformProgress implements RetransformProgress {
+        private final CommandProcess process;
+
+        ProcessRetransformProgress(CommandProcess process) {
+            this.process = process;
+        }
+
+        @Override
+        public void onProgress(int finished, int total) {
+            process.write("Retransformed classes: " + finished + "/" + total + "\n");
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return !process.isRunning();
+        }
+    }
+
     private static void warn(CommandProcess process, String message) {
         logger.error(message);
         process.write("cannot operate the current command, pls. check arthas.log\n");
@@ -57,13 +57,13 @@ public class GroovyAdviceListener extends AdviceListenerAdapter {
 
         @Override
         public ScriptSupportCommand.Output print(String string) {
-            process.write(string);
+            process.writeAsync(string);
             return this;
         }
 
         @Override
         public ScriptSupportCommand.Output println(String string) {
-            process.write(string).write("\n");
+            process.writeAsync(string + "\n");
             return this;
         }
 
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.CancellationException;
 
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
@@ -12,6 +13,9 @@ import com.sun.management.HotSpotDiagnosticMXBean;
 import com.taobao.arthas.core.command.Constants;
 import com.taobao.arthas.core.shell.command.AnnotatedCommand;
 import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.shell.handlers.command.CommandInterruptHandler;
+import com.taobao.arthas.core.util.hprof.HeapSummary;
+import com.taobao.arthas.core.util.hprof.HprofAnalyzer;
 import com.taobao.middleware.cli.annotations.Argument;
 import com.taobao.middleware.cli.annotations.Description;
 import com.taobao.middleware.cli.annotations.Name;
@@ -27,6 +31,7 @@ import com.taobao.middleware.cli.annotations.Summary;
 @Name("heapdump")
 @Summary("Heap dump")
 @Description("\nExamples:\n" + "  heapdump\n" + "  heapdump --live\n" + "  heapdump --live /tmp/dump.hprof\n"
+                + "  heapdump --analyze /tmp/dump.hprof\n" + "  heapdump --analyze -n 50 /tmp/dump.hprof\n"
                 + Constants.WIKI + Constants.WIKI_HOME + "heapdump")
 public class HeapDumpCommand extends AnnotatedCommand {
     private static final Logger logger = LoggerFactory.getLogger(HeapDumpCommand.class);
@@ -34,6 +39,10 @@ public class HeapDumpCommand extends AnnotatedCommand {
 
     private boolean live;
 
+    private boolean analyze;
+
+    private int topN = 20;
+
     @Argument(argName = "file", index = 0, required = false)
     @Description("Output file")
     public void setFile(String file) {
@@ -46,8 +55,24 @@ public class HeapDumpCommand extends AnnotatedCommand {
         this.live = live;
     }
 
+    @Option(longName = "analyze", flag = true)
+    @Description("Analyze the heap dump file, print class histogram, largest objects and duplicate strings.")
+    public void setAnalyze(boolean analyze) {
+        this.analyze = analyze;
+    }
+
+    @Option(shortName = "n", longName = "top")
+    @Description("The number of rows in each analyze result, default is 20.")
+    public void setTopN(int topN) {
+        this.topN = topN;
+    }
+
     @Override
     public void process(CommandProcess process) {
+        if (analyze) {
+            processAnalyze(process);
+            return;
+        }
         int status = 0;
         try {
             String dumpFile = file;
@@ -74,6 +99,62 @@ public class HeapDumpCommand extends AnnotatedCommand {
 
     }
 
+    private void processAnalyze(CommandProcess process) {
+        int status = 0;
+        try {
+            if (file == null || file.isEmpty()) {
+                process.write("Please specify the heap dump file to analyze.\n");
+                status = 1;
+                return;
+            }
+            if (topN <= 0) {
+                process.write("Illegal argument, top should be greater than 0.\n");
+                status = 1;
+                return;
+            }
+            File dumpFile = new File(file);
+            if (!dumpFile.isFile()) {
+                process.write("Heap dump file does not exist: " + dumpFile.getAbsolutePath() + "\n");
+                status = 1;
+                return;
+            }
+
+            // 分析大的 dump 文件需要很长时间，可以 ctrl + c 停止
+            process.interruptHandler(new CommandInterruptHandler(process));
+            process.write("Analyzing heap dump " + dumpFile.getAbsolutePath() + "...\n");
+            long start = System.currentTimeMillis();
+            HeapSummary summary = HprofAnalyzer.analyze(dumpFile, topN, new ProcessCancellation(process));
+            process.write(HeapSummaryView.render(summary, process.width()));
+            process.write("Analyzed in " + (System.currentTimeMillis() - start) + " ms.\n");
+        } catch (CancellationException e) {
+            // ctrl + c 时 process 已经结束，不再输出
+            logger.info("analyze heap dump cancelled: {}", file);
+            if (process.isRunning()) {
+                process.write("Analyze heap dump cancelled.\n");
+                status = 1;
+            }
+        } catch (Throwable t) {
+            logger.error("analyze heap dump error", t);
+            process.write("Analyze heap dump error: " + t.getMessage() + '\n');
+            status = 1;
+        } finally {
+            process.end(status);
+        }
+    }
+
+    private static class ProcessCancellation implements HprofAnalyzer.Cancellation {
+        private final CommandProcess process;
+
+        ProcessCancellation(CommandProcess process) {
+            this.process = process;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return !process.isRunning();
+        }
+    }
+
     private static void run(CommandProcess process, String file, boolean live) throws IOException {
         HotSpotDiagnosticMXBean hotSpotDiagnosticMXBean = ManagementFactory
                         .getPlatformMXBean(HotSpotDiagnosticMXBean.class);
@@ -0,0 +1,63 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.util.hprof.HeapSummary;
+import com.taobao.arthas.core.util.hprof.HeapSummary.ClassHistogram;
+import com.taobao.arthas.core.util.hprof.HeapSummary.DuplicateString;
+import com.taobao.arthas.core.util.hprof.HeapSummary.LargeObject;
+import com.taobao.text.Color;
+import com.taobao.text.Decoration;
+import com.taobao.text.ui.LabelElement;
+import com.taobao.text.ui.RowElement;
+import com.taobao.text.ui.TableElement;
+import com.taobao.text.util.RenderUtil;
+
+/**
+ * heapdump --analyze 的输出
+ */
+public class HeapSummaryView {
+
+    static String render(HeapSummary summary, int width) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(RenderUtil.render(new LabelElement("Objects: " + summary.getObjectCount() + ", total shallow size: "
+                + summary.getTotalSize() + " bytes, identifier size: " + summary.getIdSize()), width));
+
+        sb.append(RenderUtil.render(new LabelElement("Class histogram:").style(Decoration.bold.bold()), width));
+        TableElement histogram = new TableElement(1, 2, 2, 6).leftCellPadding(1).rightCellPadding(1);
+        histogram.add(header("#", "INSTANCES", "BYTES", "CLASS"));
+        int index = 1;
+        for (ClassHistogram entry : summary.getHistogram()) {
+            histogram.row("" + index++, "" + entry.getInstances(), "" + entry.getSize(), entry.getClassName());
+        }
+        sb.append(RenderUtil.render(histogram, width));
+
+        // 引用的对象可能还被其它对象引用，只是 retained size 的估算
+        sb.append(RenderUtil.render(
+                new LabelElement("Largest objects (retained size ~ shallow + referenced):").style(Decoration.bold.bold()),
+                width));
+        TableElement largeObjects = new TableElement(2, 2, 2, 6).leftCellPadding(1).rightCellPadding(1);
+        largeObjects.add(header("ID", "SHALLOW", "REFERENCED", "CLASS"));
+        for (LargeObject object : summary.getLargeObjects()) {
+            largeObjects.row("0x" + Long.toHexString(object.getId()), "" + object.getSize(),
+                    "" + object.getReferencedSize(), object.getClassName());
+        }
+        sb.append(RenderUtil.render(largeObjects, width));
+
+        sb.append(RenderUtil.render(new LabelElement("Duplicate strings:").style(Decoration.bold.bold()), width));
+        TableElement strings = new TableElement(1, 2, 1, 6).leftCellPadding(1).rightCellPadding(1);
+        strings.add(header("COUNT", "WASTED", "LENGTH", "VALUE"));
+        for (DuplicateString string : summary.getDuplicateStrings()) {
+            strings.row("" + string.getCount(), "" + string.getWastedSize(), "" + string.getLength(),
+                    escape(string.getValue()));
+        }
+        sb.append(RenderUtil.render(strings, width));
+        return sb.toString();
+    }
+
+    private static RowElement header(String... titles) {
+        return new RowElement().style(Decoration.bold.fg(Color.black).bg(Color.white)).add(titles);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\r", "\\r").replace("\n", "\\n").replace("\t", "\\t");
+    }
+}
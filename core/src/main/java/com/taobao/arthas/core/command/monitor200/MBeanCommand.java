@@ -3,6 +3,7 @@ package com.taobao.arthas.core.command.monitor200;
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 import com.taobao.arthas.core.command.Constants;
+import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.shell.cli.CliToken;
 import com.taobao.arthas.core.shell.cli.Completion;
 import com.taobao.arthas.core.shell.cli.CompletionUtils;
@@ -11,7 +12,6 @@ import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.shell.handlers.Handler;
 import com.taobao.arthas.core.shell.handlers.command.CommandInterruptHandler;
 import com.taobao.arthas.core.shell.handlers.shell.QExitHandler;
-import com.taobao.arthas.core.shell.session.Session;
 import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.TokenUtils;
 import com.taobao.arthas.core.util.matcher.Matcher;
@@ -34,8 +34,8 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.Descriptor;
 import javax.management.DescriptorRead;
@@ -80,7 +80,7 @@ public class MBeanCommand extends AnnotatedCommand {
     private long interval = 0;
     private boolean metaData;
     private int numOfExecutions = 100;
-    private Timer timer;
+    private volatile ScheduledFuture<?> timer;
     private long count = 0;
 
     @Argument(argName = "name-pattern", index = 0, required = false)
@@ -160,11 +160,8 @@ public class MBeanCommand extends AnnotatedCommand {
     }
 
     private void listAttribute(final CommandProcess process) {
-        Session session = process.session();
-        timer = new Timer("Timer-for-arthas-mbean-" + session.getSessionId(), true);
-
         // ctrl-C support
-        process.interruptHandler(new MBeanInterruptHandler(process, timer));
+        process.interruptHandler(new MBeanInterruptHandler(process));
 
         // 通过handle回调，在suspend和end时停止timer，resume时重启timer
         Handler<Void> stopHandler = new Handler<Void>() {
@@ -187,26 +184,25 @@ public class MBeanCommand extends AnnotatedCommand {
         process.stdinHandler(new QExitHandler(process));
 
         // start the timer
-        if (getInterval() > 0) {
-            timer.scheduleAtFixedRate(new MBeanTimerTask(process), 0, getInterval());
-        } else {
-            timer.schedule(new MBeanTimerTask(process), 0);
-        }
+        restart(process);
     }
 
     public synchronized void stop() {
         if (timer != null) {
-            timer.cancel();
-            timer.purge();
+            ArthasBootstrap.getInstance().cancelScheduled(timer);
             timer = null;
         }
     }
 
     public synchronized void restart(CommandProcess process) {
         if (timer == null) {
-            Session session = process.session();
-            timer = new Timer("Timer-for-arthas-mbean-" + session.getSessionId(), true);
-            timer.scheduleAtFixedRate(new MBeanTimerTask(process), 0, getInterval());
+            if (getInterval() > 0) {
+                timer = ArthasBootstrap.getInstance().scheduleAtFixedRate(new MBeanTimerTask(process), 0,
+                        getInterval(), TimeUnit.MILLISECONDS);
+            } else {
+                timer = ArthasBootstrap.getInstance().schedule(new MBeanTimerTask(process), 0,
+                        TimeUnit.MILLISECONDS);
+            }
         }
     }
 
@@ -447,21 +443,18 @@ public class MBeanCommand extends AnnotatedCommand {
 
     public class MBeanInterruptHandler extends CommandInterruptHandler {
 
-        private volatile Timer timer;
-
-        public MBeanInterruptHandler(CommandProcess process, Timer timer) {
+        public MBeanInterruptHandler(CommandProcess process) {
             super(process);
-            this.timer = timer;
         }
 
         @Override
         public void handle(Void event) {
-            timer.cancel();
+            stop();
             super.handle(event);
         }
     }
 
-    private class MBeanTimerTask extends TimerTask {
+    private class MBeanTimerTask implements Runnable {
 
         private CommandProcess process;
 
@@ -473,8 +466,7 @@ public class MBeanCommand extends AnnotatedCommand {
         public void run() {
             if (count >= getNumOfExecutions()) {
                 // stop the timer
-                timer.cancel();
-                timer.purge();
+                stop();
                 process.write("Process ends after " + getNumOfExecutions() + " time(s).\n");
                 process.end();
                 return;
@@ -1,9 +1,14 @@
 package com.taobao.arthas.core.command.monitor200;
 
+import com.taobao.arthas.core.advisor.AdviceRequirement;
 import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.util.ThreadLocalWatch;
+import com.taobao.arthas.core.util.collection.ConcurrentIntObjectMap;
+import com.taobao.arthas.core.util.metrics.LatencyHistogram;
+import com.taobao.arthas.core.util.metrics.StripedCounters;
 import com.taobao.text.Decoration;
 import com.taobao.text.ui.TableElement;
 import com.taobao.text.util.RenderUtil;
@@ -11,11 +16,10 @@ import com.taobao.text.util.RenderUtil;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static com.taobao.arthas.core.util.ArthasCheckUtils.isEquals;
 import static com.taobao.text.ui.Element.label;
@@ -63,14 +67,15 @@ import static com.taobao.text.ui.Element.label;
  * <td>0%</td>
  * </tr>
  * </table>
+ * 之后还有 p50/p90/p99/p999/max 耗时(ms)，指定 --histogram 时会再输出每个方法的直方图桶计数。
  *
  * @author beiwei30 on 28/11/2016.
  */
 class MonitorAdviceListener extends AdviceListenerAdapter {
-    // 输出定时任务
-    private Timer timer;
-    // 监控数据
-    private ConcurrentHashMap<Key, AtomicReference<Data>> monitorData = new ConcurrentHashMap<Key, AtomicReference<Data>>();
+    // 输出定时任务，在 ArthasBootstrap 共用的调度线程池里执行
+    private ScheduledFuture<?> timer;
+    // 监控数据，key 是增强时分配的方法id
+    private ConcurrentIntObjectMap<MonitorData> monitorData = new ConcurrentIntObjectMap<MonitorData>();
     private final ThreadLocalWatch threadLocalWatch = new ThreadLocalWatch();
     private MonitorCommand command;
     private CommandProcess process;
@@ -83,20 +88,26 @@ class MonitorAdviceListener extends AdviceListenerAdapter {
     @Override
     public synchronized void create() {
         if (timer == null) {
-            timer = new Timer("Timer-for-arthas-monitor-" + process.session().getSessionId(), true);
-            timer.scheduleAtFixedRate(new MonitorTimer(monitorData, process, command.getNumberOfLimit()),
-                    0, command.getCycle() * 1000);
+            // 按周期对齐，同样周期的多个 monitor 在同一时刻输出
+            timer = ArthasBootstrap.getInstance().scheduleAtAlignedRate(new MonitorTimer(monitorData, process,
+                    command.getNumberOfLimit(), command.isHistogram()), command.getCycle(), TimeUnit.SECONDS);
         }
     }
 
     @Override
     public synchronized void destroy() {
         if (null != timer) {
-            timer.cancel();
+            ArthasBootstrap.getInstance().cancelScheduled(timer);
             timer = null;
         }
     }
 
+    @Override
+    public AdviceRequirement getAdviceRequirement() {
+        // 只统计耗时，不需要参数和返回值
+        return AdviceRequirement.TIMING;
+    }
+
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
@@ -116,45 +127,37 @@ class MonitorAdviceListener extends AdviceListenerAdapter {
     }
 
     private void finishing(Class<?> clazz, ArthasMethod method, boolean isThrowing) {
-        double cost = threadLocalWatch.costInMillis();
-        final Key key = new Key(clazz.getName(), method.getName());
-
-        while (true) {
-            AtomicReference<Data> value = monitorData.get(key);
-            if (null == value) {
-                monitorData.putIfAbsent(key, new AtomicReference<Data>(new Data()));
-                continue;
-            }
-
-            while (true) {
-                Data oData = value.get();
-                Data nData = new Data();
-                nData.setCost(oData.getCost() + cost);
-                if (isThrowing) {
-                    nData.setFailed(oData.getFailed() + 1);
-                    nData.setSuccess(oData.getSuccess());
-                } else {
-                    nData.setFailed(oData.getFailed());
-                    nData.setSuccess(oData.getSuccess() + 1);
-                }
-                nData.setTotal(oData.getTotal() + 1);
-                if (value.compareAndSet(oData, nData)) {
-                    break;
-                }
+        long cost = threadLocalWatch.cost();
+        int methodId = method.getMethodId();
+
+        MonitorData data = monitorData.get(methodId);
+        if (data == null) {
+            data = new MonitorData(clazz.getName(), method.getName());
+            MonitorData old = monitorData.putIfAbsent(methodId, data);
+            if (old != null) {
+                data = old;
             }
-            break;
         }
+
+        StripedCounters counters = data.counters;
+        counters.increment(MonitorData.TOTAL);
+        counters.increment(isThrowing ? MonitorData.FAILED : MonitorData.SUCCESS);
+        counters.add(MonitorData.COST, cost);
+        data.histogram.record(cost / 1000);
     }
 
-    private class MonitorTimer extends TimerTask {
-        private Map<Key, AtomicReference<Data>> monitorData;
+    private class MonitorTimer implements Runnable {
+        private ConcurrentIntObjectMap<MonitorData> monitorData;
         private CommandProcess process;
         private int limit;
+        private boolean printHistogram;
 
-        MonitorTimer(Map<Key, AtomicReference<Data>> monitorData, CommandProcess process, int limit) {
+        MonitorTimer(ConcurrentIntObjectMap<MonitorData> monitorData, CommandProcess process, int limit,
+                boolean printHistogram) {
             this.monitorData = monitorData;
             this.process = process;
             this.limit = limit;
+            this.printHistogram = printHistogram;
         }
 
         @Override
@@ -164,12 +167,13 @@ class MonitorAdviceListener extends AdviceListenerAdapter {
             }
             // 超过次数上限，则不再输出，命令终止
             if (process.times().getAndIncrement() >= limit) {
-                this.cancel();
+                destroy();
                 abortProcess(process, limit);
                 return;
             }
 
-            TableElement table = new TableElement(2, 3, 3, 1, 1, 1, 1, 1).leftCellPadding(1).rightCellPadding(1);
+            TableElement table = new TableElement(2, 3, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1).leftCellPadding(1)
+                    .rightCellPadding(1);
             table.row(true, label("timestamp").style(Decoration.bold.bold()),
                     label("class").style(Decoration.bold.bold()),
                     label("method").style(Decoration.bold.bold()),
@@ -177,38 +181,64 @@ class MonitorAdviceListener extends AdviceListenerAdapter {
                     label("success").style(Decoration.bold.bold()),
                     label("fail").style(Decoration.bold.bold()),
                     label("avg-rt(ms)").style(Decoration.bold.bold()),
-                    label("fail-rate").style(Decoration.bold.bold()));
-
-            for (Map.Entry<Key, AtomicReference<Data>> entry : monitorData.entrySet()) {
-                final AtomicReference<Data> value = entry.getValue();
-
-                Data data;
-                while (true) {
-                    data = value.get();
-                    if (value.compareAndSet(data, new Data())) {
-                        break;
-                    }
+                    label("fail-rate").style(Decoration.bold.bold()),
+                    label("p50(ms)").style(Decoration.bold.bold()),
+                    label("p90(ms)").style(Decoration.bold.bold()),
+                    label("p99(ms)").style(Decoration.bold.bold()),
+                    label("p999(ms)").style(Decoration.bold.bold()),
+                    label("max(ms)").style(Decoration.bold.bold()));
+
+            // 重载的方法有不同的方法id，输出时按 类名+方法名 合并
+            Map<Key, Data> merged = new LinkedHashMap<Key, Data>();
+            for (MonitorData value : monitorData.values()) {
+                Key key = new Key(value.className, value.methodName);
+                Data data = merged.get(key);
+                if (data == null) {
+                    data = new Data();
+                    merged.put(key, data);
                 }
+                StripedCounters counters = value.counters;
+                data.setTotal(data.getTotal() + (int) counters.sumThenReset(MonitorData.TOTAL));
+                data.setSuccess(data.getSuccess() + (int) counters.sumThenReset(MonitorData.SUCCESS));
+                data.setFailed(data.getFailed() + (int) counters.sumThenReset(MonitorData.FAILED));
+                data.setCost(data.getCost() + counters.sumThenReset(MonitorData.COST) / 1000000.0);
+                data.getHistogram().merge(value.histogram.snapshotThenReset());
+            }
 
-                if (null != data) {
-
-                    final DecimalFormat df = new DecimalFormat("0.00");
-
-                    table.row(
-                            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()),
-                            entry.getKey().getClassName(),
-                            entry.getKey().getMethodName(),
-                            "" + data.getTotal(),
-                            "" + data.getSuccess(),
-                            "" + data.getFailed(),
-                            df.format(div(data.getCost(), data.getTotal())),
-                            df.format(100.0d * div(data.getFailed(), data.getTotal())) + "%"
-                    );
-
+            StringBuilder histograms = new StringBuilder();
+
+            for (Map.Entry<Key, Data> entry : merged.entrySet()) {
+                final Data data = entry.getValue();
+                final LatencyHistogram.Snapshot histogram = data.getHistogram();
+                final DecimalFormat df = new DecimalFormat("0.00");
+
+                table.row(
+                        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()),
+                        entry.getKey().getClassName(),
+                        entry.getKey().getMethodName(),
+                        "" + data.getTotal(),
+                        "" + data.getSuccess(),
+                        "" + data.getFailed(),
+                        df.format(div(data.getCost(), data.getTotal())),
+                        df.format(100.0d * div(data.getFailed(), data.getTotal())) + "%",
+                        df.format(histogram.valueAtPercentile(50) / 1000.0),
+                        df.format(histogram.valueAtPercentile(90) / 1000.0),
+                        df.format(histogram.valueAtPercentile(99) / 1000.0),
+                        df.format(histogram.valueAtPercentile(99.9) / 1000.0),
+                        df.format(histogram.getMax() / 1000.0)
+                );
+
+                if (printHistogram) {
+                    histograms.append("histogram(us) ").append(entry.getKey().getClassName()).append(' ')
+                            .append(entry.getKey().getMethodName()).append(": ").append(histogram.toBucketString())
+                            .append('\n');
                 }
             }
 
             process.write(RenderUtil.render(table, process.width()) + "\n");
+            if (histograms.length() > 0) {
+                process.write(histograms.toString());
+            }
         }
 
         private double div(double a, double b) {
@@ -220,6 +250,26 @@ class MonitorAdviceListener extends AdviceListenerAdapter {
 
     }
 
+    /**
+     * 一个方法的监控数据，按线程分散计数，写入时没有内存分配，也不会在同一个 CAS 上自旋
+     */
+    private static class MonitorData {
+        static final int TOTAL = 0;
+        static final int SUCCESS = 1;
+        static final int FAILED = 2;
+        static final int COST = 3;
+
+        private final String className;
+        private final String methodName;
+        private final StripedCounters counters = new StripedCounters(4);
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        MonitorData(String className, String methodName) {
+            this.className = className;
+            this.methodName = methodName;
+        }
+    }
+
     /**
      * 数据监控用的Key
      *
@@ -269,6 +319,7 @@ class MonitorAdviceListener extends AdviceListenerAdapter {
         private int success;
         private int failed;
         private double cost;
+        private LatencyHistogram.Snapshot histogram = new LatencyHistogram.Snapshot();
 
         public int getTotal() {
             return total;
@@ -301,5 +352,9 @@ class MonitorAdviceListener extends AdviceListenerAdapter {
         public void setCost(double cost) {
             this.cost = cost;
         }
+
+        public LatencyHistogram.Snapshot getHistogram() {
+            return histogram;
+        }
     }
 }
@@ -18,10 +18,11 @@ import com.taobao.middleware.cli.annotations.Summary;
  * @author vlinux
  */
 @Name("monitor")
-@Summary("Monitor method execution statistics, e.g. total/success/failure count, average rt, fail rate, etc. ")
+@Summary("Monitor method execution statistics, e.g. total/success/failure count, average rt, rt percentiles, fail rate, etc. ")
 @Description("\nExamples:\n" +
         "  monitor org.apache.commons.lang.StringUtils isBlank\n" +
         "  monitor org.apache.commons.lang.StringUtils isBlank -c 5\n" +
+        "  monitor org.apache.commons.lang.StringUtils isBlank --histogram\n" +
         "  monitor -E org\\.apache\\.commons\\.lang\\.StringUtils isBlank\n" +
         Constants.WIKI + Constants.WIKI_HOME + "monitor")
 public class MonitorCommand extends EnhancerCommand {
@@ -31,6 +32,7 @@ public class MonitorCommand extends EnhancerCommand {
     private int cycle = 60;
     private boolean isRegEx = false;
     private int numberOfLimit = 100;
+    private boolean histogram = false;
 
     @Argument(argName = "class-pattern", index = 0)
     @Description("Path and classname of Pattern Matching")
@@ -62,6 +64,12 @@ public class MonitorCommand extends EnhancerCommand {
         this.numberOfLimit = numberOfLimit;
     }
 
+    @Option(longName = "histogram", flag = true)
+    @Description("Print the raw latency histogram bucket counts (lower bound in us:count), which can be merged across instances")
+    public void setHistogram(boolean histogram) {
+        this.histogram = histogram;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -82,6 +90,21 @@ public class MonitorCommand extends EnhancerCommand {
         return numberOfLimit;
     }
 
+    public boolean isHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public void process(CommandProcess process) {
+        // 抽样后的次数、成功率等统计都会偏小，monitor 需要每次调用都统计
+        if (sampleRate > 1 || maxPerSecond > 0) {
+            process.end(-1, "monitor does not support --sample-rate or --max-per-second, "
+                    + "all invocations must be counted.");
+            return;
+        }
+        super.process(process);
+    }
+
     @Override
     protected Matcher getClassNameMatcher() {
         if (classNameMatcher == null) {
@@ -16,12 +16,19 @@ import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 import com.taobao.arthas.common.OSUtils;
 import com.taobao.arthas.core.command.Constants;
+import com.taobao.arthas.core.command.model.ProfilerStacksModel;
+import com.taobao.arthas.core.command.model.ProfilerWindowVO;
+import com.taobao.arthas.core.command.model.ProfilerWindowsModel;
+import com.taobao.arthas.core.command.monitor200.ContinuousProfiler.StackDiff;
+import com.taobao.arthas.core.command.monitor200.ContinuousProfiler.Window;
+import com.taobao.arthas.core.command.monitor200.StackTrie.StackCount;
 import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.shell.cli.CliToken;
 import com.taobao.arthas.core.shell.cli.Completion;
 import com.taobao.arthas.core.shell.cli.CompletionUtils;
 import com.taobao.arthas.core.shell.command.AnnotatedCommand;
 import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.arthas.core.util.FileUtils;
 import com.taobao.middleware.cli.annotations.Argument;
 import com.taobao.middleware.cli.annotations.DefaultValue;
 import com.taobao.middleware.cli.annotations.Description;
@@ -57,11 +64,24 @@ import one.profiler.Counter;
         + "  profiler dumpTraces          # Dump collected stack traces\n"
         + "  profiler execute 'start'                       # Execute an agent-compatible profiling command\n"
         + "  profiler execute 'stop,file=/tmp/result.svg'   # Execute an agent-compatible profiling command\n"
+        + "  profiler startContinuous --window 60 --max-windows 30   # Keep profiling, save a window every 60 seconds\n"
+        + "  profiler listWindows\n"
+        + "  profiler queryWindows --last 300          # Collapsed stacks of the last 5 minutes\n"
+        + "  profiler queryWindows 3-7 --file /tmp/result.collapsed\n"
+        + "  profiler diffWindows 8 --base 3-7 --top 20\n"
+        + "  profiler stopContinuous\n"
         + Constants.WIKI + Constants.WIKI_HOME + "profiler")
 //@formatter:on
 public class ProfilerCommand extends AnnotatedCommand {
     private static final Logger logger = LoggerFactory.getLogger(ProfilerCommand.class);
 
+    private static final long DEFAULT_INTERVAL = 10000000;
+
+    /**
+     * 持续 profiling 默认 100ms 采样一次，降低开销
+     */
+    private static final long DEFAULT_CONTINUOUS_INTERVAL = 100000000;
+
     private String action;
     private String actionArg;
 
@@ -98,6 +118,28 @@ public class ProfilerCommand extends AnnotatedCommand {
      */
     private Long duration;
 
+    /**
+     * 持续 profiling 每个窗口的秒数
+     */
+    private int window;
+
+    /**
+     * 持续 profiling 最多保留的窗口数
+     */
+    private int maxWindows;
+
+    /**
+     * 查询最近 last 秒的窗口
+     */
+    private Long last;
+
+    /**
+     * diffWindows 用来比较的窗口
+     */
+    private String base;
+
+    private int top;
+
     private static String libPath;
     private static AsyncProfiler profiler = null;
 
@@ -143,8 +185,7 @@ public class ProfilerCommand extends AnnotatedCommand {
     }
 
     @Option(shortName = "i", longName = "interval")
-    @Description("sampling interval in ns (default: 10'000'000, i.e. 10 ms)")
-    @DefaultValue("10000000")
+    @Description("sampling interval in ns (default: 10'000'000, i.e. 10 ms, 100'000'000 for startContinuous)")
     public void setInterval(long interval) {
         this.interval = interval;
     }
@@ -193,6 +234,39 @@ public class ProfilerCommand extends AnnotatedCommand {
         this.duration = duration;
     }
 
+    @Option(longName = "window")
+    @Description("seconds of each window for startContinuous, default value is 60")
+    @DefaultValue("60")
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    @Option(longName = "max-windows")
+    @Description("max windows kept in memory for startContinuous, default value is 30")
+    @DefaultValue("30")
+    public void setMaxWindows(int maxWindows) {
+        this.maxWindows = maxWindows;
+    }
+
+    @Option(longName = "last")
+    @Description("select the windows of the last <last> seconds for queryWindows/diffWindows")
+    public void setLast(long last) {
+        this.last = last;
+    }
+
+    @Option(longName = "base")
+    @Description("base window id or range(e.g. 3-7) for diffWindows, default is all windows before the target windows")
+    public void setBase(String base) {
+        this.base = base;
+    }
+
+    @Option(longName = "top")
+    @Description("show only the top <top> stacks for queryWindows/diffWindows, default value is 0, means all")
+    @DefaultValue("0")
+    public void setTop(int top) {
+        this.top = top;
+    }
+
     private AsyncProfiler profilerInstance() {
         if (profiler != null) {
             return profiler;
@@ -226,10 +300,16 @@ public class ProfilerCommand extends AnnotatedCommand {
 
         dumpCollapsed, dumpFlat, dumpTraces, getSamples,
 
+        startContinuous, stopContinuous, listWindows, queryWindows, diffWindows,
+
         actions
     }
 
     private String executeArgs(ProfilerAction action) {
+        return executeArgs(action, DEFAULT_INTERVAL);
+    }
+
+    private String executeArgs(ProfilerAction action, long defaultInterval) {
         StringBuilder sb = new StringBuilder();
 
         // start - start profiling
@@ -243,9 +323,7 @@ public class ProfilerCommand extends AnnotatedCommand {
         if (this.file != null) {
             sb.append("file=").append(this.file).append(',');
         }
-        if (this.interval != null) {
-            sb.append("interval=").append(this.interval).append(',');
-        }
+        sb.append("interval=").append(this.interval != null ? this.interval : defaultInterval).append(',');
         if (this.threads) {
             sb.append("threads").append(',');
         }
@@ -279,8 +357,21 @@ public class ProfilerCommand extends AnnotatedCommand {
                 return;
             }
 
+            if (ProfilerAction.listWindows.equals(profilerAction) || ProfilerAction.queryWindows.equals(profilerAction)
+                    || ProfilerAction.diffWindows.equals(profilerAction)) {
+                status = processWindows(process, profilerAction);
+                return;
+            }
+
             final AsyncProfiler asyncProfiler = this.profilerInstance();
 
+            if (ContinuousProfiler.getInstance() != null && (ProfilerAction.start.equals(profilerAction)
+                    || ProfilerAction.stop.equals(profilerAction) || ProfilerAction.resume.equals(profilerAction))) {
+                process.write("Continuous profiling is running, please run `profiler stopContinuous` first.\n");
+                status = 1;
+                return;
+            }
+
             if (ProfilerAction.execute.equals(profilerAction)) {
                 if (actionArg == null) {
                     process.write("actionArg can not be empty.\n");
@@ -360,6 +451,26 @@ public class ProfilerCommand extends AnnotatedCommand {
             } else if (ProfilerAction.getSamples.equals(profilerAction)) {
                 String result = "" + asyncProfiler.getSamples() + "\n";
                 process.write(result);
+            } else if (ProfilerAction.startContinuous.equals(profilerAction)) {
+                if (window <= 0 || maxWindows <= 0) {
+                    process.write("window and max-windows should be greater than 0.\n");
+                    status = 1;
+                    return;
+                }
+                // 输出文件由 queryWindows 指定
+                this.file = null;
+                String executeArgs = executeArgs(ProfilerAction.start, DEFAULT_CONTINUOUS_INTERVAL);
+                String result = ContinuousProfiler.start(asyncProfiler, executeArgs, window, maxWindows);
+                process.write(result);
+                process.write(String.format("continuous profiling started, window: %d seconds, max windows: %d\n",
+                        window, maxWindows));
+            } else if (ProfilerAction.stopContinuous.equals(profilerAction)) {
+                if (ContinuousProfiler.stopInstance()) {
+                    process.write("continuous profiling stopped.\n");
+                } else {
+                    process.write("continuous profiling is not started.\n");
+                    status = 1;
+                }
             }
         } catch (Throwable e) {
             process.write(e.getMessage()).write("\n");
@@ -370,6 +481,111 @@ public class ProfilerCommand extends AnnotatedCommand {
         }
     }
 
+    private int processWindows(CommandProcess process, ProfilerAction profilerAction) throws IOException {
+        ContinuousProfiler continuousProfiler = ContinuousProfiler.getInstance();
+        if (continuousProfiler == null) {
+            process.write("continuous profiling is not started, please run `profiler startContinuous` first.\n");
+            return 1;
+        }
+
+        if (ProfilerAction.listWindows.equals(profilerAction)) {
+            List<ProfilerWindowVO> windows = new ArrayList<ProfilerWindowVO>();
+            for (Window window : continuousProfiler.getWindows()) {
+                windows.add(new ProfilerWindowVO(window.getId(), window.getStartTime(), window.getEndTime(),
+                        window.getSamples()));
+            }
+            process.appendResult(new ProfilerWindowsModel(windows, continuousProfiler.getWindowStartTime()));
+            return 0;
+        }
+
+        List<Window> targetWindows;
+        if (this.last != null) {
+            targetWindows = continuousProfiler.windowsSince(System.currentTimeMillis() - this.last * 1000);
+        } else if (this.actionArg != null) {
+            targetWindows = selectWindows(continuousProfiler, this.actionArg);
+        } else if (ProfilerAction.queryWindows.equals(profilerAction)) {
+            targetWindows = continuousProfiler.getWindows();
+        } else {
+            process.write("diffWindows need target windows, e.g. `profiler diffWindows 8 --base 3-7`.\n");
+            return 1;
+        }
+        if (targetWindows.isEmpty()) {
+            process.write("no window is selected, please check `profiler listWindows`.\n");
+            return 1;
+        }
+
+        ProfilerStacksModel model = new ProfilerStacksModel();
+        model.setTarget(rangeOf(targetWindows));
+        model.setTargetSamples(samplesOf(targetWindows));
+
+        if (ProfilerAction.queryWindows.equals(profilerAction)) {
+            List<StackCount> stacks = continuousProfiler.stackCounts(targetWindows);
+            if (this.file != null) {
+                StringBuilder sb = new StringBuilder();
+                for (StackCount stack : stacks) {
+                    sb.append(stack.getStack()).append(' ').append(stack.getCount()).append('\n');
+                }
+                File outputFile = new File(this.file);
+                FileUtils.writeByteArrayToFile(outputFile, sb.toString().getBytes("UTF-8"));
+                process.write("profiler output file: " + outputFile.getAbsolutePath() + "\n");
+                return 0;
+            }
+            model.setStacks(top(stacks));
+        } else {
+            List<Window> baseWindows;
+            if (this.base != null) {
+                baseWindows = selectWindows(continuousProfiler, this.base);
+            } else {
+                baseWindows = continuousProfiler.windowsBefore(targetWindows.get(0).getId());
+            }
+            if (baseWindows.isEmpty()) {
+                process.write("no base window is selected, please check `profiler listWindows`.\n");
+                return 1;
+            }
+            model.setBase(rangeOf(baseWindows));
+            model.setBaseSamples(samplesOf(baseWindows));
+            List<StackDiff> diffs = continuousProfiler.diff(baseWindows, targetWindows);
+            model.setDiffs(top(diffs));
+        }
+        process.appendResult(model);
+        return 0;
+    }
+
+    /**
+     * @param range window id 或者 id 范围，比如 3 或者 3-7
+     */
+    private static List<Window> selectWindows(ContinuousProfiler continuousProfiler, String range) {
+        int index = range.indexOf('-');
+        if (index < 0) {
+            long id = Long.parseLong(range.trim());
+            return continuousProfiler.windowsBetween(id, id);
+        }
+        long fromId = Long.parseLong(range.substring(0, index).trim());
+        long toId = Long.parseLong(range.substring(index + 1).trim());
+        return continuousProfiler.windowsBetween(fromId, toId);
+    }
+
+    private static String rangeOf(List<Window> windows) {
+        long fromId = windows.get(0).getId();
+        long toId = windows.get(windows.size() - 1).getId();
+        return fromId == toId ? String.valueOf(fromId) : fromId + "-" + toId;
+    }
+
+    private static long samplesOf(List<Window> windows) {
+        long samples = 0;
+        for (Window window : windows) {
+            samples += window.getSamples();
+        }
+        return samples;
+    }
+
+    private <T> List<T> top(List<T> list) {
+        if (top > 0 && list.size() > top) {
+            return new ArrayList<T>(list.subList(0, top));
+        }
+        return list;
+    }
+
     private String outputFile() {
         if (this.file == null) {
             this.file = new File("arthas-output",
@@ -1,5 +1,6 @@
 package com.taobao.arthas.core.command.monitor200;
 
+import com.taobao.arthas.core.advisor.AdviceRequirement;
 import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.alibaba.arthas.deps.org.slf4j.Logger;
@@ -27,6 +28,11 @@ public class StackAdviceListener extends AdviceListenerAdapter {
         this.process = process;
     }
 
+    @Override
+    public AdviceRequirement getAdviceRequirement() {
+        return AdviceRequirement.of(command.getConditionExpress());
+    }
+
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
@@ -38,15 +44,23 @@ public class StackAdviceListener extends AdviceListenerAdapter {
     @Override
     public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                               Throwable throwable) throws Throwable {
-        Advice advice = Advice.newForAfterThrowing(loader, clazz, method, target, args, throwable);
-        finishing(advice);
+        Advice advice = Advice.borrowForAfterThrowing(loader, clazz, method, target, args, throwable);
+        try {
+            finishing(advice);
+        } finally {
+            advice.release();
+        }
     }
 
     @Override
     public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                                Object returnObject) throws Throwable {
-        Advice advice = Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject);
-        finishing(advice);
+        Advice advice = Advice.borrowForAfterReturning(loader, clazz, method, target, args, returnObject);
+        try {
+            finishing(advice);
+        } finally {
+            advice.release();
+        }
     }
 
     private void finishing(Advice advice) {
@@ -54,8 +68,7 @@ public class StackAdviceListener extends AdviceListenerAdapter {
         try {
             double cost = threadLocalWatch.costInMillis();
             if (isConditionMet(command.getConditionExpress(), advice, cost)) {
-                // TODO: concurrency issues for process.write
-                process.write("ts=" + DateUtils.getCurrentDate() + ";" + stackThreadLocal.get() + "\n");
+                process.writeAsync("ts=" + DateUtils.getCurrentDate() + ";" + stackThreadLocal.get() + "\n");
                 process.times().incrementAndGet();
                 if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
                     abortProcess(process, command.getNumberOfLimit());
@@ -0,0 +1,253 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.taobao.arthas.core.util.collection.LongLongHashMap;
+
+/**
+ * <pre>
+ * 保存 collapsed 格式（ frame1;frame2;frame3 count ）的调用栈，相同前缀的调用栈共用节点。
+ *
+ * 1. 节点保存在数组里，子节点通过 (父节点, frame) -> 子节点 的 {@link LongLongHashMap} 查找，没有额外的对象
+ * 2. frame 名字保存在 {@link Frames} 里，多个 StackTrie 共用，每个名字只保存一份
+ * 3. 子节点总是在父节点之后创建，合并时按顺序遍历节点即可
+ * </pre>
+ */
+public class StackTrie {
+    private static final int ROOT = 0;
+
+    private final Frames frames;
+
+    private int[] parents;
+    private int[] frameIds;
+    private long[] selfCounts;
+    private int size;
+
+    private final LongLongHashMap children;
+
+    private long total;
+
+    public StackTrie(Frames frames) {
+        this(frames, 64);
+    }
+
+    public StackTrie(Frames frames, int expectedNodes) {
+        this.frames = frames;
+        int capacity = Math.max(expectedNodes, 16);
+        parents = new int[capacity];
+        frameIds = new int[capacity];
+        selfCounts = new long[capacity];
+        children = new LongLongHashMap(capacity);
+        // root 节点
+        parents[ROOT] = -1;
+        frameIds[ROOT] = -1;
+        size = 1;
+    }
+
+    /**
+     * 增加一个 collapsed 格式的调用栈，格式不对的行会被忽略
+     */
+    public void addCollapsed(String line) {
+        int index = line.lastIndexOf(' ');
+        if (index <= 0) {
+            return;
+        }
+        long count;
+        try {
+            count = Long.parseLong(line.substring(index + 1).trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+
+        int node = ROOT;
+        int start = 0;
+        while (start < index) {
+            int end = line.indexOf(';', start);
+            if (end < 0 || end > index) {
+                end = index;
+            }
+            node = child(node, frames.id(line.substring(start, end)));
+            start = end + 1;
+        }
+        if (node != ROOT) {
+            selfCounts[node] += count;
+            total += count;
+        }
+    }
+
+    /**
+     * 增加多行 collapsed 格式的调用栈，比如 AsyncProfiler#dumpCollapsed 的结果
+     */
+    public void addCollapsedLines(String text) {
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                addCollapsed(text.substring(start, end));
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * 合并另一个 StackTrie ，两者要使用同一个 {@link Frames}
+     */
+    public void merge(StackTrie other) {
+        if (other.frames != frames) {
+            throw new IllegalArgumentException("can not merge StackTrie with different frames");
+        }
+        int[] mapping = new int[other.size];
+        mapping[ROOT] = ROOT;
+        for (int i = 1; i < other.size; ++i) {
+            int node = child(mapping[other.parents[i]], other.frameIds[i]);
+            mapping[i] = node;
+            selfCounts[node] += other.selfCounts[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * 复制一份使用 target 保存 frame 名字的 StackTrie ，用于把单独构建的 StackTrie 放进共用的 {@link Frames} ，
+     * 或者把所有 StackTrie 搬到一个只包含还在使用的名字的新 {@link Frames}
+     */
+    public StackTrie copyTo(Frames target) {
+        StackTrie result = new StackTrie(target, size);
+        int[] idMapping = new int[frames.size()];
+        Arrays.fill(idMapping, -1);
+        int[] mapping = new int[size];
+        mapping[ROOT] = ROOT;
+        for (int i = 1; i < size; ++i) {
+            int frameId = frameIds[i];
+            if (idMapping[frameId] < 0) {
+                idMapping[frameId] = target.id(frames.name(frameId));
+            }
+            int node = result.child(mapping[parents[i]], idMapping[frameId]);
+            mapping[i] = node;
+            result.selfCounts[node] += selfCounts[i];
+        }
+        result.total = total;
+        return result;
+    }
+
+    /**
+     * @return 所有调用栈的 count 之和
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int nodeCount() {
+        return size - 1;
+    }
+
+    /**
+     * @return collapsed 格式的调用栈，按 count 从大到小排序
+     */
+    public List<StackCount> toStackCounts() {
+        List<StackCount> result = new ArrayList<StackCount>();
+        StringBuilder sb = new StringBuilder(256);
+        int[] path = new int[16];
+        for (int i = 1; i < size; ++i) {
+            if (selfCounts[i] == 0) {
+                continue;
+            }
+            int depth = 0;
+            for (int node = i; node != ROOT; node = parents[node]) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = node;
+            }
+            sb.setLength(0);
+            for (int j = depth - 1; j >= 0; --j) {
+                sb.append(frames.name(frameIds[path[j]]));
+                if (j > 0) {
+                    sb.append(';');
+                }
+            }
+            result.add(new StackCount(sb.toString(), selfCounts[i]));
+        }
+        Collections.sort(result, StackCount.COUNT_DESC);
+        return result;
+    }
+
+    private int child(int parent, int frameId) {
+        long key = ((long) parent << 32) | (frameId & 0xFFFFFFFFL);
+        long node = children.get(key, -1);
+        if (node >= 0) {
+            return (int) node;
+        }
+        if (size == parents.length) {
+            int capacity = size * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            frameIds = Arrays.copyOf(frameIds, capacity);
+            selfCounts = Arrays.copyOf(selfCounts, capacity);
+        }
+        int index = size++;
+        parents[index] = parent;
+        frameIds[index] = frameId;
+        children.put(key, index);
+        return index;
+    }
+
+    /**
+     * frame 名字和 id 的对应关系，不是线程安全的
+     */
+    public static class Frames {
+        private final Map<String, Integer> ids = new HashMap<String, Integer>();
+        private final List<String> names = new ArrayList<String>();
+
+        int id(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = names.size();
+                ids.put(name, id);
+                names.add(name);
+            }
+            return id;
+        }
+
+        String name(int id) {
+            return names.get(id);
+        }
+
+        public int size() {
+            return names.size();
+        }
+    }
+
+    public static class StackCount {
+        static final Comparator<StackCount> COUNT_DESC = new Comparator<StackCount>() {
+            @Override
+            public int compare(StackCount o1, StackCount o2) {
+                return o1.count < o2.count ? 1 : (o1.count == o2.count ? 0 : -1);
+            }
+        };
+
+        private final String stack;
+        private final long count;
+
+        public StackCount(String stack, long count) {
+            this.stack = stack;
+            this.count = count;
+        }
+
+        public String getStack() {
+            return stack;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.taobao.arthas.core.command.monitor200;
 
 import com.taobao.arthas.core.command.Constants;
+import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.shell.command.AnnotatedCommand;
 import com.taobao.arthas.core.shell.command.CommandProcess;
 import com.taobao.arthas.core.util.ArrayUtils;
 import com.taobao.arthas.core.util.StringUtils;
+import com.taobao.arthas.core.util.ThreadCpuSampler;
 import com.taobao.arthas.core.util.ThreadUtil;
 import com.taobao.arthas.core.util.affect.Affect;
 import com.taobao.arthas.core.util.affect.RowAffect;
@@ -13,7 +15,6 @@ import com.taobao.middleware.cli.annotations.Description;
 import com.taobao.middleware.cli.annotations.Name;
 import com.taobao.middleware.cli.annotations.Option;
 import com.taobao.middleware.cli.annotations.Summary;
-import com.taobao.text.renderers.ThreadRenderer;
 import com.taobao.text.ui.LabelElement;
 import com.taobao.text.util.RenderUtil;
 
@@ -167,8 +168,8 @@ public class ThreadCommand extends AnnotatedCommand {
         } else {
             resultThreads = threads.values();
         }
-        String content = RenderUtil.render(resultThreads.iterator(),
-                new ThreadRenderer(sampleInterval), process.width());
+        String content = RenderUtil.render(ThreadTable.drawThreadTable(resultThreads, awaitCpuSample()),
+                process.width());
         process.write(stat + content);
         return status;
     }
@@ -189,7 +190,8 @@ public class ThreadCommand extends AnnotatedCommand {
 
     private int processTopBusyThreads(CommandProcess process) {
         int status = 0;
-        Map<Long, Long> topNThreads = ThreadUtil.getTopNThreads(sampleInterval, topNBusy);
+        Map<Long, Long> topNThreads = ArthasBootstrap.getInstance().getThreadCpuSampler()
+                .getTopNThreads(sampleInterval, topNBusy);
         Long[] tids = topNThreads.keySet().toArray(new Long[0]);
         ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(ArrayUtils.toPrimitive(tids), lockedMonitors, lockedSynchronizers);
         if (threadInfos == null) {
@@ -197,6 +199,10 @@ public class ThreadCommand extends AnnotatedCommand {
             status = 1;
         } else {
             for (ThreadInfo info : threadInfos) {
+                if (info == null) {
+                    // 采样之后线程已经结束
+                    continue;
+                }
                 String stacktrace = ThreadUtil.getFullStacktrace(info, topNThreads.get(info.getThreadId()));
                 process.write(stacktrace + "\n");
             }
@@ -204,6 +210,22 @@ public class ThreadCommand extends AnnotatedCommand {
         return status;
     }
 
+    /**
+     * 最近 sampleInterval 的线程 cpu 使用率，采样线程已经在运行时不需要等待
+     */
+    private ThreadCpuSampler.Sample awaitCpuSample() {
+        ThreadCpuSampler sampler = ArthasBootstrap.getInstance().getThreadCpuSampler();
+        sampler.acquire(sampleInterval);
+        try {
+            return sampler.awaitSample(sampleInterval, sampleInterval * 2L + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            sampler.release(sampleInterval);
+        }
+    }
+
     private int processThread(CommandProcess process) {
         int status = 0;
         String content;
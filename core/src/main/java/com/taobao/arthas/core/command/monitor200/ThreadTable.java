@@ -0,0 +1,92 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import static com.taobao.text.ui.Element.label;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.taobao.arthas.core.util.ThreadCpuSampler;
+import com.taobao.text.Color;
+import com.taobao.text.Decoration;
+import com.taobao.text.ui.Overflow;
+import com.taobao.text.ui.RowElement;
+import com.taobao.text.ui.TableElement;
+
+/**
+ * <pre>
+ * thread/dashboard 命令的线程表格，和 ThreadRenderer 的列一样。
+ *
+ * cpu 使用率和 cpu 时间从 ThreadCpuSampler 最近一个周期的结果里读取，绘制时不需要调用 ThreadMXBean 。
+ * 还没有采样结果时 cpu 使用率和 cpu 时间显示为 n/a 。
+ * </pre>
+ */
+public class ThreadTable {
+
+    private static final String[] TABLE_COL_TITLE = new String[] { "ID", "NAME", "GROUP", "PRIORITY", "STATE",
+            "%CPU", "TIME", "INTERRUPTED", "DAEMON" };
+
+    private static final String NOT_AVAILABLE = "n/a";
+
+    static TableElement drawThreadTable(Collection<Thread> threads, final ThreadCpuSampler.Sample sample) {
+        List<Thread> sorted = new ArrayList<Thread>(threads);
+        if (sample != null) {
+            Collections.sort(sorted, new Comparator<Thread>() {
+                @Override
+                public int compare(Thread o1, Thread o2) {
+                    long c1 = sample.getCpuUsage(o1.getId());
+                    long c2 = sample.getCpuUsage(o2.getId());
+                    return c1 < c2 ? 1 : (c1 > c2 ? -1 : 0);
+                }
+            });
+        }
+
+        TableElement table = new TableElement(1, 6, 3, 2, 2, 2, 2, 2, 2).overflow(Overflow.HIDDEN)
+                .rightCellPadding(1);
+        table.add(new RowElement().style(Decoration.bold.fg(Color.black).bg(Color.white)).add(TABLE_COL_TITLE));
+
+        for (Thread thread : sorted) {
+            ThreadGroup group = thread.getThreadGroup();
+            Thread.State state = thread.getState();
+            String cpuUsage = sample == null ? NOT_AVAILABLE : String.valueOf(sample.getCpuUsage(thread.getId()));
+            String cpuTime = sample == null ? NOT_AVAILABLE : formatCpuTime(sample.getCpuTime(thread.getId()));
+            table.row(label(String.valueOf(thread.getId())), label(thread.getName()),
+                    label(group == null ? "" : group.getName()), label(String.valueOf(thread.getPriority())),
+                    label(state.toString()).style(Decoration.bold.fg(stateColor(state))),
+                    label(cpuUsage), label(cpuTime),
+                    label(String.valueOf(thread.isInterrupted())), label(String.valueOf(thread.isDaemon())));
+        }
+        return table;
+    }
+
+    private static Color stateColor(Thread.State state) {
+        switch (state) {
+        case NEW:
+            return Color.cyan;
+        case RUNNABLE:
+            return Color.green;
+        case BLOCKED:
+            return Color.red;
+        case WAITING:
+            return Color.yellow;
+        case TIMED_WAITING:
+            return Color.magenta;
+        default:
+            return Color.blue;
+        }
+    }
+
+    /**
+     * @param cpuTime 纳秒
+     * @return 分:秒
+     */
+    static String formatCpuTime(long cpuTime) {
+        if (cpuTime < 0) {
+            return "0:0";
+        }
+        long seconds = cpuTime / 1000000000;
+        return seconds / 60 + ":" + seconds % 60;
+    }
+}
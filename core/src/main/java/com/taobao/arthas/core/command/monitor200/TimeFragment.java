@@ -1,26 +1,66 @@
 package com.taobao.arthas.core.command.monitor200;
 
+import com.alibaba.arthas.deps.org.slf4j.Logger;
+import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
 import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+import com.taobao.arthas.core.util.ObjectSnapshot;
+import com.taobao.arthas.core.util.OffHeapRingBuffer;
 
+import java.lang.ref.WeakReference;
 import java.util.Date;
 
+import static java.lang.Integer.toHexString;
+
 /**
  * 时间碎片
  */
 class TimeFragment {
+    private static final Logger logger = LoggerFactory.getLogger(TimeFragment.class);
 
     public TimeFragment(Advice advice, Date gmtCreate, double cost) {
         this.advice = advice;
         this.gmtCreate = gmtCreate;
         this.cost = cost;
+        // 不调用 target 的 hashCode ，hashCode 可能很慢或者有副作用
+        this.targetAddress = advice.getTarget() == null ? "NULL" : "0x" + toHexString(System.identityHashCode(advice.getTarget()));
     }
 
-    private final Advice advice;
+    private Advice advice;
     private final Date gmtCreate;
     private final double cost;
+    private final String targetAddress;
+
+    // 只保存 target 的弱引用时，advice 里的 target 为 null
+    private WeakReference<Object> targetRef;
+    private boolean hasTarget;
+    // 保存为快照时，advice 里只有类和方法，参数/返回值/异常在 snapshotBuffer 里
+    private OffHeapRingBuffer snapshotBuffer;
+    private long snapshotPosition;
+    // 估算的大小，-1 表示还没有估算，由 TimeTunnelStore 在后台估算
+    private long estimatedSize = -1;
+    // 是否还保存在 TimeTunnelStore 里
+    private boolean stored;
 
     public Advice getAdvice() {
-        return advice;
+        if (targetRef == null && snapshotBuffer == null) {
+            return advice;
+        }
+
+        Object target = targetRef == null ? advice.getTarget() : targetRef.get();
+        Object[] params = advice.getParams();
+        Object returnObj = advice.getReturnObj();
+        Throwable throwExp = advice.getThrowExp();
+        if (snapshotBuffer != null) {
+            byte[] data = snapshotBuffer.read(snapshotPosition);
+            if (data != null) {
+                ObjectSnapshot.Decoder decoder = new ObjectSnapshot.Decoder(data);
+                params = (Object[]) decoder.read();
+                returnObj = decoder.read();
+                throwExp = (Throwable) decoder.read();
+            }
+        }
+        return newAdvice(target, params, returnObj, throwExp);
     }
 
     public Date getGmtCreate() {
@@ -30,4 +70,115 @@ class TimeFragment {
     public double getCost() {
         return cost;
     }
+
+    /**
+     * target 的 identityHashCode ，记录时计算，不需要读取快照，target 被回收后也可以显示
+     */
+    String getTargetAddress() {
+        return targetAddress;
+    }
+
+    Class<?> getClazz() {
+        return advice.getClazz();
+    }
+
+    ArthasMethod getMethod() {
+        return advice.getMethod();
+    }
+
+    boolean isAfterReturning() {
+        return advice.isAfterReturning();
+    }
+
+    boolean isAfterThrowing() {
+        return advice.isAfterThrowing();
+    }
+
+    /**
+     * 改为只保存 target 的弱引用
+     */
+    void weakenTarget() {
+        Object target = advice.getTarget();
+        if (target == null || targetRef != null) {
+            return;
+        }
+        hasTarget = true;
+        targetRef = new WeakReference<Object>(target);
+        advice = newAdvice(null, advice.getParams(), advice.getReturnObj(), advice.getThrowExp());
+    }
+
+    /**
+     * 把参数，返回值和异常保存为快照，不再引用 target 和这些对象
+     *
+     * @param buffer 保存快照的缓冲区
+     * @param depth  参数和返回值保存的层数
+     * @return true 如果保存成功
+     */
+    boolean snapshot(OffHeapRingBuffer buffer, int depth) {
+        byte[] data = new ObjectSnapshot.Encoder(ObjectSnapshot.DEFAULT_MAX_ELEMENTS)
+                .write(advice.getParams(), depth + 1)
+                .write(advice.getReturnObj(), depth)
+                .write(advice.getThrowExp(), depth)
+                .toByteArray();
+        try {
+            snapshotPosition = buffer.write(data);
+        } catch (IllegalArgumentException e) {
+            logger.warn("tt snapshot is too large, keep the objects instead. class: {}, method: {}",
+                    advice.getClazz().getName(), advice.getMethod().getName(), e);
+            return false;
+        }
+        snapshotBuffer = buffer;
+        targetRef = null;
+        advice = newAdvice(null, null, null, null);
+        return true;
+    }
+
+    boolean isSnapshot() {
+        return snapshotBuffer != null;
+    }
+
+    /**
+     * @return true 如果快照已经被新的记录覆盖
+     */
+    boolean isSnapshotOverwritten() {
+        return snapshotBuffer != null && !snapshotBuffer.isAvailable(snapshotPosition);
+    }
+
+    /**
+     * @return true 如果 target 只保存了弱引用，并且已经被回收
+     */
+    boolean isTargetCollected() {
+        return hasTarget && targetRef.get() == null;
+    }
+
+    long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    void setEstimatedSize(long estimatedSize) {
+        this.estimatedSize = estimatedSize;
+    }
+
+    /**
+     * @return true 如果只保存了 target 的弱引用，弱引用的 target 不计算在估算的大小里
+     */
+    boolean isTargetWeak() {
+        return targetRef != null;
+    }
+
+    boolean isStored() {
+        return stored;
+    }
+
+    void setStored(boolean stored) {
+        this.stored = stored;
+    }
+
+    private Advice newAdvice(Object target, Object[] params, Object returnObj, Throwable throwExp) {
+        return advice.isAfterThrowing()
+                ? Advice.newForAfterThrowing(advice.getLoader(), advice.getClazz(), advice.getMethod(), target,
+                        params, throwExp)
+                : Advice.newForAfterRetuning(advice.getLoader(), advice.getClazz(), advice.getMethod(), target,
+                        params, returnObj);
+    }
 }
@@ -99,8 +99,7 @@ public class TimeTunnelAdviceListener extends AdviceListenerAdapter {
         // 填充表格内容
         fillTableRow(table, index, timeTunnel);
 
-        // TODO: concurrency issues for process.write
-        process.write(RenderUtil.render(table, process.width()));
+        process.writeAsync(RenderUtil.render(table, process.width()));
         process.times().incrementAndGet();
         if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
             abortProcess(process, command.getNumberOfLimit());
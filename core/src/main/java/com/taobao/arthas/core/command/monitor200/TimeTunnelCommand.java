@@ -2,6 +2,7 @@ package com.taobao.arthas.core.command.monitor200;
 
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.GlobalOptions;
 import com.taobao.arthas.core.advisor.Advice;
 import com.taobao.arthas.core.advisor.AdviceListener;
 import com.taobao.arthas.core.advisor.ArthasMethod;
@@ -29,7 +30,6 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static java.lang.Integer.toHexString;
 import static java.lang.String.format;
 
 /**
@@ -43,6 +43,7 @@ import static java.lang.String.format;
 @Description(Constants.EXPRESS_DESCRIPTION + Constants.EXAMPLE +
         "  tt -t *StringUtils isEmpty\n" +
         "  tt -t *StringUtils isEmpty params[0].length==1\n" +
+        "  tt -t *StringUtils isEmpty --snapshot --snapshot-depth 2\n" +
         "  tt -l\n" +
         "  tt -i 1000\n" +
         "  tt -i 1000 -w params[0]\n" +
@@ -52,8 +53,7 @@ import static java.lang.String.format;
         Constants.WIKI + Constants.WIKI_HOME + "tt")
 public class TimeTunnelCommand extends EnhancerCommand {
     // 时间隧道(时间碎片的集合)
-    // TODO 并非线程安全？
-    private static final Map<Integer, TimeFragment> timeFragmentMap = new LinkedHashMap<Integer, TimeFragment>();
+    private static final TimeTunnelStore timeTunnelStore = new TimeTunnelStore();
     // 时间碎片序列生成器
     private static final AtomicInteger sequence = new AtomicInteger(1000);
     // TimeTunnel the method call
@@ -81,6 +81,9 @@ public class TimeTunnelCommand extends EnhancerCommand {
     private int numberOfLimit = 100;
     private int replayTimes = 1;
     private long replayInterval = 1000L;
+    // snapshot the params/returnObj/throwExp when recording
+    private boolean isSnapshot = false;
+    private int snapshotDepth = 3;
     private static final Logger logger = LoggerFactory.getLogger(TimeTunnelCommand.class);
 
     @Argument(index = 0, argName = "class-pattern", required = false)
@@ -187,6 +190,19 @@ public class TimeTunnelCommand extends EnhancerCommand {
         this.replayInterval = replayInterval;
     }
 
+    @Option(longName = "snapshot", flag = true)
+    @Description("Snapshot the params, return object and exception off-heap when recording, "
+            + "so they do not retain heap and show the values at the time of invocation")
+    public void setSnapshot(boolean snapshot) {
+        isSnapshot = snapshot;
+    }
+
+    @Option(longName = "snapshot-depth")
+    @Description("Depth of the object fields to snapshot (3 by default)")
+    public void setSnapshotDepth(int snapshotDepth) {
+        this.snapshotDepth = snapshotDepth;
+    }
+
 
     public boolean isRegEx() {
         return isRegEx;
@@ -260,7 +276,7 @@ public class TimeTunnelCommand extends EnhancerCommand {
      */
     int putTimeTunnel(TimeFragment tt) {
         int indexOfSeq = sequence.getAndIncrement();
-        timeFragmentMap.put(indexOfSeq, tt);
+        timeTunnelStore.put(indexOfSeq, tt, isSnapshot, snapshotDepth);
         return indexOfSeq;
     }
 
@@ -275,6 +291,9 @@ public class TimeTunnelCommand extends EnhancerCommand {
         process.stdinHandler(new QExitHandler(process));
 
         if (isTimeTunnel) {
+            if (isSnapshot && !prepareSnapshotBuffer(process)) {
+                return;
+            }
             enhance(process);
         } else if (isPlay) {
             processPlay(process);
@@ -295,6 +314,22 @@ public class TimeTunnelCommand extends EnhancerCommand {
         }
     }
 
+    /**
+     * 开始记录前分配快照缓冲区，分配失败时结束命令
+     */
+    private boolean prepareSnapshotBuffer(CommandProcess process) {
+        try {
+            timeTunnelStore.prepareSnapshotBuffer();
+            return true;
+        } catch (Throwable e) {
+            logger.error("tt snapshot buffer allocation failed, size: {}", GlobalOptions.ttSnapshotBufferSize, e);
+            process.write(format("Allocate tt snapshot buffer failed, size: %d, error: %s, try a smaller tt-snapshot-buffer-size.\n",
+                    GlobalOptions.ttSnapshotBufferSize, e));
+            process.end(1);
+            return false;
+        }
+    }
+
     @Override
     protected Matcher getClassNameMatcher() {
         if (classNameMatcher == null) {
@@ -320,16 +355,21 @@ public class TimeTunnelCommand extends EnhancerCommand {
     private void processShow(CommandProcess process) {
         RowAffect affect = new RowAffect();
         try {
-            TimeFragment tf = timeFragmentMap.get(index);
+            TimeFragment tf = timeTunnelStore.get(index);
             if (null == tf) {
                 process.write(format("Time fragment[%d] does not exist.", index)).write("\n");
                 return;
             }
 
+            if (tf.isSnapshotOverwritten()) {
+                process.write(format("Time fragment[%d] snapshot has been overwritten.", index)).write("\n");
+                return;
+            }
+
             Advice advice = tf.getAdvice();
             String className = advice.getClazz().getName();
             String methodName = advice.getMethod().getName();
-            String objectAddress = advice.getTarget() == null ? "NULL" : "0x" + toHexString(advice.getTarget().hashCode());
+            String objectAddress = tf.getTargetAddress();
 
             TableElement table = TimeTunnelTable.createDefaultTable();
             TimeTunnelTable.drawTimeTunnel(tf, index, table);
@@ -350,11 +390,15 @@ public class TimeTunnelCommand extends EnhancerCommand {
     private void processWatch(CommandProcess process) {
         RowAffect affect = new RowAffect();
         try {
-            final TimeFragment tf = timeFragmentMap.get(index);
+            final TimeFragment tf = timeTunnelStore.get(index);
             if (null == tf) {
                 process.write(format("Time fragment[%d] does not exist.", index)).write("\n");
                 return;
             }
+            if (tf.isSnapshotOverwritten()) {
+                process.write(format("Time fragment[%d] snapshot has been overwritten.", index)).write("\n");
+                return;
+            }
 
             Advice advice = tf.getAdvice();
             Object value = ExpressFactory.threadLocalExpress(advice).get(watchExpress);
@@ -380,7 +424,7 @@ public class TimeTunnelCommand extends EnhancerCommand {
         try {
             // 匹配的时间片段
             Map<Integer, TimeFragment> matchingTimeSegmentMap = new LinkedHashMap<Integer, TimeFragment>();
-            for (Map.Entry<Integer, TimeFragment> entry : timeFragmentMap.entrySet()) {
+            for (Map.Entry<Integer, TimeFragment> entry : timeTunnelStore.snapshot().entrySet()) {
                 int index = entry.getKey();
                 TimeFragment tf = entry.getValue();
                 Advice advice = tf.getAdvice();
@@ -415,7 +459,7 @@ public class TimeTunnelCommand extends EnhancerCommand {
     // 删除指定记录
     private void processDelete(CommandProcess process) {
         RowAffect affect = new RowAffect();
-        if (timeFragmentMap.remove(index) != null) {
+        if (timeTunnelStore.remove(index) != null) {
             affect.rCnt(1);
         }
         process.write(format("Time fragment[%d] successfully deleted.", index)).write("\n");
@@ -424,9 +468,8 @@ public class TimeTunnelCommand extends EnhancerCommand {
     }
 
     private void processDeleteAll(CommandProcess process) {
-        int count = timeFragmentMap.size();
+        int count = timeTunnelStore.clear();
         RowAffect affect = new RowAffect(count);
-        timeFragmentMap.clear();
         process.write("Time fragments are cleaned.\n");
         process.write(affect.toString()).write("\n");
         process.end();
@@ -434,7 +477,13 @@ public class TimeTunnelCommand extends EnhancerCommand {
 
     private void processList(CommandProcess process) {
         RowAffect affect = new RowAffect();
+        Map<Integer, TimeFragment> timeFragmentMap = timeTunnelStore.snapshot();
         process.write(RenderUtil.render(TimeTunnelTable.drawTimeTunnelTable(timeFragmentMap), process.width()));
+        process.write(format("Retained size: %s, evicted: %d (tt-max-count: %d, tt-max-size: %s, tt-eviction-policy: %s)",
+                StringUtils.humanReadableByteCount(timeTunnelStore.getRetainedSize()),
+                timeTunnelStore.getEvictedCount(), GlobalOptions.ttMaxCount,
+                StringUtils.humanReadableByteCount(GlobalOptions.ttMaxSize), GlobalOptions.ttEvictionPolicy))
+                .write("\n");
         affect.rCnt(timeFragmentMap.size());
         process.write(affect.toString()).write("\n");
         process.end();
@@ -444,16 +493,26 @@ public class TimeTunnelCommand extends EnhancerCommand {
      * 重放指定记录
      */
     private void processPlay(CommandProcess process) {
-        TimeFragment tf = timeFragmentMap.get(index);
+        TimeFragment tf = timeTunnelStore.get(index);
         if (null == tf) {
             process.write(format("Time fragment[%d] does not exist.", index) + "\n");
             process.end();
             return;
         }
+        if (tf.isSnapshot()) {
+            process.write(format("Time fragment[%d] can not be replayed, it is recorded as a snapshot.", index) + "\n");
+            process.end();
+            return;
+        }
+        if (tf.isTargetCollected()) {
+            process.write(format("Time fragment[%d] can not be replayed, the target object has been garbage collected.", index) + "\n");
+            process.end();
+            return;
+        }
         Advice advice = tf.getAdvice();
         String className = advice.getClazz().getName();
         String methodName = advice.getMethod().getName();
-        String objectAddress = advice.getTarget() == null ? "NULL" : "0x" + toHexString(advice.getTarget().hashCode());
+        String objectAddress = tf.getTargetAddress();
         ArthasMethod method = advice.getMethod();
         boolean accessible = advice.getMethod().isAccessible();
         try {
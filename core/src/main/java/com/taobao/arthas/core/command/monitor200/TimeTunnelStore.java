@@ -0,0 +1,293 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.server.ArthasBootstrap;
+import com.taobao.arthas.core.util.ObjectSizeEstimator;
+import com.taobao.arthas.core.util.OffHeapRingBuffer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <pre>
+ * tt 命令保存的时间碎片。记录会引用调用时的参数，返回值等对象，长时间 tt -t 可能占用大量的内存，
+ * 所以按 {@link GlobalOptions#ttMaxCount} 和 {@link GlobalOptions#ttMaxSize} 限制保存的数量和估算大小，
+ * 超过时按 {@link GlobalOptions#ttEvictionPolicy} 淘汰最早记录（fifo）或者最久没有查看（lru）的记录。
+ *
+ * 记录的大小不在被增强的方法的线程里估算：保存记录后交给 estimateExecutor 估算，然后按大小淘汰，
+ * 查看 retained size 时也会先估算还没有估算的记录。
+ *
+ * tt --snapshot 时参数，返回值和异常保存为快照，放在堆外的 {@link OffHeapRingBuffer} 里，
+ * 大小由 {@link GlobalOptions#ttSnapshotBufferSize} 指定，缓冲区写满后快照被覆盖，对应的记录也会被删除。
+ * </pre>
+ */
+class TimeTunnelStore {
+
+    static final String FIFO = "fifo";
+    static final String LRU = "lru";
+
+    /**
+     * 估算一条记录的大小时最多遍历的对象数量
+     */
+    static final int MAX_ESTIMATE_OBJECTS = 1024;
+
+    private static final Executor SCHEDULER_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            ArthasBootstrap.getInstance().schedule(command, 0, TimeUnit.MILLISECONDS);
+        }
+    };
+
+    private final Executor estimateExecutor;
+    private final Runnable estimateTask = new Runnable() {
+        @Override
+        public void run() {
+            estimatePending();
+        }
+    };
+    private boolean estimateScheduled;
+
+    private LinkedHashMap<Integer, TimeFragment> fragments = new LinkedHashMap<Integer, TimeFragment>();
+    private boolean accessOrder = false;
+    private long retainedSize;
+    private long evictedCount;
+    private OffHeapRingBuffer snapshotBuffer;
+    /**
+     * 当前快照缓冲区里的记录，按写入顺序，也就是快照被覆盖的顺序
+     */
+    private final LinkedHashMap<Integer, TimeFragment> snapshotFragments = new LinkedHashMap<Integer, TimeFragment>();
+
+    TimeTunnelStore() {
+        this(SCHEDULER_EXECUTOR);
+    }
+
+    TimeTunnelStore(Executor estimateExecutor) {
+        this.estimateExecutor = estimateExecutor;
+    }
+
+    void put(int index, TimeFragment tf) {
+        put(index, tf, false, 0);
+    }
+
+    /**
+     * 保存记录，需要时淘汰旧的记录，最新的一条记录总是保留
+     *
+     * @param snapshot      是否把参数，返回值和异常保存为快照
+     * @param snapshotDepth 快照保存的层数
+     */
+    void put(int index, TimeFragment tf, boolean snapshot, int snapshotDepth) {
+        OffHeapRingBuffer buffer = snapshot ? getSnapshotBuffer() : null;
+        if (buffer != null && tf.snapshot(buffer, snapshotDepth)) {
+            // 快照在堆外，记录本身只有很少的对象，不再估算
+            tf.setEstimatedSize(0);
+        } else if (GlobalOptions.ttWeakTarget) {
+            tf.weakenTarget();
+        }
+
+        boolean schedule = false;
+        synchronized (this) {
+            updateOrder();
+            if (tf.isSnapshot()) {
+                removeOverwritten();
+                // 写入时缓冲区可能已经重新创建了
+                if (buffer == snapshotBuffer) {
+                    snapshotFragments.remove(index);
+                    snapshotFragments.put(index, tf);
+                }
+            }
+            TimeFragment old = fragments.put(index, tf);
+            if (old != null) {
+                unstore(old);
+            }
+            tf.setStored(true);
+            retainedSize += sizeOf(tf);
+            evict(GlobalOptions.ttMaxCount, GlobalOptions.ttMaxSize);
+            if (tf.getEstimatedSize() < 0 && !estimateScheduled) {
+                estimateScheduled = true;
+                schedule = true;
+            }
+        }
+        if (schedule) {
+            try {
+                estimateExecutor.execute(estimateTask);
+            } catch (Throwable e) {
+                // 估算不了时只按数量淘汰，查看 retained size 时会再估算
+                synchronized (this) {
+                    estimateScheduled = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 估算还没有估算大小的记录，然后按大小淘汰。估算时不加锁
+     */
+    void estimatePending() {
+        List<TimeFragment> pending = new ArrayList<TimeFragment>();
+        synchronized (this) {
+            estimateScheduled = false;
+            for (TimeFragment tf : fragments.values()) {
+                if (tf.getEstimatedSize() < 0) {
+                    pending.add(tf);
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        long[] sizes = new long[pending.size()];
+        for (int i = 0; i < sizes.length; ++i) {
+            TimeFragment tf = pending.get(i);
+            Advice advice = tf.getAdvice();
+            sizes[i] = ObjectSizeEstimator.estimate(MAX_ESTIMATE_OBJECTS, tf.isTargetWeak() ? null : advice.getTarget(),
+                    advice.getParams(), advice.getReturnObj(), advice.getThrowExp());
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < sizes.length; ++i) {
+                TimeFragment tf = pending.get(i);
+                if (tf.getEstimatedSize() < 0) {
+                    tf.setEstimatedSize(sizes[i]);
+                    if (tf.isStored()) {
+                        retainedSize += sizes[i];
+                    }
+                }
+            }
+            evict(GlobalOptions.ttMaxCount, GlobalOptions.ttMaxSize);
+        }
+    }
+
+    synchronized TimeFragment get(int index) {
+        return fragments.get(index);
+    }
+
+    synchronized TimeFragment remove(int index) {
+        TimeFragment tf = fragments.remove(index);
+        if (tf != null) {
+            unstore(tf);
+        }
+        return tf;
+    }
+
+    /**
+     * @return 删除的记录数量
+     */
+    synchronized int clear() {
+        int count = fragments.size();
+        for (TimeFragment tf : fragments.values()) {
+            tf.setStored(false);
+        }
+        fragments.clear();
+        snapshotFragments.clear();
+        retainedSize = 0;
+        return count;
+    }
+
+    /**
+     * 按保存顺序返回所有记录的副本，遍历时不需要加锁，也不改变 lru 的顺序
+     */
+    synchronized Map<Integer, TimeFragment> snapshot() {
+        return new LinkedHashMap<Integer, TimeFragment>(fragments);
+    }
+
+    synchronized int size() {
+        return fragments.size();
+    }
+
+    long getRetainedSize() {
+        estimatePending();
+        synchronized (this) {
+            return retainedSize;
+        }
+    }
+
+    synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * 快照缓冲区在 tt -t --snapshot 开始时创建，不在被增强的方法的线程里创建
+     *
+     * @return 快照缓冲区，还没有创建时返回 null
+     */
+    synchronized OffHeapRingBuffer getSnapshotBuffer() {
+        return snapshotBuffer;
+    }
+
+    /**
+     * 创建快照缓冲区，tt-snapshot-buffer-size 修改后按新的大小重新创建，已有的记录仍然引用旧的缓冲区
+     *
+     * @throws OutOfMemoryError 如果分配不了缓冲区
+     */
+    synchronized OffHeapRingBuffer prepareSnapshotBuffer() {
+        if (snapshotBuffer == null || snapshotBuffer.getCapacity() != GlobalOptions.ttSnapshotBufferSize) {
+            snapshotBuffer = OffHeapRingBuffer.create(GlobalOptions.ttSnapshotBufferSize);
+            // 旧缓冲区不会再写入，里面的快照不会被覆盖
+            snapshotFragments.clear();
+        }
+        return snapshotBuffer;
+    }
+
+    /**
+     * 删除快照已经被覆盖的记录，不算在 evictedCount 里。快照按写入顺序被覆盖，
+     * 从最早的开始检查，遇到还没有被覆盖的就停止
+     */
+    private void removeOverwritten() {
+        Iterator<Map.Entry<Integer, TimeFragment>> it = snapshotFragments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, TimeFragment> entry = it.next();
+            TimeFragment tf = entry.getValue();
+            if (tf.isStored()) {
+                if (!tf.isSnapshotOverwritten()) {
+                    break;
+                }
+                fragments.remove(entry.getKey());
+                unstore(tf);
+            }
+            // 已经被删除或者淘汰的记录也一起去掉
+            it.remove();
+        }
+    }
+
+    private void evict(int maxCount, long maxSize) {
+        Iterator<TimeFragment> it = fragments.values().iterator();
+        while (fragments.size() > 1 && ((maxCount > 0 && fragments.size() > maxCount)
+                || (maxSize > 0 && retainedSize > maxSize))) {
+            unstore(it.next());
+            it.remove();
+            evictedCount++;
+        }
+    }
+
+    private void unstore(TimeFragment tf) {
+        retainedSize -= sizeOf(tf);
+        tf.setStored(false);
+    }
+
+    /**
+     * 还没有估算的记录按 0 计算
+     */
+    private static long sizeOf(TimeFragment tf) {
+        return Math.max(0, tf.getEstimatedSize());
+    }
+
+    /**
+     * 淘汰策略修改后，按新的策略重新建立 LinkedHashMap
+     */
+    private void updateOrder() {
+        boolean lru = LRU.equalsIgnoreCase(GlobalOptions.ttEvictionPolicy);
+        if (lru != accessOrder) {
+            LinkedHashMap<Integer, TimeFragment> newFragments = new LinkedHashMap<Integer, TimeFragment>(16, 0.75f, lru);
+            newFragments.putAll(fragments);
+            fragments = newFragments;
+            accessOrder = lru;
+        }
+    }
+}
@@ -18,7 +18,6 @@ import java.util.Date;
 import java.util.Map;
 
 import static com.taobao.text.ui.Element.label;
-import static java.lang.Integer.toHexString;
 
 /**
  * @author beiwei30 on 30/11/2016.
@@ -79,18 +78,15 @@ public class TimeTunnelTable {
 
     // 填充表格行
     static TableElement fillTableRow(TableElement table, int index, TimeFragment tf) {
-        Advice advice = tf.getAdvice();
         return table.row(
                 "" + index,
                 new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(tf.getGmtCreate()),
                 "" + tf.getCost(),
-                "" + advice.isAfterReturning(),
-                "" + advice.isAfterThrowing(),
-                advice.getTarget() == null
-                        ? "NULL"
-                        : "0x" + toHexString(advice.getTarget().hashCode()),
-                StringUtils.substringAfterLast("." + advice.getClazz().getName(), "."),
-                advice.getMethod().getName()
+                "" + tf.isAfterReturning(),
+                "" + tf.isAfterThrowing(),
+                tf.getTargetAddress(),
+                StringUtils.substringAfterLast("." + tf.getClazz().getName(), "."),
+                tf.getMethod().getName()
         );
     }
 
@@ -2,7 +2,6 @@ package com.taobao.arthas.core.command.monitor200;
 
 import com.taobao.arthas.core.advisor.InvokeTraceable;
 import com.taobao.arthas.core.shell.command.CommandProcess;
-import com.taobao.arthas.core.util.StringUtils;
 
 /**
  * @author beiwei30 on 29/11/2016.
@@ -20,22 +19,30 @@ public class TraceAdviceListener extends AbstractTraceAdviceListener implements
      * trace 会在被观测的方法体中，在每个方法调用前后插入字节码，所以方法调用开始，结束，抛异常的时候，都会回调下面的接口
      */
     @Override
-    public void invokeBeforeTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc, int tracingLineNumber)
-            throws Throwable {
-        threadBoundEntity.get().view.begin(
-            StringUtils.normalizeClassName(tracingClassName) + ":" + tracingMethodName + "()" + " #" + tracingLineNumber);
+    public void invokeBeforeTracing(int tracingInvokeId, String tracingClassName, String tracingMethodName,
+            String tracingMethodDesc, int tracingLineNumber) throws Throwable {
+        if (isSampledOut()) {
+            return;
+        }
+        threadBoundEntity.get().beginInvoke(tracingInvokeId);
     }
 
     @Override
-    public void invokeAfterTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc, int tracingLineNumber)
-            throws Throwable {
-        threadBoundEntity.get().view.end();
+    public void invokeAfterTracing(int tracingInvokeId, String tracingClassName, String tracingMethodName,
+            String tracingMethodDesc, int tracingLineNumber) throws Throwable {
+        if (isSampledOut()) {
+            return;
+        }
+        threadBoundEntity.get().end();
     }
 
     @Override
-    public void invokeThrowTracing(String tracingClassName, String tracingMethodName, String tracingMethodDesc, int tracingLineNumber)
-            throws Throwable {
-        threadBoundEntity.get().view.end("throws Exception");
+    public void invokeThrowTracing(int tracingInvokeId, String tracingClassName, String tracingMethodName,
+            String tracingMethodDesc, int tracingLineNumber) throws Throwable {
+        if (isSampledOut()) {
+            return;
+        }
+        threadBoundEntity.get().endInvokeThrows();
     }
 
 }
@@ -37,6 +37,7 @@ import java.util.List;
         "  trace -E com.test.ClassA|org.test.ClassB method1|method2|method3\n" +
         "  trace demo.MathGame run -n 5\n" +
         "  trace demo.MathGame run --skipJDKMethod false\n" +
+        "  trace demo.MathGame run --max-nodes 1000\n" +
         Constants.WIKI + Constants.WIKI_HOME + "trace")
 //@formatter:on
 public class TraceCommand extends EnhancerCommand {
@@ -48,6 +49,7 @@ public class TraceCommand extends EnhancerCommand {
     private int numberOfLimit = 100;
     private List<String> pathPatterns;
     private boolean skipJDKTrace;
+    private int maxNodes = 5000;
 
     @Argument(argName = "class-pattern", index = 0)
     @Description("Class name pattern, use either '.' or '/' as separator")
@@ -92,6 +94,12 @@ public class TraceCommand extends EnhancerCommand {
         this.skipJDKTrace = skipJDKTrace;
     }
 
+    @Option(longName = "max-nodes")
+    @Description("Max nodes of the trace tree for one invocation, calls beyond are counted but not recorded, default value 5000.")
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
     public String getClassPattern() {
         return classPattern;
     }
@@ -112,6 +120,10 @@ public class TraceCommand extends EnhancerCommand {
         return isRegEx;
     }
 
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
     public int getNumberOfLimit() {
         return numberOfLimit;
     }
@@ -1,29 +1,99 @@
 package com.taobao.arthas.core.command.monitor200;
 
+import com.taobao.arthas.core.advisor.AdviceListenerManager;
+import com.taobao.arthas.core.advisor.AdviceListenerManager.AdviceSite;
 import com.taobao.arthas.core.util.DateUtils;
+import com.taobao.arthas.core.util.StringUtils;
 import com.taobao.arthas.core.util.ThreadUtil;
 import com.taobao.arthas.core.view.TreeView;
 
+import java.util.Arrays;
+
 /**
  * 用于在ThreadLocal中传递的实体
+ * <pre>
+ * 调用过程中只用基本类型数组记录调用树：节点保存方法id/调用点id和纳秒耗时，同一个父节点下相同的调用会合并统计，
+ * 不拼接字符串，也不创建 TreeView 。只有满足条件表达式和 -n 限制，需要输出时才调用 {@link #draw()} 生成 TreeView 。
+ * 节点数量超过 maxNodes 之后不再记录新的节点，只统计被忽略的调用次数，避免深度递归等场景把内存撑爆。
+ * </pre>
+ *
  * @author ralf0131 2017-01-05 14:05.
  */
 public class TraceEntity {
 
-    protected TreeView view;
+    private static final byte METHOD = 0;
+    private static final byte INVOKE = 1;
+    private static final byte THROW = 2;
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
     protected int deep;
 
-    public TraceEntity() {
-        this.view = createTreeView();
-        this.deep = 0;
-    }
+    private final int maxNodes;
+    private long timestamp;
+
+    private int size;
+    private int current = ROOT;
+    // 超过 maxNodes 之后，未记录的调用的嵌套深度
+    private int overflowDepth;
+    private int omitted;
 
-    public TreeView getView() {
-        return view;
+    private byte[] kinds;
+    // 方法id 或者 trace 调用点的id
+    private int[] ids;
+    // METHOD 节点保存 Class ，THROW 节点保存 Throwable ，生成 TreeView 时才取名字
+    private Object[] refs;
+    private int[] parents;
+    private int[] firstChildren;
+    private int[] lastChildren;
+    private int[] nextSiblings;
+    private long[] beginTimestamps;
+    private long[] minCosts;
+    private long[] maxCosts;
+    private long[] totalCosts;
+    private int[] times;
+    private int[] marks;
+
+    public TraceEntity(int maxNodes) {
+        this.maxNodes = Math.max(maxNodes, 1);
+        this.timestamp = System.currentTimeMillis();
+        this.deep = 0;
+        int capacity = Math.min(INITIAL_CAPACITY, this.maxNodes + 1);
+        kinds = new byte[capacity];
+        ids = new int[capacity];
+        refs = new Object[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        beginTimestamps = new long[capacity];
+        minCosts = new long[capacity];
+        maxCosts = new long[capacity];
+        totalCosts = new long[capacity];
+        times = new int[capacity];
+        marks = new int[capacity];
+        // root
+        newNode(METHOD, NONE, null, NONE);
     }
 
-    public void setView(TreeView view) {
-        this.view = view;
+    /**
+     * 清空调用树，同一个线程的下一次调用复用已经分配的数组
+     */
+    public void reset() {
+        Arrays.fill(refs, 0, size, null);
+        Arrays.fill(totalCosts, 0, size, 0L);
+        Arrays.fill(times, 0, size, 0);
+        Arrays.fill(marks, 0, size, 0);
+        size = 0;
+        current = ROOT;
+        deep = 0;
+        omitted = 0;
+        overflowDepth = 0;
+        timestamp = System.currentTimeMillis();
+        // root
+        newNode(METHOD, NONE, null, NONE);
     }
 
     public int getDeep() {
@@ -34,8 +104,187 @@ public class TraceEntity {
         this.deep = deep;
     }
 
-    private TreeView createTreeView() {
-        String threadTitle = "ts=" + DateUtils.getCurrentDate()+ ";" + ThreadUtil.getThreadTitle(Thread.currentThread());
-        return new TreeView(true, threadTitle);
+    /**
+     * 超过节点数上限，没有记录的调用次数
+     */
+    public int getOmitted() {
+        return omitted;
+    }
+
+    /**
+     * 进入被增强的方法
+     */
+    public void beginMethod(int methodId, Class<?> clazz) {
+        begin(METHOD, methodId, clazz);
+    }
+
+    /**
+     * 进入 trace 的调用点
+     */
+    public void beginInvoke(int invokeId) {
+        begin(INVOKE, invokeId, null);
+    }
+
+    /**
+     * 结束当前节点
+     */
+    public void end() {
+        if (overflowDepth > 0) {
+            overflowDepth--;
+            return;
+        }
+        // 监听器注册时方法可能已经在执行中，begin/end 不一定成对，忽略多出来的 end
+        if (current == ROOT) {
+            return;
+        }
+        long cost = System.nanoTime() - beginTimestamps[current];
+        if (cost < minCosts[current]) {
+            minCosts[current] = cost;
+        }
+        if (cost > maxCosts[current]) {
+            maxCosts[current] = cost;
+        }
+        totalCosts[current] += cost;
+        times[current]++;
+        current = parents[current];
+    }
+
+    /**
+     * trace 的调用点抛出了异常，结束当前节点并标记
+     */
+    public void endInvokeThrows() {
+        if (overflowDepth == 0 && current != ROOT) {
+            marks[current]++;
+        }
+        end();
+    }
+
+    /**
+     * 被增强的方法抛出了异常，记录异常节点并结束当前方法节点
+     */
+    public void throwing(Throwable throwable) {
+        begin(THROW, NONE, throwable);
+        end();
+        end();
+    }
+
+    private void begin(byte kind, int id, Object ref) {
+        if (overflowDepth > 0) {
+            overflowDepth++;
+            omitted++;
+            return;
+        }
+        int node = findChild(kind, id, ref);
+        if (node == NONE) {
+            if (size > maxNodes) {
+                overflowDepth = 1;
+                omitted++;
+                return;
+            }
+            node = newNode(kind, id, ref, current);
+        }
+        beginTimestamps[node] = System.nanoTime();
+        current = node;
+    }
+
+    private int findChild(byte kind, int id, Object ref) {
+        for (int child = firstChildren[current]; child != NONE; child = nextSiblings[child]) {
+            if (kinds[child] == kind && ids[child] == id
+                    && (kind != THROW || refs[child].getClass() == ref.getClass())) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    private int newNode(byte kind, int id, Object ref, int parent) {
+        if (size == kinds.length) {
+            grow();
+        }
+        int node = size++;
+        kinds[node] = kind;
+        ids[node] = id;
+        refs[node] = ref;
+        parents[node] = parent;
+        firstChildren[node] = NONE;
+        lastChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        minCosts[node] = Long.MAX_VALUE;
+        maxCosts[node] = Long.MIN_VALUE;
+        if (parent != NONE) {
+            if (firstChildren[parent] == NONE) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[lastChildren[parent]] = node;
+            }
+            lastChildren[parent] = node;
+        }
+        return node;
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min((long) kinds.length * 2, (long) maxNodes + 1);
+        kinds = Arrays.copyOf(kinds, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        beginTimestamps = Arrays.copyOf(beginTimestamps, capacity);
+        minCosts = Arrays.copyOf(minCosts, capacity);
+        maxCosts = Arrays.copyOf(maxCosts, capacity);
+        totalCosts = Arrays.copyOf(totalCosts, capacity);
+        times = Arrays.copyOf(times, capacity);
+        marks = Arrays.copyOf(marks, capacity);
+    }
+
+    /**
+     * 生成调用树，需要在被 trace 的线程里调用
+     */
+    public String draw() {
+        String threadTitle = "ts=" + DateUtils.formatDate(timestamp) + ";"
+                + ThreadUtil.getThreadTitle(Thread.currentThread());
+        TreeView view = new TreeView(true, threadTitle);
+        drawChildren(view, ROOT);
+        String tree = view.draw();
+        if (omitted > 0) {
+            tree = tree + "trace tree truncated, max nodes: " + maxNodes + ", omitted calls: " + omitted
+                    + ", use --max-nodes to change the limit.\n";
+        }
+        return tree;
+    }
+
+    private void drawChildren(TreeView view, int node) {
+        for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+            view.begin(label(child));
+            drawChildren(view, child);
+            view.end(minCosts[child], maxCosts[child], totalCosts[child], times[child],
+                    marks[child] > 0 ? "throws Exception" : null, marks[child]);
+        }
+    }
+
+    private String label(int node) {
+        switch (kinds[node]) {
+        case METHOD: {
+            AdviceSite site = AdviceListenerManager.site(ids[node]);
+            String methodName = site == null ? "unknown" : site.getMethodName();
+            return ((Class<?>) refs[node]).getName() + ":" + methodName + "()";
+        }
+        case INVOKE: {
+            AdviceSite site = AdviceListenerManager.site(ids[node]);
+            if (site == null) {
+                return "unknown()";
+            }
+            return StringUtils.normalizeClassName(site.getOwner()) + ":" + site.getMethodName() + "()" + " #"
+                    + site.getLine();
+        }
+        default: {
+            Throwable throwable = (Throwable) refs[node];
+            StackTraceElement[] stackTrace = throwable.getStackTrace();
+            int lineNumber = stackTrace.length > 0 ? stackTrace[0].getLineNumber() : -1;
+            return "throw:" + throwable.getClass().getName() + "()" + " #" + lineNumber;
+        }
+        }
     }
 }
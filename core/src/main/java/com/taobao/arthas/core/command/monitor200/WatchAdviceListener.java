@@ -2,6 +2,7 @@ package com.taobao.arthas.core.command.monitor200;
 
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.advisor.AdviceRequirement;
 import com.taobao.arthas.core.advisor.Advice;
 import com.taobao.arthas.core.advisor.ArthasMethod;
 import com.taobao.arthas.core.advisor.AdviceListenerAdapter;
@@ -31,36 +32,60 @@ class WatchAdviceListener extends AdviceListenerAdapter {
         return command.isFinish() || !command.isBefore() && !command.isException() && !command.isSuccess();
     }
 
+    @Override
+    public AdviceRequirement getAdviceRequirement() {
+        AdviceRequirement requirement = AdviceRequirement.of(command.getExpress(), command.getConditionExpress());
+        if (!isFinish() && !command.isSuccess() && !command.isException()) {
+            // 只观察调用前，没有返回值
+            return requirement.min(AdviceRequirement.ARGS);
+        }
+        return requirement;
+    }
+
     @Override
     public void before(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args)
             throws Throwable {
         // 开始计算本次方法调用耗时
         threadLocalWatch.start();
         if (command.isBefore()) {
-            watching(Advice.newForBefore(loader, clazz, method, target, args));
+            // watch 的结果在 watching 里已经转换成字符串，不会保存 advice ，使用线程复用的对象
+            Advice advice = Advice.borrowForBefore(loader, clazz, method, target, args);
+            try {
+                watching(advice);
+            } finally {
+                advice.release();
+            }
         }
     }
 
     @Override
     public void afterReturning(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                                Object returnObject) throws Throwable {
-        Advice advice = Advice.newForAfterRetuning(loader, clazz, method, target, args, returnObject);
-        if (command.isSuccess()) {
-            watching(advice);
-        }
+        Advice advice = Advice.borrowForAfterReturning(loader, clazz, method, target, args, returnObject);
+        try {
+            if (command.isSuccess()) {
+                watching(advice);
+            }
 
-        finishing(advice);
+            finishing(advice);
+        } finally {
+            advice.release();
+        }
     }
 
     @Override
     public void afterThrowing(ClassLoader loader, Class<?> clazz, ArthasMethod method, Object target, Object[] args,
                               Throwable throwable) {
-        Advice advice = Advice.newForAfterThrowing(loader, clazz, method, target, args, throwable);
-        if (command.isException()) {
-            watching(advice);
-        }
+        Advice advice = Advice.borrowForAfterThrowing(loader, clazz, method, target, args, throwable);
+        try {
+            if (command.isException()) {
+                watching(advice);
+            }
 
-        finishing(advice);
+            finishing(advice);
+        } finally {
+            advice.release();
+        }
     }
 
     private void finishing(Advice advice) {
@@ -79,11 +104,10 @@ class WatchAdviceListener extends AdviceListenerAdapter {
             // 本次调用的耗时
             double cost = threadLocalWatch.costInMillis();
             if (isConditionMet(command.getConditionExpress(), advice, cost)) {
-                // TODO: concurrency issues for process.write
                 Object value = getExpressionResult(command.getExpress(), advice, cost);
                 String result = StringUtils.objectToString(
                         isNeedExpand() ? new ObjectView(value, command.getExpand(), command.getSizeLimit()).draw() : value);
-                process.write("ts=" + DateUtils.getCurrentDate() + "; [cost=" + cost + "ms] result=" + result + "\n");
+                process.writeAsync("ts=" + DateUtils.getCurrentDate() + "; [cost=" + cost + "ms] result=" + result + "\n");
                 process.times().incrementAndGet();
                 if (isLimitExceeded(command.getNumberOfLimit(), process.times().get())) {
                     abortProcess(process, command.getNumberOfLimit());
@@ -0,0 +1,35 @@
+package com.taobao.arthas.core.command.view;
+
+import com.taobao.arthas.core.command.model.ProfilerStacksModel;
+import com.taobao.arthas.core.command.monitor200.ContinuousProfiler.StackDiff;
+import com.taobao.arthas.core.command.monitor200.StackTrie.StackCount;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+
+/**
+ * Result view for profiler queryWindows/diffWindows
+ */
+public class ProfilerStacksView extends ResultView<ProfilerStacksModel> {
+
+    @Override
+    public void draw(CommandProcess process, ProfilerStacksModel result) {
+        if (result.getDiffs() != null) {
+            writeln(process, "base windows: " + result.getBase() + ", samples: " + result.getBaseSamples()
+                    + ", target windows: " + result.getTarget() + ", samples: " + result.getTargetSamples());
+            writeln(process, "  DELTA     BASE   TARGET  STACK");
+            for (StackDiff diff : result.getDiffs()) {
+                writeln(process, String.format("%+6.2f%% %8d %8d  %s", diff.getDelta() * 100, diff.getBaseCount(),
+                        diff.getTargetCount(), diff.getStack()));
+            }
+            return;
+        }
+
+        writeln(process, "windows: " + result.getTarget() + ", samples: " + result.getTargetSamples());
+        if (result.getStacks() != null) {
+            // collapsed 格式，可以直接交给 FlameGraph 等工具处理
+            for (StackCount stack : result.getStacks()) {
+                writeln(process, stack.getStack() + " " + stack.getCount());
+            }
+        }
+    }
+
+}
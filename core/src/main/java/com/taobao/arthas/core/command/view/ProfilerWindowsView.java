@@ -0,0 +1,36 @@
+package com.taobao.arthas.core.command.view;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import com.taobao.arthas.core.command.model.ProfilerWindowVO;
+import com.taobao.arthas.core.command.model.ProfilerWindowsModel;
+import com.taobao.arthas.core.shell.command.CommandProcess;
+import com.taobao.text.Decoration;
+import com.taobao.text.ui.TableElement;
+import com.taobao.text.util.RenderUtil;
+
+import static com.taobao.text.ui.Element.label;
+
+/**
+ * Result view for profiler listWindows
+ */
+public class ProfilerWindowsView extends ResultView<ProfilerWindowsModel> {
+
+    @Override
+    public void draw(CommandProcess process, ProfilerWindowsModel result) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        TableElement table = new TableElement(1, 2, 2, 1).leftCellPadding(1).rightCellPadding(1);
+        table.row(true, label("ID").style(Decoration.bold.bold()), label("START").style(Decoration.bold.bold()),
+                label("END").style(Decoration.bold.bold()), label("SAMPLES").style(Decoration.bold.bold()));
+        for (ProfilerWindowVO window : result.getWindows()) {
+            table.row("" + window.getId(),
+                    format.format(new Date(window.getStartTime())),
+                    format.format(new Date(window.getEndTime())),
+                    "" + window.getSamples());
+        }
+        process.write(RenderUtil.render(table, process.width()));
+        writeln(process, "current window started at " + format.format(new Date(result.getCurrentWindowStartTime())));
+    }
+
+}
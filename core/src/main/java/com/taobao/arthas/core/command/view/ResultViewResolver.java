@@ -51,6 +51,8 @@ public class ResultViewResolver {
             //logger
 
             //monitor2000
+            registerView(ProfilerWindowsView.class);
+            registerView(ProfilerStacksView.class);
 
         } catch (Throwable e) {
             logger.error("register result view failed", e);
@@ -4,6 +4,7 @@ import java.arthas.SpyAPI;
 import java.io.File;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.security.CodeSource;
@@ -13,12 +14,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Timer;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarFile;
 
 import com.alibaba.arthas.deps.ch.qos.logback.classic.LoggerContext;
@@ -29,6 +36,7 @@ import com.taobao.arthas.common.AnsiLog;
 import com.taobao.arthas.common.PidUtils;
 import com.taobao.arthas.core.advisor.TransformerManager;
 import com.taobao.arthas.core.command.BuiltinCommandPack;
+import com.taobao.arthas.core.command.monitor200.ContinuousProfiler;
 import com.taobao.arthas.core.command.view.ResultViewResolver;
 import com.taobao.arthas.core.config.BinderUtils;
 import com.taobao.arthas.core.config.Configure;
@@ -52,6 +60,8 @@ import com.taobao.arthas.core.shell.term.impl.httptelnet.HttpTelnetTermServer;
 import com.taobao.arthas.core.util.ArthasBanner;
 import com.taobao.arthas.core.util.FileUtils;
 import com.taobao.arthas.core.util.LogUtil;
+import com.taobao.arthas.core.util.SearchUtils;
+import com.taobao.arthas.core.util.ThreadCpuSampler;
 import com.taobao.arthas.core.util.UserStatUtil;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.nio.NioEventLoopGroup;
@@ -65,6 +75,14 @@ public class ArthasBootstrap {
     private static final String ARTHAS_SPY_JAR = "arthas-spy.jar";
     public static final String ARTHAS_HOME_PROPERTY = "arthas.home";
     private static String ARTHAS_HOME = null;
+    /**
+     * 命令周期输出共用的调度线程数，调度线程只负责计时，任务在 commandWorkers 里执行
+     */
+    private static final int COMMAND_SCHEDULER_THREADS = 1;
+    /**
+     * 执行命令周期任务的线程数。每个周期任务同时只会在一个线程里执行，一个卡住的终端只会占用一个线程
+     */
+    private static final int COMMAND_WORKER_THREADS = 16;
 
     public static final String CONFIG_NAME_PROPERTY = "arthas.config.name";
     public static final String CONFIG_LOCATION_PROPERTY = "arthas.config.location";
@@ -88,10 +106,19 @@ public class ArthasBootstrap {
     private static LoggerContext loggerContext;
     private EventExecutorGroup workerGroup;
 
-    private Timer timer = new Timer("arthas-timer", true);
+    /**
+     * monitor/dashboard/mbean 等命令周期性输出共用的调度线程池，线程数固定，不随命令个数增长
+     */
+    private ScheduledThreadPoolExecutor commandScheduler;
+    private ThreadPoolExecutor commandWorkers;
 
     private TransformerManager transformerManager;
 
+    /**
+     * thread/dashboard 命令共用的线程 cpu 采样
+     */
+    private ThreadCpuSampler threadCpuSampler;
+
     private ResultViewResolver resultViewResolver;
 
     private HistoryManager historyManager;
@@ -127,6 +154,27 @@ public class ArthasBootstrap {
             }
         });
 
+        final AtomicInteger schedulerThreadIndex = new AtomicInteger();
+        commandScheduler = new ScheduledThreadPoolExecutor(COMMAND_SCHEDULER_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "arthas-command-scheduler-" + schedulerThreadIndex.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        final AtomicInteger workerThreadIndex = new AtomicInteger();
+        commandWorkers = new ThreadPoolExecutor(COMMAND_WORKER_THREADS, COMMAND_WORKER_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread t = new Thread(r, "arthas-command-worker-" + workerThreadIndex.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        commandWorkers.allowCoreThreadTimeOut(true);
+
         shutdown = new Thread("as-shutdown-hooker") {
 
             @Override
@@ -136,6 +184,7 @@ public class ArthasBootstrap {
         };
 
         transformerManager = new TransformerManager(instrumentation);
+        SearchUtils.setLoadedClassIndex(transformerManager.getLoadedClassIndex());
         Runtime.getRuntime().addShutdownHook(shutdown);
     }
 
@@ -143,6 +192,8 @@ public class ArthasBootstrap {
         this.resultViewResolver = new ResultViewResolver();
 
         this.historyManager = new HistoryManagerImpl();
+
+        this.threadCpuSampler = new ThreadCpuSampler(ManagementFactory.getThreadMXBean());
     }
 
     private static void initSpy(Instrumentation instrumentation) throws Throwable {
@@ -388,7 +439,9 @@ public class ArthasBootstrap {
     }
 
     public void destroy() {
-        timer.cancel();
+        ContinuousProfiler.stopInstance();
+        commandScheduler.shutdownNow();
+        commandWorkers.shutdownNow();
         if (this.tunnelClient != null) {
             try {
                 tunnelClient.stop();
@@ -397,7 +450,9 @@ public class ArthasBootstrap {
             }
         }
         executorService.shutdownNow();
+        SearchUtils.setLoadedClassIndex(null);
         transformerManager.destroy();
+        threadCpuSampler.destroy();
         UserStatUtil.destroy();
         shutdownWorkGroup();
         // clear the reference in Spy class.
@@ -496,8 +551,49 @@ public class ArthasBootstrap {
         return sessionManager;
     }
 
-    public Timer getTimer() {
-        return this.timer;
+    /**
+     * 周期执行命令的输出任务。首次执行对齐到 period 的整数倍（按墙上时间），
+     * 这样同样周期的多个命令（比如多个 monitor）会在同一个时刻输出。
+     * 任务在 commandWorkers 里执行，上一次还没有执行完时跳过这一次，写一个卡住的终端不会影响其它任务的计时。
+     * 任务抛出的异常只打印日志，不会影响后续周期和其它任务。
+     *
+     * @param task   周期任务
+     * @param period 周期
+     * @param unit   周期的单位
+     * @return 用于取消任务，取消时请调用 {@link #cancelScheduled(Future)}
+     */
+    public ScheduledFuture<?> scheduleAtAlignedRate(Runnable task, long period, TimeUnit unit) {
+        long periodMillis = unit.toMillis(period);
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("period must be greater than 0ms, period: " + period + " " + unit);
+        }
+        long initialDelay = periodMillis - System.currentTimeMillis() % periodMillis;
+        return commandScheduler.scheduleAtFixedRate(new WorkerTask(task), initialDelay, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 周期执行任务，不做对齐，initialDelay 为 0 时马上执行第一次。执行方式同 {@link #scheduleAtAlignedRate}
+     */
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return commandScheduler.scheduleAtFixedRate(new WorkerTask(task), initialDelay, period, unit);
+    }
+
+    /**
+     * 延迟执行一次任务，任务在 commandWorkers 里执行
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return commandScheduler.schedule(new WorkerTask(task), delay, unit);
+    }
+
+    /**
+     * 取消共用调度线程池里的任务，并把它从队列里清除，避免长周期的任务取消后还留在队列里
+     */
+    public void cancelScheduled(Future<?> future) {
+        if (future != null) {
+            future.cancel(false);
+            commandScheduler.purge();
+        }
     }
 
     public ScheduledExecutorService getScheduledExecutorService() {
@@ -512,10 +608,50 @@ public class ArthasBootstrap {
         return this.transformerManager;
     }
 
+    public ThreadCpuSampler getThreadCpuSampler() {
+        return this.threadCpuSampler;
+    }
+
     private Logger logger() {
         return LoggerFactory.getLogger(this.getClass());
     }
 
+    /**
+     * 在调度线程里只把任务交给 commandWorkers ，同一个任务同时只执行一次
+     */
+    private class WorkerTask implements Runnable {
+        private final Runnable task;
+        private final AtomicBoolean running = new AtomicBoolean(false);
+
+        WorkerTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!running.compareAndSet(false, true)) {
+                // 上一次还没有执行完，比如终端输出卡住了
+                return;
+            }
+            try {
+                commandWorkers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.run();
+                        } catch (Throwable e) {
+                            logger().error("arthas scheduled task error, task: " + task, e);
+                        } finally {
+                            running.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+            }
+        }
+    }
+
     public ResultViewResolver getResultViewResolver() {
         return resultViewResolver;
     }
@@ -157,6 +157,20 @@ public interface CommandProcess extends Tty {
      */
     void suspend();
 
+    /**
+     * 在被增强的方法的线程里输出结果，不等待终端写完。结果放到这个 job 的有界队列里，
+     * 由 arthas 的线程写到终端，队列满时丢弃最早的结果，并在输出里提示丢弃的数量。
+     *
+     * @param data the text
+     * @return this command
+     */
+    CommandProcess writeAsync(String data);
+
+    /**
+     * @return {@link #writeAsync(String)} 因为输出太慢被丢弃的结果数量
+     */
+    long droppedResults();
+
     /**
      * echo tips
      *
@@ -2,6 +2,7 @@ package com.taobao.arthas.core.shell.system.impl;
 
 import com.alibaba.arthas.deps.org.slf4j.Logger;
 import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.GlobalOptions;
 import com.taobao.arthas.core.advisor.AdviceListener;
 import com.taobao.arthas.core.advisor.AdviceWeaver;
 import com.taobao.arthas.core.command.basic1000.HelpCommand;
@@ -9,7 +10,6 @@ import com.taobao.arthas.core.command.model.ResultModel;
 import com.taobao.arthas.core.command.model.StatusModel;
 import com.taobao.arthas.core.distribution.ResultDistributor;
 import com.taobao.arthas.core.distribution.impl.TermResultDistributorImpl;
-import com.taobao.arthas.core.server.ArthasBootstrap;
 import com.taobao.arthas.core.shell.cli.CliToken;
 import com.taobao.arthas.core.shell.command.Command;
 import com.taobao.arthas.core.shell.command.CommandProcess;
@@ -21,14 +21,19 @@ import com.taobao.arthas.core.shell.system.ExecStatus;
 import com.taobao.arthas.core.shell.system.Process;
 import com.taobao.arthas.core.shell.system.ProcessAware;
 import com.taobao.arthas.core.shell.term.Tty;
+import com.taobao.arthas.core.util.collection.MpscRingBuffer;
 import com.taobao.middleware.cli.CLIException;
 import com.taobao.middleware.cli.CommandLine;
 import io.termd.core.function.Function;
 
 import java.lang.instrument.ClassFileTransformer;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -52,7 +57,8 @@ public class ProcessImpl implements Process {
     private Handler<Void> foregroundHandler;
     private Handler<Integer> terminatedHandler;
     private boolean foreground;
-    private ExecStatus processStatus;
+    // writeAsync 在被增强的方法的线程里读取，不加锁
+    private volatile ExecStatus processStatus;
     private boolean processForeground;
     private Handler<String> stdinHandler;
     private Handler<Void> resizeHandler;
@@ -247,6 +253,10 @@ public class ProcessImpl implements Process {
 
     private synchronized boolean terminate(int exitCode, Handler<Void> completionHandler, String message) {
         if (processStatus != ExecStatus.TERMINATED) {
+            if (process != null) {
+                // 先写完 writeAsync 队列里的结果
+                process.closeAsyncOutput();
+            }
             //add status message
             this.appendResult(new StatusModel(exitCode, message));
             if (process != null) {
@@ -398,8 +408,22 @@ public class ProcessImpl implements Process {
         private List<String> args2;
         private CommandLine commandLine;
         private AtomicInteger times = new AtomicInteger();
-        private AdviceListener listener = null;
+        // write/end 在被增强的方法的线程里读取
+        private volatile AdviceListener listener = null;
         private ClassFileTransformer transformer;
+        // writeAsync 的结果队列，第一次使用时创建
+        private volatile MpscRingBuffer<String> asyncOutputBuffer;
+        private volatile boolean asyncOutputClosed;
+        // 最后一次 flush 之后 drain 线程不再输出
+        private boolean asyncOutputFlushed;
+        // 正在执行 writeAsync 的线程数，关闭队列时等它们写完
+        private final AtomicInteger asyncWriters = new AtomicInteger();
+        private long reportedDroppedResults;
+        // 注册了 listener 之后的 write 和 end ，按写入时 asyncOutputBuffer 的位置排在结果之间，由 drain 线程处理
+        private final ConcurrentLinkedQueue<OrderedOutput> orderedOutputs = new ConcurrentLinkedQueue<OrderedOutput>();
+        private volatile boolean endRequested;
+        private int endStatusCode;
+        private String endMessage;
 
         public CommandProcessImpl(Process process, Tty tty) {
             this.process = process;
@@ -470,16 +494,182 @@ public class ProcessImpl implements Process {
 
         @Override
         public CommandProcess write(String data) {
-            synchronized (ProcessImpl.this) {
-                if (processStatus != ExecStatus.RUNNING) {
+            // processStatus 是 volatile 的，被增强的方法的线程不用等 ProcessImpl 的锁
+            if (processStatus != ExecStatus.RUNNING) {
+                throw new IllegalStateException(
+                        "Cannot write to standard output when " + status().name().toLowerCase());
+            }
+            MpscRingBuffer<String> buffer = orderedOutputBuffer();
+            if (buffer == null) {
+                processOutput.write(data);
+            } else {
+                // 可能在被增强的方法的线程里调用，不写终端，排在已经放入队列的结果之后由 drain 线程输出
+                orderedOutputs.offer(new OrderedOutput(buffer.writeSequence(), data));
+            }
+            return this;
+        }
+
+        /**
+         * 注册了 listener 之后，write 和 end 可能在被增强的方法的线程里调用，要经过 asyncOutputBuffer 排序
+         *
+         * @return 不需要排序时返回 null
+         */
+        private MpscRingBuffer<String> orderedOutputBuffer() {
+            MpscRingBuffer<String> buffer = asyncOutputBuffer;
+            if (buffer == null && listener != null) {
+                try {
+                    buffer = createAsyncOutputBuffer();
+                } catch (IllegalStateException e) {
+                    // 已经在结束
+                    return null;
+                }
+            }
+            return buffer;
+        }
+
+        @Override
+        public CommandProcess writeAsync(String data) {
+            // 先增加计数再检查状态，closeAsyncOutput 先设置 asyncOutputClosed 再等计数为 0 ，
+            // 所以通过检查的结果一定在最后一次 flush 之前进入队列
+            asyncWriters.incrementAndGet();
+            try {
+                if (processStatus != ExecStatus.RUNNING || asyncOutputClosed) {
                     throw new IllegalStateException(
                             "Cannot write to standard output when " + status().name().toLowerCase());
                 }
+                MpscRingBuffer<String> buffer = asyncOutputBuffer;
+                if (buffer == null) {
+                    buffer = createAsyncOutputBuffer();
+                }
+                buffer.offer(data);
+            } finally {
+                asyncWriters.decrementAndGet();
             }
-            processOutput.write(data);
             return this;
         }
 
+        @Override
+        public long droppedResults() {
+            MpscRingBuffer<String> buffer = asyncOutputBuffer;
+            return buffer == null ? 0 : buffer.getDroppedCount();
+        }
+
+        private synchronized MpscRingBuffer<String> createAsyncOutputBuffer() {
+            if (asyncOutputClosed) {
+                throw new IllegalStateException("Cannot write to standard output when terminating");
+            }
+            if (asyncOutputBuffer == null) {
+                asyncOutputBuffer = new MpscRingBuffer<String>(Math.max(1, GlobalOptions.asyncOutputQueueSize));
+                AsyncOutputDrainer.register(this);
+            }
+            return asyncOutputBuffer;
+        }
+
+        /**
+         * 把队列里的结果写到终端，drain 线程和 job 结束时调用，同一时间只有一个线程读取队列
+         *
+         * @param last job 结束时最后一次调用
+         */
+        void flushAsyncOutput(boolean last) {
+            MpscRingBuffer<String> buffer = asyncOutputBuffer;
+            if (buffer == null) {
+                return;
+            }
+            boolean end;
+            synchronized (buffer) {
+                if (asyncOutputFlushed) {
+                    return;
+                }
+                end = drainAsyncOutput(buffer, last);
+                if (last) {
+                    asyncOutputFlushed = true;
+                }
+            }
+            if (end) {
+                // 不能在 buffer 的锁里 terminate ，terminate 会先锁 ProcessImpl 再锁 buffer
+                terminate(endStatusCode, null, endMessage);
+            }
+        }
+
+        /**
+         * @return 遇到了 end ，需要结束 job
+         */
+        private boolean drainAsyncOutput(MpscRingBuffer<String> buffer, boolean last) {
+            while (true) {
+                OrderedOutput output = orderedOutputs.peek();
+                String data = null;
+                // 最后一次 flush 时 writeAsync 都已经结束，队列空了之后剩下的 write 直接输出
+                if (output == null || buffer.readSequence() < output.sequence) {
+                    data = buffer.poll();
+                    if (data == null && !last) {
+                        break;
+                    }
+                }
+                if (data != null) {
+                    reportDroppedResults(buffer);
+                    processOutput.write(data);
+                    continue;
+                }
+                if (output == null) {
+                    break;
+                }
+                orderedOutputs.poll();
+                reportDroppedResults(buffer);
+                if (output.data != null) {
+                    processOutput.write(output.data);
+                } else if (!last) {
+                    return true;
+                }
+            }
+            reportDroppedResults(buffer);
+            return false;
+        }
+
+        private void reportDroppedResults(MpscRingBuffer<String> buffer) {
+            long dropped = buffer.getDroppedCount();
+            if (dropped > reportedDroppedResults) {
+                processOutput.write("[arthas] " + (dropped - reportedDroppedResults)
+                        + " results were dropped because the output is too slow, total dropped: " + dropped + "\n");
+                reportedDroppedResults = dropped;
+            }
+        }
+
+        void closeAsyncOutput() {
+            synchronized (this) {
+                asyncOutputClosed = true;
+            }
+            // offer 不会阻塞，等正在 writeAsync 的线程把结果放进队列
+            while (asyncWriters.get() > 0) {
+                Thread.yield();
+            }
+            AsyncOutputDrainer.unregister(this);
+            flushAsyncOutput(true);
+        }
+
+        /**
+         * 注册了 listener 之后，end 排在已经放入队列的结果之后，由 drain 线程结束 job
+         *
+         * @return 已经交给 drain 线程
+         */
+        private boolean requestEnd(int statusCode, String message) {
+            MpscRingBuffer<String> buffer = orderedOutputBuffer();
+            if (buffer == null) {
+                return false;
+            }
+            synchronized (this) {
+                if (endRequested) {
+                    return true;
+                }
+                endRequested = true;
+                endStatusCode = statusCode;
+                endMessage = message;
+                // 不再接受新的结果
+                asyncOutputClosed = true;
+            }
+            orderedOutputs.offer(new OrderedOutput(buffer.writeSequence(), null));
+            return true;
+        }
+
         @Override
         public void echoTips(String tips) {
             processOutput.term.write(tips);
@@ -555,7 +745,8 @@ public class ProcessImpl implements Process {
                 }
             }
             AdviceWeaver.reg(listener);
-            
+
+            this.listener = listener;
             this.transformer = transformer;
         }
 
@@ -602,12 +793,14 @@ public class ProcessImpl implements Process {
 
         @Override
         public void end(int statusCode, String message) {
-            terminate(statusCode, null, message);
+            if (!requestEnd(statusCode, message)) {
+                terminate(statusCode, null, message);
+            }
         }
 
         @Override
         public boolean isRunning() {
-            return processStatus == ExecStatus.RUNNING;
+            return processStatus == ExecStatus.RUNNING && !endRequested;
         }
 
         @Override
@@ -620,6 +813,74 @@ public class ProcessImpl implements Process {
         }
     }
 
+    /**
+     * write 的内容或者 end ，sequence 之前放入 asyncOutputBuffer 的结果输出之后再处理
+     */
+    private static class OrderedOutput {
+        final long sequence;
+        // 为 null 时表示 end
+        final String data;
+
+        OrderedOutput(long sequence, String data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+
+    /**
+     * writeAsync 的结果写到终端的间隔
+     */
+    static final long ASYNC_OUTPUT_INTERVAL_MILLIS = 10;
+
+    /**
+     * 所有 job 共用一个 drain 线程把 writeAsync 的结果写到终端，写终端可能阻塞，不占用 arthas 的定时任务线程。
+     * 没有 job 使用 writeAsync 时线程退出，下次使用时再创建
+     */
+    private static class AsyncOutputDrainer implements Runnable {
+        private static final Set<CommandProcessImpl> processes = Collections
+                .newSetFromMap(new ConcurrentHashMap<CommandProcessImpl, Boolean>());
+        private static Thread thread;
+
+        static void register(CommandProcessImpl process) {
+            synchronized (AsyncOutputDrainer.class) {
+                processes.add(process);
+                if (thread == null) {
+                    thread = new Thread(new AsyncOutputDrainer(), "arthas-async-output");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            }
+        }
+
+        static void unregister(CommandProcessImpl process) {
+            processes.remove(process);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(ASYNC_OUTPUT_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                synchronized (AsyncOutputDrainer.class) {
+                    if (processes.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                }
+                for (CommandProcessImpl process : processes) {
+                    try {
+                        process.flushAsyncOutput(false);
+                    } catch (Throwable e) {
+                        logger.error("write async output failed", e);
+                    }
+                }
+            }
+        }
+    }
+
     static class ProcessOutput {
 
         private List<Function<String, String>> stdoutHandlerChain;
@@ -1,18 +1,14 @@
 package com.taobao.arthas.core.shell.term.impl.http;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 
-import com.taobao.arthas.common.IOUtils;
-
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
 
 /**
@@ -54,6 +50,7 @@ public class DirectoryBrowser {
 
     private static String linePart1Str = "<a href=\"%s\" title=\"%s\">";
     private static String linePart2Str = "%-60s";
+    private static String gzipLinkStr = "<a href=\"%s?gzip=true\" title=\"download gzip\">gzip</a>";
 
     private static String renderDir(File dir) {
         File[] listFiles = dir.listFiles();
@@ -99,7 +96,8 @@ public class DirectoryBrowser {
                     sb.append(modifyStr);
 
                     String sizeStr = String.format("%10d      ", f.length());
-                    sb.append(sizeStr).append("\r\n");
+                    sb.append(sizeStr);
+                    sb.append(String.format(gzipLinkStr, name)).append("\r\n");
                 }
             }
         }
@@ -114,33 +112,38 @@ public class DirectoryBrowser {
         }
         File file = new File(path);
 
-        if (isSubFile(dir, file)) {
+        if (isSubFile(dir, file) && file.isDirectory()) {
             DefaultFullHttpResponse fullResp = new DefaultFullHttpResponse(version, HttpResponseStatus.OK);
 
-            if (file.isDirectory()) {
-                if (!path.endsWith("/")) {
-                    fullResp.setStatus(HttpResponseStatus.FOUND).headers().set(HttpHeaderNames.LOCATION, "/" + path + "/");
-                }
-                
-                String renderResult = renderDir(file);
-                fullResp.content().writeBytes(renderResult.getBytes("utf-8"));
-                fullResp.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=utf-8");
-            } else {
-                FileInputStream fileInputStream = new FileInputStream(file);
-                try {
-                    byte[] content = IOUtils.getBytes(fileInputStream);
-                    fullResp.content().writeBytes(content);
-                    HttpUtil.setContentLength(fullResp, fullResp.content().readableBytes());
-                } finally {
-                    IOUtils.close(fileInputStream);
-                }
+            if (!path.endsWith("/")) {
+                fullResp.setStatus(HttpResponseStatus.FOUND).headers().set(HttpHeaderNames.LOCATION, "/" + path + "/");
             }
+
+            String renderResult = renderDir(file);
+            fullResp.content().writeBytes(renderResult.getBytes("utf-8"));
+            fullResp.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=utf-8");
             return fullResp;
         }
 
         return null;
     }
 
+    /**
+     * 查找 dir 下面的文件，文件内容通过 {@link FileTransfer} 发送，不再整个读到内存里
+     * 
+     * @return 不是 dir 下面的文件时返回null
+     */
+    public static File findFile(File dir, String path) throws IOException {
+        if (path.startsWith("/")) {
+            path = path.substring(1, path.length());
+        }
+        File file = new File(path);
+        if (isSubFile(dir, file) && file.isFile()) {
+            return file;
+        }
+        return null;
+    }
+
     public static boolean isSubFile(File parent, File child) throws IOException {
         String parentPath = parent.getCanonicalPath();
         String childPath = child.getCanonicalPath();
@@ -0,0 +1,188 @@
+package com.taobao.arthas.core.shell.term.impl.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+
+import com.taobao.arthas.common.IOUtils;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+/**
+ * 下载 arthas-output 下面的文件，比如 heap dump 和 profiler 的结果。
+ *
+ * <pre>
+ * 1. 默认通过 FileRegion 零拷贝发送，支持 Range 请求，可以断点续传
+ * 2. gzip=true 时边读边压缩，每 64M 是一个独立的 gzip member，segment=N 时只下载第 N 段，可以分段下载后再拼接
+ *    压缩在 arthas 的命令线程池里执行，不阻塞 netty 的 event loop
+ * </pre>
+ */
+public class FileTransfer {
+    static final long GZIP_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    private static final String GZIP_SEGMENT_SIZE_HEADER = "X-Arthas-Gzip-Segment-Size";
+    private static final String GZIP_SEGMENT_COUNT_HEADER = "X-Arthas-Gzip-Segment-Count";
+
+    /**
+     * 发送文件，返回的 future 完成时文件已经全部写出
+     */
+    public static ChannelFuture transfer(ChannelHandlerContext ctx, FullHttpRequest request, File file)
+            throws IOException {
+        QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        boolean success = false;
+        try {
+            ChannelFuture future;
+            if ("true".equalsIgnoreCase(parameter(decoder, "gzip"))) {
+                future = transferGzip(ctx, request, decoder, file, raf);
+            } else {
+                future = transferRaw(ctx, request, file, raf);
+            }
+            success = true;
+            return future;
+        } finally {
+            if (!success) {
+                IOUtils.close(raf);
+            }
+        }
+    }
+
+    private static ChannelFuture transferRaw(ChannelHandlerContext ctx, FullHttpRequest request, File file,
+            RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        // http date 只精确到秒
+        long lastModified = file.lastModified() / 1000 * 1000;
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+
+        HttpRange range = null;
+        if (ifRangeMatches(request.headers().get(HttpHeaderNames.IF_RANGE), etag, lastModified)) {
+            range = HttpRange.parse(request.headers().get(HttpHeaderNames.RANGE), length);
+        }
+
+        if (range != null && !range.isSatisfiable()) {
+            IOUtils.close(raf);
+            HttpResponse response = new DefaultHttpResponse(request.protocolVersion(),
+                    HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE, range.toContentRange(length));
+            HttpUtil.setContentLength(response, 0);
+            ctx.write(response);
+            return ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+
+        long start = 0;
+        long count = length;
+        HttpResponse response = new DefaultHttpResponse(request.protocolVersion(), HttpResponseStatus.OK);
+        if (range != null) {
+            start = range.getStart();
+            count = range.getLength();
+            response.setStatus(HttpResponseStatus.PARTIAL_CONTENT);
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE, range.toContentRange(length));
+        }
+        response.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        response.headers().set(HttpHeaderNames.ETAG, etag);
+        response.headers().set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(lastModified)));
+        setContentType(response, file.getName());
+        HttpUtil.setContentLength(response, count);
+
+        ctx.write(response);
+        // 没有 SslHandler，可以直接用 FileRegion，由 FileChannel#transferTo 发送
+        ctx.write(new DefaultFileRegion(raf.getChannel(), start, count));
+        return ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+    }
+
+    private static ChannelFuture transferGzip(ChannelHandlerContext ctx, FullHttpRequest request,
+            QueryStringDecoder decoder, File file, RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        long segmentCount = Math.max(1, (length + GZIP_SEGMENT_SIZE - 1) / GZIP_SEGMENT_SIZE);
+
+        long start = 0;
+        long end = length;
+        String segmentStr = parameter(decoder, "segment");
+        if (segmentStr != null) {
+            long segment;
+            try {
+                segment = Long.parseLong(segmentStr);
+            } catch (NumberFormatException e) {
+                segment = -1;
+            }
+            if (segment < 0 || segment >= segmentCount) {
+                IOUtils.close(raf);
+                HttpResponse response = new DefaultHttpResponse(request.protocolVersion(),
+                        HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.headers().set(GZIP_SEGMENT_COUNT_HEADER, segmentCount);
+                HttpUtil.setContentLength(response, 0);
+                ctx.write(response);
+                return ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            }
+            start = segment * GZIP_SEGMENT_SIZE;
+            end = Math.min(start + GZIP_SEGMENT_SIZE, length);
+        }
+
+        HttpResponse response = new DefaultHttpResponse(request.protocolVersion(), HttpResponseStatus.OK);
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/gzip");
+        response.headers().set(HttpHeaderNames.CONTENT_DISPOSITION,
+                "attachment; filename=\"" + file.getName() + ".gz\"");
+        response.headers().set(GZIP_SEGMENT_SIZE_HEADER, GZIP_SEGMENT_SIZE);
+        response.headers().set(GZIP_SEGMENT_COUNT_HEADER, segmentCount);
+        // 压缩后的大小事先不知道，只能用 chunked
+        HttpUtil.setTransferEncodingChunked(response, true);
+
+        ctx.write(response);
+        return ctx.writeAndFlush(new HttpChunkedInput(new GzipChunkedInput(ctx, raf, start, end, GZIP_SEGMENT_SIZE)));
+    }
+
+    /**
+     * 没有 If-Range 或者文件没有变化时才处理 Range，否则返回整个文件
+     */
+    static boolean ifRangeMatches(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        Date date = DateFormatter.parseHttpDate(ifRange);
+        return date != null && date.getTime() == lastModified;
+    }
+
+    private static void setContentType(HttpResponse response, String name) {
+        String contentType = "application/octet-stream";
+        int index = name.lastIndexOf('.');
+        String ext = index >= 0 ? name.substring(index + 1).toLowerCase() : "";
+        if ("html".equals(ext) || "htm".equals(ext)) {
+            contentType = "text/html; charset=utf-8";
+        } else if ("svg".equals(ext)) {
+            contentType = "image/svg+xml";
+        } else if ("txt".equals(ext) || "log".equals(ext) || "collapsed".equals(ext)) {
+            contentType = "text/plain; charset=utf-8";
+        } else {
+            // 比如 hprof, jfr，让浏览器直接下载
+            response.headers().set(HttpHeaderNames.CONTENT_DISPOSITION, "attachment; filename=\"" + name + "\"");
+        }
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType);
+    }
+
+    private static String parameter(QueryStringDecoder decoder, String name) {
+        List<String> values = decoder.parameters().get(name);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
+    }
+}
@@ -0,0 +1,146 @@
+package com.taobao.arthas.core.shell.term.impl.http;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import com.taobao.arthas.common.IOUtils;
+import com.taobao.arthas.core.server.ArthasBootstrap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+/**
+ * <pre>
+ * 通过 {@link GzipSegmentEncoder} 边读边压缩文件，配合 ChunkedWriteHandler 使用，只有对端可写时才会继续压缩。
+ *
+ * 压缩在 arthas 的命令线程池里执行，不占用 netty 的 event loop ：readChunk 只取走已经压缩好的一块，同时开始压缩下一块，
+ * 还没有压缩好时返回 null ，ChunkedWriteHandler 暂停发送，压缩完成后通过 resumeTransfer 继续。
+ * </pre>
+ */
+public class GzipChunkedInput implements ChunkedInput<ByteBuf> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ChannelHandlerContext ctx;
+    private final RandomAccessFile file;
+    private final GzipSegmentEncoder encoder;
+    private final long start;
+
+    private final Runnable compressTask = new Runnable() {
+        @Override
+        public void run() {
+            compress();
+        }
+    };
+
+    // 以下字段由 this 保护，encoder 只在 compressing 为 true 的线程里使用
+    private byte[] ready;
+    private boolean compressing;
+    private boolean encoderFinished;
+    private long position;
+    private Throwable failure;
+    private boolean closed;
+
+    public GzipChunkedInput(ChannelHandlerContext ctx, RandomAccessFile file, long start, long end,
+            long segmentSize) {
+        this.ctx = ctx;
+        this.file = file;
+        this.start = start;
+        this.position = start;
+        this.encoder = new GzipSegmentEncoder(file.getChannel(), start, end, segmentSize, BUFFER_SIZE);
+    }
+
+    @Override
+    public synchronized boolean isEndOfInput() throws Exception {
+        return ready == null && !compressing && encoderFinished && failure == null;
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (compressing) {
+                // 正在压缩，由压缩线程结束后释放
+                return;
+            }
+        }
+        release();
+    }
+
+    @Deprecated
+    @Override
+    public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public synchronized ByteBuf readChunk(ByteBufAllocator allocator) throws IOException {
+        if (failure != null) {
+            throw new IOException("gzip file failed", failure);
+        }
+        byte[] chunk = ready;
+        ready = null;
+        if (!compressing && !encoderFinished) {
+            compressing = true;
+            try {
+                ArthasBootstrap.getInstance().schedule(compressTask, 0, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                compressing = false;
+                throw new IOException("can not schedule gzip compression", e);
+            }
+        }
+        return chunk == null ? null : Unpooled.wrappedBuffer(chunk);
+    }
+
+    private void compress() {
+        byte[] chunk = null;
+        Throwable error = null;
+        try {
+            chunk = encoder.nextChunk(BUFFER_SIZE);
+        } catch (Throwable e) {
+            error = e;
+        }
+        boolean release;
+        synchronized (this) {
+            ready = chunk;
+            failure = error;
+            encoderFinished = encoder.isFinished();
+            position = encoder.position();
+            compressing = false;
+            release = closed;
+        }
+        if (release) {
+            release();
+            return;
+        }
+        ChunkedWriteHandler handler = ctx.pipeline().get(ChunkedWriteHandler.class);
+        if (handler != null) {
+            handler.resumeTransfer();
+        }
+    }
+
+    private void release() {
+        encoder.close();
+        IOUtils.close(file);
+    }
+
+    /**
+     * 压缩后的大小事先不知道
+     */
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    @Override
+    public synchronized long progress() {
+        return position - start;
+    }
+}
@@ -0,0 +1,180 @@
+package com.taobao.arthas.core.shell.term.impl.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 边读文件边压缩成 gzip 格式。文件按 segmentSize 切分，每一段压缩成一个独立的 gzip member，多个 member 直接拼接仍然是合法的 gzip
+ * 文件，gunzip 可以直接解压。因此可以从任意一段开始重新下载，不需要在磁盘上再写一份压缩后的文件。
+ */
+public class GzipSegmentEncoder {
+    private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0,
+            (byte) 0xff };
+
+    private static final int TRAILER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final long end;
+    private final long segmentSize;
+
+    /**
+     * 在线压缩大文件，速度比压缩率重要
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer input;
+    private final byte[] deflateBuffer;
+
+    private long position;
+    private long segmentRemaining;
+    private long segmentLength;
+    private boolean inSegment;
+    private boolean finished;
+
+    /**
+     * @param channel     要压缩的文件
+     * @param position    开始的位置，应该是 segmentSize 的整数倍
+     * @param end         结束的位置，不包含
+     * @param segmentSize 每个 gzip member 对应的原始文件大小
+     * @param bufferSize  读文件和压缩用的 buffer 大小
+     */
+    public GzipSegmentEncoder(FileChannel channel, long position, long end, long segmentSize, int bufferSize) {
+        this.channel = channel;
+        this.position = position;
+        this.end = end;
+        this.segmentSize = segmentSize;
+        this.input = ByteBuffer.allocate(bufferSize);
+        this.deflateBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * 压缩下一块数据
+     *
+     * @param chunkSize 期望的大小，返回的数据可能略大一些
+     * @return 压缩后的数据，结束时返回 null
+     */
+    public byte[] nextChunk(int chunkSize) throws IOException {
+        if (finished) {
+            return null;
+        }
+        Output out = new Output(chunkSize + TRAILER_SIZE + GZIP_HEADER.length);
+        while (out.size() < chunkSize && !finished) {
+            if (!inSegment) {
+                startSegment(out);
+            }
+
+            if (deflater.needsInput()) {
+                if (segmentRemaining > 0) {
+                    fill();
+                } else {
+                    deflater.finish();
+                }
+            }
+
+            int count = deflater.deflate(deflateBuffer);
+            out.write(deflateBuffer, 0, count);
+
+            if (deflater.finished()) {
+                finishSegment(out);
+                // 空文件也要输出一个 member，否则不是合法的 gzip 文件。
+                // 需要提前设置 finished，ChunkedWriteHandler 在 readChunk 返回 null 时会认为数据还没有准备好
+                finished = position >= end;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return 已经读取的原始文件位置
+     */
+    public long position() {
+        return position;
+    }
+
+    public void close() {
+        deflater.end();
+    }
+
+    private void startSegment(Output out) {
+        deflater.reset();
+        crc.reset();
+        segmentLength = Math.min(segmentSize, end - position);
+        segmentRemaining = segmentLength;
+        inSegment = true;
+        out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+    }
+
+    private void fill() throws IOException {
+        input.clear();
+        if (input.remaining() > segmentRemaining) {
+            input.limit((int) segmentRemaining);
+        }
+        int count = channel.read(input, position);
+        if (count < 0) {
+            throw new EOFException("file is truncated at position: " + position);
+        }
+        crc.update(input.array(), 0, count);
+        deflater.setInput(input.array(), 0, count);
+        position += count;
+        segmentRemaining -= count;
+    }
+
+    private void finishSegment(Output out) {
+        byte[] trailer = new byte[TRAILER_SIZE];
+        writeIntLE(trailer, 0, crc.getValue());
+        // ISIZE 是原始大小对 2^32 取模
+        writeIntLE(trailer, 4, segmentLength);
+        out.write(trailer, 0, trailer.length);
+        inSegment = false;
+    }
+
+    private static void writeIntLE(byte[] bytes, int offset, long value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * 避免 ByteArrayOutputStream 的同步和多一次拷贝
+     */
+    private static class Output {
+        private byte[] buffer;
+        private int size;
+
+        Output(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            if (size + length > buffer.length) {
+                byte[] newBuffer = new byte[Math.max(buffer.length * 2, size + length)];
+                System.arraycopy(buffer, 0, newBuffer, 0, size);
+                buffer = newBuffer;
+            }
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            if (size == buffer.length) {
+                return buffer;
+            }
+            byte[] result = new byte[size];
+            System.arraycopy(buffer, 0, result, 0, size);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.taobao.arthas.core.shell.term.impl.http;
+
+/**
+ * HTTP Range 请求头里的单个 byte range，只支持 bytes=start-end, bytes=start-, bytes=-suffix 三种形式。
+ */
+public class HttpRange {
+    private static final String BYTES_UNIT = "bytes=";
+
+    private static final HttpRange NOT_SATISFIABLE = new HttpRange(-1, -1);
+
+    private final long start;
+    /**
+     * 包含 end
+     */
+    private final long end;
+
+    private HttpRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * 解析 Range 请求头
+     *
+     * @param header Range 请求头，可以为null
+     * @param length 文件长度
+     * @return null 表示忽略 Range，返回整个文件；多个 range 或者无法解析时也返回 null
+     */
+    public static HttpRange parse(String header, long length) {
+        if (header == null) {
+            return null;
+        }
+        header = header.trim();
+        if (!header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        if (spec.indexOf(',') >= 0) {
+            // 多个 range 需要 multipart/byteranges，断点续传用不到，按 RFC 7233 可以直接返回整个文件
+            return null;
+        }
+        int index = spec.indexOf('-');
+        if (index < 0) {
+            return null;
+        }
+        String startStr = spec.substring(0, index).trim();
+        String endStr = spec.substring(index + 1).trim();
+        try {
+            if (startStr.isEmpty()) {
+                if (endStr.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(endStr);
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    return NOT_SATISFIABLE;
+                }
+                return new HttpRange(Math.max(0, length - suffix), length - 1);
+            }
+
+            long start = Long.parseLong(startStr);
+            if (start < 0) {
+                return null;
+            }
+            long end = length - 1;
+            if (!endStr.isEmpty()) {
+                end = Long.parseLong(endStr);
+                if (end < start) {
+                    return null;
+                }
+                end = Math.min(end, length - 1);
+            }
+            if (start >= length) {
+                return NOT_SATISFIABLE;
+            }
+            return new HttpRange(start, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public boolean isSatisfiable() {
+        return this != NOT_SATISFIABLE;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @return Content-Range 响应头
+     */
+    public String toContentRange(long length) {
+        if (!isSatisfiable()) {
+            return "bytes */" + length;
+        }
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+}
@@ -69,6 +69,7 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
             }
 
             boolean isHttpApiResponse = false;
+            ChannelFuture fileFuture = null;
             try {
                 //handle http restful api
                 if ("/api".equals(path)) {
@@ -94,30 +95,42 @@ public class HttpRequestHandler extends SimpleChannelInboundHandler<FullHttpRequ
                     response = DirectoryBrowser.view(dir, path, request.protocolVersion());
                 }
 
+                //send files in output dir, such as heap dump, support range and gzip
+                if (response == null) {
+                    File file = DirectoryBrowser.findFile(dir, path);
+                    if (file != null) {
+                        fileFuture = FileTransfer.transfer(ctx, request, file);
+                    }
+                }
+
                 //not found
-                if (response == null){
+                if (response == null && fileFuture == null){
                     response = createResponse(request, HttpResponseStatus.NOT_FOUND, "Not found");
                 }
             } catch (Throwable e) {
                 logger.error("arthas process http request error: " + request.uri(), e);
             } finally {
-                //If it is null, an error may occur
-                if (response == null){
-                    response = createResponse(request, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Server error");
-                }
-                ctx.write(response);
-                ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
-                future.addListener(ChannelFutureListener.CLOSE);
-
-                //reuse http api response buf
-                if (isHttpApiResponse && response instanceof DefaultFullHttpResponse) {
-                    final HttpResponse finalResponse = response;
-                    future.addListener(new ChannelFutureListener() {
-                        @Override
-                        public void operationComplete(ChannelFuture future) throws Exception {
-                            httpApiHandler.onCompleted((DefaultFullHttpResponse) finalResponse);
-                        }
-                    });
+                if (fileFuture != null) {
+                    fileFuture.addListener(ChannelFutureListener.CLOSE);
+                } else {
+                    //If it is null, an error may occur
+                    if (response == null){
+                        response = createResponse(request, HttpResponseStatus.INTERNAL_SERVER_ERROR, "Server error");
+                    }
+                    ctx.write(response);
+                    ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+                    future.addListener(ChannelFutureListener.CLOSE);
+
+                    //reuse http api response buf
+                    if (isHttpApiResponse && response instanceof DefaultFullHttpResponse) {
+                        final HttpResponse finalResponse = response;
+                        future.addListener(new ChannelFutureListener() {
+                            @Override
+                            public void operationComplete(ChannelFuture future) throws Exception {
+                                httpApiHandler.onCompleted((DefaultFullHttpResponse) finalResponse);
+                            }
+                        });
+                    }
                 }
             }
         }
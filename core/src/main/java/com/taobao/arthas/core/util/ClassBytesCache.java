@@ -0,0 +1,127 @@
+package com.taobao.arthas.core.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+
+/**
+ * <pre>
+ * 缓存 jad 等命令通过 retransform 拿到的类的字节码，同一个类再次 jad 时不需要再 retransform 一次。
+ *
+ * 1. 以 Class 为 key ，不同 ClassLoader 加载的同名类是不同的 key 。只保存类的弱引用，不影响类的卸载
+ * 2. 类被 retransform/redefine 后（比如 watch/trace 增强，redefine 命令），
+ *    {@link com.taobao.arthas.core.advisor.TransformerManager} 会让缓存失效
+ * 3. 按 LRU 淘汰，字节码总大小不超过 maxBytes
+ * </pre>
+ */
+public class ClassBytesCache {
+
+    static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private final long maxBytes;
+
+    private final LinkedHashMap<ClassKey, byte[]> cache = new LinkedHashMap<ClassKey, byte[]>(16, 0.75f, true);
+
+    private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<Class<?>>();
+
+    private long totalBytes;
+
+    public ClassBytesCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public ClassBytesCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized byte[] get(Class<?> clazz) {
+        expunge();
+        return cache.get(new ClassKey(clazz, null));
+    }
+
+    public synchronized void put(Class<?> clazz, byte[] bytes) {
+        expunge();
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        byte[] old = cache.put(new ClassKey(clazz, queue), bytes);
+        if (old != null) {
+            totalBytes -= old.length;
+        }
+        totalBytes += bytes.length;
+
+        Iterator<Entry<ClassKey, byte[]>> it = cache.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * 类的字节码发生了变化
+     */
+    public void onTransform(Class<?> classBeingRedefined) {
+        if (classBeingRedefined != null) {
+            invalidate(classBeingRedefined);
+        }
+    }
+
+    public synchronized void invalidate(Class<?> clazz) {
+        byte[] old = cache.remove(new ClassKey(clazz, null));
+        if (old != null) {
+            totalBytes -= old.length;
+        }
+    }
+
+    public synchronized int size() {
+        expunge();
+        return cache.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        totalBytes = 0;
+    }
+
+    private void expunge() {
+        Object ref;
+        while ((ref = queue.poll()) != null) {
+            byte[] old = cache.remove(ref);
+            if (old != null) {
+                totalBytes -= old.length;
+            }
+        }
+    }
+
+    private static class ClassKey extends WeakReference<Class<?>> {
+        private final int hash;
+
+        ClassKey(Class<?> clazz, ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            this.hash = System.identityHashCode(clazz);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ClassKey)) {
+                return false;
+            }
+            Class<?> clazz = get();
+            return clazz != null && clazz == ((ClassKey) obj).get();
+        }
+    }
+}
@@ -1,13 +1,25 @@
 package com.taobao.arthas.core.util;
 
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
 
 import org.benf.cfr.reader.api.CfrDriver;
+import org.benf.cfr.reader.api.ClassFileSource;
 import org.benf.cfr.reader.api.OutputSinkFactory;
+import org.benf.cfr.reader.bytecode.analysis.parse.utils.Pair;
 
 /**
  *
@@ -16,6 +28,19 @@ import org.benf.cfr.reader.api.OutputSinkFactory;
  */
 public class Decompiler {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * 缓存的反编译结果最多占用的字符数，大约 8M 内存，一个很大的类的结果也不会让缓存无限增长
+     */
+    static final int MAX_CACHED_CHARS = 4 * 1024 * 1024;
+
+    /**
+     * 反编译的结果，key 里包含字节码的 hash ，按最近使用的顺序排列，由 SOURCE_CACHE 自身同步
+     */
+    private static final Map<String, String> SOURCE_CACHE = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private static long cachedChars;
+
     public static String decompile(String classFilePath, String methodName) {
         return decompile(classFilePath, methodName, false);
     }
@@ -27,6 +52,62 @@ public class Decompiler {
      * @return
      */
     public static String decompile(String classFilePath, String methodName, boolean hideUnicode) {
+        return doDecompile(classFilePath, null, methodName, hideUnicode);
+    }
+
+    /**
+     * 反编译内存里的字节码，不需要先写到临时文件里。结果按字节码的 hash 缓存，同样的字节码再次反编译时直接返回
+     *
+     * @param className  要反编译的类
+     * @param classBytes 类名（比如 demo.MathGame$1）到字节码，包括内部类
+     */
+    public static String decompile(String className, Map<String, byte[]> classBytes, String methodName,
+            boolean hideUnicode) {
+        String key = cacheKey(className, classBytes, methodName, hideUnicode);
+        synchronized (SOURCE_CACHE) {
+            String source = SOURCE_CACHE.get(key);
+            if (source != null) {
+                return source;
+            }
+        }
+
+        Map<String, byte[]> pathBytes = new HashMap<String, byte[]>();
+        for (Entry<String, byte[]> entry : classBytes.entrySet()) {
+            pathBytes.put(toPath(entry.getKey()), entry.getValue());
+        }
+        String source = doDecompile(toPath(className), new MemoryClassFileSource(pathBytes), methodName,
+                hideUnicode);
+
+        cacheSource(key, source);
+        return source;
+    }
+
+    private static void cacheSource(String key, String source) {
+        long chars = charsOf(key, source);
+        if (chars > MAX_CACHED_CHARS) {
+            return;
+        }
+        synchronized (SOURCE_CACHE) {
+            String old = SOURCE_CACHE.put(key, source);
+            if (old != null) {
+                cachedChars -= charsOf(key, old);
+            }
+            cachedChars += chars;
+            Iterator<Entry<String, String>> it = SOURCE_CACHE.entrySet().iterator();
+            while (cachedChars > MAX_CACHED_CHARS && it.hasNext()) {
+                Entry<String, String> eldest = it.next();
+                cachedChars -= charsOf(eldest.getKey(), eldest.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private static long charsOf(String key, String source) {
+        return (long) key.length() + source.length();
+    }
+
+    private static String doDecompile(String classFilePath, ClassFileSource classFileSource, String methodName,
+            boolean hideUnicode) {
         final StringBuilder result = new StringBuilder(8192);
 
         OutputSinkFactory mySink = new OutputSinkFactory() {
@@ -62,7 +143,11 @@ public class Decompiler {
             options.put("methodname", methodName);
         }
 
-        CfrDriver driver = new CfrDriver.Builder().withOptions(options).withOutputSink(mySink).build();
+        CfrDriver.Builder builder = new CfrDriver.Builder().withOptions(options).withOutputSink(mySink);
+        if (classFileSource != null) {
+            builder.withClassFileSource(classFileSource);
+        }
+        CfrDriver driver = builder.build();
         List<String> toAnalyse = new ArrayList<String>();
         toAnalyse.add(classFilePath);
         driver.analyse(toAnalyse);
@@ -70,4 +155,65 @@ public class Decompiler {
         return result.toString();
     }
 
+    private static String toPath(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static String cacheKey(String className, Map<String, byte[]> classBytes, String methodName,
+            boolean hideUnicode) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // 内部类也会反编译到结果里，所以也要计算在内
+        for (String name : new TreeSet<String>(classBytes.keySet())) {
+            digest.update(name.getBytes(UTF_8));
+            digest.update(classBytes.get(name));
+        }
+        StringBuilder key = new StringBuilder(className).append('#');
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.append('#').append(methodName).append('#').append(hideUnicode).toString();
+    }
+
+    /**
+     * 只提供内存里的字节码，CFR 找不到的其它类（比如父类）会跳过，和反编译 dump 出来的文件时一样
+     */
+    private static class MemoryClassFileSource implements ClassFileSource {
+        private final Map<String, byte[]> classBytes;
+
+        MemoryClassFileSource(Map<String, byte[]> classBytes) {
+            this.classBytes = classBytes;
+        }
+
+        @Override
+        public void informAnalysisRelativePathDetail(String usePath, String classFilePath) {
+        }
+
+        /**
+         * 只反编译内存里的类，CFR 分析 jar 时没有可以提供的类
+         */
+        @Override
+        public Collection<String> addJar(String jarPath) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String getPossiblyRenamedPath(String path) {
+            return path;
+        }
+
+        @Override
+        public Pair<byte[], String> getClassFileContent(String path) throws IOException {
+            byte[] bytes = classBytes.get(path);
+            if (bytes == null) {
+                throw new IOException("No such class: " + path);
+            }
+            return Pair.make(bytes, path);
+        }
+    }
+
 }
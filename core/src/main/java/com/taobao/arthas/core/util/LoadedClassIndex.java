@@ -0,0 +1,503 @@
+package com.taobao.arthas.core.util;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.taobao.arthas.core.util.matcher.Matcher;
+import com.taobao.arthas.core.util.matcher.WildcardMatcher;
+
+/**
+ * <pre>
+ * 已加载类的索引，sc/sm/watch/trace 等命令搜索类时不需要每次都对所有的类做匹配。
+ *
+ * 1. 类名按字典序保存，通配符表达式有固定前缀时（比如 demo.* ，demo.MathGame ）只匹配这个范围里的类名
+ * 2. 保存父类/接口到直接子类型的关系，搜索子类时从父类出发遍历，不需要对所有的类调用 isAssignableFrom
+ * 3. 无法缩小范围的匹配（正则表达式，以 * 开头的通配符），在类比较多时拆分到几个线程里并行匹配
+ *
+ * 索引在第一次搜索时通过 Instrumentation#getAllLoadedClasses 创建，之后 {@link com.taobao.arthas.core.advisor.TransformerManager}
+ * 在有新的类加载时记录类名和 ClassLoader ，搜索时只查找这些类放到索引里，不需要再遍历所有的类。
+ * VM anonymous class 和 hidden class（比如 lambda）不经过 ClassFileTransformer ，所以搜索类和子类时，
+ * 不管有没有匹配的结果，如果距离上次遍历所有的类超过 {@link #REFRESH_INTERVAL_MILLIS} ，都会再遍历一次。
+ * 索引里只保存类的弱引用，不影响类的卸载，被卸载的类比较多时重建索引。
+ * </pre>
+ */
+public class LoadedClassIndex {
+
+    static final long REFRESH_INTERVAL_MILLIS = 1000;
+
+    /**
+     * 记录的新加载的类超过这个数量时不再记录，下次搜索时遍历所有的类
+     */
+    static final int MAX_PENDING_CLASSES = 65536;
+
+    /**
+     * transform 时类还没有定义，之后一段时间还找不到的类（比如定义失败）不再查找
+     */
+    static final long PENDING_TIMEOUT_MILLIS = 10000;
+
+    private static final Method FIND_LOADED_CLASS = findLoadedClassMethod();
+
+    /**
+     * 类名数量超过这个值时才并行匹配
+     */
+    static final int PARALLEL_THRESHOLD = 8192;
+
+    private static final int SEARCH_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    private final Instrumentation instrumentation;
+
+    // 类名 -> 这个名字的所有类（不同的 ClassLoader）
+    private final TreeMap<String, List<WeakReference<Class<?>>>> classes = new TreeMap<String, List<WeakReference<Class<?>>>>();
+    // 父类/接口名 -> 直接子类型的类名
+    private final Map<String, Set<String>> subTypes = new HashMap<String, Set<String>>();
+    // 已经放到索引里的类
+    private final Map<Class<?>, Boolean> indexed = new WeakHashMap<Class<?>, Boolean>();
+    // 放到索引里的弱引用总数，和 indexed.size() 的差值就是已经被卸载的类
+    private int indexedRefs;
+    // 类名的快照，索引变化后重新生成
+    private String[] names;
+
+    // transform 时记录的新加载的类，搜索时再查找对应的 Class
+    private final ConcurrentLinkedQueue<PendingClass> pendingClasses = new ConcurrentLinkedQueue<PendingClass>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // 需要遍历所有的类，第一次搜索和记录的类太多时
+    private volatile boolean fullScan = true;
+    private long lastFullScanTime;
+
+    private ThreadPoolExecutor searchExecutor;
+
+    public LoadedClassIndex(Instrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    public Instrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * 由 ClassFileTransformer 调用，只记录类名和 ClassLoader ，不能在这里加载类或者加锁
+     */
+    public void onTransform(ClassLoader loader, String className, Class<?> classBeingRedefined) {
+        if (classBeingRedefined != null || className == null || fullScan) {
+            return;
+        }
+        if (pendingCount.incrementAndGet() > MAX_PENDING_CLASSES) {
+            fullScan = true;
+            return;
+        }
+        pendingClasses.offer(new PendingClass(loader, className.replace('/', '.')));
+    }
+
+    private Set<Class<?>> doSearchClass(Matcher<String> classNameMatcher, int limit) {
+        refresh();
+
+        Set<Class<?>> matches = new HashSet<Class<?>>();
+        Collection<String> candidates = null;
+        if (classNameMatcher instanceof WildcardMatcher) {
+            String prefix = literalPrefix(((WildcardMatcher) classNameMatcher).getPattern());
+            if (!prefix.isEmpty()) {
+                candidates = classes.subMap(prefix, prefix + Character.MAX_VALUE).keySet();
+            }
+        }
+
+        if (candidates == null && limit == Integer.MAX_VALUE) {
+            candidates = matchNames(classNameMatcher, names());
+            classNameMatcher = null;
+        }
+        if (candidates == null) {
+            candidates = classes.keySet();
+        }
+
+        for (String name : candidates) {
+            if (classNameMatcher == null || classNameMatcher.matching(name)) {
+                if (addClasses(matches, name, limit)) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 根据类名匹配已经加载的类
+     *
+     * @param classNameMatcher 类名匹配
+     * @param limit            最大匹配限制
+     * @return 匹配的类集合
+     */
+    public synchronized Set<Class<?>> searchClass(Matcher<String> classNameMatcher, int limit) {
+        return doSearchClass(classNameMatcher, limit);
+    }
+
+    /**
+     * 搜索目标类的子类，结果包括目标类自己
+     *
+     * @param classSet 当前类集合
+     * @return 匹配的子类集合
+     */
+    public synchronized Set<Class<?>> searchSubClass(Set<Class<?>> classSet) {
+        refresh();
+
+        Collection<String> candidates = null;
+        for (Class<?> superClass : classSet) {
+            // 接口和数组的协变不在父类关系里，只能检查所有的类
+            if (superClass == Object.class || superClass.isArray()) {
+                candidates = classes.keySet();
+                break;
+            }
+        }
+
+        if (candidates == null) {
+            Set<String> visited = new HashSet<String>();
+            LinkedList<String> queue = new LinkedList<String>();
+            for (Class<?> superClass : classSet) {
+                if (visited.add(superClass.getName())) {
+                    queue.add(superClass.getName());
+                }
+            }
+            while (!queue.isEmpty()) {
+                Set<String> subs = subTypes.get(queue.poll());
+                if (subs != null) {
+                    for (String sub : subs) {
+                        if (visited.add(sub)) {
+                            queue.add(sub);
+                        }
+                    }
+                }
+            }
+            candidates = visited;
+        }
+
+        // 按类名建立的关系可能包含其它 ClassLoader 里的同名类，最后用 isAssignableFrom 确认
+        final Set<Class<?>> matches = new HashSet<Class<?>>();
+        for (String name : candidates) {
+            List<WeakReference<Class<?>>> refs = classes.get(name);
+            if (refs == null) {
+                continue;
+            }
+            for (WeakReference<Class<?>> ref : refs) {
+                Class<?> clazz = ref.get();
+                if (clazz == null) {
+                    continue;
+                }
+                for (Class<?> superClass : classSet) {
+                    if (superClass.isAssignableFrom(clazz)) {
+                        matches.add(clazz);
+                        break;
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    public synchronized void destroy() {
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+            searchExecutor = null;
+        }
+        clear();
+        fullScan = true;
+    }
+
+    private void refresh() {
+        if (!fullScan && System.currentTimeMillis() - lastFullScanTime >= REFRESH_INTERVAL_MILLIS) {
+            // 找到不经过 ClassFileTransformer 的 VM anonymous class 和 hidden class
+            fullScan = true;
+        }
+        if (fullScan) {
+            // 先清除标记和记录的类，获取类的过程中加载的类下次再查找
+            fullScan = false;
+            pendingClasses.clear();
+            pendingCount.set(0);
+            lastFullScanTime = System.currentTimeMillis();
+
+            Class<?>[] loadedClasses = instrumentation.getAllLoadedClasses();
+            if (indexedRefs - indexed.size() > Math.max(1024, indexedRefs / 4)) {
+                clear();
+            }
+            for (Class<?> clazz : loadedClasses) {
+                if (!indexed.containsKey(clazz)) {
+                    add(clazz);
+                }
+            }
+            return;
+        }
+
+        if (pendingClasses.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<PendingClass> retry = new ArrayList<PendingClass>();
+        Map<ClassLoader, Map<String, PendingClass>> initiated = null;
+        PendingClass pending;
+        while ((pending = pendingClasses.poll()) != null) {
+            pendingCount.decrementAndGet();
+            ClassLoader loader = pending.loader.get();
+            if (pending.loader != PendingClass.BOOTSTRAP && loader == null) {
+                // ClassLoader 已经被回收了
+                continue;
+            }
+            if (loader != null && FIND_LOADED_CLASS == null) {
+                // 不能调用 findLoadedClass 时，按 ClassLoader 查找它加载的类
+                if (initiated == null) {
+                    initiated = new HashMap<ClassLoader, Map<String, PendingClass>>();
+                }
+                Map<String, PendingClass> names = initiated.get(loader);
+                if (names == null) {
+                    names = new HashMap<String, PendingClass>();
+                    initiated.put(loader, names);
+                }
+                names.put(pending.className, pending);
+                continue;
+            }
+            Class<?> clazz = findLoadedClass(loader, pending.className);
+            if (clazz != null) {
+                if (!indexed.containsKey(clazz)) {
+                    add(clazz);
+                }
+            } else if (now - pending.time < PENDING_TIMEOUT_MILLIS) {
+                retry.add(pending);
+            }
+        }
+
+        if (initiated != null) {
+            for (Map.Entry<ClassLoader, Map<String, PendingClass>> entry : initiated.entrySet()) {
+                Map<String, PendingClass> names = entry.getValue();
+                for (Class<?> clazz : instrumentation.getInitiatedClasses(entry.getKey())) {
+                    if (names.remove(clazz.getName()) != null && !indexed.containsKey(clazz)) {
+                        add(clazz);
+                    }
+                }
+                for (PendingClass notFound : names.values()) {
+                    if (now - notFound.time < PENDING_TIMEOUT_MILLIS) {
+                        retry.add(notFound);
+                    }
+                }
+            }
+        }
+
+        // 还没有定义完成的类，下次搜索时再查找
+        for (PendingClass notFound : retry) {
+            pendingCount.incrementAndGet();
+            pendingClasses.offer(notFound);
+        }
+    }
+
+    private static Class<?> findLoadedClass(ClassLoader loader, String className) {
+        try {
+            if (loader == null) {
+                // bootstrap ClassLoader 没有父 ClassLoader ，Class.forName 不会加载其它的类
+                return Class.forName(className, false, null);
+            }
+            return (Class<?>) FIND_LOADED_CLASS.invoke(loader, className);
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    private static Method findLoadedClassMethod() {
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("findLoadedClass", String.class);
+            method.setAccessible(true);
+            return method;
+        } catch (Throwable e) {
+            // jdk 9 之后没有 --add-opens 时不能访问
+            return null;
+        }
+    }
+
+    private void add(Class<?> clazz) {
+        indexed.put(clazz, Boolean.TRUE);
+        indexedRefs++;
+
+        String name = clazz.getName();
+        List<WeakReference<Class<?>>> refs = classes.get(name);
+        if (refs == null) {
+            refs = new ArrayList<WeakReference<Class<?>>>(1);
+            classes.put(name, refs);
+            names = null;
+        }
+        refs.add(new WeakReference<Class<?>>(clazz));
+
+        Class<?> superClass = clazz.getSuperclass();
+        if (superClass != null) {
+            addSubType(superClass.getName(), name);
+        }
+        for (Class<?> interfaceClass : clazz.getInterfaces()) {
+            addSubType(interfaceClass.getName(), name);
+        }
+    }
+
+    private void addSubType(String superName, String name) {
+        Set<String> subs = subTypes.get(superName);
+        if (subs == null) {
+            subs = new HashSet<String>();
+            subTypes.put(superName, subs);
+        }
+        subs.add(name);
+    }
+
+    private void clear() {
+        classes.clear();
+        subTypes.clear();
+        indexed.clear();
+        indexedRefs = 0;
+        names = null;
+    }
+
+    private String[] names() {
+        if (names == null) {
+            names = classes.keySet().toArray(new String[classes.size()]);
+        }
+        return names;
+    }
+
+    /**
+     * @return true 如果已经达到最大匹配限制
+     */
+    private boolean addClasses(Set<Class<?>> matches, String name, int limit) {
+        List<WeakReference<Class<?>>> refs = classes.get(name);
+        if (refs != null) {
+            for (WeakReference<Class<?>> ref : refs) {
+                Class<?> clazz = ref.get();
+                if (clazz != null) {
+                    matches.add(clazz);
+                    if (matches.size() >= limit) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private List<String> matchNames(Matcher<String> classNameMatcher, String[] candidates) {
+        int threads = SEARCH_THREADS;
+        if (threads <= 1 || candidates.length < PARALLEL_THRESHOLD) {
+            return new MatchTask(classNameMatcher, candidates, 0, candidates.length).call();
+        }
+
+        // 当前线程处理第一段，其它的交给线程池
+        int chunk = (candidates.length + threads - 1) / threads;
+        List<MatchTask> tasks = new ArrayList<MatchTask>();
+        List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+        for (int from = chunk; from < candidates.length; from += chunk) {
+            MatchTask task = new MatchTask(classNameMatcher, candidates, from, Math.min(from + chunk, candidates.length));
+            tasks.add(task);
+            futures.add(searchExecutor().submit(task));
+        }
+
+        List<String> result = new MatchTask(classNameMatcher, candidates, 0, chunk).call();
+        for (int i = 0; i < futures.size(); ++i) {
+            try {
+                result.addAll(futures.get(i).get());
+            } catch (InterruptedException e) {
+                // 匹配没有副作用，在当前线程重新匹配这一段
+                Thread.currentThread().interrupt();
+                result.addAll(tasks.get(i).call());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        return result;
+    }
+
+    private ThreadPoolExecutor searchExecutor() {
+        if (searchExecutor == null) {
+            final AtomicInteger threadIndex = new AtomicInteger();
+            searchExecutor = new ThreadPoolExecutor(SEARCH_THREADS - 1, SEARCH_THREADS - 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            final Thread t = new Thread(r, "arthas-class-search-" + threadIndex.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            searchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return searchExecutor;
+    }
+
+    /**
+     * 通配符表达式里第一个通配符之前的部分
+     */
+    static String literalPrefix(String pattern) {
+        if (pattern == null) {
+            return "";
+        }
+        for (int i = 0; i < pattern.length(); ++i) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '\\') {
+                return pattern.substring(0, i);
+            }
+        }
+        return pattern;
+    }
+
+    private static class PendingClass {
+        static final WeakReference<ClassLoader> BOOTSTRAP = new WeakReference<ClassLoader>(null);
+
+        final WeakReference<ClassLoader> loader;
+        final String className;
+        final long time = System.currentTimeMillis();
+
+        PendingClass(ClassLoader loader, String className) {
+            this.loader = loader == null ? BOOTSTRAP : new WeakReference<ClassLoader>(loader);
+            this.className = className;
+        }
+    }
+
+    private static class MatchTask implements Callable<List<String>> {
+        private final Matcher<String> classNameMatcher;
+        private final String[] candidates;
+        private final int from;
+        private final int to;
+
+        MatchTask(Matcher<String> classNameMatcher, String[] candidates, int from, int to) {
+            this.classNameMatcher = classNameMatcher;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public List<String> call() {
+            List<String> result = new ArrayList<String>();
+            for (int i = from; i < to; ++i) {
+                if (classNameMatcher.matching(candidates[i])) {
+                    result.add(candidates[i]);
+                }
+            }
+            return result;
+        }
+    }
+}
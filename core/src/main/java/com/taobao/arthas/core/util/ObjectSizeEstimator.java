@@ -0,0 +1,169 @@
+package com.taobao.arthas.core.util;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <pre>
+ * 估算对象引用到的内存大小，用于 tt 等命令限制保存的对象占用的内存。
+ *
+ * 按 64 位 JVM 开启压缩指针估算：对象头 12 byte ，数组头 16 byte ，引用 4 byte ，按 8 byte 对齐。
+ * Class ，ClassLoader ，Thread 和枚举这些共享的对象不计算在内。
+ * 最多遍历 maxObjects 个对象，剩下没有遍历的对象按已经遍历的对象的平均大小估算。
+ *
+ * 每个类的大小和引用类型的字段只解析一次，缓存在以 Class 为弱引用 key 的 map 里。
+ * Field 会引用 Class ，所以 value 用 SoftReference 保存，不影响类的卸载。
+ * </pre>
+ */
+public class ObjectSizeEstimator {
+
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+
+    private static final Field[] NO_FIELDS = new Field[0];
+
+    private static final Map<Class<?>, SoftReference<ClassLayout>> layouts = new WeakHashMap<Class<?>, SoftReference<ClassLayout>>();
+
+    private ObjectSizeEstimator() {
+    }
+
+    /**
+     * @param maxObjects 最多遍历的对象数量
+     * @param roots      根对象，可以为 null
+     * @return 估算的大小，单位 byte
+     */
+    public static long estimate(int maxObjects, Object... roots) {
+        Map<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        LinkedList<Object> queue = new LinkedList<Object>();
+        for (Object root : roots) {
+            enqueue(root, visited, queue);
+        }
+
+        long size = 0;
+        int count = 0;
+        while (!queue.isEmpty() && count < maxObjects) {
+            Object obj = queue.poll();
+            count++;
+            size += shallowSize(obj, visited, queue);
+        }
+        if (!queue.isEmpty() && count > 0) {
+            size += size / count * queue.size();
+        }
+        return size;
+    }
+
+    private static void enqueue(Object obj, Map<Object, Boolean> visited, LinkedList<Object> queue) {
+        if (obj == null || obj instanceof Class || obj instanceof ClassLoader || obj instanceof Thread
+                || obj instanceof Enum) {
+            return;
+        }
+        if (visited.put(obj, Boolean.TRUE) == null) {
+            queue.add(obj);
+        }
+    }
+
+    /**
+     * 计算对象自身的大小，并把引用的对象放到队列里
+     */
+    private static long shallowSize(Object obj, Map<Object, Boolean> visited, LinkedList<Object> queue) {
+        Class<?> clazz = obj.getClass();
+        if (clazz.isArray()) {
+            int length = Array.getLength(obj);
+            Class<?> componentType = clazz.getComponentType();
+            if (componentType.isPrimitive()) {
+                return align(ARRAY_HEADER + (long) length * primitiveSize(componentType));
+            }
+            for (Object element : (Object[]) obj) {
+                enqueue(element, visited, queue);
+            }
+            return align(ARRAY_HEADER + (long) length * REFERENCE);
+        }
+
+        ClassLayout layout = layout(clazz);
+        for (Field field : layout.references) {
+            try {
+                enqueue(field.get(obj), visited, queue);
+            } catch (Throwable e) {
+                // ignore
+            }
+        }
+        return layout.size;
+    }
+
+    private static ClassLayout layout(Class<?> clazz) {
+        synchronized (layouts) {
+            SoftReference<ClassLayout> ref = layouts.get(clazz);
+            ClassLayout layout = ref == null ? null : ref.get();
+            if (layout == null) {
+                layout = ClassLayout.of(clazz);
+                layouts.put(clazz, new SoftReference<ClassLayout>(layout));
+            }
+            return layout;
+        }
+    }
+
+    /**
+     * 类的对象的大小，以及可以读取的引用类型的字段
+     */
+    private static class ClassLayout {
+        final long size;
+        final Field[] references;
+
+        ClassLayout(long size, Field[] references) {
+            this.size = size;
+            this.references = references;
+        }
+
+        static ClassLayout of(Class<?> clazz) {
+            long size = OBJECT_HEADER;
+            List<Field> references = new ArrayList<Field>();
+            for (Class<?> c = clazz; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    Class<?> type = field.getType();
+                    if (type.isPrimitive()) {
+                        size += primitiveSize(type);
+                        continue;
+                    }
+                    size += REFERENCE;
+                    try {
+                        field.setAccessible(true);
+                        references.add(field);
+                    } catch (Throwable e) {
+                        // 访问不了的字段（比如 jdk9 之后模块内部的字段）只计算引用本身
+                    }
+                }
+            }
+            return new ClassLayout(align(size),
+                    references.isEmpty() ? NO_FIELDS : references.toArray(new Field[references.size()]));
+        }
+    }
+
+    static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
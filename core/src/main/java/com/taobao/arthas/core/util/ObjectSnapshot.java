@@ -0,0 +1,682 @@
+package com.taobao.arthas.core.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <pre>
+ * 把对象保存为紧凑的二进制快照，解码后的对象不再引用原来的对象。用于 tt 只保存调用时的参数和返回值的快照，
+ * 而不是一直引用应用里的对象。
+ *
+ * 基础类型，String ，Date ，BigDecimal 等按值保存；普通对象保存所有的字段，数组/集合/Map 最多保存
+ * maxElements 个元素，超过 depth 层的对象只保存类名。解码后：
+ *
+ * 普通对象   -> {@link SnapshotObject} ，是一个 字段名 -> 值 的 Map ，OGNL 可以用 params[0].name 访问
+ * 集合       -> {@link SnapshotCollection}
+ * Map        -> {@link SnapshotMap}
+ * Throwable  -> {@link SnapshotThrowable} ，保存 toString 和异常栈
+ *
+ * 编码在被增强的方法的线程里执行，只对 java. 开头的集合和 Map 调用迭代器，其它的类只通过反射读取字段。
+ * </pre>
+ */
+public class ObjectSnapshot {
+
+    public static final int DEFAULT_MAX_ELEMENTS = 100;
+    static final int MAX_STRING_LENGTH = 64 * 1024;
+
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte CHAR = 3;
+    private static final byte SHORT = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+    private static final byte PRIMITIVE_ARRAY = 10;
+    private static final byte OBJECT_ARRAY = 11;
+    private static final byte COLLECTION = 12;
+    private static final byte MAP = 13;
+    private static final byte ENUM = 14;
+    private static final byte OBJECT = 15;
+    private static final byte REFERENCE = 16;
+    private static final byte TRUNCATED = 17;
+    private static final byte THROWABLE = 18;
+    private static final byte DATE = 19;
+    private static final byte BIG_DECIMAL = 20;
+    private static final byte BIG_INTEGER = 21;
+    private static final byte CLASS = 22;
+
+    /**
+     * 快照解码后的对象
+     */
+    public interface Snapshot {
+        /**
+         * @return 原来对象的类名
+         */
+        String getClassName();
+    }
+
+    public static class SnapshotObject extends LinkedHashMap<String, Object> implements Snapshot {
+        private static final long serialVersionUID = 1L;
+
+        private final String className;
+        private final String text;
+        private final boolean truncated;
+
+        SnapshotObject(String className, String text, boolean truncated) {
+            this.className = className;
+            this.text = text;
+            this.truncated = truncated;
+        }
+
+        @Override
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * 不展开时显示的内容，普通对象为 类名@identityHashCode ，枚举为枚举名
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return true 如果超过了保存的层数，没有保存字段
+         */
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    public static class SnapshotCollection extends ArrayList<Object> implements Snapshot {
+        private static final long serialVersionUID = 1L;
+
+        private final String className;
+
+        SnapshotCollection(String className, int size) {
+            super(size);
+            this.className = className;
+        }
+
+        @Override
+        public String getClassName() {
+            return className;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+
+    public static class SnapshotMap extends LinkedHashMap<Object, Object> implements Snapshot {
+        private static final long serialVersionUID = 1L;
+
+        private final String className;
+
+        SnapshotMap(String className) {
+            this.className = className;
+        }
+
+        @Override
+        public String getClassName() {
+            return className;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+
+    public static class SnapshotThrowable extends RuntimeException implements Snapshot {
+        private static final long serialVersionUID = 1L;
+
+        private final String className;
+        private final String text;
+        private final String stackTrace;
+
+        SnapshotThrowable(String className, String text, String stackTrace) {
+            super(text);
+            this.className = className;
+            this.text = text;
+            this.stackTrace = stackTrace;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // 异常栈已经保存在 stackTrace 里
+            return this;
+        }
+
+        @Override
+        public String getClassName() {
+            return className;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+
+        @Override
+        public void printStackTrace(PrintWriter s) {
+            s.print(stackTrace);
+        }
+    }
+
+    public static class Encoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+        private final int maxElements;
+
+        public Encoder(int maxElements) {
+            this.maxElements = maxElements;
+        }
+
+        /**
+         * @param obj   对象
+         * @param depth 保存的层数，0 表示只保存对象自身的基础类型字段
+         */
+        public Encoder write(Object obj, int depth) {
+            try {
+                writeValue(obj, depth);
+            } catch (IOException e) {
+                // ByteArrayOutputStream 不会抛出 IOException
+                throw new IllegalStateException(e);
+            }
+            return this;
+        }
+
+        public byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        private void writeValue(Object obj, int depth) throws IOException {
+            if (obj == null) {
+                out.writeByte(NULL);
+            } else if (obj instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) obj);
+            } else if (obj instanceof Byte) {
+                out.writeByte(BYTE);
+                out.writeByte((Byte) obj);
+            } else if (obj instanceof Character) {
+                out.writeByte(CHAR);
+                out.writeChar((Character) obj);
+            } else if (obj instanceof Short) {
+                out.writeByte(SHORT);
+                out.writeShort((Short) obj);
+            } else if (obj instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer) obj);
+            } else if (obj instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) obj);
+            } else if (obj instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) obj);
+            } else if (obj instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) obj);
+            } else if (obj instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) obj);
+            } else if (obj instanceof Enum) {
+                out.writeByte(ENUM);
+                writeString(obj.getClass().getName());
+                writeString(((Enum<?>) obj).name());
+            } else if (obj instanceof Class) {
+                out.writeByte(CLASS);
+                writeString(((Class<?>) obj).getName());
+            } else if (obj instanceof Date) {
+                out.writeByte(DATE);
+                out.writeLong(((Date) obj).getTime());
+            } else if (obj instanceof BigDecimal) {
+                out.writeByte(BIG_DECIMAL);
+                writeString(obj.toString());
+            } else if (obj instanceof BigInteger) {
+                out.writeByte(BIG_INTEGER);
+                writeString(obj.toString());
+            } else if (obj instanceof Throwable) {
+                writeThrowable((Throwable) obj);
+            } else if (ids.containsKey(obj)) {
+                out.writeByte(REFERENCE);
+                out.writeInt(ids.get(obj));
+            } else if (depth < 0) {
+                out.writeByte(TRUNCATED);
+                writeString(obj.getClass().getName());
+                out.writeInt(System.identityHashCode(obj));
+            } else {
+                ids.put(obj, ids.size());
+                Class<?> clazz = obj.getClass();
+                if (clazz.isArray()) {
+                    writeArray(obj, depth);
+                } else if (obj instanceof Collection && isJdkClass(clazz)) {
+                    writeCollection((Collection<?>) obj, depth);
+                } else if (obj instanceof Map && isJdkClass(clazz)) {
+                    writeMap((Map<?, ?>) obj, depth);
+                } else {
+                    writeObject(obj, depth);
+                }
+            }
+        }
+
+        private void writeArray(Object array, int depth) throws IOException {
+            Class<?> componentType = array.getClass().getComponentType();
+            int length = Math.min(Array.getLength(array), maxElements);
+            if (componentType.isPrimitive()) {
+                byte componentTag = primitiveTag(componentType);
+                out.writeByte(PRIMITIVE_ARRAY);
+                out.writeByte(componentTag);
+                out.writeInt(length);
+                for (int i = 0; i < length; ++i) {
+                    writePrimitive(componentTag, Array.get(array, i));
+                }
+            } else {
+                out.writeByte(OBJECT_ARRAY);
+                writeString(componentType.getName());
+                out.writeInt(length);
+                Object[] objects = (Object[]) array;
+                for (int i = 0; i < length; ++i) {
+                    writeValue(objects[i], depth - 1);
+                }
+            }
+        }
+
+        private void writePrimitive(byte tag, Object value) throws IOException {
+            switch (tag) {
+            case BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case CHAR:
+                out.writeChar((Character) value);
+                break;
+            case SHORT:
+                out.writeShort((Short) value);
+                break;
+            case INT:
+                out.writeInt((Integer) value);
+                break;
+            case LONG:
+                out.writeLong((Long) value);
+                break;
+            case FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            default:
+                out.writeDouble((Double) value);
+            }
+        }
+
+        private void writeCollection(Collection<?> collection, int depth) throws IOException {
+            // 先取出元素，迭代时抛出异常（比如并发修改）也不影响已经写入的数据
+            List<Object> elements = new ArrayList<Object>();
+            try {
+                for (Object element : collection) {
+                    if (elements.size() >= maxElements) {
+                        break;
+                    }
+                    elements.add(element);
+                }
+            } catch (Throwable e) {
+                // ignore
+            }
+            out.writeByte(COLLECTION);
+            writeString(collection.getClass().getName());
+            out.writeInt(elements.size());
+            for (Object element : elements) {
+                writeValue(element, depth - 1);
+            }
+        }
+
+        private void writeMap(Map<?, ?> map, int depth) throws IOException {
+            List<Object> entries = new ArrayList<Object>();
+            try {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (entries.size() >= maxElements * 2) {
+                        break;
+                    }
+                    entries.add(entry.getKey());
+                    entries.add(entry.getValue());
+                }
+            } catch (Throwable e) {
+                // ignore
+            }
+            out.writeByte(MAP);
+            writeString(map.getClass().getName());
+            out.writeInt(entries.size() / 2);
+            for (Object element : entries) {
+                writeValue(element, depth - 1);
+            }
+        }
+
+        private void writeObject(Object obj, int depth) throws IOException {
+            List<Field> fields = new ArrayList<Field>();
+            List<Object> values = new ArrayList<Object>();
+            for (Class<?> c = obj.getClass(); c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    try {
+                        if (!field.isAccessible()) {
+                            field.setAccessible(true);
+                        }
+                        values.add(field.get(obj));
+                        fields.add(field);
+                    } catch (Throwable e) {
+                        // 访问不了的字段（比如 jdk9 之后模块内部的字段）不保存
+                    }
+                }
+            }
+            out.writeByte(OBJECT);
+            writeString(obj.getClass().getName());
+            out.writeInt(System.identityHashCode(obj));
+            out.writeInt(fields.size());
+            for (int i = 0; i < fields.size(); ++i) {
+                writeString(fields.get(i).getName());
+                writeValue(values.get(i), depth - 1);
+            }
+        }
+
+        private void writeThrowable(Throwable throwable) throws IOException {
+            String text;
+            String stackTrace;
+            try {
+                text = throwable.toString();
+                StringWriter sw = new StringWriter();
+                throwable.printStackTrace(new PrintWriter(sw));
+                stackTrace = sw.toString();
+            } catch (Throwable e) {
+                text = throwable.getClass().getName();
+                stackTrace = text;
+            }
+            out.writeByte(THROWABLE);
+            writeString(throwable.getClass().getName());
+            writeString(text);
+            writeString(stackTrace);
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s.length() > MAX_STRING_LENGTH) {
+                s = s.substring(0, MAX_STRING_LENGTH);
+            }
+            byte[] data = s.getBytes("UTF-8");
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        private static boolean isJdkClass(Class<?> clazz) {
+            return clazz.getName().startsWith("java.");
+        }
+
+        private static byte primitiveTag(Class<?> type) {
+            if (type == boolean.class) {
+                return BOOLEAN;
+            } else if (type == byte.class) {
+                return BYTE;
+            } else if (type == char.class) {
+                return CHAR;
+            } else if (type == short.class) {
+                return SHORT;
+            } else if (type == int.class) {
+                return INT;
+            } else if (type == long.class) {
+                return LONG;
+            } else if (type == float.class) {
+                return FLOAT;
+            }
+            return DOUBLE;
+        }
+    }
+
+    public static class Decoder {
+        private final DataInputStream in;
+        private final List<Object> refs = new ArrayList<Object>();
+
+        public Decoder(byte[] data) {
+            this.in = new DataInputStream(new ByteArrayInputStream(data));
+        }
+
+        /**
+         * 按写入的顺序读取对象
+         */
+        public Object read() {
+            try {
+                return readValue();
+            } catch (IOException e) {
+                throw new IllegalStateException("broken snapshot data", e);
+            }
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case SHORT:
+                return in.readShort();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return readString();
+            case ENUM: {
+                String className = readString();
+                String name = readString();
+                return new SnapshotObject(className, name, false);
+            }
+            case CLASS:
+                return new SnapshotObject(Class.class.getName(), readString(), true);
+            case DATE:
+                return new Date(in.readLong());
+            case BIG_DECIMAL:
+                return new BigDecimal(readString());
+            case BIG_INTEGER:
+                return new BigInteger(readString());
+            case THROWABLE:
+                return new SnapshotThrowable(readString(), readString(), readString());
+            case REFERENCE:
+                return refs.get(in.readInt());
+            case TRUNCATED: {
+                String className = readString();
+                return new SnapshotObject(className, text(className, in.readInt()), true);
+            }
+            case PRIMITIVE_ARRAY:
+                return readPrimitiveArray();
+            case OBJECT_ARRAY:
+                return readObjectArray();
+            case COLLECTION: {
+                String className = readString();
+                int size = in.readInt();
+                SnapshotCollection collection = new SnapshotCollection(className, size);
+                refs.add(collection);
+                for (int i = 0; i < size; ++i) {
+                    collection.add(readValue());
+                }
+                return collection;
+            }
+            case MAP: {
+                SnapshotMap map = new SnapshotMap(readString());
+                refs.add(map);
+                int size = in.readInt();
+                for (int i = 0; i < size; ++i) {
+                    Object key = readValue();
+                    map.put(key, readValue());
+                }
+                return map;
+            }
+            case OBJECT: {
+                String className = readString();
+                SnapshotObject object = new SnapshotObject(className, text(className, in.readInt()), false);
+                refs.add(object);
+                int size = in.readInt();
+                for (int i = 0; i < size; ++i) {
+                    String name = readString();
+                    Object value = readValue();
+                    // 父类里同名的字段不覆盖子类的字段
+                    if (!object.containsKey(name)) {
+                        object.put(name, value);
+                    }
+                }
+                return object;
+            }
+            default:
+                throw new IOException("unknown snapshot tag: " + tag);
+            }
+        }
+
+        private Object readPrimitiveArray() throws IOException {
+            byte componentTag = in.readByte();
+            int length = in.readInt();
+            Object array = Array.newInstance(primitiveType(componentTag), length);
+            refs.add(array);
+            for (int i = 0; i < length; ++i) {
+                Array.set(array, i, readPrimitive(componentTag));
+            }
+            return array;
+        }
+
+        private Object readPrimitive(byte tag) throws IOException {
+            switch (tag) {
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case SHORT:
+                return in.readShort();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            default:
+                return in.readDouble();
+            }
+        }
+
+        private Object readObjectArray() throws IOException {
+            String componentType = readString();
+            int length = in.readInt();
+            Object[] array;
+            try {
+                // 只有 jdk 里的类型可以直接创建数组，其它的用 Object[]
+                array = componentType.startsWith("java.")
+                        ? (Object[]) Array.newInstance(Class.forName(componentType, false, null), length)
+                        : new Object[length];
+            } catch (Throwable e) {
+                array = new Object[length];
+            }
+            refs.add(array);
+            for (int i = 0; i < length; ++i) {
+                Object value = readValue();
+                try {
+                    array[i] = value;
+                } catch (ArrayStoreException e) {
+                    // 元素被保存成了 SnapshotObject
+                    Object[] objects = new Object[length];
+                    System.arraycopy(array, 0, objects, 0, i);
+                    objects[i] = value;
+                    refs.set(refs.indexOf(array), objects);
+                    array = objects;
+                }
+            }
+            return array;
+        }
+
+        private String readString() throws IOException {
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new String(data, "UTF-8");
+        }
+
+        private static String text(String className, int identityHashCode) {
+            return className + "@" + Integer.toHexString(identityHashCode);
+        }
+
+        private static Class<?> primitiveType(byte tag) {
+            switch (tag) {
+            case BOOLEAN:
+                return boolean.class;
+            case BYTE:
+                return byte.class;
+            case CHAR:
+                return char.class;
+            case SHORT:
+                return short.class;
+            case INT:
+                return int.class;
+            case LONG:
+                return long.class;
+            case FLOAT:
+                return float.class;
+            default:
+                return double.class;
+            }
+        }
+    }
+}
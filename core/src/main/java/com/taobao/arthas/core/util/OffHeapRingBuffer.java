@@ -0,0 +1,133 @@
+package com.taobao.arthas.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.alibaba.arthas.deps.org.slf4j.Logger;
+import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+
+/**
+ * <pre>
+ * 堆外的环形缓冲区，保存变长的记录，写满之后覆盖最早的记录。
+ *
+ * 写入时返回记录的逻辑位置（一直递增，不回绕），当 写入位置 - 记录位置 > 容量 时说明记录已经被覆盖。
+ * 每条记录的格式为 int 长度 + 数据，记录可以跨过缓冲区的末尾。
+ *
+ * 优先使用 mmap 的临时文件，映射之后文件马上删除，数据由操作系统的 page cache 管理，不占用 java heap ；
+ * 创建文件失败时使用 DirectByteBuffer 。
+ * </pre>
+ */
+public class OffHeapRingBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapRingBuffer.class);
+
+    private static final int HEADER_SIZE = 4;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private long writePosition;
+
+    public OffHeapRingBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+    }
+
+    public static OffHeapRingBuffer create(int capacity) {
+        File file = null;
+        RandomAccessFile raf = null;
+        try {
+            file = File.createTempFile("arthas-snapshot-", ".data");
+            raf = new RandomAccessFile(file, "rw");
+            raf.setLength(capacity);
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new OffHeapRingBuffer(buffer);
+        } catch (Throwable e) {
+            logger.warn("create memory mapped file failed, use direct buffer instead. file: {}", file, e);
+            return new OffHeapRingBuffer(ByteBuffer.allocateDirect(capacity));
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            if (file != null && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @return 记录的位置
+     * @throws IllegalArgumentException 如果记录比缓冲区还大
+     */
+    public synchronized long write(byte[] data) {
+        if (data.length + HEADER_SIZE > capacity) {
+            throw new IllegalArgumentException(
+                    "record size " + data.length + " exceeds buffer capacity " + capacity);
+        }
+        long position = writePosition;
+        put(position, intToBytes(data.length));
+        put(position + HEADER_SIZE, data);
+        writePosition = position + HEADER_SIZE + data.length;
+        return position;
+    }
+
+    /**
+     * @return 记录的数据，记录已经被覆盖时返回 null
+     */
+    public synchronized byte[] read(long position) {
+        if (!isAvailable(position)) {
+            return null;
+        }
+        byte[] header = new byte[HEADER_SIZE];
+        get(position, header);
+        byte[] data = new byte[bytesToInt(header)];
+        get(position + HEADER_SIZE, data);
+        return data;
+    }
+
+    /**
+     * @return true 如果记录还没有被覆盖
+     */
+    public synchronized boolean isAvailable(long position) {
+        return position >= 0 && position < writePosition && writePosition - position <= capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void put(long position, byte[] src) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(src.length, capacity - offset);
+        buffer.position(offset);
+        buffer.put(src, 0, first);
+        if (first < src.length) {
+            buffer.position(0);
+            buffer.put(src, first, src.length - first);
+        }
+    }
+
+    private void get(long position, byte[] dst) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(dst.length, capacity - offset);
+        buffer.position(offset);
+        buffer.get(dst, 0, first);
+        if (first < dst.length) {
+            buffer.position(0);
+            buffer.get(dst, first, dst.length - first);
+        }
+    }
+
+    private static byte[] intToBytes(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    private static int bytesToInt(byte[] bytes) {
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+}
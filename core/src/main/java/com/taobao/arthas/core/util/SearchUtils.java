@@ -17,6 +17,17 @@ import java.util.Set;
  */
 public class SearchUtils {
 
+    private static volatile LoadedClassIndex loadedClassIndex;
+
+    public static void setLoadedClassIndex(LoadedClassIndex index) {
+        loadedClassIndex = index;
+    }
+
+    private static LoadedClassIndex loadedClassIndex(Instrumentation inst) {
+        LoadedClassIndex index = loadedClassIndex;
+        return index != null && index.getInstrumentation() == inst ? index : null;
+    }
+
     /**
      * 根据类名匹配，搜索已经被JVM加载的类
      *
@@ -29,6 +40,10 @@ public class SearchUtils {
         if (classNameMatcher == null) {
             return Collections.emptySet();
         }
+        LoadedClassIndex index = loadedClassIndex(inst);
+        if (index != null) {
+            return index.searchClass(classNameMatcher, limit);
+        }
         final Set<Class<?>> matches = new HashSet<Class<?>>();
         for (Class<?> clazz : inst.getAllLoadedClasses()) {
             if (classNameMatcher.matching(clazz.getName())) {
@@ -105,6 +120,10 @@ public class SearchUtils {
      * @return 匹配的子类集合
      */
     public static Set<Class<?>> searchSubClass(Instrumentation inst, Set<Class<?>> classSet) {
+        LoadedClassIndex index = loadedClassIndex(inst);
+        if (index != null) {
+            return index.searchSubClass(classSet);
+        }
         final Set<Class<?>> matches = new HashSet<Class<?>>();
         for (Class<?> clazz : inst.getAllLoadedClasses()) {
             for (Class<?> superClass : classSet) {
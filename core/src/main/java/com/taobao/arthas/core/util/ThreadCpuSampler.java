@@ -0,0 +1,366 @@
+package com.taobao.arthas.core.util;
+
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.arthas.deps.org.slf4j.Logger;
+import com.alibaba.arthas.deps.org.slf4j.LoggerFactory;
+import com.taobao.arthas.core.util.collection.LongLongHashMap;
+
+/**
+ * <pre>
+ * 后台线程周期性采样所有线程的 cpu 时间，thread/dashboard 命令直接读取最近一个周期的结果，不需要 sleep 等待。
+ *
+ * 有命令订阅时才采样，采样周期是所有订阅者里最小的 interval 。最后一个订阅者取消之后再保留 LINGER_MILLIS ，
+ * 这段时间内重复执行 thread -n 可以马上得到结果。开始采样后第一个周期最长 FIRST_WINDOW_MILLIS ，dashboard 第一次刷新时不用等一个完整的周期。
+ * JVM 支持时用 com.sun.management.ThreadMXBean#getThreadCpuTime(long[]) 一次取得所有线程的 cpu 时间。
+ * </pre>
+ */
+public class ThreadCpuSampler {
+    private static final Logger logger = LoggerFactory.getLogger(ThreadCpuSampler.class);
+
+    static final long LINGER_MILLIS = 30 * 1000;
+    static final long FIRST_WINDOW_MILLIS = 100;
+
+    private final ThreadMXBean threadMXBean;
+    private volatile Method bulkCpuTimeMethod;
+
+    // 每个订阅者的 interval ，同样的 interval 可以有多个
+    private final List<Long> intervals = new ArrayList<Long>();
+    private long periodMillis;
+    private long idleDeadline;
+    private Thread samplerThread;
+    private boolean destroyed;
+
+    // 上一次采样的 cpu 时间，只有采样线程访问
+    private LongLongHashMap lastCpuTimes;
+    private long lastSampleNanos;
+
+    private volatile Sample latest;
+
+    /**
+     * 一个采样周期的结果，发布之后不再修改
+     */
+    public static class Sample {
+        private final long[] threadIds;
+        private final LongLongHashMap cpuTimes;
+        private final LongLongHashMap deltas;
+        private final long totalDelta;
+        private final long periodMillis;
+        private final long intervalNanos;
+        private final boolean firstWindow;
+
+        Sample(long[] threadIds, LongLongHashMap cpuTimes, LongLongHashMap deltas, long totalDelta,
+                long periodMillis, long intervalNanos, boolean firstWindow) {
+            this.threadIds = threadIds;
+            this.cpuTimes = cpuTimes;
+            this.deltas = deltas;
+            this.totalDelta = totalDelta;
+            this.periodMillis = periodMillis;
+            this.intervalNanos = intervalNanos;
+            this.firstWindow = firstWindow;
+        }
+
+        /**
+         * @return 线程的 cpu 时间(ns)，线程不存在或者不支持时返回 -1
+         */
+        public long getCpuTime(long threadId) {
+            return cpuTimes.get(threadId, -1);
+        }
+
+        /**
+         * @return 这个周期里线程的 cpu 时间占所有线程 cpu 时间的百分比，线程不存在时返回 0
+         */
+        public long getCpuUsage(long threadId) {
+            return totalDelta == 0 ? 0 : deltas.get(threadId, 0) * 100 / totalDelta;
+        }
+
+        /**
+         * @param topN 小于等于 0 时返回所有线程
+         * @return 按 cpu 使用率从高到低排序的 ThreadID -> cpu 使用率
+         */
+        public Map<Long, Long> getTopNThreads(int topN) {
+            Long[] ids = new Long[threadIds.length];
+            for (int i = 0; i < threadIds.length; ++i) {
+                ids[i] = threadIds[i];
+            }
+            Arrays.sort(ids, new Comparator<Long>() {
+                @Override
+                public int compare(Long o1, Long o2) {
+                    long d1 = deltas.get(o1, 0);
+                    long d2 = deltas.get(o2, 0);
+                    return d1 < d2 ? 1 : (d1 > d2 ? -1 : 0);
+                }
+            });
+            int size = topN > 0 && topN <= ids.length ? topN : ids.length;
+            // use LinkedHashMap to preserve insert order
+            Map<Long, Long> topNThreads = new LinkedHashMap<Long, Long>();
+            for (int i = 0; i < size; ++i) {
+                topNThreads.put(ids[i], getCpuUsage(ids[i]));
+            }
+            return topNThreads;
+        }
+
+        /**
+         * @return 采样时的周期
+         */
+        public long getPeriodMillis() {
+            return periodMillis;
+        }
+
+        /**
+         * @return 这个周期实际的时间长度
+         */
+        public long getIntervalMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+        }
+    }
+
+    public ThreadCpuSampler(ThreadMXBean threadMXBean) {
+        this.threadMXBean = threadMXBean;
+        this.bulkCpuTimeMethod = findBulkCpuTimeMethod(threadMXBean);
+    }
+
+    private static Method findBulkCpuTimeMethod(ThreadMXBean threadMXBean) {
+        try {
+            Class<?> sunThreadMXBean = Class.forName("com.sun.management.ThreadMXBean");
+            if (sunThreadMXBean.isInstance(threadMXBean)) {
+                return sunThreadMXBean.getMethod("getThreadCpuTime", long[].class);
+            }
+        } catch (Throwable e) {
+            // jdk 8 之前没有这个函数
+        }
+        return null;
+    }
+
+    /**
+     * 订阅采样结果，需要和 release 成对调用
+     *
+     * @param intervalMillis 希望的采样周期
+     */
+    public synchronized void acquire(long intervalMillis) {
+        if (destroyed) {
+            return;
+        }
+        intervals.add(Math.max(intervalMillis, 1));
+        updatePeriod();
+        if (samplerThread == null) {
+            samplerThread = new Thread("arthas-thread-cpu-sampler") {
+                @Override
+                public void run() {
+                    runLoop();
+                }
+            };
+            samplerThread.setDaemon(true);
+            samplerThread.start();
+        }
+        notifyAll();
+    }
+
+    public synchronized void release(long intervalMillis) {
+        if (intervals.remove(Long.valueOf(Math.max(intervalMillis, 1)))) {
+            updatePeriod();
+            if (intervals.isEmpty()) {
+                idleDeadline = System.currentTimeMillis() + LINGER_MILLIS;
+            }
+            notifyAll();
+        }
+    }
+
+    private void updatePeriod() {
+        if (!intervals.isEmpty()) {
+            periodMillis = Collections.min(intervals);
+        }
+    }
+
+    /**
+     * 等待一个采样周期不大于 intervalMillis 的结果，采样线程已经在运行时马上返回。缩短的第一个周期不算。
+     *
+     * @return 最近一个周期的结果，超时或者没有订阅时可能返回 null
+     */
+    public Sample awaitSample(long intervalMillis, long timeoutMillis) throws InterruptedException {
+        return awaitSample(intervalMillis, false, timeoutMillis);
+    }
+
+    /**
+     * 等待任意一个周期的结果，包括缩短的第一个周期
+     *
+     * @return 最近一个周期的结果，超时或者没有订阅时可能返回 null
+     */
+    public Sample awaitSample(long timeoutMillis) throws InterruptedException {
+        return awaitSample(Long.MAX_VALUE, true, timeoutMillis);
+    }
+
+    private Sample awaitSample(long intervalMillis, boolean acceptFirstWindow, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            for (;;) {
+                Sample sample = latest;
+                if (sample != null && sample.periodMillis <= intervalMillis
+                        && (acceptFirstWindow || !sample.firstWindow)) {
+                    return sample;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || samplerThread == null) {
+                    return sample;
+                }
+                wait(remaining);
+            }
+        }
+    }
+
+    /**
+     * 订阅一个周期的结果，取得 cpu 使用率最高的线程
+     *
+     * @return 按 cpu 使用率从高到低排序的 ThreadID -> cpu 使用率
+     */
+    public Map<Long, Long> getTopNThreads(int intervalMillis, int topN) {
+        acquire(intervalMillis);
+        try {
+            Sample sample = awaitSample(intervalMillis, intervalMillis * 2L + 1000);
+            if (sample != null) {
+                return sample.getTopNThreads(topN);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            release(intervalMillis);
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return 最近一个周期的结果，没有采样时返回 null
+     */
+    public Sample getLatest() {
+        return latest;
+    }
+
+    public synchronized void destroy() {
+        destroyed = true;
+        intervals.clear();
+        notifyAll();
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (true) {
+                        long now = System.currentTimeMillis();
+                        if (destroyed || (intervals.isEmpty() && now >= idleDeadline)) {
+                            stop();
+                            return;
+                        }
+                        long waitMillis = lastCpuTimes == null ? 0
+                                : currentWindowMillis()
+                                        - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSampleNanos);
+                        if (intervals.isEmpty()) {
+                            waitMillis = Math.min(waitMillis, idleDeadline - now);
+                        }
+                        if (waitMillis <= 0) {
+                            break;
+                        }
+                        wait(waitMillis);
+                    }
+                }
+                sample();
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                stop();
+            }
+        } catch (Throwable e) {
+            logger.error("sample thread cpu time error", e);
+            synchronized (this) {
+                stop();
+            }
+        }
+    }
+
+    private long currentWindowMillis() {
+        return latest == null ? Math.min(periodMillis, FIRST_WINDOW_MILLIS) : periodMillis;
+    }
+
+    private void stop() {
+        samplerThread = null;
+        latest = null;
+        lastCpuTimes = null;
+        notifyAll();
+    }
+
+    /**
+     * 只在采样线程里调用
+     */
+    void sample() {
+        long[] threadIds = threadMXBean.getAllThreadIds();
+        long[] times = getThreadCpuTime(threadIds);
+        long nanos = System.nanoTime();
+
+        LongLongHashMap cpuTimes = new LongLongHashMap(threadIds.length);
+        for (int i = 0; i < threadIds.length; ++i) {
+            cpuTimes.put(threadIds[i], times[i]);
+        }
+
+        LongLongHashMap last = lastCpuTimes;
+        if (last != null) {
+            LongLongHashMap deltas = new LongLongHashMap(threadIds.length);
+            long total = 0;
+            for (int i = 0; i < threadIds.length; ++i) {
+                long time = times[i];
+                long lastTime = last.get(threadIds[i], -1);
+                long delta;
+                if (time == -1) {
+                    // 线程已经结束，或者不支持
+                    delta = 0;
+                } else if (lastTime == -1) {
+                    // 上次采样之后创建的线程
+                    delta = last.containsKey(threadIds[i]) ? 0 : time;
+                } else {
+                    delta = Math.max(time - lastTime, 0);
+                }
+                deltas.put(threadIds[i], delta);
+                total += delta;
+            }
+            long window;
+            boolean firstWindow;
+            synchronized (this) {
+                window = currentWindowMillis();
+                firstWindow = window < periodMillis;
+            }
+            latest = new Sample(threadIds, cpuTimes, deltas, total, window, nanos - lastSampleNanos, firstWindow);
+        }
+
+        synchronized (this) {
+            lastCpuTimes = cpuTimes;
+            lastSampleNanos = nanos;
+            notifyAll();
+        }
+    }
+
+    private long[] getThreadCpuTime(long[] threadIds) {
+        Method method = bulkCpuTimeMethod;
+        if (method != null) {
+            try {
+                return (long[]) method.invoke(threadMXBean, (Object) threadIds);
+            } catch (Throwable e) {
+                logger.info("getThreadCpuTime(long[]) is not available, fallback to getThreadCpuTime(long)", e);
+                bulkCpuTimeMethod = null;
+            }
+        }
+        long[] times = new long[threadIds.length];
+        for (int i = 0; i < threadIds.length; ++i) {
+            times[i] = threadMXBean.getThreadCpuTime(threadIds[i]);
+        }
+        return times;
+    }
+}
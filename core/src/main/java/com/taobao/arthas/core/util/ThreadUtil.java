@@ -73,90 +73,6 @@ abstract public class ThreadUtil {
         return result;
     }
 
-    /**
-     * get the top N busy thread
-     * @param sampleInterval the interval between two samples
-     * @param topN the number of thread
-     * @return a Map representing <ThreadID, cpuUsage>
-     */
-    public static Map<Long, Long> getTopNThreads(int sampleInterval, int topN) {
-        List<Thread> threads = getThreadList();
-
-        // Sample CPU
-        Map<Long, Long> times1 = new HashMap<Long, Long>();
-        for (Thread thread : threads) {
-            long cpu = threadMXBean.getThreadCpuTime(thread.getId());
-            times1.put(thread.getId(), cpu);
-        }
-
-        try {
-            // Sleep for some time
-            Thread.sleep(sampleInterval);
-        }
-        catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-
-        // Resample
-        Map<Long, Long> times2 = new HashMap<Long, Long>(threads.size());
-        for (Thread thread : threads) {
-            long cpu = threadMXBean.getThreadCpuTime(thread.getId());
-            times2.put(thread.getId(), cpu);
-        }
-
-        // Compute delta map and total time
-        long total = 0;
-        Map<Long, Long> deltas = new HashMap<Long, Long>(threads.size());
-        for (Long id : times2.keySet()) {
-            long time1 = times2.get(id);
-            long time2 = times1.get(id);
-            if (time1 == -1) {
-                time1 = time2;
-            } else if (time2 == -1) {
-                time2 = time1;
-            }
-            long delta = time2 - time1;
-            deltas.put(id, delta);
-            total += delta;
-        }
-
-        // Compute cpu
-        final HashMap<Thread, Long> cpus = new HashMap<Thread, Long>(threads.size());
-        for (Thread thread : threads) {
-            long cpu = total == 0 ? 0 : Math.round((deltas.get(thread.getId()) * 100) / total);
-            cpus.put(thread, cpu);
-        }
-
-        // Sort by CPU time : should be a rendering hint...
-        Collections.sort(threads, new Comparator<Thread>() {
-            public int compare(Thread o1, Thread o2) {
-                long l1 = cpus.get(o1);
-                long l2 = cpus.get(o2);
-                if (l1 < l2) {
-                    return 1;
-                } else if (l1 > l2) {
-                    return -1;
-                } else {
-                    return 0;
-                }
-            }
-        });
-
-        // use LinkedHashMap to preserve insert order
-        Map<Long, Long> topNThreads = new LinkedHashMap<Long, Long>();
-
-        List<Thread> topThreads = topN > 0 && topN <= threads.size()
-                ? threads.subList(0, topN) : threads;
-
-        for (Thread thread: topThreads) {
-            // Compute cpu usage
-            topNThreads.put(thread.getId(), cpus.get(thread));
-        }
-
-        return topNThreads;
-    }
-
-
     /**
      * Find the thread and lock that is blocking the most other threads.
      *
@@ -7,6 +7,7 @@ import java.io.File;
 import java.lang.instrument.ClassFileTransformer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -20,6 +21,8 @@ import static java.lang.String.format;
  */
 public final class EnhancerAffect extends Affect {
 
+    private static final int MAX_FAILED_CLASSES_TO_PRINT = 10;
+
     private final AtomicInteger cCnt = new AtomicInteger();
     private final AtomicInteger mCnt = new AtomicInteger();
     private ClassFileTransformer transformer;
@@ -34,6 +37,13 @@ public final class EnhancerAffect extends Affect {
 
     private final List<String> methods = new ArrayList<String>();
 
+    /**
+     * retransform 失败的类
+     */
+    private final List<String> failedClasses = new ArrayList<String>();
+
+    private boolean cancelled;
+
     public EnhancerAffect() {
     }
 
@@ -67,6 +77,21 @@ public final class EnhancerAffect extends Affect {
         return mCnt.addAndGet(1);
     }
 
+    /**
+     * 撤销一个类的统计，用于 retransform 失败的类
+     */
+    public void removeClass(ClassLoader classLoader, String clazz) {
+        cCnt.decrementAndGet();
+        String prefix = ClassLoaderUtils.classLoaderHash(classLoader) + "|" + clazz.replace('/', '.') + "#";
+        Iterator<String> it = methods.iterator();
+        while (it.hasNext()) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+                mCnt.decrementAndGet();
+            }
+        }
+    }
+
     /**
      * 获取影响类个数
      *
@@ -121,6 +146,22 @@ public final class EnhancerAffect extends Affect {
         return methods;
     }
 
+    public void addFailedClass(String className) {
+        failedClasses.add(className);
+    }
+
+    public List<String> getFailedClasses() {
+        return failedClasses;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
     @Override
     public String toString() {
         //TODO removing EnhancerAffect.toString(), replace with ViewRenderUtil.renderEnhancerAffect()
@@ -143,6 +184,12 @@ public final class EnhancerAffect extends Affect {
                 mCnt(),
                 cost(),
                 listenerId));
+        if (!failedClasses.isEmpty()) {
+            infoSB.append("\nFailed to retransform ").append(failedClasses.size()).append(" classes: ");
+            infoSB.append(failedClasses.size() > MAX_FAILED_CLASSES_TO_PRINT
+                    ? failedClasses.subList(0, MAX_FAILED_CLASSES_TO_PRINT) + "..."
+                    : failedClasses);
+        }
         if (this.throwable != null) {
             infoSB.append("\nEnhance error! exception: " + this.throwable);
         }
@@ -0,0 +1,115 @@
+package com.taobao.arthas.core.util.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <pre>
+ * int 为 key 的 map ，用于热路径上按 id 查找，get 时不需要装箱，不加锁，也没有内存分配。
+ * 
+ * 写入时加锁，复制一份新的 table 再发布，适合写入很少(比如每个方法只写一次)，读取非常频繁的场景。
+ * 不支持删除。
+ * </pre>
+ *
+ * @param <V>
+ */
+public class ConcurrentIntObjectMap<V> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private volatile Table table = new Table(DEFAULT_CAPACITY);
+
+    private static final class Table {
+        final int[] keys;
+        final Object[] values;
+        final int mask;
+        int size;
+
+        Table(int capacity) {
+            keys = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Table t = table;
+        int index = hash(key) & t.mask;
+        for (;;) {
+            Object value = t.values[index];
+            if (value == null) {
+                return null;
+            }
+            if (t.keys[index] == key) {
+                return (V) value;
+            }
+            index = (index + 1) & t.mask;
+        }
+    }
+
+    /**
+     * @return 已存在的值，不存在时放入 value 并返回 null
+     */
+    public synchronized V putIfAbsent(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        V old = get(key);
+        if (old != null) {
+            return old;
+        }
+        Table t = table;
+        int capacity = t.keys.length;
+        // 负载因子 0.5 ，保证查找时一定能遇到空位
+        while ((t.size + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        Table newTable = new Table(capacity);
+        for (int i = 0; i < t.values.length; ++i) {
+            if (t.values[i] != null) {
+                insert(newTable, t.keys[i], t.values[i]);
+            }
+        }
+        insert(newTable, key, value);
+        table = newTable;
+        return null;
+    }
+
+    public int size() {
+        return table.size;
+    }
+
+    public boolean isEmpty() {
+        return table.size == 0;
+    }
+
+    /**
+     * 当前所有的 value 的快照
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        Table t = table;
+        List<V> result = new ArrayList<V>(t.size);
+        for (Object value : t.values) {
+            if (value != null) {
+                result.add((V) value);
+            }
+        }
+        return result;
+    }
+
+    private static void insert(Table t, int key, Object value) {
+        int index = hash(key) & t.mask;
+        while (t.values[index] != null) {
+            index = (index + 1) & t.mask;
+        }
+        t.keys[index] = key;
+        t.values[index] = value;
+        t.size++;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,136 @@
+package com.taobao.arthas.core.util.collection;
+
+import java.util.Arrays;
+
+/**
+ * <pre>
+ * long 为 key ，long 为 value 的 map ，开放寻址，get/put 时不需要装箱。
+ *
+ * 线程不安全，不支持删除，需要删除时 clear 之后重新 put 。
+ * </pre>
+ */
+public class LongLongHashMap {
+    private static final int DEFAULT_CAPACITY = 16;
+    // 0 作为空位置的标记，key 为 0 时单独保存
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public LongLongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public long get(long key, long defaultValue) {
+        if (key == EMPTY) {
+            return hasZeroKey ? zeroValue : defaultValue;
+        }
+        int index = hash(key) & mask;
+        for (;;) {
+            long k = keys[index];
+            if (k == key) {
+                return values[index];
+            }
+            if (k == EMPTY) {
+                return defaultValue;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return hasZeroKey;
+        }
+        int index = hash(key) & mask;
+        for (;;) {
+            long k = keys[index];
+            if (k == key) {
+                return true;
+            }
+            if (k == EMPTY) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    public void put(long key, long value) {
+        if (key == EMPTY) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return;
+        }
+        int index = hash(key) & mask;
+        for (;;) {
+            long k = keys[index];
+            if (k == key) {
+                values[index] = value;
+                return;
+            }
+            if (k == EMPTY) {
+                keys[index] = key;
+                values[index] = value;
+                if (++size * 2 > keys.length) {
+                    rehash(keys.length << 1);
+                }
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; ++i) {
+            long key = oldKeys[i];
+            if (key != EMPTY) {
+                int index = hash(key) & mask;
+                while (keys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
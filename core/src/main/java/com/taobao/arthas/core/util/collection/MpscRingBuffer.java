@@ -0,0 +1,146 @@
+package com.taobao.arthas.core.util.collection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <pre>
+ * 有界的多生产者单消费者环形队列，队列满时丢弃最早的元素，生产者不会被阻塞。
+ *
+ * 生产者递增写入序号，用 CAS 把元素和序号一起写到 序号 % 容量 的位置，不加锁；
+ * 消费者按读取序号依次读取，发现位置上的序号比读取序号大，说明元素已经被覆盖，计入丢弃数量。
+ * 同一时间只能有一个消费者，多个线程消费时需要在外面加锁。
+ * </pre>
+ *
+ *
+ * @param <E>
+ */
+public class MpscRingBuffer<E> {
+
+    private static class Slot<E> {
+        final long sequence;
+        final E value;
+
+        Slot(long sequence, E value) {
+            this.sequence = sequence;
+            this.value = value;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot<E>> slots;
+    private final int capacity;
+    private final int mask;
+
+    // 下一个写入的序号
+    private final AtomicLong tail = new AtomicLong();
+    // 下一个读取的序号，只有消费者修改
+    private volatile long head;
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be greater than 0, capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<Slot<E>>(size);
+    }
+
+    /**
+     * 放入元素，队列满时覆盖最早的元素
+     */
+    public void offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long sequence = tail.getAndIncrement();
+        int index = (int) (sequence & mask);
+        Slot<E> slot = new Slot<E>(sequence, e);
+        while (true) {
+            Slot<E> old = slots.get(index);
+            if (old != null && old.sequence > sequence) {
+                // 写入之前已经被下一圈的元素覆盖，由消费者计入丢弃数量
+                return;
+            }
+            if (slots.compareAndSet(index, old, slot)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 只能由一个消费者调用
+     *
+     * @return 最早的元素，队列为空或者元素还没有写完时返回 null
+     */
+    public E poll() {
+        long current = head;
+        while (true) {
+            long t = tail.get();
+            if (current >= t) {
+                return null;
+            }
+            if (t - current > capacity) {
+                // 已经被覆盖的元素不用再逐个读取
+                droppedCount.addAndGet(t - capacity - current);
+                current = t - capacity;
+                head = current;
+            }
+            int index = (int) (current & mask);
+            Slot<E> slot = slots.get(index);
+            if (slot == null || slot.sequence < current) {
+                // 生产者已经取得序号，但还没有写入
+                return null;
+            }
+            if (slot.sequence > current) {
+                // 读取之前被下一圈的元素覆盖了
+                droppedCount.incrementAndGet();
+                head = ++current;
+                continue;
+            }
+            // 不再引用已经读取的元素，生产者同时写入时保留新的元素
+            slots.compareAndSet(index, slot, null);
+            head = current + 1;
+            return slot.value;
+        }
+    }
+
+    /**
+     * @return 队列里的元素数量，包括还没有写完的
+     */
+    public int size() {
+        return (int) Math.min(tail.get() - head, capacity);
+    }
+
+    /**
+     * @return 下一个写入的序号，也就是已经放入的元素数量
+     */
+    public long writeSequence() {
+        return tail.get();
+    }
+
+    /**
+     * @return 下一个读取的序号，被丢弃的元素也算已经读取
+     */
+    public long readSequence() {
+        return head;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 因为队列满被丢弃的元素数量
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
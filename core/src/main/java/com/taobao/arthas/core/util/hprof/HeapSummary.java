@@ -0,0 +1,159 @@
+package com.taobao.arthas.core.util.hprof;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * hprof 文件的分析结果
+ */
+public class HeapSummary {
+    private int idSize;
+    private long objectCount;
+    private long totalSize;
+
+    private final List<ClassHistogram> histogram = new ArrayList<ClassHistogram>();
+    private final List<LargeObject> largeObjects = new ArrayList<LargeObject>();
+    private final List<DuplicateString> duplicateStrings = new ArrayList<DuplicateString>();
+
+    /**
+     * 一个类的所有对象
+     */
+    public static class ClassHistogram {
+        private final String className;
+        private final long instances;
+        private final long size;
+
+        public ClassHistogram(String className, long instances, long size) {
+            this.className = className;
+            this.instances = instances;
+            this.size = size;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getInstances() {
+            return instances;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * shallow size 最大的对象，referencedSize 是它直接引用的对象的 shallow size 之和，两者相加是 retained size 的估算
+     */
+    public static class LargeObject {
+        private final long id;
+        private final String className;
+        private final long size;
+        private final long referencedSize;
+
+        public LargeObject(long id, String className, long size, long referencedSize) {
+            this.id = id;
+            this.className = className;
+            this.size = size;
+            this.referencedSize = referencedSize;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getReferencedSize() {
+            return referencedSize;
+        }
+    }
+
+    /**
+     * 内容相同的字符串，count 是下限
+     */
+    public static class DuplicateString {
+        private final String value;
+        private final int length;
+        private final long count;
+        private final long size;
+
+        public DuplicateString(String value, int length, long count, long size) {
+            this.value = value;
+            this.length = length;
+            this.count = count;
+            this.size = size;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return 字符个数
+         */
+        public int getLength() {
+            return length;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return 每个字符串数组的 shallow size
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return 只保留一份时可以节省的内存
+         */
+        public long getWastedSize() {
+            return (count - 1) * size;
+        }
+    }
+
+    public int getIdSize() {
+        return idSize;
+    }
+
+    public void setIdSize(int idSize) {
+        this.idSize = idSize;
+    }
+
+    public long getObjectCount() {
+        return objectCount;
+    }
+
+    public void setObjectCount(long objectCount) {
+        this.objectCount = objectCount;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public void setTotalSize(long totalSize) {
+        this.totalSize = totalSize;
+    }
+
+    public List<ClassHistogram> getHistogram() {
+        return histogram;
+    }
+
+    public List<LargeObject> getLargeObjects() {
+        return largeObjects;
+    }
+
+    public List<DuplicateString> getDuplicateStrings() {
+        return duplicateStrings;
+    }
+}
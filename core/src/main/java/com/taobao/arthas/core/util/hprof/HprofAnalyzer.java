@@ -0,0 +1,845 @@
+package com.taobao.arthas.core.util.hprof;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+
+import com.taobao.arthas.core.util.collection.LongLongHashMap;
+import com.taobao.arthas.core.util.hprof.HeapSummary.ClassHistogram;
+import com.taobao.arthas.core.util.hprof.HeapSummary.DuplicateString;
+import com.taobao.arthas.core.util.hprof.HeapSummary.LargeObject;
+
+/**
+ * <pre>
+ * 流式分析 hprof 文件，不把对象图加载到内存里，内存占用和 dump 文件的大小基本无关。
+ *
+ * 第一遍：统计每个类的对象个数和 shallow size ，记录 shallow size 最大的对象，用 bloom filter 记录 String.value 引用的数组，
+ *        jdk9 之后 coder 为 UTF16 的字符串的数组另外记录在一个 bloom filter 里，用于显示字符串的内容。
+ * 第二遍：累加最大的对象直接引用的对象的 shallow size ，作为 retained size 的估算；
+ *        对 bloom filter 里的 char[]/byte[] 按内容计算 hash ，用 Space-Saving 算法在固定大小的表里统计重复最多的字符串。
+ * 最后只读取结果里用到的类名。
+ *
+ * shallow size 按 dump 里的字段大小估算，对象头为 2 个 identifier 大小，按 8 字节对齐，和实际的值可能有差别。
+ * 每个记录之间，以及 heap dump 里每 {@link #CANCEL_CHECK_INTERVAL} 个子记录检查一次是否取消或者线程被中断，
+ * 取消时抛出 {@link CancellationException} 。
+ * </pre>
+ */
+public class HprofAnalyzer {
+
+    private static final int TAG_UTF8 = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_HEAP_DUMP = 0x0C;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+    private static final int ROOT_UNKNOWN = 0xFF;
+    private static final int ROOT_JNI_GLOBAL = 0x01;
+    private static final int ROOT_JNI_LOCAL = 0x02;
+    private static final int ROOT_JAVA_FRAME = 0x03;
+    private static final int ROOT_NATIVE_STACK = 0x04;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_BLOCK = 0x06;
+    private static final int ROOT_MONITOR_USED = 0x07;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    private static final int CLASS_DUMP = 0x20;
+    private static final int INSTANCE_DUMP = 0x21;
+    private static final int OBJ_ARRAY_DUMP = 0x22;
+    private static final int PRIM_ARRAY_DUMP = 0x23;
+
+    private static final int TYPE_OBJECT = 2;
+    private static final int TYPE_CHAR = 5;
+    private static final int TYPE_BYTE = 8;
+    // 不是 hprof 的类型，表示 coder 为 UTF16 的 byte[]
+    private static final int TYPE_UTF16_BYTES = -1;
+    private static final byte CODER_UTF16 = 1;
+    // StringUTF16 按本机的字节序保存 char ，dump 一般在同一台机器上分析
+    private static final String UTF16_CHARSET = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? "UTF-16BE"
+            : "UTF-16LE";
+
+    private static final String[] PRIMITIVE_ARRAY_NAMES = new String[] { null, null, null, null, "boolean[]",
+            "char[]", "float[]", "double[]", "byte[]", "short[]", "int[]", "long[]" };
+
+    /**
+     * 最大的对象最多 64 个，用 long 的 bit 表示引用它的对象
+     */
+    static final int MAX_LARGE_OBJECTS = 64;
+    // 最大的对象直接引用的对象最多统计这么多个
+    static final int MAX_REFERENCES = 1 << 20;
+    // 只统计这个大小以内的字符串
+    static final int MAX_STRING_BYTES = 4096;
+    static final int STRING_COUNTER_CAPACITY = 16384;
+    private static final int MAX_BLOOM_WORDS = 1 << 20;
+    private static final int MAX_PREVIEW_CHARS = 64;
+    static final int CANCEL_CHECK_INTERVAL = 4096;
+
+    private static final Cancellation NEVER_CANCELLED = new Cancellation() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    private final MappedHprofFile file;
+    private final int topN;
+    private final Cancellation cancellation;
+    private int uncheckedRecords;
+
+    private int idSize;
+    private long stringNameId = -1;
+    private long valueNameId = -1;
+    private long coderNameId = -1;
+    private long stringClassId = -1;
+    // String.value 在对象字段里的偏移，-1 表示还没有读到 String 的 CLASS DUMP
+    private int stringValueOffset = -1;
+    // String.coder 在对象字段里的偏移，jdk8 及之前没有这个字段，为 -1
+    private int stringCoderOffset = -1;
+
+    private final Map<Long, ClassEntry> classes = new HashMap<Long, ClassEntry>();
+    private final long[] primitiveArrayCounts = new long[PRIMITIVE_ARRAY_NAMES.length];
+    private final long[] primitiveArraySizes = new long[PRIMITIVE_ARRAY_NAMES.length];
+    private long objectCount;
+    private long totalSize;
+
+    private final PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>();
+    private Candidate[] largest;
+    private final LongLongHashMap references = new LongLongHashMap();
+
+    private LongBloomFilter stringValues;
+    private LongBloomFilter utf16Values;
+    private final StringCounter stringCounter = new StringCounter(STRING_COUNTER_CAPACITY);
+
+    /**
+     * 分析时定期检查是否停止分析
+     */
+    public interface Cancellation {
+
+        /**
+         * @return true 如果不再继续分析
+         */
+        boolean isCancelled();
+    }
+
+    static class ClassEntry {
+        final long id;
+        long nameId = -1;
+        long superId;
+        byte[] fieldTypes = new byte[0];
+        long instances;
+        long size;
+        String name;
+
+        ClassEntry(long id) {
+            this.id = id;
+        }
+    }
+
+    static class Candidate implements Comparable<Candidate> {
+        final long id;
+        final int subTag;
+        // 对象的类，基本类型数组时是元素类型
+        final long classId;
+        final long size;
+        // sub record 的 tag 之后的位置
+        final long offset;
+        long referencedSize;
+
+        Candidate(long id, int subTag, long classId, long size, long offset) {
+            this.id = id;
+            this.subTag = subTag;
+            this.classId = classId;
+            this.size = size;
+            this.offset = offset;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            return size < o.size ? -1 : (size > o.size ? 1 : 0);
+        }
+    }
+
+    public HprofAnalyzer(MappedHprofFile file, int topN) {
+        this(file, topN, NEVER_CANCELLED);
+    }
+
+    public HprofAnalyzer(MappedHprofFile file, int topN, Cancellation cancellation) {
+        this.file = file;
+        this.topN = topN;
+        this.cancellation = cancellation;
+    }
+
+    public static HeapSummary analyze(File hprofFile, int topN) throws IOException {
+        return analyze(hprofFile, topN, NEVER_CANCELLED);
+    }
+
+    /**
+     * @throws CancellationException 如果 cancellation 要求停止或者线程被中断
+     */
+    public static HeapSummary analyze(File hprofFile, int topN, Cancellation cancellation) throws IOException {
+        MappedHprofFile file = new MappedHprofFile(hprofFile);
+        try {
+            return new HprofAnalyzer(file, topN, cancellation).analyze();
+        } finally {
+            file.close();
+        }
+    }
+
+    public HeapSummary analyze() throws IOException {
+        long recordsStart = readHeader();
+        int words = (int) Math.min(MAX_BLOOM_WORDS, Math.max(1024, file.length() / 128));
+        stringValues = new LongBloomFilter(words);
+        utf16Values = new LongBloomFilter(words);
+
+        scanRecords(recordsStart, true);
+        collectReferences();
+        if (references.size() > 0 || !stringValues.isEmpty()) {
+            scanRecords(recordsStart, false);
+        }
+        return summary(recordsStart);
+    }
+
+    private long readHeader() throws IOException {
+        file.position(0);
+        StringBuilder format = new StringBuilder();
+        int c;
+        while (file.hasRemaining() && (c = file.readU1()) != 0) {
+            format.append((char) c);
+        }
+        if (!format.toString().startsWith("JAVA PROFILE")) {
+            throw new IOException("not a hprof file, format: " + format);
+        }
+        idSize = file.readInt();
+        file.setIdSize(idSize);
+        // timestamp
+        file.skip(8);
+        return file.position();
+    }
+
+    /**
+     * @param firstPass true 时统计直方图，false 时统计引用和重复的字符串
+     */
+    private void scanRecords(long recordsStart, boolean firstPass) {
+        file.position(recordsStart);
+        while (file.hasRemaining()) {
+            checkCancelled();
+            int tag = file.readU1();
+            // time
+            file.skip(4);
+            long length = file.readU4();
+            long start = file.position();
+            if (firstPass && tag == TAG_UTF8) {
+                readUtf8Record(length);
+            } else if (firstPass && tag == TAG_LOAD_CLASS) {
+                // class serial number
+                file.skip(4);
+                long classId = file.readId();
+                // stack trace serial number
+                file.skip(4);
+                long nameId = file.readId();
+                classEntry(classId).nameId = nameId;
+                if (nameId == stringNameId) {
+                    stringClassId = classId;
+                }
+            } else if (tag == TAG_HEAP_DUMP || tag == TAG_HEAP_DUMP_SEGMENT) {
+                scanHeapDump(start + length, firstPass);
+            }
+            file.position(start + length);
+        }
+    }
+
+    private void checkCancelled() {
+        uncheckedRecords = 0;
+        if (Thread.currentThread().isInterrupted() || cancellation.isCancelled()) {
+            throw new CancellationException("heap dump analysis is cancelled");
+        }
+    }
+
+    private void readUtf8Record(long length) {
+        long id = file.readId();
+        int size = (int) (length - idSize);
+        if (size == "java/lang/String".length() && "java/lang/String".equals(readString(file.position(), size))) {
+            stringNameId = id;
+        } else if (size == "value".length() && "value".equals(readString(file.position(), size))) {
+            valueNameId = id;
+        } else if (size == "coder".length() && "coder".equals(readString(file.position(), size))) {
+            coderNameId = id;
+        }
+    }
+
+    private String readString(long position, int size) {
+        byte[] bytes = new byte[size];
+        file.readBytes(position, bytes, size);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void scanHeapDump(long end, boolean firstPass) {
+        while (file.position() < end) {
+            if (++uncheckedRecords >= CANCEL_CHECK_INTERVAL) {
+                checkCancelled();
+            }
+            int subTag = file.readU1();
+            long offset = file.position();
+            switch (subTag) {
+            case ROOT_UNKNOWN:
+            case ROOT_STICKY_CLASS:
+            case ROOT_MONITOR_USED:
+                file.skip(idSize);
+                break;
+            case ROOT_JNI_GLOBAL:
+                file.skip(idSize * 2);
+                break;
+            case ROOT_NATIVE_STACK:
+            case ROOT_THREAD_BLOCK:
+                file.skip(idSize + 4);
+                break;
+            case ROOT_JNI_LOCAL:
+            case ROOT_JAVA_FRAME:
+            case ROOT_THREAD_OBJECT:
+                file.skip(idSize + 8);
+                break;
+            case CLASS_DUMP:
+                readClassDump(firstPass);
+                break;
+            case INSTANCE_DUMP: {
+                long id = file.readId();
+                file.skip(4);
+                long classId = file.readId();
+                long length = file.readU4();
+                long size = align(2L * idSize + length);
+                if (firstPass) {
+                    ClassEntry entry = classEntry(classId);
+                    entry.instances++;
+                    entry.size += size;
+                    if (classId == stringClassId && stringValueOffset >= 0) {
+                        readStringValue(file.position());
+                    }
+                    addObject(id, subTag, classId, size, offset);
+                } else {
+                    addReferenced(id, size);
+                }
+                file.position(offset + 2L * idSize + 8 + length);
+                break;
+            }
+            case OBJ_ARRAY_DUMP: {
+                long id = file.readId();
+                file.skip(4);
+                long num = file.readU4();
+                long arrayClassId = file.readId();
+                long size = align(2L * idSize + 4 + num * idSize);
+                if (firstPass) {
+                    ClassEntry entry = classEntry(arrayClassId);
+                    entry.instances++;
+                    entry.size += size;
+                    addObject(id, subTag, arrayClassId, size, offset);
+                } else {
+                    addReferenced(id, size);
+                }
+                file.skip(num * idSize);
+                break;
+            }
+            case PRIM_ARRAY_DUMP: {
+                long id = file.readId();
+                file.skip(4);
+                long num = file.readU4();
+                int type = file.readU1();
+                long bytes = num * typeSize(type);
+                long size = align(2L * idSize + 4 + bytes);
+                if (firstPass) {
+                    primitiveArrayCounts[type]++;
+                    primitiveArraySizes[type] += size;
+                    addObject(id, subTag, type, size, offset);
+                } else {
+                    addReferenced(id, size);
+                    if ((type == TYPE_CHAR || type == TYPE_BYTE) && bytes <= MAX_STRING_BYTES
+                            && stringValues.mightContain(id)) {
+                        long dataOffset = file.position();
+                        int length = (int) num;
+                        // 误判时长度是奇数的不可能是 UTF16
+                        if (type == TYPE_BYTE && (num & 1) == 0 && utf16Values.mightContain(id)) {
+                            type = TYPE_UTF16_BYTES;
+                            length = (int) num / 2;
+                        }
+                        stringCounter.add(hash(dataOffset, (int) bytes, type), dataOffset, type, length, size);
+                    }
+                }
+                file.skip(bytes);
+                break;
+            }
+            default:
+                throw new IllegalStateException(
+                        "unknown heap dump sub record tag: 0x" + Integer.toHexString(subTag) + ", position: " + offset);
+            }
+        }
+    }
+
+    private void readClassDump(boolean firstPass) {
+        long classId = file.readId();
+        // stack trace serial number
+        file.skip(4);
+        long superId = file.readId();
+        // class loader, signers, protection domain, reserved
+        file.skip(5L * idSize);
+        // instance size
+        file.skip(4);
+
+        int constantPoolSize = file.readU2();
+        for (int i = 0; i < constantPoolSize; ++i) {
+            file.skip(2);
+            file.skip(typeSize(file.readU1()));
+        }
+        int staticFields = file.readU2();
+        for (int i = 0; i < staticFields; ++i) {
+            file.skip(idSize);
+            file.skip(typeSize(file.readU1()));
+        }
+        int instanceFields = file.readU2();
+        if (!firstPass) {
+            file.skip(instanceFields * (idSize + 1L));
+            return;
+        }
+        ClassEntry entry = classEntry(classId);
+        entry.superId = superId;
+        entry.fieldTypes = new byte[instanceFields];
+        int offset = 0;
+        for (int i = 0; i < instanceFields; ++i) {
+            long nameId = file.readId();
+            int type = file.readU1();
+            entry.fieldTypes[i] = (byte) type;
+            if (classId == stringClassId && nameId == valueNameId && type == TYPE_OBJECT) {
+                stringValueOffset = offset;
+            } else if (classId == stringClassId && nameId == coderNameId && type == TYPE_BYTE) {
+                stringCoderOffset = offset;
+            }
+            offset += typeSize(type);
+        }
+    }
+
+    /**
+     * 记录 String.value 引用的数组，coder 为 UTF16 时另外记录
+     *
+     * @param fieldsOffset String 对象的字段数据的位置
+     */
+    private void readStringValue(long fieldsOffset) {
+        file.position(fieldsOffset + stringValueOffset);
+        long valueId = file.readId();
+        stringValues.add(valueId);
+        if (stringCoderOffset >= 0) {
+            file.position(fieldsOffset + stringCoderOffset);
+            if (file.readU1() == CODER_UTF16) {
+                utf16Values.add(valueId);
+            }
+        }
+    }
+
+    private ClassEntry classEntry(long classId) {
+        ClassEntry entry = classes.get(classId);
+        if (entry == null) {
+            entry = new ClassEntry(classId);
+            classes.put(classId, entry);
+        }
+        return entry;
+    }
+
+    private void addObject(long id, int subTag, long classId, long size, long offset) {
+        objectCount++;
+        totalSize += size;
+        int max = Math.min(topN, MAX_LARGE_OBJECTS);
+        if (candidates.size() < max) {
+            candidates.add(new Candidate(id, subTag, classId, size, offset));
+        } else if (max > 0 && candidates.peek().size < size) {
+            candidates.poll();
+            candidates.add(new Candidate(id, subTag, classId, size, offset));
+        }
+    }
+
+    /**
+     * 读取最大的对象直接引用的对象 id
+     */
+    private void collectReferences() {
+        largest = candidates.toArray(new Candidate[candidates.size()]);
+        Arrays.sort(largest, Collections.reverseOrder());
+        for (int i = 0; i < largest.length; ++i) {
+            Candidate candidate = largest[i];
+            long bit = 1L << i;
+            file.position(candidate.offset);
+            if (candidate.subTag == OBJ_ARRAY_DUMP) {
+                file.skip(idSize + 4);
+                long num = file.readU4();
+                file.skip(idSize);
+                for (long j = 0; j < num && references.size() < MAX_REFERENCES; ++j) {
+                    addReference(file.readId(), bit);
+                }
+            } else if (candidate.subTag == INSTANCE_DUMP) {
+                file.skip(idSize + 4 + idSize + 4);
+                ClassEntry entry = classes.get(candidate.classId);
+                while (entry != null && references.size() < MAX_REFERENCES) {
+                    for (byte type : entry.fieldTypes) {
+                        if (type == TYPE_OBJECT) {
+                            addReference(file.readId(), bit);
+                        } else {
+                            file.skip(typeSize(type));
+                        }
+                    }
+                    entry = entry.superId == 0 ? null : classes.get(entry.superId);
+                }
+            }
+        }
+    }
+
+    private void addReference(long id, long bit) {
+        if (id != 0) {
+            references.put(id, references.get(id, 0) | bit);
+        }
+    }
+
+    private void addReferenced(long id, long size) {
+        long mask = references.get(id, 0);
+        while (mask != 0) {
+            int index = Long.numberOfTrailingZeros(mask);
+            largest[index].referencedSize += size;
+            mask &= mask - 1;
+        }
+    }
+
+    private HeapSummary summary(long recordsStart) throws UnsupportedEncodingException {
+        HeapSummary summary = new HeapSummary();
+        summary.setIdSize(idSize);
+        summary.setObjectCount(objectCount);
+        summary.setTotalSize(totalSize);
+
+        // 按 shallow size 排序，只取前 topN 个
+        List<ClassEntry> entries = new ArrayList<ClassEntry>();
+        for (ClassEntry entry : classes.values()) {
+            if (entry.instances > 0) {
+                entries.add(entry);
+            }
+        }
+        for (int type = 0; type < PRIMITIVE_ARRAY_NAMES.length; ++type) {
+            if (primitiveArrayCounts[type] > 0) {
+                ClassEntry entry = new ClassEntry(0);
+                entry.name = PRIMITIVE_ARRAY_NAMES[type];
+                entry.instances = primitiveArrayCounts[type];
+                entry.size = primitiveArraySizes[type];
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<ClassEntry>() {
+            @Override
+            public int compare(ClassEntry o1, ClassEntry o2) {
+                return o1.size > o2.size ? -1 : (o1.size < o2.size ? 1 : 0);
+            }
+        });
+        if (entries.size() > topN) {
+            entries = entries.subList(0, topN);
+        }
+
+        // 只读取用到的类名
+        Set<Long> nameIds = new HashSet<Long>();
+        for (ClassEntry entry : entries) {
+            nameIds.add(entry.nameId);
+        }
+        for (Candidate candidate : largest) {
+            if (candidate.subTag != PRIM_ARRAY_DUMP) {
+                nameIds.add(classEntry(candidate.classId).nameId);
+            }
+        }
+        Map<Long, String> names = readNames(recordsStart, nameIds);
+
+        for (ClassEntry entry : entries) {
+            String name = entry.name != null ? entry.name : className(names, entry);
+            summary.getHistogram().add(new ClassHistogram(name, entry.instances, entry.size));
+        }
+        for (Candidate candidate : largest) {
+            String name = candidate.subTag == PRIM_ARRAY_DUMP ? PRIMITIVE_ARRAY_NAMES[(int) candidate.classId]
+                    : className(names, classEntry(candidate.classId));
+            summary.getLargeObjects()
+                    .add(new LargeObject(candidate.id, name, candidate.size, candidate.referencedSize));
+        }
+        for (StringCounter.Entry entry : stringCounter.top(topN)) {
+            summary.getDuplicateStrings().add(new DuplicateString(preview(entry), entry.length,
+                    entry.count - entry.error, entry.size));
+        }
+        return summary;
+    }
+
+    private Map<Long, String> readNames(long recordsStart, Set<Long> nameIds) {
+        Map<Long, String> names = new HashMap<Long, String>();
+        file.position(recordsStart);
+        while (file.hasRemaining() && names.size() < nameIds.size()) {
+            checkCancelled();
+            int tag = file.readU1();
+            file.skip(4);
+            long length = file.readU4();
+            long start = file.position();
+            if (tag == TAG_UTF8) {
+                long id = file.readId();
+                if (nameIds.contains(id)) {
+                    names.put(id, readString(file.position(), (int) (length - idSize)));
+                }
+            }
+            file.position(start + length);
+        }
+        return names;
+    }
+
+    private static String className(Map<Long, String> names, ClassEntry entry) {
+        String name = names.get(entry.nameId);
+        if (name == null) {
+            return "unknown class 0x" + Long.toHexString(entry.id);
+        }
+        return toJavaName(name);
+    }
+
+    /**
+     * java/lang/String 转为 java.lang.String ，[Ljava/lang/String; 转为 java.lang.String[]
+     */
+    static String toJavaName(String name) {
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return name.replace('/', '.');
+        }
+        String element = name.substring(dimensions);
+        String type;
+        if (element.startsWith("L") && element.endsWith(";")) {
+            type = element.substring(1, element.length() - 1).replace('/', '.');
+        } else {
+            type = primitiveName(element);
+        }
+        StringBuilder sb = new StringBuilder(type);
+        for (int i = 0; i < dimensions; ++i) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    private static String primitiveName(String descriptor) {
+        switch (descriptor.length() == 1 ? descriptor.charAt(0) : ' ') {
+        case 'Z':
+            return "boolean";
+        case 'C':
+            return "char";
+        case 'F':
+            return "float";
+        case 'D':
+            return "double";
+        case 'B':
+            return "byte";
+        case 'S':
+            return "short";
+        case 'I':
+            return "int";
+        case 'J':
+            return "long";
+        default:
+            return descriptor;
+        }
+    }
+
+    private String preview(StringCounter.Entry entry) throws UnsupportedEncodingException {
+        int chars = Math.min(entry.length, MAX_PREVIEW_CHARS);
+        int bytes = entry.type == TYPE_BYTE ? chars : chars * 2;
+        byte[] data = new byte[bytes];
+        file.readBytes(entry.dataOffset, data, bytes);
+        String charset;
+        if (entry.type == TYPE_CHAR) {
+            // hprof 里的 char[] 是大端的
+            charset = "UTF-16BE";
+        } else if (entry.type == TYPE_UTF16_BYTES) {
+            charset = UTF16_CHARSET;
+        } else {
+            charset = "ISO-8859-1";
+        }
+        String value = new String(data, charset);
+        if (entry.length > chars) {
+            value += "...";
+        }
+        return value;
+    }
+
+    private long hash(long dataOffset, int bytes, int type) {
+        // FNV-1a
+        long h = 0xcbf29ce484222325L ^ type;
+        for (int i = 0; i < bytes; ++i) {
+            h ^= file.get(dataOffset + i) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h ^ bytes;
+    }
+
+    private int typeSize(int type) {
+        switch (type) {
+        case TYPE_OBJECT:
+            return idSize;
+        case 4: // boolean
+        case TYPE_BYTE:
+            return 1;
+        case TYPE_CHAR:
+        case 9: // short
+            return 2;
+        case 6: // float
+        case 10: // int
+            return 4;
+        case 7: // double
+        case 11: // long
+            return 8;
+        default:
+            throw new IllegalStateException("unknown basic type: " + type);
+        }
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * 固定大小的 bloom filter ，记录 String.value 引用的数组 id ，误判只会多统计一些不是字符串的数组
+     */
+    static class LongBloomFilter {
+        private final long[] words;
+        private final long mask;
+        private boolean empty = true;
+
+        LongBloomFilter(int words) {
+            int size = Integer.highestOneBit(words);
+            this.words = new long[size];
+            this.mask = (long) size * 64 - 1;
+        }
+
+        void add(long id) {
+            empty = false;
+            long h1 = mix(id);
+            long h2 = mix(h1);
+            for (int i = 0; i < 3; ++i) {
+                long bit = (h1 + i * h2) & mask;
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(long id) {
+            long h1 = mix(id);
+            long h2 = mix(h1);
+            for (int i = 0; i < 3; ++i) {
+                long bit = (h1 + i * h2) & mask;
+                if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isEmpty() {
+            return empty;
+        }
+
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+
+    /**
+     * <pre>
+     * Space-Saving 算法统计出现次数最多的字符串，最多保存 capacity 个。
+     * 表满时替换次数最少的，新的计数从被替换的计数开始，error 是可能多算的次数，count - error 是实际次数的下限。
+     * </pre>
+     */
+    static class StringCounter {
+        static class Entry implements Comparable<Entry> {
+            final long hash;
+            long count;
+            long error;
+            long dataOffset;
+            int type;
+            int length;
+            long size;
+
+            Entry(long hash) {
+                this.hash = hash;
+            }
+
+            @Override
+            public int compareTo(Entry o) {
+                if (count != o.count) {
+                    return count < o.count ? -1 : 1;
+                }
+                return hash < o.hash ? -1 : (hash > o.hash ? 1 : 0);
+            }
+        }
+
+        private final int capacity;
+        private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+        private final TreeSet<Entry> ordered = new TreeSet<Entry>();
+
+        StringCounter(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(long hash, long dataOffset, int type, int length, long size) {
+            Entry entry = entries.get(hash);
+            if (entry != null) {
+                ordered.remove(entry);
+                entry.count++;
+                ordered.add(entry);
+                return;
+            }
+            entry = new Entry(hash);
+            if (entries.size() >= capacity) {
+                Entry min = ordered.pollFirst();
+                entries.remove(min.hash);
+                entry.count = min.count + 1;
+                entry.error = min.count;
+            } else {
+                entry.count = 1;
+            }
+            entry.dataOffset = dataOffset;
+            entry.type = type;
+            entry.length = length;
+            entry.size = size;
+            entries.put(hash, entry);
+            ordered.add(entry);
+        }
+
+        /**
+         * @return 至少重复 2 次的字符串，按浪费的内存排序
+         */
+        List<Entry> top(int n) {
+            List<Entry> result = new ArrayList<Entry>();
+            for (Entry entry : entries.values()) {
+                if (entry.count - entry.error >= 2) {
+                    result.add(entry);
+                }
+            }
+            Collections.sort(result, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry o1, Entry o2) {
+                    long w1 = (o1.count - o1.error - 1) * o1.size;
+                    long w2 = (o2.count - o2.error - 1) * o2.size;
+                    return w1 > w2 ? -1 : (w1 < w2 ? 1 : 0);
+                }
+            });
+            return result.size() > n ? result.subList(0, n) : result;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.taobao.arthas.core.util.hprof;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <pre>
+ * 只读 mmap 的 hprof 文件，按 1G 分段映射，可以读取超过 2G 的文件。
+ *
+ * 数据由操作系统的 page cache 管理，不占用 java heap 。hprof 是大端序的，和 ByteBuffer 默认的字节序一样。
+ * </pre>
+ */
+public class MappedHprofFile implements Closeable {
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] chunks;
+    private final long length;
+
+    private long position;
+    private int idSize = 4;
+
+    public MappedHprofFile(File hprofFile) throws IOException {
+        this.file = new RandomAccessFile(hprofFile, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            this.length = channel.size();
+            int count = (int) ((length + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+            this.chunks = new MappedByteBuffer[count];
+            for (int i = 0; i < count; ++i) {
+                long start = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public void position(long position) {
+        this.position = position;
+    }
+
+    public boolean hasRemaining() {
+        return position < length;
+    }
+
+    public int getIdSize() {
+        return idSize;
+    }
+
+    public void setIdSize(int idSize) {
+        if (idSize != 4 && idSize != 8) {
+            throw new IllegalArgumentException("unsupported identifier size: " + idSize);
+        }
+        this.idSize = idSize;
+    }
+
+    public void skip(long n) {
+        position += n;
+    }
+
+    public byte get(long pos) {
+        return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+    }
+
+    public int readU1() {
+        return get(position++) & 0xff;
+    }
+
+    public int readU2() {
+        return (readU1() << 8) | readU1();
+    }
+
+    public int readInt() {
+        long pos = position;
+        int index = (int) (pos & CHUNK_MASK);
+        MappedByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+        position = pos + 4;
+        if (index + 4 <= chunk.limit()) {
+            return chunk.getInt(index);
+        }
+        // 跨过分段
+        return (get(pos) & 0xff) << 24 | (get(pos + 1) & 0xff) << 16 | (get(pos + 2) & 0xff) << 8
+                | (get(pos + 3) & 0xff);
+    }
+
+    public long readU4() {
+        return readInt() & 0xffffffffL;
+    }
+
+    public long readLong() {
+        return ((long) readInt() << 32) | readU4();
+    }
+
+    public long readId() {
+        return idSize == 4 ? readU4() : readLong();
+    }
+
+    public void readBytes(long pos, byte[] bytes, int length) {
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = get(pos + i);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,221 @@
+package com.taobao.arthas.core.util.metrics;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 固定内存的耗时直方图，参考 HdrHistogram 的 log-linear 分桶方式。
+ * 
+ * 每个 2 的幂区间再平均分为 16 个子桶，相对误差不超过 1/16 (6.25%)。
+ * 记录的单位是微秒，可记录的范围是 0 ~ 2^36 微秒(约19小时)，超出的值记录在最后一个桶里。
+ * 一共 528 个桶。
+ * 
+ * 和 {@link StripedCounters} 一样，线程按 thread id 分到不同的 stripe 上，每个 stripe 有自己的桶和最大值，
+ * 读取时合并。记录时只有一次原子加，没有锁，也没有内存分配，多个线程不会一直竞争同一个热点桶的 cache line 。
+ * 为了控制内存，桶计数用 int ，最多 4 个 stripe ，每个 stripe 约 2KB ，一共不超过约 9KB ，与调用次数无关。
+ * int 计数在一个统计周期内按无符号数读取，不会溢出。
+ * 桶的划分是固定的，所以不同进程输出的桶计数可以直接相加合并。
+ * </pre>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int MAX_VALUE_BITS = 36;
+
+    /**
+     * 可以记录的最大值，单位微秒
+     */
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    public static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    /**
+     * 桶计数是 int ，stripe 多了内存会超过几 KB
+     */
+    private static final int MAX_STRIPES = 4;
+    private static final int INTS_PER_CACHE_LINE = 16;
+    private static final int LONGS_PER_CACHE_LINE = 8;
+    /**
+     * stripe 之间空出一个 cache line ，避免 false sharing
+     */
+    private static final int STRIDE = BUCKET_COUNT + INTS_PER_CACHE_LINE;
+
+    private final int stripeMask;
+    private final AtomicIntegerArray counts;
+    /**
+     * 每个 stripe 的最大值，按 cache line 分开
+     */
+    private final AtomicLongArray maxes;
+
+    public LatencyHistogram() {
+        this(StripedCounters.DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes stripe 个数，会向上取整为 2 的幂，最多 4 个
+     */
+    public LatencyHistogram(int stripes) {
+        int size = 1;
+        while (size < stripes && size < MAX_STRIPES) {
+            size <<= 1;
+        }
+        this.stripeMask = size - 1;
+        this.counts = new AtomicIntegerArray(size * STRIDE);
+        this.maxes = new AtomicLongArray(size * LONGS_PER_CACHE_LINE);
+    }
+
+    /**
+     * @param micros 耗时，单位微秒
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        } else if (micros > MAX_VALUE) {
+            micros = MAX_VALUE;
+        }
+        int stripe = StripedCounters.probe() & stripeMask;
+        counts.incrementAndGet(stripe * STRIDE + bucketIndex(micros));
+
+        int maxIndex = stripe * LONGS_PER_CACHE_LINE;
+        long currentMax = maxes.get(maxIndex);
+        while (micros > currentMax) {
+            if (maxes.compareAndSet(maxIndex, currentMax, micros)) {
+                break;
+            }
+            currentMax = maxes.get(maxIndex);
+        }
+    }
+
+    /**
+     * 返回当前的数据，同时清零。与并发的写入之间不是原子的，并发写入的值会被计入本次或者下一次。
+     */
+    public Snapshot snapshotThenReset() {
+        long[] result = new long[BUCKET_COUNT];
+        long max = 0;
+        for (int stripe = 0; stripe <= stripeMask; ++stripe) {
+            int base = stripe * STRIDE;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                result[i] += counts.getAndSet(base + i, 0) & 0xFFFFFFFFL;
+            }
+            long stripeMax = maxes.getAndSet(stripe * LONGS_PER_CACHE_LINE, 0);
+            if (stripeMax > max) {
+                max = stripeMax;
+            }
+        }
+        return new Snapshot(result, max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    /**
+     * 桶的下界(包含)，单位微秒
+     */
+    public static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        return ((long) (SUB_BUCKET_COUNT + (index & SUB_BUCKET_MASK))) << shift;
+    }
+
+    /**
+     * 桶的上界(包含)，单位微秒
+     */
+    public static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index >> SUB_BUCKET_BITS) - 1;
+        return bucketLowerBound(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * 直方图某一时刻的数据，可以合并
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private long max;
+        private long totalCount;
+
+        public Snapshot() {
+            this(new long[BUCKET_COUNT], 0);
+        }
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+            for (long count : counts) {
+                totalCount += count;
+            }
+        }
+
+        public void merge(Snapshot other) {
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                counts[i] += other.counts[i];
+            }
+            totalCount += other.totalCount;
+            if (other.max > max) {
+                max = other.max;
+            }
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        /**
+         * 最大值，单位微秒
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * 百分位对应的值，取所在桶的上界，但不超过最大值，单位微秒
+         * 
+         * @param percentile 0 ~ 100 ，比如 99.9
+         */
+        public long valueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long countAtPercentile = (long) Math.ceil(percentile / 100.0 * totalCount);
+            if (countAtPercentile < 1) {
+                countAtPercentile = 1;
+            }
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                count += counts[i];
+                if (count >= countAtPercentile) {
+                    long value = bucketUpperBound(i);
+                    return value < max ? value : max;
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 非零的桶，格式是 下界:计数 ，用空格分隔，单位微秒。不同实例的输出可以按下界直接相加合并。
+         */
+        public String toBucketString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                if (counts[i] != 0) {
+                    if (sb.length() > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(bucketLowerBound(i)).append(':').append(counts[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.taobao.arthas.core.util.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <pre>
+ * 一组按线程分散(striped)的 long 计数器，类似 jdk8 的 LongAdder ，但是可以在 jdk6 上运行。
+ * 
+ * 每个 stripe 里连续保存 fieldCount 个计数器，stripe 之间按 cache line 对齐，减少 false sharing 。
+ * 线程按 thread id 分到不同的 stripe 上，写入时不会在同一个 cell 上激烈竞争，也不会有内存分配。
+ * 读取时把所有 stripe 加起来，读取的开销比写入大，适合写多读少的统计场景，比如 monitor 命令。
+ * </pre>
+ */
+public class StripedCounters {
+    /**
+     * 64 字节的 cache line 可以放 8 个 long
+     */
+    private static final int LONGS_PER_CACHE_LINE = 8;
+    private static final int MAX_STRIPES = 64;
+    static final int DEFAULT_STRIPES = defaultStripes();
+
+    private final int fieldCount;
+    private final int stride;
+    private final int stripeMask;
+    private final AtomicLongArray cells;
+
+    public StripedCounters(int fieldCount) {
+        this(fieldCount, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param fieldCount 计数器个数
+     * @param stripes    stripe 个数，会向上取整为 2 的幂
+     */
+    public StripedCounters(int fieldCount, int stripes) {
+        if (fieldCount <= 0) {
+            throw new IllegalArgumentException("fieldCount must be positive, fieldCount: " + fieldCount);
+        }
+        this.fieldCount = fieldCount;
+        this.stride = (fieldCount + LONGS_PER_CACHE_LINE - 1) / LONGS_PER_CACHE_LINE * LONGS_PER_CACHE_LINE;
+        int size = 1;
+        while (size < stripes && size < MAX_STRIPES) {
+            size <<= 1;
+        }
+        this.stripeMask = size - 1;
+        this.cells = new AtomicLongArray(size * stride);
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public void increment(int field) {
+        add(field, 1);
+    }
+
+    public void add(int field, long delta) {
+        cells.addAndGet(base() + field, delta);
+    }
+
+    /**
+     * 当前线程对应的 stripe 的起始下标
+     */
+    private int base() {
+        return (probe() & stripeMask) * stride;
+    }
+
+    /**
+     * 当前线程的 hash ，和 stripe 个数减一做与运算得到 stripe 的下标
+     */
+    static int probe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        // 打散连续的 thread id
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h;
+    }
+
+    public long sum(int field) {
+        long sum = 0;
+        for (int i = field; i < cells.length(); i += stride) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * 返回当前的和，同时把计数器清零。与并发的写入之间不是原子的，并发写入的值会被计入本次或者下一次。
+     */
+    public long sumThenReset(int field) {
+        long sum = 0;
+        for (int i = field; i < cells.length(); i += stride) {
+            sum += cells.getAndSet(i, 0);
+        }
+        return sum;
+    }
+
+    private static int defaultStripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return processors < MAX_STRIPES ? processors : MAX_STRIPES;
+    }
+}
@@ -3,6 +3,8 @@ package com.taobao.arthas.core.view;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.serializer.SerializerFeature;
 import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.util.ObjectSnapshot;
+import com.taobao.arthas.core.util.StringUtils;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -101,7 +103,10 @@ public class ObjectView implements View {
         } else {
 
             final Class<?> clazz = obj.getClass();
-            final String className = clazz.getSimpleName();
+            // tt --snapshot 保存的快照，显示原来的类名
+            final String className = obj instanceof ObjectSnapshot.Snapshot
+                    ? StringUtils.substringAfterLast("." + ((ObjectSnapshot.Snapshot) obj).getClassName(), ".")
+                    : clazz.getSimpleName();
 
             // 7种基础类型,直接输出@类型[值]
             if (Integer.class.isInstance(obj)
@@ -158,6 +163,32 @@ public class ObjectView implements View {
                 appendStringBuilder(buf, "]");
             }
 
+            // 快照的普通对象，字段保存在 map 里
+            else if (obj instanceof ObjectSnapshot.SnapshotObject) {
+                final ObjectSnapshot.SnapshotObject snapshot = (ObjectSnapshot.SnapshotObject) obj;
+
+                if (!isExpand(deep, expand) || snapshot.isTruncated() || snapshot.isEmpty()) {
+                    appendStringBuilder(buf, format("@%s[%s]", className, snapshot.getText()));
+                } else {
+                    appendStringBuilder(buf, format("@%s[", className));
+                    for (Map.Entry<String, Object> entry : snapshot.entrySet()) {
+                        appendStringBuilder(buf, "\n");
+                        for (int i = 0; i < deep+1; i++) {
+                            appendStringBuilder(buf, TAB);
+                        }
+                        appendStringBuilder(buf, entry.getKey());
+                        appendStringBuilder(buf, "=");
+                        renderObject(entry.getValue(), deep + 1, expand, buf);
+                        appendStringBuilder(buf, ",");
+                    }
+                    appendStringBuilder(buf, "\n");
+                    for (int i = 0; i < deep; i++) {
+                        appendStringBuilder(buf, TAB);
+                    }
+                    appendStringBuilder(buf, "]");
+                }
+            }
+
             // 集合类输出
             else if (Collection.class.isInstance(obj)) {
 
@@ -158,6 +158,31 @@ public class TreeView implements View {
         return this;
     }
 
+    /**
+     * 结束一个分支节点，耗时使用调用方已经统计好的数据，而不是按当前时间计算。
+     * 用于先在别的结构里记录调用，输出时再生成 TreeView 的场景，同一个节点多次结束时数据会合并。
+     *
+     * @param minCost   最小耗时，单位纳秒
+     * @param maxCost   最大耗时，单位纳秒
+     * @param totalCost 总耗时，单位纳秒
+     * @param times     调用次数
+     * @param mark      备注，为 null 时不设置
+     * @param marks     备注次数
+     * @return this
+     */
+    public TreeView end(long minCost, long maxCost, long totalCost, long times, String mark, long marks) {
+        if (current.isRoot()) {
+            throw new IllegalStateException("current node is root.");
+        }
+        current.merge(minCost, maxCost, totalCost, times);
+        if (mark != null && marks > 0) {
+            current.mark = mark;
+            current.marks += marks;
+        }
+        current = current.parent;
+        return this;
+    }
+
 
     /**
      * 树节点
@@ -263,6 +288,18 @@ public class TreeView implements View {
             return this;
         }
 
+        Node merge(long minCost, long maxCost, long totalCost, long times) {
+            if (minCost < this.minCost) {
+                this.minCost = minCost;
+            }
+            if (maxCost > this.maxCost) {
+                this.maxCost = maxCost;
+            }
+            this.totalCost += totalCost;
+            this.times += times;
+            return this;
+        }
+
         Node mark(String mark) {
             this.mark = mark;
             marks++;
@@ -283,7 +320,7 @@ public class TreeView implements View {
         public String toString() {
             StringBuilder sb = new StringBuilder();
             if (times <= 1) {
-                sb.append("[").append(getCostInMillis(getCost())).append(TIME_UNIT).append("] ");
+                sb.append("[").append(getCostInMillis(totalCost)).append(TIME_UNIT).append("] ");
             } else {
                 sb.append("[min=").append(getCostInMillis(minCost)).append(TIME_UNIT).append(",max=")
                         .append(getCostInMillis(maxCost)).append(TIME_UNIT).append(",total=")
@@ -0,0 +1,36 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdviceRequirementTest {
+
+    @Test
+    public void testOf() {
+        Assert.assertEquals(AdviceRequirement.TIMING, AdviceRequirement.of());
+        Assert.assertEquals(AdviceRequirement.TIMING, AdviceRequirement.of(null, ""));
+        Assert.assertEquals(AdviceRequirement.TIMING, AdviceRequirement.of("#cost > 10"));
+        Assert.assertEquals(AdviceRequirement.TIMING, AdviceRequirement.of("target.id == 1 && throwExp != null"));
+        Assert.assertEquals(AdviceRequirement.ARGS, AdviceRequirement.of("params[0] > 1", "#cost > 10"));
+        Assert.assertEquals(AdviceRequirement.ARGS, AdviceRequirement.of("target.returnObj > 1 or params.length > 0"));
+        Assert.assertEquals(AdviceRequirement.ALL, AdviceRequirement.of("params[0] > 1", "returnObj != null"));
+        Assert.assertEquals(AdviceRequirement.ALL, AdviceRequirement.of("{params, target, returnObj}"));
+    }
+
+    @Test
+    public void testIndirectRootAccess() {
+        // 解析不了，或者不认识的属性都按需要全部数据处理
+        Assert.assertEquals(AdviceRequirement.ALL, AdviceRequirement.of("#root"));
+        Assert.assertEquals(AdviceRequirement.ALL, AdviceRequirement.of("#this.params"));
+        Assert.assertEquals(AdviceRequirement.ALL, AdviceRequirement.of("getReturnObj() != null"));
+        Assert.assertEquals(AdviceRequirement.ALL, AdviceRequirement.of("paramsCount > 1"));
+    }
+
+    @Test
+    public void testMaxMin() {
+        Assert.assertEquals(AdviceRequirement.ALL, AdviceRequirement.TIMING.max(AdviceRequirement.ALL));
+        Assert.assertEquals(AdviceRequirement.ARGS, AdviceRequirement.ARGS.max(AdviceRequirement.TIMING));
+        Assert.assertEquals(AdviceRequirement.ARGS, AdviceRequirement.ALL.min(AdviceRequirement.ARGS));
+        Assert.assertEquals(AdviceRequirement.TIMING, AdviceRequirement.TIMING.min(AdviceRequirement.ARGS));
+    }
+}
@@ -0,0 +1,60 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdviceSamplerTest {
+
+    @Test
+    public void testSampleRate() {
+        AdviceSampler sampler = new AdviceSampler(4, 0);
+        int sampled = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (sampler.enter()) {
+                sampled++;
+            }
+            sampler.exit();
+        }
+        Assert.assertEquals(25, sampled);
+    }
+
+    @Test
+    public void testMaxPerSecond() {
+        AdviceSampler sampler = new AdviceSampler(1, 10);
+        int sampled = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (sampler.enter()) {
+                sampled++;
+            }
+            sampler.exit();
+        }
+        // 跨秒时最多多抽取一轮
+        Assert.assertTrue(sampled >= 10 && sampled <= 20);
+    }
+
+    @Test
+    public void testNestedInvocationFollowsOutermost() {
+        AdviceSampler sampler = new AdviceSampler(2, 0);
+
+        // 第一次没有被抽中，嵌套的调用也全部跳过
+        Assert.assertFalse(sampler.enter());
+        Assert.assertFalse(sampler.isSampled());
+        Assert.assertFalse(sampler.enter());
+        Assert.assertFalse(sampler.exit());
+        Assert.assertFalse(sampler.exit());
+
+        // 第二次被抽中，嵌套的调用也全部处理
+        Assert.assertTrue(sampler.enter());
+        Assert.assertTrue(sampler.isSampled());
+        Assert.assertTrue(sampler.enter());
+        Assert.assertTrue(sampler.exit());
+        Assert.assertTrue(sampler.exit());
+    }
+
+    @Test
+    public void testUnbalancedExit() {
+        AdviceSampler sampler = new AdviceSampler(100, 0);
+        Assert.assertTrue(sampler.exit());
+        Assert.assertTrue(sampler.isSampled());
+    }
+}
@@ -0,0 +1,45 @@
+package com.taobao.arthas.core.advisor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdviceTest {
+
+    @Test
+    public void testBorrowAndRelease() {
+        Object[] params = new Object[] { "a" };
+        Advice advice = Advice.borrowForAfterReturning(null, String.class, null, "target", params, "ret");
+        Assert.assertTrue(advice.isAfterReturning());
+        Assert.assertSame(params, advice.getParams());
+        Assert.assertEquals("ret", advice.getReturnObj());
+        advice.release();
+
+        // 归还后不再引用参数和返回值，下次取得的是同一个对象
+        Assert.assertNull(advice.getParams());
+        Assert.assertNull(advice.getReturnObj());
+        Advice another = Advice.borrowForBefore(null, String.class, null, null, params);
+        Assert.assertSame(advice, another);
+        Assert.assertTrue(another.isBefore());
+        Assert.assertFalse(another.isAfterReturning());
+        another.release();
+    }
+
+    @Test
+    public void testNestedBorrow() {
+        Advice outer = Advice.borrowForAfterThrowing(null, String.class, null, null, null, new RuntimeException());
+        Advice inner = Advice.borrowForAfterReturning(null, String.class, null, null, null, "inner");
+        Assert.assertNotSame(outer, inner);
+        inner.release();
+        // 新创建的对象 release 时不清除
+        Assert.assertEquals("inner", inner.getReturnObj());
+        Assert.assertTrue(outer.isAfterThrowing());
+        outer.release();
+    }
+
+    @Test
+    public void testNewAdviceNotPooled() {
+        Advice advice = Advice.newForAfterRetuning(null, String.class, null, null, null, "ret");
+        advice.release();
+        Assert.assertEquals("ret", advice.getReturnObj());
+    }
+}
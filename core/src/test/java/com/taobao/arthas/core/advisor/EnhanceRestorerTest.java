@@ -0,0 +1,99 @@
+package com.taobao.arthas.core.advisor;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EnhanceRestorerTest {
+
+    private final List<Class<?>> retransformed = new ArrayList<Class<?>>();
+
+    private Instrumentation instrumentation(final Class<?> failedClass) {
+        return (Instrumentation) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("retransformClasses".equals(method.getName())) {
+                            Class<?>[] classes = (Class<?>[]) args[0];
+                            if (Arrays.asList(classes).contains(failedClass)) {
+                                throw new IllegalStateException("can not retransform " + failedClass);
+                            }
+                            retransformed.addAll(Arrays.asList(classes));
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Test
+    public void testRefCount() {
+        EnhanceRestorer restorer = new EnhanceRestorer(instrumentation(null));
+
+        restorer.retain(String.class);
+        restorer.retain(String.class);
+        restorer.retain(Integer.class);
+        Assert.assertEquals(2, restorer.getRefCount(String.class));
+
+        restorer.rollback(Integer.class);
+        Assert.assertEquals(0, restorer.getRefCount(Integer.class));
+
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        classes.add(String.class);
+        restorer.release(classes, false);
+        Assert.assertEquals(1, restorer.getRefCount(String.class));
+        Assert.assertEquals(0, restorer.getPendingCount());
+        Assert.assertEquals(0, restorer.restorePending());
+        Assert.assertTrue(retransformed.isEmpty());
+        restorer.destroy();
+    }
+
+    @Test
+    public void testRelease() {
+        EnhanceRestorer restorer = new EnhanceRestorer(instrumentation(Long.class));
+        // 后台线程不处理，测试里直接调用 restorePending
+        restorer.destroy();
+
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        classes.add(String.class);
+        classes.add(Integer.class);
+        classes.add(Long.class);
+        for (Class<?> clazz : classes) {
+            restorer.retain(clazz);
+        }
+        restorer.retain(String.class);
+
+        restorer.release(classes, true);
+        Assert.assertEquals(1, restorer.getRefCount(String.class));
+        Assert.assertEquals(0, restorer.getRefCount(Integer.class));
+        Assert.assertEquals(3, restorer.getPendingCount());
+    }
+
+    @Test
+    public void testRestorePending() {
+        EnhanceRestorer restorer = new EnhanceRestorer(instrumentation(Long.class));
+
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        classes.add(String.class);
+        classes.add(Integer.class);
+        classes.add(Long.class);
+        for (Class<?> clazz : classes) {
+            restorer.retain(clazz);
+        }
+
+        // 一批失败时逐个重试，其它的类继续恢复
+        restorer.release(classes, true);
+        Assert.assertEquals(2, restorer.restorePending());
+        Assert.assertEquals(0, restorer.getPendingCount());
+        Assert.assertTrue(retransformed.contains(String.class));
+        Assert.assertTrue(retransformed.contains(Integer.class));
+        Assert.assertFalse(retransformed.contains(Long.class));
+        restorer.destroy();
+    }
+}
@@ -11,7 +11,9 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.zeroturnaround.zip.ZipUtil;
 
+import com.alibaba.arthas.deps.org.objectweb.asm.Opcodes;
 import com.alibaba.arthas.deps.org.objectweb.asm.Type;
+import com.alibaba.arthas.deps.org.objectweb.asm.tree.AbstractInsnNode;
 import com.alibaba.arthas.deps.org.objectweb.asm.tree.ClassNode;
 import com.alibaba.arthas.deps.org.objectweb.asm.tree.MethodNode;
 import com.taobao.arthas.bytekit.utils.AsmUtils;
@@ -97,4 +99,64 @@ public class EnhancerTest {
         System.err.println(string);
     }
 
+    @Test
+    public void testInterceptorProcessorsCached() {
+        for (AdviceRequirement requirement : AdviceRequirement.values()) {
+            Assertions.assertThat(Enhancer.getInterceptorProcessors(requirement, false, false))
+                    .isSameAs(Enhancer.getInterceptorProcessors(requirement, false, true));
+            Assertions.assertThat(Enhancer.getInterceptorProcessors(requirement, true, false))
+                    .isSameAs(Enhancer.getInterceptorProcessors(requirement, true, false));
+            Assertions.assertThat(Enhancer.getInterceptorProcessors(requirement, true, true))
+                    .isSameAs(Enhancer.getInterceptorProcessors(requirement, true, true));
+
+            int size = Enhancer.getInterceptorProcessors(requirement, false, false).size();
+            Assertions.assertThat(size).isGreaterThan(0);
+            Assertions.assertThat(Enhancer.getInterceptorProcessors(requirement, true, false).size())
+                    .isGreaterThan(size);
+            Assertions.assertThat(Enhancer.getInterceptorProcessors(requirement, true, true).size())
+                    .isGreaterThan(size);
+        }
+        Assertions.assertThat(Enhancer.getInterceptorProcessors(AdviceRequirement.TIMING, false, false))
+                .isNotSameAs(Enhancer.getInterceptorProcessors(AdviceRequirement.ALL, false, false));
+    }
+
+    @Test
+    public void testTimingWithoutArgsArray() throws Throwable {
+        Instrumentation instrumentation = ByteBuddyAgent.install();
+        TestHelper.appendSpyJar(instrumentation);
+        ArthasBootstrap.getInstance(instrumentation, "");
+
+        AdviceListenerAdapter listener = Mockito.mock(AdviceListenerAdapter.class);
+        Mockito.when(listener.getAdviceRequirement()).thenReturn(AdviceRequirement.TIMING);
+
+        Enhancer enhancer = new Enhancer(listener, false, false, new EqualsMatcher<String>(MathGame.class.getName()),
+                new EqualsMatcher<String>("primeFactors"));
+
+        ClassNode classNode = AsmUtils.loadClass(MathGame.class);
+        MethodNode originMethodNode = AsmUtils.findMethods(classNode.methods, "primeFactors").get(0);
+        int originNewArrayCount = countOpcode(originMethodNode, Opcodes.ANEWARRAY);
+
+        byte[] result = enhancer.transform(MathGame.class.getClassLoader(), MathGame.class.getName(), MathGame.class,
+                null, AsmUtils.toBytes(classNode));
+        MethodNode resultMethodNode = AsmUtils.findMethods(AsmUtils.toClassNode(result).methods, "primeFactors")
+                .get(0);
+
+        Assertions.assertThat(
+                AsmUtils.findMethodInsnNode(resultMethodNode, Type.getInternalName(SpyAPI.class), "atEnter").size())
+                .isEqualTo(1);
+        // 不创建参数数组，也不装箱返回值
+        Assertions.assertThat(countOpcode(resultMethodNode, Opcodes.ANEWARRAY)).isEqualTo(originNewArrayCount);
+    }
+
+    private static int countOpcode(MethodNode methodNode, int opcode) {
+        int count = 0;
+        for (AbstractInsnNode insnNode = methodNode.instructions.getFirst(); insnNode != null; insnNode = insnNode
+                .getNext()) {
+            if (insnNode.getOpcode() == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
 }
@@ -0,0 +1,202 @@
+package com.taobao.arthas.core.command.express;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressCompilerTest {
+
+    static class Item {
+        private long id;
+        private String name;
+        private boolean valid;
+
+        Item(long id, String name, boolean valid) {
+            this.id = id;
+            this.name = name;
+            this.valid = valid;
+        }
+
+        public String getName() {
+            return "name:" + name;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+    }
+
+    static class Failing {
+        int calls;
+
+        public String getValue() {
+            ++calls;
+            throw new IllegalStateException("getter error");
+        }
+    }
+
+    static class Counting {
+        private final Map<String, Object> map;
+        int calls;
+
+        Counting(Map<String, Object> map) {
+            this.map = map;
+        }
+
+        public Map<String, Object> getMap() {
+            ++calls;
+            return map;
+        }
+
+        public String getName() {
+            return "counting";
+        }
+    }
+
+    static class Root {
+        private Object[] params;
+        private Object returnObj;
+
+        Root(Object[] params, Object returnObj) {
+            this.params = params;
+            this.returnObj = returnObj;
+        }
+
+        public Object[] getParams() {
+            return params;
+        }
+
+        public Object getReturnObj() {
+            return returnObj;
+        }
+    }
+
+    private static Object eval(String express, Object root, double cost) throws ExpressException {
+        CompiledExpress compiled = ExpressCompiler.compile(express);
+        Assert.assertNotNull(express, compiled);
+        return compiled.get(root, cost);
+    }
+
+    @Test
+    public void testCost() throws Exception {
+        Root root = new Root(new Object[0], null);
+        Assert.assertEquals(Boolean.TRUE, eval("#cost > 100", root, 100.5));
+        Assert.assertEquals(Boolean.FALSE, eval("#cost > 100", root, 100));
+        Assert.assertEquals(Boolean.TRUE, eval("#cost >= 100", root, 100));
+        Assert.assertEquals(Boolean.TRUE, eval("#cost < 0.5", root, 0.1));
+        Assert.assertEquals(0.1, eval("#cost", root, 0.1));
+    }
+
+    @Test
+    public void testProperty() throws Exception {
+        Root root = new Root(new Object[] { new Item(42, "a", true), 3 }, null);
+        Assert.assertEquals(Boolean.TRUE, eval("params[0].id == 42", root, 0));
+        Assert.assertEquals(Boolean.FALSE, eval("params[0].id != 42", root, 0));
+        Assert.assertEquals(Boolean.TRUE, eval("params[0].name == \"name:a\"", root, 0));
+        Assert.assertEquals(Boolean.TRUE, eval("params[0].valid == true", root, 0));
+        Assert.assertEquals(Boolean.TRUE, eval("params[1] > 2.5", root, 0));
+        Assert.assertEquals(Boolean.TRUE, eval("params[1] > -1", root, 0));
+        Assert.assertEquals(2, eval("params.length", root, 0));
+        Assert.assertEquals(Boolean.TRUE, eval("returnObj == null", root, 0));
+        Assert.assertEquals(Boolean.FALSE, eval("returnObj != null", root, 0));
+    }
+
+    @Test
+    public void testLogic() throws Exception {
+        Root root = new Root(new Object[] { 1 }, "ret");
+        Assert.assertEquals(Boolean.TRUE, eval("params[0] == 1 && #cost > 10", root, 11));
+        Assert.assertEquals(Boolean.FALSE, eval("params[0] == 1 and #cost > 10", root, 1));
+        Assert.assertEquals(Boolean.TRUE, eval("params[0] == 2 || #cost > 10", root, 11));
+        Assert.assertEquals(Boolean.TRUE, eval("!(params[0] == 2) or returnObj == null", root, 0));
+        Assert.assertEquals(Boolean.FALSE, eval("!(params[0] == 1)", root, 0));
+    }
+
+    @Test
+    public void testList() throws Exception {
+        Root root = new Root(new Object[] { 1 }, "ret");
+        Object result = eval("{params, returnObj}", root, 0);
+        Assert.assertTrue(result instanceof List);
+        List<?> list = (List<?>) result;
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals(Arrays.asList(1), Arrays.asList((Object[]) list.get(0)));
+        Assert.assertEquals("ret", list.get(1));
+    }
+
+    @Test
+    public void testOgnlStep() throws Exception {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("key", 5);
+        Counting counting = new Counting(map);
+        Root root = new Root(new Object[] { counting, new BigDecimal("1.5"), "1" }, null);
+
+        // Map 的属性交给 OGNL ，前面的 getter 只执行一次
+        Assert.assertEquals(Boolean.TRUE, eval("params[0].map.key == 5", root, 0));
+        Assert.assertEquals(1, counting.calls);
+        Assert.assertEquals(Boolean.TRUE, eval("params[1] > 1", root, 0));
+        Assert.assertEquals(Boolean.FALSE, eval("params[1] <= 1", root, 0));
+        Assert.assertEquals(Boolean.TRUE, eval("params[2] && returnObj == null", root, 0));
+        Assert.assertEquals(Boolean.TRUE, eval("params[0].map.key == 5 && params[1] >= 1.5", root, 0));
+        Assert.assertEquals(2, counting.calls);
+    }
+
+    @Test
+    public void testOgnlStepException() throws Exception {
+        Counting counting = new Counting(null);
+        Root root = new Root(new Object[] { counting }, null);
+        try {
+            eval("params[0].map.key == 1", root, 0);
+            Assert.fail();
+        } catch (ExpressException e) {
+            Assert.assertEquals("params[0].map.key == 1", e.getExpress());
+        }
+        Assert.assertEquals(1, counting.calls);
+
+        try {
+            eval("params[5]", root, 0);
+            Assert.fail();
+        } catch (ExpressException e) {
+            Assert.assertEquals("params[5]", e.getExpress());
+        }
+    }
+
+    @Test
+    public void testPolymorphicProperty() throws Exception {
+        Root root1 = new Root(new Object[] { new Item(1, "a", true) }, null);
+        Root root2 = new Root(new Object[] { new Counting(null) }, null);
+        for (int i = 0; i < 3; ++i) {
+            Assert.assertEquals("name:a", eval("params[0].name", root1, 0));
+            Assert.assertEquals("counting", eval("params[0].name", root2, 0));
+        }
+    }
+
+    @Test
+    public void testNotCompilable() throws Exception {
+        Assert.assertNull(ExpressCompiler.compile("params[0].toString()"));
+        Assert.assertNull(ExpressCompiler.compile("@java.lang.System@out"));
+        Assert.assertNull(ExpressCompiler.compile("params.{? #this > 1}"));
+        Assert.assertNull(ExpressCompiler.compile("#cost > 10L"));
+        Assert.assertNull(ExpressCompiler.compile("params[0] == 'a'"));
+        Assert.assertNull(ExpressCompiler.compile("#ctx"));
+        Assert.assertNull(ExpressCompiler.compile("returnObj > null"));
+        Assert.assertNull(ExpressCompiler.compile("params[0] == 1 == true"));
+    }
+
+    @Test
+    public void testGetterException() throws Exception {
+        Failing failing = new Failing();
+        Root root = new Root(new Object[] { failing }, null);
+        try {
+            eval("params[0].value", root, 0);
+            Assert.fail();
+        } catch (ExpressException e) {
+            Assert.assertEquals("params[0].value", e.getExpress());
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(1, failing.calls);
+    }
+}
@@ -0,0 +1,82 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.arthas.core.command.monitor200.ContinuousProfiler.StackDiff;
+import com.taobao.arthas.core.command.monitor200.ContinuousProfiler.Window;
+import com.taobao.arthas.core.command.monitor200.StackTrie.StackCount;
+
+public class ContinuousProfilerTest {
+
+    @Test
+    public void testWindows() {
+        ContinuousProfiler profiler = new ContinuousProfiler(3);
+        for (int i = 0; i < 5; ++i) {
+            profiler.addWindow("a;b " + (i + 1), i * 1000, (i + 1) * 1000);
+        }
+
+        List<Window> windows = profiler.getWindows();
+        Assert.assertEquals(3, windows.size());
+        Assert.assertEquals(3, windows.get(0).getId());
+        Assert.assertEquals(5, windows.get(2).getId());
+        Assert.assertEquals(5, windows.get(2).getSamples());
+
+        Assert.assertEquals(2, profiler.windowsSince(3500).size());
+        Assert.assertEquals(2, profiler.windowsBetween(1, 4).size());
+        Assert.assertEquals(1, profiler.windowsBefore(4).size());
+
+        List<StackCount> stacks = profiler.stackCounts(profiler.windowsBetween(3, 5));
+        Assert.assertEquals(1, stacks.size());
+        Assert.assertEquals("a;b", stacks.get(0).getStack());
+        Assert.assertEquals(12, stacks.get(0).getCount());
+    }
+
+    @Test
+    public void testDiff() {
+        ContinuousProfiler profiler = new ContinuousProfiler(10);
+        Window base = profiler.addWindow("a;b 90\na;c 10\n", 0, 1000);
+        Window target = profiler.addWindow("a;b 50\na;c 40\na;d 10\n", 1000, 2000);
+
+        List<StackDiff> diffs = profiler.diff(profiler.windowsBefore(target.getId()),
+                profiler.windowsBetween(target.getId(), target.getId()));
+        Assert.assertEquals(base.getId(), profiler.windowsBefore(target.getId()).get(0).getId());
+        Assert.assertEquals(3, diffs.size());
+
+        Assert.assertEquals("a;b", diffs.get(0).getStack());
+        Assert.assertEquals(90, diffs.get(0).getBaseCount());
+        Assert.assertEquals(50, diffs.get(0).getTargetCount());
+        Assert.assertEquals(-0.4, diffs.get(0).getDelta(), 0.0001);
+
+        Assert.assertEquals("a;c", diffs.get(1).getStack());
+        Assert.assertEquals(0.3, diffs.get(1).getDelta(), 0.0001);
+
+        Assert.assertEquals("a;d", diffs.get(2).getStack());
+        Assert.assertEquals(0, diffs.get(2).getBaseCount());
+        Assert.assertEquals(0.1, diffs.get(2).getDelta(), 0.0001);
+    }
+
+    @Test
+    public void testCompactFrames() {
+        ContinuousProfiler profiler = new ContinuousProfiler(2);
+        int framesPerWindow = 1000;
+        for (int i = 0; i < 20; ++i) {
+            StringBuilder sb = new StringBuilder("main");
+            for (int j = 0; j < framesPerWindow; ++j) {
+                sb.append(";w").append(i).append('_').append(j);
+            }
+            profiler.addWindow(sb.append(' ').append(i + 1).toString(), i * 1000, (i + 1) * 1000);
+        }
+
+        // 被淘汰的窗口的 frame 名字不会一直保留
+        Assert.assertTrue(profiler.frameCount() <= 2 * ContinuousProfiler.MIN_FRAMES_TO_COMPACT + framesPerWindow);
+
+        List<StackCount> stacks = profiler.stackCounts(profiler.getWindows());
+        Assert.assertEquals(2, stacks.size());
+        Assert.assertEquals(20, stacks.get(0).getCount());
+        Assert.assertTrue(stacks.get(0).getStack().startsWith("main;w19_0;w19_1;"));
+        Assert.assertTrue(stacks.get(1).getStack().endsWith(";w18_999"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.arthas.core.command.monitor200.StackTrie.Frames;
+import com.taobao.arthas.core.command.monitor200.StackTrie.StackCount;
+
+public class StackTrieTest {
+
+    @Test
+    public void test() {
+        StackTrie trie = new StackTrie(new Frames());
+        trie.addCollapsedLines("a;b;c 3\na;b 2\na;b;d 5\nbad line\na;b;c 1\n");
+
+        Assert.assertEquals(11, trie.getTotal());
+        // a, b, c, d
+        Assert.assertEquals(4, trie.nodeCount());
+
+        List<StackCount> stacks = trie.toStackCounts();
+        Assert.assertEquals(3, stacks.size());
+        Assert.assertEquals("a;b;d", stacks.get(0).getStack());
+        Assert.assertEquals(5, stacks.get(0).getCount());
+        Assert.assertEquals("a;b;c", stacks.get(1).getStack());
+        Assert.assertEquals(4, stacks.get(1).getCount());
+        Assert.assertEquals("a;b", stacks.get(2).getStack());
+        Assert.assertEquals(2, stacks.get(2).getCount());
+    }
+
+    @Test
+    public void testMerge() {
+        Frames frames = new Frames();
+        StackTrie trie1 = new StackTrie(frames);
+        trie1.addCollapsedLines("a;b;c 3\nx;y 1");
+        StackTrie trie2 = new StackTrie(frames);
+        trie2.addCollapsedLines("x;y 2\na;b;c 1\na;z 4");
+
+        StackTrie merged = new StackTrie(frames, 2);
+        merged.merge(trie1);
+        merged.merge(trie2);
+
+        Assert.assertEquals(11, merged.getTotal());
+        Assert.assertEquals(6, frames.size());
+        List<StackCount> stacks = merged.toStackCounts();
+        Assert.assertEquals(3, stacks.size());
+        Assert.assertEquals("a;b;c", stacks.get(0).getStack());
+        Assert.assertEquals(4, stacks.get(0).getCount());
+        Assert.assertEquals("x;y", stacks.get(2).getStack());
+        Assert.assertEquals(3, stacks.get(2).getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeDifferentFrames() {
+        new StackTrie(new Frames()).merge(new StackTrie(new Frames()));
+    }
+
+    @Test
+    public void testCopyTo() {
+        Frames frames = new Frames();
+        StackTrie trie = new StackTrie(frames);
+        trie.addCollapsedLines("a;b;c 3\nx;y 1\na;b 2");
+
+        Frames target = new Frames();
+        target.id("z");
+        StackTrie copy = trie.copyTo(target);
+
+        Assert.assertEquals(6, copy.getTotal());
+        Assert.assertEquals(trie.nodeCount(), copy.nodeCount());
+        Assert.assertEquals(6, target.size());
+        List<StackCount> stacks = copy.toStackCounts();
+        Assert.assertEquals(3, stacks.size());
+        Assert.assertEquals("a;b;c", stacks.get(0).getStack());
+        Assert.assertEquals("a;b", stacks.get(1).getStack());
+        Assert.assertEquals("x;y", stacks.get(2).getStack());
+
+        copy.merge(new StackTrie(target));
+    }
+}
@@ -0,0 +1,163 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.arthas.core.GlobalOptions;
+import com.taobao.arthas.core.advisor.Advice;
+import com.taobao.arthas.core.advisor.ArthasMethod;
+
+public class TimeTunnelStoreTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static TimeFragment fragment(Object target, Object returnObj) {
+        Advice advice = Advice.newForAfterRetuning(null, ArrayList.class,
+                new ArthasMethod(ArrayList.class, "size", "()I"), target, new Object[0], returnObj);
+        return new TimeFragment(advice, new Date(), 1);
+    }
+
+    @After
+    public void after() {
+        GlobalOptions.ttMaxCount = 1000;
+        GlobalOptions.ttMaxSize = 100 * 1024 * 1024;
+        GlobalOptions.ttEvictionPolicy = TimeTunnelStore.FIFO;
+        GlobalOptions.ttWeakTarget = false;
+        GlobalOptions.ttSnapshotBufferSize = 64 * 1024 * 1024;
+    }
+
+    @Test
+    public void testMaxCountFifo() {
+        GlobalOptions.ttMaxCount = 2;
+        TimeTunnelStore store = new TimeTunnelStore(DIRECT);
+        store.put(1, fragment(null, 1));
+        store.put(2, fragment(null, 2));
+        store.get(1);
+        store.put(3, fragment(null, 3));
+
+        Assert.assertEquals(2, store.size());
+        Assert.assertNull(store.get(1));
+        Assert.assertNotNull(store.get(2));
+        Assert.assertEquals(1, store.getEvictedCount());
+    }
+
+    @Test
+    public void testMaxCountLru() {
+        GlobalOptions.ttMaxCount = 2;
+        GlobalOptions.ttEvictionPolicy = TimeTunnelStore.LRU;
+        TimeTunnelStore store = new TimeTunnelStore(DIRECT);
+        store.put(1, fragment(null, 1));
+        store.put(2, fragment(null, 2));
+        store.get(1);
+        store.put(3, fragment(null, 3));
+
+        Assert.assertNotNull(store.get(1));
+        Assert.assertNull(store.get(2));
+        Assert.assertNotNull(store.get(3));
+    }
+
+    @Test
+    public void testMaxSize() {
+        TimeTunnelStore store = new TimeTunnelStore(DIRECT);
+        store.put(1, fragment(null, new byte[1000]));
+        long size = store.getRetainedSize();
+        Assert.assertTrue(size >= 1000);
+
+        GlobalOptions.ttMaxSize = size * 2;
+        store.put(2, fragment(null, new byte[1000]));
+        store.put(3, fragment(null, new byte[1000]));
+        Assert.assertEquals(2, store.size());
+        Assert.assertTrue(store.getRetainedSize() <= size * 2);
+
+        // 单独一条超过上限时也保留最新的一条
+        store.put(4, fragment(null, new byte[10000]));
+        Assert.assertEquals(1, store.size());
+        Assert.assertNotNull(store.get(4));
+
+        store.remove(4);
+        Assert.assertEquals(0, store.getRetainedSize());
+    }
+
+    @Test
+    public void testWeakTarget() {
+        GlobalOptions.ttWeakTarget = true;
+        TimeTunnelStore store = new TimeTunnelStore(DIRECT);
+        Object target = new ArrayList<Object>();
+        store.put(1, fragment(target, 1));
+
+        TimeFragment tf = store.get(1);
+        Assert.assertSame(target, tf.getAdvice().getTarget());
+        Assert.assertEquals(1, tf.getAdvice().getReturnObj());
+        Assert.assertFalse(tf.isTargetCollected());
+    }
+
+    @Test
+    public void testSnapshot() {
+        GlobalOptions.ttSnapshotBufferSize = 4096;
+        TimeTunnelStore store = new TimeTunnelStore(DIRECT);
+        ArrayList<Object> returnObj = new ArrayList<Object>();
+        returnObj.add("before");
+        // 没有创建缓冲区时不保存快照，put 里不分配缓冲区
+        store.put(0, fragment(null, returnObj), true, 1);
+        Assert.assertNull(store.getSnapshotBuffer());
+        Assert.assertFalse(store.get(0).isSnapshot());
+        store.remove(0);
+
+        store.prepareSnapshotBuffer();
+        store.put(1, fragment(new Object(), returnObj), true, 1);
+        returnObj.add("after");
+
+        TimeFragment tf = store.get(1);
+        Assert.assertTrue(tf.isSnapshot());
+        Assert.assertNull(tf.getAdvice().getTarget());
+        Assert.assertEquals(1, ((List<?>) tf.getAdvice().getReturnObj()).size());
+        Assert.assertEquals(0, store.getRetainedSize());
+
+        // 缓冲区写满后，快照被覆盖的记录会被删除
+        for (int i = 2; i < 100; ++i) {
+            store.put(i, fragment(null, new byte[100]), true, 1);
+        }
+        Assert.assertNull(store.get(1));
+        Assert.assertTrue(store.size() < 98);
+        // 还没有被覆盖的快照保留，按写入顺序删除
+        Assert.assertTrue(store.get(99).isSnapshot());
+        Assert.assertNotNull(store.get(100 - store.size()));
+        Assert.assertNull(store.get(99 - store.size()));
+    }
+
+    @Test
+    public void testEstimateLater() {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        TimeTunnelStore store = new TimeTunnelStore(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        store.put(1, fragment(null, new byte[1000]));
+        store.put(2, fragment(null, new byte[1000]));
+        // 保存时不估算，只提交一次估算任务
+        Assert.assertEquals(-1, store.get(1).getEstimatedSize());
+        Assert.assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        Assert.assertTrue(store.get(1).getEstimatedSize() >= 1000);
+        long size = store.getRetainedSize();
+        Assert.assertTrue(size >= 2000);
+
+        // 没有估算的记录在查看 retained size 时估算
+        store.put(3, fragment(null, new byte[1000]));
+        Assert.assertTrue(store.getRetainedSize() > size);
+    }
+}
@@ -0,0 +1,32 @@
+package com.taobao.arthas.core.command.monitor200;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TraceEntityTest {
+
+    @Test
+    public void testReset() {
+        TraceEntity entity = new TraceEntity(1);
+        entity.beginMethod(1, String.class);
+        entity.beginInvoke(2);
+        entity.beginInvoke(3);
+        entity.end();
+        entity.end();
+        entity.throwing(new IllegalStateException());
+        Assert.assertEquals(3, entity.getOmitted());
+        Assert.assertTrue(entity.draw().contains("truncated"));
+
+        entity.reset();
+        Assert.assertEquals(0, entity.getOmitted());
+        Assert.assertEquals(0, entity.getDeep());
+        Assert.assertFalse(entity.draw().contains("java.lang.String"));
+
+        entity.beginMethod(1, Integer.class);
+        entity.end();
+        String tree = entity.draw();
+        Assert.assertTrue(tree.contains("java.lang.Integer"));
+        Assert.assertFalse(tree.contains("truncated"));
+        Assert.assertFalse(tree.contains("throw"));
+    }
+}
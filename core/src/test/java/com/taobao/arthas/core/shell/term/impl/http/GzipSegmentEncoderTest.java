@@ -0,0 +1,98 @@
+package com.taobao.arthas.core.shell.term.impl.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GzipSegmentEncoderTest {
+    private static final int SEGMENT_SIZE = 10000;
+
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void before() throws IOException {
+        file = File.createTempFile("arthas-gzip", ".hprof");
+        content = new byte[SEGMENT_SIZE * 3 + 123];
+        Random random = new Random(1);
+        for (int i = 0; i < content.length; ++i) {
+            // 一部分随机数据，一部分重复数据
+            content[i] = (byte) (i % 7 == 0 ? random.nextInt() : i % 13);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void after() {
+        file.delete();
+    }
+
+    @Test
+    public void testWholeFile() throws IOException {
+        byte[] gzip = encode(0, content.length);
+        Assert.assertArrayEquals(content, gunzip(gzip));
+    }
+
+    @Test
+    public void testSegmentsCanBeConcatenated() throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        for (long start = 0; start < content.length; start += SEGMENT_SIZE) {
+            byte[] segment = encode(start, Math.min(start + SEGMENT_SIZE, content.length));
+            Assert.assertArrayEquals(
+                    Arrays.copyOfRange(content, (int) start, (int) Math.min(start + SEGMENT_SIZE, content.length)),
+                    gunzip(segment));
+            all.write(segment);
+        }
+        Assert.assertArrayEquals(content, gunzip(all.toByteArray()));
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        Assert.assertArrayEquals(new byte[0], gunzip(encode(0, 0)));
+    }
+
+    private byte[] encode(long start, long end) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        GzipSegmentEncoder encoder = new GzipSegmentEncoder(raf.getChannel(), start, end, SEGMENT_SIZE, 1024);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            while (!encoder.isFinished()) {
+                out.write(encoder.nextChunk(4096));
+            }
+            Assert.assertNull(encoder.nextChunk(4096));
+            Assert.assertEquals(end, encoder.position());
+            return out.toByteArray();
+        } finally {
+            encoder.close();
+            raf.close();
+        }
+    }
+
+    private static byte[] gunzip(byte[] gzip) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
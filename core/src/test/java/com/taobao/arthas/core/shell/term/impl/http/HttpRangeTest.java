@@ -0,0 +1,46 @@
+package com.taobao.arthas.core.shell.term.impl.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpRangeTest {
+
+    @Test
+    public void testParse() {
+        HttpRange range = HttpRange.parse("bytes=0-99", 1000);
+        Assert.assertEquals(0, range.getStart());
+        Assert.assertEquals(99, range.getEnd());
+        Assert.assertEquals(100, range.getLength());
+        Assert.assertEquals("bytes 0-99/1000", range.toContentRange(1000));
+
+        range = HttpRange.parse("bytes=500-", 1000);
+        Assert.assertEquals(500, range.getStart());
+        Assert.assertEquals(999, range.getEnd());
+
+        range = HttpRange.parse("bytes=-100", 1000);
+        Assert.assertEquals(900, range.getStart());
+        Assert.assertEquals(999, range.getEnd());
+
+        range = HttpRange.parse("bytes=-2000", 1000);
+        Assert.assertEquals(0, range.getStart());
+
+        range = HttpRange.parse("bytes=900-5000", 1000);
+        Assert.assertEquals(999, range.getEnd());
+    }
+
+    @Test
+    public void testIgnoreAndNotSatisfiable() {
+        Assert.assertNull(HttpRange.parse(null, 1000));
+        Assert.assertNull(HttpRange.parse("items=0-1", 1000));
+        Assert.assertNull(HttpRange.parse("bytes=0-1,5-6", 1000));
+        Assert.assertNull(HttpRange.parse("bytes=abc-", 1000));
+        Assert.assertNull(HttpRange.parse("bytes=10-5", 1000));
+        Assert.assertNull(HttpRange.parse("bytes=-", 1000));
+
+        HttpRange range = HttpRange.parse("bytes=1000-", 1000);
+        Assert.assertFalse(range.isSatisfiable());
+        Assert.assertEquals("bytes */1000", range.toContentRange(1000));
+        Assert.assertFalse(HttpRange.parse("bytes=-0", 1000).isSatisfiable());
+        Assert.assertFalse(HttpRange.parse("bytes=-10", 0).isSatisfiable());
+    }
+}
@@ -0,0 +1,44 @@
+package com.taobao.arthas.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClassBytesCacheTest {
+
+    @Test
+    public void testPutAndInvalidate() {
+        ClassBytesCache cache = new ClassBytesCache();
+        byte[] bytes = new byte[] { 1, 2, 3 };
+        cache.put(String.class, bytes);
+        Assert.assertSame(bytes, cache.get(String.class));
+        Assert.assertNull(cache.get(Integer.class));
+
+        cache.onTransform(null);
+        cache.onTransform(Integer.class);
+        Assert.assertSame(bytes, cache.get(String.class));
+
+        cache.onTransform(String.class);
+        Assert.assertNull(cache.get(String.class));
+        Assert.assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        ClassBytesCache cache = new ClassBytesCache(10);
+        cache.put(String.class, new byte[4]);
+        cache.put(Integer.class, new byte[4]);
+        // String 最近访问过，淘汰 Integer
+        Assert.assertNotNull(cache.get(String.class));
+        cache.put(Long.class, new byte[4]);
+
+        Assert.assertNotNull(cache.get(String.class));
+        Assert.assertNull(cache.get(Integer.class));
+        Assert.assertNotNull(cache.get(Long.class));
+        Assert.assertEquals(8, cache.getTotalBytes());
+
+        // 超过上限的不缓存
+        cache.put(Short.class, new byte[11]);
+        Assert.assertNull(cache.get(Short.class));
+        Assert.assertEquals(2, cache.size());
+    }
+}
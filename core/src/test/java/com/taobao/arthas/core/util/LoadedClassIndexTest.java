@@ -0,0 +1,137 @@
+package com.taobao.arthas.core.util;
+
+import java.io.Serializable;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.arthas.core.util.matcher.RegexMatcher;
+import com.taobao.arthas.core.util.matcher.WildcardMatcher;
+
+public class LoadedClassIndexTest {
+
+    private static final List<Class<?>> loadedClasses = new ArrayList<Class<?>>();
+    private static int getAllLoadedClassesCount;
+
+    private static LoadedClassIndex createIndex(Class<?>... classes) {
+        loadedClasses.clear();
+        loadedClasses.addAll(Arrays.asList(classes));
+        Instrumentation inst = (Instrumentation) Proxy.newProxyInstance(LoadedClassIndexTest.class.getClassLoader(),
+                new Class<?>[] { Instrumentation.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getAllLoadedClasses".equals(method.getName())) {
+                            getAllLoadedClassesCount++;
+                            return loadedClasses.toArray(new Class<?>[0]);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return new LoadedClassIndex(inst);
+    }
+
+    private static Set<Class<?>> setOf(Class<?>... classes) {
+        return new HashSet<Class<?>>(Arrays.asList(classes));
+    }
+
+    @Test
+    public void testSearchClass() {
+        LoadedClassIndex index = createIndex(String.class, StringBuilder.class, ArrayList.class, List.class,
+                AbstractList.class, Integer.class);
+
+        Assert.assertEquals(setOf(String.class), index.searchClass(new WildcardMatcher("java.lang.String"), Integer.MAX_VALUE));
+        Assert.assertEquals(setOf(String.class, StringBuilder.class),
+                index.searchClass(new WildcardMatcher("java.lang.Str*"), Integer.MAX_VALUE));
+        Assert.assertEquals(setOf(ArrayList.class, List.class, AbstractList.class),
+                index.searchClass(new WildcardMatcher("*List"), Integer.MAX_VALUE));
+        Assert.assertEquals(setOf(Integer.class), index.searchClass(new RegexMatcher(".*Int.*"), Integer.MAX_VALUE));
+        Assert.assertEquals(1, index.searchClass(new WildcardMatcher("*"), 1).size());
+        Assert.assertTrue(index.searchClass(new WildcardMatcher("java.lang.Strin"), Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testSearchSubClass() {
+        LoadedClassIndex index = createIndex(Collections.class, List.class, AbstractList.class, ArrayList.class,
+                RandomAccess.class, Serializable.class, String.class);
+
+        Assert.assertEquals(setOf(List.class, AbstractList.class, ArrayList.class),
+                index.searchSubClass(setOf(List.class)));
+        Assert.assertEquals(setOf(RandomAccess.class, ArrayList.class), index.searchSubClass(setOf(RandomAccess.class)));
+        Assert.assertEquals(setOf(Serializable.class, ArrayList.class, String.class),
+                index.searchSubClass(setOf(Serializable.class)));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        LoadedClassIndex index = createIndex(List.class);
+        getAllLoadedClassesCount = 0;
+        Assert.assertEquals(setOf(List.class), index.searchSubClass(setOf(List.class)));
+
+        loadedClasses.add(ArrayList.class);
+        loadedClasses.add(AbstractList.class);
+        index.onTransform(null, "java/util/ArrayList", null);
+        index.onTransform(null, "java/util/AbstractList", null);
+        Assert.assertEquals(setOf(List.class, AbstractList.class, ArrayList.class),
+                index.searchSubClass(setOf(List.class)));
+        Assert.assertEquals(setOf(List.class, ArrayList.class, AbstractList.class),
+                index.searchClass(new WildcardMatcher("java.util.*List"), Integer.MAX_VALUE));
+        // 新加载的类按记录的类名查找，只有第一次搜索时遍历所有的类
+        Assert.assertEquals(1, getAllLoadedClassesCount);
+    }
+
+    @Test
+    public void testRefreshAnonymousClass() throws Exception {
+        LoadedClassIndex index = createIndex(List.class, ArrayList.class);
+        getAllLoadedClassesCount = 0;
+        Assert.assertEquals(setOf(List.class, ArrayList.class), index.searchSubClass(setOf(List.class)));
+
+        // 没有经过 onTransform 的类，已经有匹配结果时也要在下次遍历所有的类时找到
+        loadedClasses.add(AbstractList.class);
+        Thread.sleep(LoadedClassIndex.REFRESH_INTERVAL_MILLIS + 10);
+        Assert.assertEquals(setOf(List.class, AbstractList.class, ArrayList.class),
+                index.searchSubClass(setOf(List.class)));
+
+        loadedClasses.add(LinkedList.class);
+        Thread.sleep(LoadedClassIndex.REFRESH_INTERVAL_MILLIS + 10);
+        Assert.assertEquals(setOf(List.class, ArrayList.class, AbstractList.class, LinkedList.class),
+                index.searchClass(new WildcardMatcher("java.util.*List"), Integer.MAX_VALUE));
+        Assert.assertEquals(3, getAllLoadedClassesCount);
+    }
+
+    @Test
+    public void testRegexMatch() {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        Class<?> clazz = String.class;
+        for (int i = 0; i < 200; ++i) {
+            clazz = java.lang.reflect.Array.newInstance(clazz, 0).getClass();
+            classes.add(clazz);
+        }
+        classes.add(String.class);
+        LoadedClassIndex index = createIndex(classes.toArray(new Class<?>[0]));
+        Assert.assertEquals(setOf(String.class), index.searchClass(new RegexMatcher("java\\.lang\\.String"), Integer.MAX_VALUE));
+        Assert.assertEquals(classes.size() - 1, index.searchClass(new RegexMatcher("\\[.*"), Integer.MAX_VALUE).size());
+        index.destroy();
+    }
+
+    @Test
+    public void testLiteralPrefix() {
+        Assert.assertEquals("demo.MathGame", LoadedClassIndex.literalPrefix("demo.MathGame"));
+        Assert.assertEquals("demo.", LoadedClassIndex.literalPrefix("demo.*Game"));
+        Assert.assertEquals("demo.Math", LoadedClassIndex.literalPrefix("demo.Math?ame"));
+        Assert.assertEquals("", LoadedClassIndex.literalPrefix("*MathGame"));
+        Assert.assertEquals("demo", LoadedClassIndex.literalPrefix("demo\\*"));
+    }
+}
@@ -0,0 +1,42 @@
+package com.taobao.arthas.core.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObjectSizeEstimatorTest {
+
+    static class Node {
+        long value;
+        Node next;
+    }
+
+    @Test
+    public void testArray() {
+        Assert.assertEquals(0, ObjectSizeEstimator.estimate(10, (Object) null));
+        Assert.assertEquals(16 + 800, ObjectSizeEstimator.estimate(10, new long[100]));
+        Assert.assertEquals(16 + 8, ObjectSizeEstimator.estimate(10, (Object) new Object[2]));
+    }
+
+    @Test
+    public void testObjectGraph() {
+        Node first = new Node();
+        first.next = new Node();
+        // 循环引用只计算一次
+        first.next.next = first;
+        Assert.assertEquals(2 * 24, ObjectSizeEstimator.estimate(10, first));
+        Assert.assertEquals(2 * 24, ObjectSizeEstimator.estimate(10, first, first.next));
+    }
+
+    @Test
+    public void testMaxObjects() {
+        Node head = new Node();
+        Node node = head;
+        for (int i = 0; i < 99; ++i) {
+            node.next = new Node();
+            node = node.next;
+        }
+        Assert.assertEquals(100 * 24, ObjectSizeEstimator.estimate(1000, head));
+        // 遍历 10 个对象，队列里剩下 1 个按平均大小估算
+        Assert.assertEquals(11 * 24, ObjectSizeEstimator.estimate(10, head));
+    }
+}
@@ -0,0 +1,121 @@
+package com.taobao.arthas.core.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.arthas.core.util.ObjectSnapshot.SnapshotCollection;
+import com.taobao.arthas.core.util.ObjectSnapshot.SnapshotMap;
+import com.taobao.arthas.core.util.ObjectSnapshot.SnapshotObject;
+import com.taobao.arthas.core.util.ObjectSnapshot.SnapshotThrowable;
+
+public class ObjectSnapshotTest {
+
+    static class Node {
+        String name;
+        int[] values;
+        Node next;
+    }
+
+    private static Object roundTrip(Object obj, int depth) {
+        byte[] data = new ObjectSnapshot.Encoder(ObjectSnapshot.DEFAULT_MAX_ELEMENTS).write(obj, depth).toByteArray();
+        return new ObjectSnapshot.Decoder(data).read();
+    }
+
+    @Test
+    public void testValues() {
+        Assert.assertNull(roundTrip(null, 0));
+        Assert.assertEquals(123, roundTrip(123, 0));
+        Assert.assertEquals(Long.MAX_VALUE, roundTrip(Long.MAX_VALUE, 0));
+        Assert.assertEquals('c', roundTrip('c', 0));
+        Assert.assertEquals("中文 string", roundTrip("中文 string", 0));
+        // 值类型不受层数限制
+        Assert.assertEquals("abc", roundTrip("abc", -1));
+
+        SnapshotObject e = (SnapshotObject) roundTrip(TimeUnit.SECONDS, 0);
+        Assert.assertEquals(TimeUnit.class.getName(), e.getClassName());
+        Assert.assertEquals("SECONDS", e.toString());
+    }
+
+    @Test
+    public void testObject() {
+        Node node = new Node();
+        node.name = "first";
+        node.values = new int[] { 1, 2, 3 };
+        node.next = new Node();
+        node.next.next = new Node();
+
+        SnapshotObject snapshot = (SnapshotObject) roundTrip(node, 1);
+        Assert.assertEquals(Node.class.getName(), snapshot.getClassName());
+        Assert.assertFalse(snapshot.isTruncated());
+        Assert.assertEquals("first", snapshot.get("name"));
+        Assert.assertArrayEquals(new int[] { 1, 2, 3 }, (int[]) snapshot.get("values"));
+
+        SnapshotObject next = (SnapshotObject) snapshot.get("next");
+        Assert.assertFalse(next.isTruncated());
+        // 超过层数的对象只保存类名
+        SnapshotObject truncated = (SnapshotObject) next.get("next");
+        Assert.assertTrue(truncated.isTruncated());
+        Assert.assertTrue(truncated.isEmpty());
+
+        // 循环引用解码为同一个对象
+        node.next.next = node;
+        snapshot = (SnapshotObject) roundTrip(node, 2);
+        Assert.assertSame(snapshot, ((SnapshotObject) snapshot.get("next")).get("next"));
+    }
+
+    @Test
+    public void testSnapshotIsolatedFromLaterChanges() {
+        List<Object> list = new ArrayList<Object>();
+        list.add("a");
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("list", list);
+
+        byte[] data = new ObjectSnapshot.Encoder(ObjectSnapshot.DEFAULT_MAX_ELEMENTS).write(map, 2).toByteArray();
+        list.add("b");
+        map.put("other", 1);
+
+        SnapshotMap snapshot = (SnapshotMap) new ObjectSnapshot.Decoder(data).read();
+        Assert.assertEquals(HashMap.class.getName(), snapshot.getClassName());
+        Assert.assertEquals(1, snapshot.size());
+        SnapshotCollection collection = (SnapshotCollection) snapshot.get("list");
+        Assert.assertEquals(ArrayList.class.getName(), collection.getClassName());
+        Assert.assertEquals(1, collection.size());
+        Assert.assertEquals("a", collection.get(0));
+    }
+
+    @Test
+    public void testMaxElements() {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = 0; i < 10; ++i) {
+            list.add(i);
+        }
+        byte[] data = new ObjectSnapshot.Encoder(3).write(list, 1).write(new long[10], 1).toByteArray();
+        ObjectSnapshot.Decoder decoder = new ObjectSnapshot.Decoder(data);
+        Assert.assertEquals(3, ((List<?>) decoder.read()).size());
+        Assert.assertEquals(3, ((long[]) decoder.read()).length);
+    }
+
+    @Test
+    public void testThrowable() {
+        IllegalStateException exception = new IllegalStateException("test message");
+        SnapshotThrowable snapshot = (SnapshotThrowable) roundTrip(exception, 0);
+        Assert.assertEquals(IllegalStateException.class.getName(), snapshot.getClassName());
+        Assert.assertEquals(exception.toString(), snapshot.toString());
+    }
+
+    @Test
+    public void testMultipleValues() {
+        byte[] data = new ObjectSnapshot.Encoder(ObjectSnapshot.DEFAULT_MAX_ELEMENTS)
+                .write(new Object[] { "p1", 2 }, 1).write("ret", 0).write(null, 0).toByteArray();
+        ObjectSnapshot.Decoder decoder = new ObjectSnapshot.Decoder(data);
+        Assert.assertArrayEquals(new Object[] { "p1", 2 }, (Object[]) decoder.read());
+        Assert.assertEquals("ret", decoder.read());
+        Assert.assertNull(decoder.read());
+    }
+}
@@ -0,0 +1,40 @@
+package com.taobao.arthas.core.util;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapRingBufferTest {
+
+    @Test
+    public void testWriteAndRead() {
+        OffHeapRingBuffer buffer = OffHeapRingBuffer.create(1024);
+        Assert.assertEquals(1024, buffer.getCapacity());
+
+        long first = buffer.write("hello".getBytes());
+        long second = buffer.write(new byte[0]);
+        Assert.assertEquals("hello", new String(buffer.read(first)));
+        Assert.assertEquals(0, buffer.read(second).length);
+        Assert.assertNull(buffer.read(second + 100));
+    }
+
+    @Test
+    public void testOverwrite() {
+        OffHeapRingBuffer buffer = new OffHeapRingBuffer(ByteBuffer.allocate(32));
+        long first = buffer.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+        long second = buffer.write(new byte[] { 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 });
+        // 第三条记录跨过缓冲区末尾，覆盖第一条记录
+        long third = buffer.write(new byte[] { 21, 22, 23, 24, 25, 26, 27, 28, 29, 30 });
+
+        Assert.assertFalse(buffer.isAvailable(first));
+        Assert.assertNull(buffer.read(first));
+        Assert.assertArrayEquals(new byte[] { 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 }, buffer.read(second));
+        Assert.assertArrayEquals(new byte[] { 21, 22, 23, 24, 25, 26, 27, 28, 29, 30 }, buffer.read(third));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooLarge() {
+        new OffHeapRingBuffer(ByteBuffer.allocate(32)).write(new byte[29]);
+    }
+}
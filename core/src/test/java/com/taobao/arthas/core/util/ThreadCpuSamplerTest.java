@@ -0,0 +1,58 @@
+package com.taobao.arthas.core.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadCpuSamplerTest {
+
+    @Test
+    public void testBusyThread() throws InterruptedException {
+        Thread busy = new Thread("busy-thread") {
+            @Override
+            public void run() {
+                long i = 0;
+                while (!isInterrupted()) {
+                    i++;
+                }
+            }
+        };
+        busy.setDaemon(true);
+        busy.start();
+
+        ThreadCpuSampler sampler = new ThreadCpuSampler(ManagementFactory.getThreadMXBean());
+        try {
+            Map<Long, Long> topNThreads = sampler.getTopNThreads(200, 1);
+            Assert.assertEquals(1, topNThreads.size());
+            Assert.assertEquals(Long.valueOf(busy.getId()), topNThreads.keySet().iterator().next());
+
+            // 最后一个订阅者取消之后继续采样，马上可以取得结果
+            long start = System.currentTimeMillis();
+            ThreadCpuSampler.Sample sample = sampler.awaitSample(200, 0);
+            Assert.assertNotNull(sample);
+            Assert.assertTrue(System.currentTimeMillis() - start < 100);
+            Assert.assertTrue(sample.getCpuTime(busy.getId()) > 0);
+        } finally {
+            busy.interrupt();
+            sampler.destroy();
+        }
+    }
+
+    @Test
+    public void testFirstWindow() throws InterruptedException {
+        ThreadCpuSampler sampler = new ThreadCpuSampler(ManagementFactory.getThreadMXBean());
+        try {
+            sampler.acquire(5000);
+            ThreadCpuSampler.Sample sample = sampler.awaitSample(1000);
+            Assert.assertNotNull(sample);
+            Assert.assertEquals(ThreadCpuSampler.FIRST_WINDOW_MILLIS, sample.getPeriodMillis());
+            // 不用等待一个完整的周期
+            Assert.assertTrue(sample.getIntervalMillis() < 1000);
+            sampler.release(5000);
+        } finally {
+            sampler.destroy();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.taobao.arthas.core.util.collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentIntObjectMapTest {
+
+    @Test
+    public void test() {
+        ConcurrentIntObjectMap<String> map = new ConcurrentIntObjectMap<String>();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(1));
+
+        Assert.assertNull(map.putIfAbsent(1, "a"));
+        Assert.assertEquals("a", map.putIfAbsent(1, "b"));
+        Assert.assertEquals("a", map.get(1));
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testResize() {
+        ConcurrentIntObjectMap<Integer> map = new ConcurrentIntObjectMap<Integer>();
+        for (int i = 0; i < 1000; ++i) {
+            map.putIfAbsent(i * 16, i);
+        }
+        Assert.assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(Integer.valueOf(i), map.get(i * 16));
+        }
+        Assert.assertNull(map.get(1));
+        Assert.assertEquals(1000, map.values().size());
+    }
+}
@@ -0,0 +1,41 @@
+package com.taobao.arthas.core.util.collection;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongLongHashMapTest {
+
+    @Test
+    public void testPutAndGet() {
+        LongLongHashMap map = new LongLongHashMap();
+        for (long i = 0; i < 1000; ++i) {
+            map.put(i * 31, i);
+        }
+        Assert.assertEquals(1000, map.size());
+        for (long i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i, map.get(i * 31, -1));
+        }
+        Assert.assertEquals(-1, map.get(7, -1));
+        Assert.assertFalse(map.containsKey(7));
+
+        map.put(31, 100);
+        Assert.assertEquals(100, map.get(31, -1));
+        Assert.assertEquals(1000, map.size());
+    }
+
+    @Test
+    public void testZeroKeyAndClear() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        Assert.assertFalse(map.containsKey(0));
+        map.put(0, -1);
+        Assert.assertTrue(map.containsKey(0));
+        Assert.assertEquals(-1, map.get(0, 5));
+        map.put(Long.MIN_VALUE, 1);
+        Assert.assertEquals(2, map.size());
+
+        map.clear();
+        Assert.assertEquals(0, map.size());
+        Assert.assertFalse(map.containsKey(0));
+        Assert.assertEquals(5, map.get(Long.MIN_VALUE, 5));
+    }
+}
@@ -0,0 +1,74 @@
+package com.taobao.arthas.core.util.collection;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void testOfferAndPoll() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(3);
+        Assert.assertEquals(4, buffer.getCapacity());
+        Assert.assertNull(buffer.poll());
+
+        buffer.offer(1);
+        buffer.offer(2);
+        Assert.assertEquals(2, buffer.size());
+        Assert.assertEquals(Integer.valueOf(1), buffer.poll());
+        Assert.assertEquals(Integer.valueOf(2), buffer.poll());
+        Assert.assertNull(buffer.poll());
+        Assert.assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testDropOldest() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(4);
+        for (int i = 0; i < 10; ++i) {
+            buffer.offer(i);
+        }
+        Assert.assertEquals(4, buffer.size());
+        Assert.assertEquals(10, buffer.writeSequence());
+        Assert.assertEquals(0, buffer.readSequence());
+        for (int i = 6; i < 10; ++i) {
+            Assert.assertEquals(Integer.valueOf(i), buffer.poll());
+            // 被丢弃的元素也算已经读取
+            Assert.assertEquals(i + 1, buffer.readSequence());
+        }
+        Assert.assertNull(buffer.poll());
+        Assert.assertEquals(6, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(64);
+        final int threads = 4;
+        final int count = 10000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t) {
+            final int base = t * count;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; ++i) {
+                        buffer.offer(base + i);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+
+        Set<Integer> received = new HashSet<Integer>();
+        while (latch.getCount() > 0 || buffer.size() > 0) {
+            Integer value = buffer.poll();
+            if (value != null) {
+                Assert.assertTrue(received.add(value));
+            }
+        }
+        // 每个元素要么被读取，要么被计入丢弃数量
+        Assert.assertEquals(threads * count, received.size() + buffer.getDroppedCount());
+    }
+}
@@ -0,0 +1,301 @@
+package com.taobao.arthas.core.util.hprof;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.arthas.core.util.hprof.HeapSummary.ClassHistogram;
+import com.taobao.arthas.core.util.hprof.HeapSummary.DuplicateString;
+import com.taobao.arthas.core.util.hprof.HeapSummary.LargeObject;
+
+public class HprofAnalyzerTest {
+
+    private static final long OBJECT_CLASS = 100;
+    private static final long STRING_CLASS = 101;
+    private static final long HOLDER_CLASS = 102;
+    private static final long OBJECT_ARRAY_CLASS = 103;
+
+    /**
+     * 按 hprof 格式写入记录，identifier 为 8 字节
+     */
+    static class HprofWriter {
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        final ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        final DataOutputStream heapOut = new DataOutputStream(heap);
+
+        void record(int tag, byte[] body) throws IOException {
+            DataOutputStream out = new DataOutputStream(records);
+            out.writeByte(tag);
+            out.writeInt(0);
+            out.writeInt(body.length);
+            out.write(body);
+        }
+
+        void utf8(long id, String value) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeLong(id);
+            out.write(value.getBytes("UTF-8"));
+            record(0x01, body.toByteArray());
+        }
+
+        void loadClass(long classId, long nameId) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+            out.writeInt(1);
+            out.writeLong(classId);
+            out.writeInt(0);
+            out.writeLong(nameId);
+            record(0x02, body.toByteArray());
+        }
+
+        void classDump(long classId, long superId, long[] fieldNames, int[] fieldTypes) throws IOException {
+            heapOut.writeByte(0x20);
+            heapOut.writeLong(classId);
+            heapOut.writeInt(0);
+            heapOut.writeLong(superId);
+            for (int i = 0; i < 5; ++i) {
+                heapOut.writeLong(0);
+            }
+            heapOut.writeInt(0);
+            // constant pool
+            heapOut.writeShort(0);
+            // static fields
+            heapOut.writeShort(0);
+            heapOut.writeShort(fieldNames.length);
+            for (int i = 0; i < fieldNames.length; ++i) {
+                heapOut.writeLong(fieldNames[i]);
+                heapOut.writeByte(fieldTypes[i]);
+            }
+        }
+
+        void rootUnknown(long id) throws IOException {
+            heapOut.writeByte(0xFF);
+            heapOut.writeLong(id);
+        }
+
+        void string(long id, long valueId) throws IOException {
+            heapOut.writeByte(0x21);
+            heapOut.writeLong(id);
+            heapOut.writeInt(0);
+            heapOut.writeLong(STRING_CLASS);
+            heapOut.writeInt(12);
+            heapOut.writeLong(valueId);
+            heapOut.writeInt(0);
+        }
+
+        /**
+         * jdk9 之后的 String ，字段为 value 和 coder
+         */
+        void compactString(long id, long valueId, int coder) throws IOException {
+            heapOut.writeByte(0x21);
+            heapOut.writeLong(id);
+            heapOut.writeInt(0);
+            heapOut.writeLong(STRING_CLASS);
+            heapOut.writeInt(9);
+            heapOut.writeLong(valueId);
+            heapOut.writeByte(coder);
+        }
+
+        void holder(long id, long referenceId) throws IOException {
+            heapOut.writeByte(0x21);
+            heapOut.writeLong(id);
+            heapOut.writeInt(0);
+            heapOut.writeLong(HOLDER_CLASS);
+            heapOut.writeInt(8);
+            heapOut.writeLong(referenceId);
+        }
+
+        void chars(long id, String value) throws IOException {
+            heapOut.writeByte(0x23);
+            heapOut.writeLong(id);
+            heapOut.writeInt(0);
+            heapOut.writeInt(value.length());
+            heapOut.writeByte(5);
+            heapOut.writeChars(value);
+        }
+
+        void bytes(long id, byte[] value) throws IOException {
+            heapOut.writeByte(0x23);
+            heapOut.writeLong(id);
+            heapOut.writeInt(0);
+            heapOut.writeInt(value.length);
+            heapOut.writeByte(8);
+            heapOut.write(value);
+        }
+
+        void objectArray(long id, long[] elements) throws IOException {
+            heapOut.writeByte(0x22);
+            heapOut.writeLong(id);
+            heapOut.writeInt(0);
+            heapOut.writeInt(elements.length);
+            heapOut.writeLong(OBJECT_ARRAY_CLASS);
+            for (long element : elements) {
+                heapOut.writeLong(element);
+            }
+        }
+
+        File write() throws IOException {
+            record(0x1C, heap.toByteArray());
+            File file = File.createTempFile("arthas-test", ".hprof");
+            file.deleteOnExit();
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.write("JAVA PROFILE 1.0.2".getBytes("UTF-8"));
+                out.writeByte(0);
+                out.writeInt(8);
+                out.writeLong(System.currentTimeMillis());
+                out.write(records.toByteArray());
+            } finally {
+                out.close();
+            }
+            return file;
+        }
+    }
+
+    private File createHeapDump() throws IOException {
+        HprofWriter writer = new HprofWriter();
+        writer.utf8(1, "java/lang/String");
+        writer.utf8(2, "value");
+        writer.utf8(3, "com/example/Holder");
+        writer.utf8(4, "[Ljava/lang/Object;");
+        writer.utf8(5, "java/lang/Object");
+        writer.utf8(6, "hash");
+        writer.loadClass(OBJECT_CLASS, 5);
+        writer.loadClass(STRING_CLASS, 1);
+        writer.loadClass(HOLDER_CLASS, 3);
+        writer.loadClass(OBJECT_ARRAY_CLASS, 4);
+
+        writer.classDump(OBJECT_CLASS, 0, new long[0], new int[0]);
+        writer.classDump(STRING_CLASS, OBJECT_CLASS, new long[] { 2, 6 }, new int[] { 2, 10 });
+        writer.classDump(HOLDER_CLASS, OBJECT_CLASS, new long[] { 2 }, new int[] { 2 });
+        writer.classDump(OBJECT_ARRAY_CLASS, OBJECT_CLASS, new long[0], new int[0]);
+        writer.rootUnknown(500);
+
+        // 3 个 hello ，1 个 world ，还有一个不属于 String 的 hello
+        for (int i = 0; i < 3; ++i) {
+            writer.string(200 + i, 300 + i);
+            writer.chars(300 + i, "hello");
+        }
+        writer.string(203, 303);
+        writer.chars(303, "world");
+        writer.chars(304, "hello");
+
+        long[] elements = new long[1000];
+        for (int i = 0; i < 4; ++i) {
+            elements[i] = 200 + i;
+        }
+        // 同一个对象只算一次
+        elements[4] = 200;
+        writer.objectArray(400, elements);
+        writer.holder(500, 400);
+        return writer.write();
+    }
+
+    @Test
+    public void testAnalyze() throws IOException {
+        File file = createHeapDump();
+        HeapSummary summary = HprofAnalyzer.analyze(file, 20);
+
+        Assert.assertEquals(8, summary.getIdSize());
+        Assert.assertEquals(11, summary.getObjectCount());
+
+        ClassHistogram top = summary.getHistogram().get(0);
+        Assert.assertEquals("java.lang.Object[]", top.getClassName());
+        Assert.assertEquals(1, top.getInstances());
+        Assert.assertEquals(16 + 4 + 8000 + 4, top.getSize());
+        boolean foundChars = false;
+        for (ClassHistogram histogram : summary.getHistogram()) {
+            if ("char[]".equals(histogram.getClassName())) {
+                Assert.assertEquals(5, histogram.getInstances());
+                foundChars = true;
+            } else if ("java.lang.String".equals(histogram.getClassName())) {
+                Assert.assertEquals(4, histogram.getInstances());
+                Assert.assertEquals(4 * 32, histogram.getSize());
+            }
+        }
+        Assert.assertTrue(foundChars);
+
+        LargeObject largest = summary.getLargeObjects().get(0);
+        Assert.assertEquals(400, largest.getId());
+        Assert.assertEquals(4 * 32, largest.getReferencedSize());
+        boolean foundHolder = false;
+        for (LargeObject object : summary.getLargeObjects()) {
+            if (object.getId() == 500) {
+                Assert.assertEquals("com.example.Holder", object.getClassName());
+                Assert.assertEquals(largest.getSize(), object.getReferencedSize());
+                foundHolder = true;
+            }
+        }
+        Assert.assertTrue(foundHolder);
+
+        Assert.assertEquals(1, summary.getDuplicateStrings().size());
+        DuplicateString duplicate = summary.getDuplicateStrings().get(0);
+        Assert.assertEquals("hello", duplicate.getValue());
+        Assert.assertEquals(3, duplicate.getCount());
+        Assert.assertEquals(2 * 32, duplicate.getWastedSize());
+    }
+
+    @Test
+    public void testCompactStrings() throws IOException {
+        HprofWriter writer = new HprofWriter();
+        writer.utf8(1, "java/lang/String");
+        writer.utf8(2, "value");
+        writer.utf8(3, "coder");
+        writer.loadClass(STRING_CLASS, 1);
+        writer.classDump(STRING_CLASS, 0, new long[] { 2, 3 }, new int[] { 2, 8 });
+
+        // 2 个 UTF16 的字符串，3 个 LATIN1 的字符串
+        String utf16 = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? "UTF-16BE" : "UTF-16LE";
+        for (int i = 0; i < 2; ++i) {
+            writer.compactString(200 + i, 300 + i, 1);
+            writer.bytes(300 + i, "\u4f60\u597d".getBytes(utf16));
+        }
+        for (int i = 2; i < 5; ++i) {
+            writer.compactString(200 + i, 300 + i, 0);
+            writer.bytes(300 + i, "caf\u00e9".getBytes("ISO-8859-1"));
+        }
+        HeapSummary summary = HprofAnalyzer.analyze(writer.write(), 20);
+
+        Assert.assertEquals(2, summary.getDuplicateStrings().size());
+        DuplicateString latin1 = summary.getDuplicateStrings().get(0);
+        Assert.assertEquals("caf\u00e9", latin1.getValue());
+        Assert.assertEquals(3, latin1.getCount());
+        DuplicateString chinese = summary.getDuplicateStrings().get(1);
+        Assert.assertEquals("\u4f60\u597d", chinese.getValue());
+        Assert.assertEquals(2, chinese.getLength());
+        Assert.assertEquals(2, chinese.getCount());
+    }
+
+    @Test
+    public void testCancel() throws IOException {
+        File file = createHeapDump();
+        final int[] checks = new int[1];
+        try {
+            HprofAnalyzer.analyze(file, 20, new HprofAnalyzer.Cancellation() {
+                @Override
+                public boolean isCancelled() {
+                    return ++checks[0] > 3;
+                }
+            });
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+        Assert.assertEquals(4, checks[0]);
+    }
+
+    @Test
+    public void testToJavaName() {
+        Assert.assertEquals("java.lang.String", HprofAnalyzer.toJavaName("java/lang/String"));
+        Assert.assertEquals("java.lang.String[][]", HprofAnalyzer.toJavaName("[[Ljava/lang/String;"));
+        Assert.assertEquals("int[]", HprofAnalyzer.toJavaName("[I"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.taobao.arthas.core.util.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.taobao.arthas.core.util.metrics.LatencyHistogram.Snapshot;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucket() {
+        for (long value = 0; value < 100000; ++value) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(LatencyHistogram.bucketLowerBound(index) <= value);
+            Assert.assertTrue(LatencyHistogram.bucketUpperBound(index) >= value);
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i);
+        }
+        Snapshot snapshot = histogram.snapshotThenReset();
+
+        Assert.assertEquals(1000, snapshot.getTotalCount());
+        Assert.assertEquals(1000, snapshot.getMax());
+        assertAround(500, snapshot.valueAtPercentile(50));
+        assertAround(900, snapshot.valueAtPercentile(90));
+        assertAround(990, snapshot.valueAtPercentile(99));
+        Assert.assertEquals(1000, snapshot.valueAtPercentile(100));
+
+        Assert.assertEquals(0, histogram.snapshotThenReset().getTotalCount());
+    }
+
+    @Test
+    public void testMerge() {
+        LatencyHistogram h1 = new LatencyHistogram();
+        LatencyHistogram h2 = new LatencyHistogram();
+        h1.record(10);
+        h2.record(10);
+        h2.record(LatencyHistogram.MAX_VALUE + 1);
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.merge(h1.snapshotThenReset());
+        snapshot.merge(h2.snapshotThenReset());
+
+        Assert.assertEquals(3, snapshot.getTotalCount());
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMax());
+        Assert.assertTrue(snapshot.toBucketString().startsWith("10:2 "));
+    }
+
+    @Test
+    public void testStripes() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram(4);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            final int value = (i + 1) * 100;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; ++j) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Snapshot snapshot = histogram.snapshotThenReset();
+        Assert.assertEquals(80000, snapshot.getTotalCount());
+        Assert.assertEquals(800, snapshot.getMax());
+        assertAround(100, snapshot.valueAtPercentile(10));
+        Assert.assertEquals(0, histogram.snapshotThenReset().getTotalCount());
+    }
+
+    private static void assertAround(long expected, long actual) {
+        Assert.assertTrue("expected: " + expected + ", actual: " + actual,
+                Math.abs(expected - actual) <= expected / 16 + 1);
+    }
+}
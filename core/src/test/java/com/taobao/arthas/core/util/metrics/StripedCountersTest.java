@@ -0,0 +1,51 @@
+package com.taobao.arthas.core.util.metrics;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripedCountersTest {
+
+    @Test
+    public void test() {
+        StripedCounters counters = new StripedCounters(3);
+
+        counters.increment(0);
+        counters.increment(0);
+        counters.add(2, 100);
+
+        Assert.assertEquals(2, counters.sum(0));
+        Assert.assertEquals(0, counters.sum(1));
+        Assert.assertEquals(100, counters.sum(2));
+
+        Assert.assertEquals(100, counters.sumThenReset(2));
+        Assert.assertEquals(0, counters.sum(2));
+        Assert.assertEquals(2, counters.sum(0));
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final StripedCounters counters = new StripedCounters(2, 4);
+        final int threadCount = 8;
+        final int times = 10000;
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+
+        for (int i = 0; i < threadCount; ++i) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < times; ++j) {
+                        counters.increment(0);
+                        counters.add(1, 2);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        latch.await();
+
+        Assert.assertEquals(threadCount * times, counters.sum(0));
+        Assert.assertEquals(threadCount * times * 2, counters.sum(1));
+    }
+}
@@ -25,15 +25,28 @@ import javax.lang.model.element.NestingKind;
 import javax.tools.JavaFileObject;
 import java.io.*;
 import java.net.URI;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
 public class CustomJavaFileObject implements JavaFileObject {
     private final String binaryName;
     private final URI uri;
     private final String name;
+    private final JarFile jarFile;
+    private final String entryName;
 
     public CustomJavaFileObject(String binaryName, URI uri) {
+        this(binaryName, uri, null, null);
+    }
+
+    /**
+     * class 文件在 jar 里时，直接通过已经打开的 jarFile 读取，不需要每次通过 URL 打开
+     */
+    public CustomJavaFileObject(String binaryName, URI uri, JarFile jarFile, String entryName) {
         this.uri = uri;
         this.binaryName = binaryName;
+        this.jarFile = jarFile;
+        this.entryName = entryName;
         name = uri.getPath() == null ? uri.getSchemeSpecificPart() : uri.getPath(); // for FS based URI the path is not null, for JAR URI the scheme specific part is not null
     }
 
@@ -42,6 +55,16 @@ public class CustomJavaFileObject implements JavaFileObject {
     }
 
     public InputStream openInputStream() throws IOException {
+        if (jarFile != null) {
+            try {
+                ZipEntry entry = jarFile.getEntry(entryName);
+                if (entry != null) {
+                    return jarFile.getInputStream(entry);
+                }
+            } catch (IllegalStateException e) {
+                // zip file closed, fall back to open by url
+            }
+        }
         return uri.toURL().openStream();
     }
 
@@ -25,7 +25,9 @@ public class DynamicJavaFileManager extends ForwardingJavaFileManager<JavaFileMa
         super(fileManager);
         this.classLoader = classLoader;
 
-        finder = new PackageInternalsFinder(classLoader);
+        // DynamicClassLoader 没有自己的 resources ，使用父 ClassLoader 的索引，多次 mc 时可以复用
+        ClassLoader parent = classLoader.getParent();
+        finder = new PackageInternalsFinder(parent != null ? parent : classLoader);
     }
 
     @Override
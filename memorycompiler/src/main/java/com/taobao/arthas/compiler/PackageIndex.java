@@ -0,0 +1,203 @@
+package com.taobao.arthas.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * <pre>
+ * 一个 ClassLoader 的 package 到 class 文件的索引，多次编译（比如多次执行 mc）时复用。
+ *
+ * 1. 第一次查找一个 package 时才通过 ClassLoader#getResources 找到包含它的 jar 和目录，结果缓存起来。
+ *    没有找到的 package 不缓存，之后可能会加入
+ * 2. 每个 jar 只在第一次用到时遍历一次所有的 entry ，按目录建立索引，之后通过缓存的 JarFile 读取 class 文件，不需要再打开 jar
+ * 3. 目录里的 class 文件可能会变化，每次都重新列出
+ *
+ * URLClassLoader 增加了 URL 之后，缓存的 package 会失效。其它的 ClassLoader 不知道什么时候会变化，
+ * 缓存的 package 最多保留 {@link #CACHE_MILLIS} 。
+ * </pre>
+ */
+public class PackageIndex {
+    private static final String CLASS_FILE_EXTENSION = ".class";
+
+    /**
+     * 不是 URLClassLoader 时，缓存的 package 的有效时间
+     */
+    static final long CACHE_MILLIS = 60 * 1000;
+
+    private static final Map<ClassLoader, PackageIndex> INDEXES = new WeakHashMap<ClassLoader, PackageIndex>();
+
+    /**
+     * package 路径（比如 java/util ）到包含它的 jar 和目录的 URL
+     */
+    private final Map<String, List<URL>> packageUrls = new HashMap<String, List<URL>>();
+
+    /**
+     * jar 的 URI（比如 jar:file:/tmp/demo.jar ）到这个 jar 的索引
+     */
+    private final Map<String, JarIndex> jarIndexes = new HashMap<String, JarIndex>();
+
+    private int urlCount = -1;
+    private long cacheTime;
+
+    private PackageIndex() {
+    }
+
+    public static PackageIndex of(ClassLoader classLoader) {
+        synchronized (INDEXES) {
+            PackageIndex index = INDEXES.get(classLoader);
+            if (index == null) {
+                index = new PackageIndex();
+                INDEXES.put(classLoader, index);
+            }
+            return index;
+        }
+    }
+
+    public synchronized List<JavaFileObject> find(ClassLoader classLoader, String packageName) throws IOException {
+        String packagePath = packageName.replace('.', '/');
+
+        List<JavaFileObject> result = new ArrayList<JavaFileObject>();
+        for (URL packageFolderURL : getPackageUrls(classLoader, packagePath)) {
+            File directory = new File(packageFolderURL.getFile());
+            if (directory.isDirectory()) { // browse local .class files - useful for local execution
+                result.addAll(processDir(packageName, directory));
+            } else { // browse a jar file
+                result.addAll(processJar(packageFolderURL, packagePath));
+            }
+        }
+        return result;
+    }
+
+    private List<URL> getPackageUrls(ClassLoader classLoader, String packagePath) throws IOException {
+        if (classLoader instanceof URLClassLoader) {
+            int count = ((URLClassLoader) classLoader).getURLs().length;
+            if (count != urlCount) {
+                packageUrls.clear();
+                urlCount = count;
+            }
+        } else {
+            long now = System.currentTimeMillis();
+            if (now - cacheTime >= CACHE_MILLIS) {
+                packageUrls.clear();
+                cacheTime = now;
+            }
+        }
+
+        List<URL> urls = packageUrls.get(packagePath);
+        if (urls == null) {
+            // one URL for each jar on the classpath that has the given package
+            urls = Collections.list(classLoader.getResources(packagePath));
+            if (!urls.isEmpty()) {
+                packageUrls.put(packagePath, urls);
+            }
+        }
+        return urls;
+    }
+
+    private List<JavaFileObject> processJar(URL packageFolderURL, String packagePath) {
+        String externalForm = packageFolderURL.toExternalForm();
+        int index = externalForm.lastIndexOf("!/");
+        if (index < 0) {
+            throw new RuntimeException("Wasn't able to open " + packageFolderURL + " as a jar file");
+        }
+        String jarUri = externalForm.substring(0, index);
+
+        JarIndex jarIndex = jarIndexes.get(jarUri);
+        if (jarIndex == null) {
+            try {
+                JarURLConnection jarConn = (JarURLConnection) packageFolderURL.openConnection();
+                jarIndex = new JarIndex(jarUri, jarConn.getJarFile());
+            } catch (Exception e) {
+                throw new RuntimeException("Wasn't able to open " + packageFolderURL + " as a jar file", e);
+            }
+            jarIndexes.put(jarUri, jarIndex);
+        }
+        return jarIndex.find(packagePath);
+    }
+
+    private List<JavaFileObject> processDir(String packageName, File directory) {
+        List<JavaFileObject> result = new ArrayList<JavaFileObject>();
+
+        File[] childFiles = directory.listFiles();
+        if (childFiles == null) {
+            return result;
+        }
+        for (File childFile : childFiles) {
+            if (childFile.isFile()) {
+                // We only want the .class files.
+                if (childFile.getName().endsWith(CLASS_FILE_EXTENSION)) {
+                    String binaryName = packageName + "." + childFile.getName();
+                    binaryName = binaryName.substring(0, binaryName.length() - CLASS_FILE_EXTENSION.length());
+
+                    result.add(new CustomJavaFileObject(binaryName, childFile.toURI()));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * 一个 jar 里每个目录下的 class 文件。只保存 entry 的名字，JavaFileObject 在第一次查找这个目录时才创建，之后复用
+     */
+    static class JarIndex {
+        private final String jarUri;
+        private final JarFile jarFile;
+        private final Map<String, List<String>> entries = new HashMap<String, List<String>>();
+        private final Map<String, List<JavaFileObject>> packages = new HashMap<String, List<JavaFileObject>>();
+
+        JarIndex(String jarUri, JarFile jarFile) {
+            this.jarUri = jarUri;
+            this.jarFile = jarFile;
+            Enumeration<JarEntry> entryEnum = jarFile.entries();
+            while (entryEnum.hasMoreElements()) {
+                String name = entryEnum.nextElement().getName();
+                if (!name.endsWith(CLASS_FILE_EXTENSION)) {
+                    continue;
+                }
+                int index = name.lastIndexOf('/');
+                String packagePath = index < 0 ? "" : name.substring(0, index);
+
+                List<String> names = entries.get(packagePath);
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    entries.put(packagePath, names);
+                }
+                names.add(name);
+            }
+        }
+
+        List<JavaFileObject> find(String packagePath) {
+            List<JavaFileObject> files = packages.get(packagePath);
+            if (files != null) {
+                return files;
+            }
+            List<String> names = entries.remove(packagePath);
+            if (names == null) {
+                return Collections.emptyList();
+            }
+            files = new ArrayList<JavaFileObject>(names.size());
+            for (String name : names) {
+                String binaryName = name.substring(0, name.length() - CLASS_FILE_EXTENSION.length()).replace('/', '.');
+                files.add(new CustomJavaFileObject(binaryName, URI.create(jarUri + "!/" + name), jarFile, name));
+            }
+            packages.put(packagePath, files);
+            return files;
+        }
+    }
+}
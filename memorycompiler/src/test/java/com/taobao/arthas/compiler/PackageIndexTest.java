@@ -0,0 +1,99 @@
+package com.taobao.arthas.compiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaFileObject;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackageIndexTest {
+
+    @Test
+    public void testFindInJar() throws IOException {
+        File jar = File.createTempFile("package-index", ".jar");
+        try {
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+            try {
+                out.putNextEntry(new JarEntry("com/test/"));
+                out.putNextEntry(new JarEntry("com/test/A.class"));
+                out.write(new byte[] { 1, 2, 3 });
+                out.putNextEntry(new JarEntry("com/test/B$1.class"));
+                out.putNextEntry(new JarEntry("com/test/sub/"));
+                out.putNextEntry(new JarEntry("com/test/sub/C.class"));
+                out.putNextEntry(new JarEntry("com/test/readme.txt"));
+            } finally {
+                out.close();
+            }
+
+            URLClassLoader classLoader = new URLClassLoader(new URL[] { jar.toURI().toURL() }, null);
+            PackageIndex index = PackageIndex.of(classLoader);
+            Assert.assertSame(index, PackageIndex.of(classLoader));
+
+            List<JavaFileObject> files = index.find(classLoader, "com.test");
+            Assert.assertEquals(2, files.size());
+            CustomJavaFileObject a = (CustomJavaFileObject) files.get(0);
+            Assert.assertEquals("com.test.A", a.binaryName());
+            Assert.assertEquals("com.test.B$1", ((CustomJavaFileObject) files.get(1)).binaryName());
+
+            InputStream in = a.openInputStream();
+            try {
+                Assert.assertEquals(1, in.read());
+                Assert.assertEquals(2, in.read());
+                Assert.assertEquals(3, in.read());
+                Assert.assertEquals(-1, in.read());
+            } finally {
+                in.close();
+            }
+
+            // 第二次查找复用索引里的对象
+            Assert.assertSame(a, index.find(classLoader, "com.test").get(0));
+            Assert.assertEquals(1, index.find(classLoader, "com.test.sub").size());
+            Assert.assertTrue(index.find(classLoader, "com.notexist").isEmpty());
+        } finally {
+            jar.delete();
+        }
+    }
+
+    @Test
+    public void testPackageAddedLater() throws IOException {
+        File root = File.createTempFile("package-index", "");
+        root.delete();
+        File dir = new File(root, "com/test");
+        final List<URL> urls = new ArrayList<URL>();
+        ClassLoader classLoader = new ClassLoader(null) {
+            @Override
+            protected Enumeration<URL> findResources(String name) {
+                return Collections.enumeration(urls);
+            }
+        };
+        try {
+            PackageIndex index = PackageIndex.of(classLoader);
+            Assert.assertTrue(index.find(classLoader, "com.test").isEmpty());
+
+            // 没有找到的 package 不缓存
+            Assert.assertTrue(dir.mkdirs());
+            Assert.assertTrue(new File(dir, "A.class").createNewFile());
+            urls.add(dir.toURI().toURL());
+            List<JavaFileObject> files = index.find(classLoader, "com.test");
+            Assert.assertEquals(1, files.size());
+            Assert.assertEquals("com.test.A", ((CustomJavaFileObject) files.get(0)).binaryName());
+        } finally {
+            new File(dir, "A.class").delete();
+            dir.delete();
+            dir.getParentFile().delete();
+            root.delete();
+        }
+    }
+}
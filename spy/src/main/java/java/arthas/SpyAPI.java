@@ -55,77 +55,77 @@ public class SpyAPI {
         INITED = false;
     }
 
-    public static void atEnter(Class<?> clazz, String methodInfo, Object target, Object[] args) {
-        spyInstance.atEnter(clazz, methodInfo, target, args);
+    public static void atEnter(Class<?> clazz, int methodId, Object target, Object[] args) {
+        spyInstance.atEnter(clazz, methodId, target, args);
     }
 
-    public static void atExit(Class<?> clazz, String methodInfo, Object target, Object[] args,
+    public static void atExit(Class<?> clazz, int methodId, Object target, Object[] args,
             Object returnObject) {
-        spyInstance.atExit(clazz, methodInfo, target, args, returnObject);
+        spyInstance.atExit(clazz, methodId, target, args, returnObject);
     }
 
-    public static void atExceptionExit(Class<?> clazz, String methodInfo, Object target,
+    public static void atExceptionExit(Class<?> clazz, int methodId, Object target,
             Object[] args, Throwable throwable) {
-        spyInstance.atExceptionExit(clazz, methodInfo, target, args, throwable);
+        spyInstance.atExceptionExit(clazz, methodId, target, args, throwable);
     }
 
-    public static void atBeforeInvoke(Class<?> clazz, String invokeInfo, Object target) {
-        spyInstance.atBeforeInvoke(clazz, invokeInfo, target);
+    public static void atBeforeInvoke(Class<?> clazz, int invokeId, Object target) {
+        spyInstance.atBeforeInvoke(clazz, invokeId, target);
     }
 
-    public static void atAfterInvoke(Class<?> clazz, String invokeInfo, Object target) {
-        spyInstance.atAfterInvoke(clazz, invokeInfo, target);
+    public static void atAfterInvoke(Class<?> clazz, int invokeId, Object target) {
+        spyInstance.atAfterInvoke(clazz, invokeId, target);
     }
 
-    public static void atInvokeException(Class<?> clazz, String invokeInfo, Object target, Throwable throwable) {
-        spyInstance.atInvokeException(clazz, invokeInfo, target, throwable);
+    public static void atInvokeException(Class<?> clazz, int invokeId, Object target, Throwable throwable) {
+        spyInstance.atInvokeException(clazz, invokeId, target, throwable);
     }
 
     public static abstract class AbstractSpy {
-        public abstract void atEnter(Class<?> clazz, String methodInfo, Object target,
+        public abstract void atEnter(Class<?> clazz, int methodId, Object target,
                 Object[] args);
 
-        public abstract void atExit(Class<?> clazz, String methodInfo, Object target, Object[] args,
+        public abstract void atExit(Class<?> clazz, int methodId, Object target, Object[] args,
                 Object returnObject);
 
-        public abstract void atExceptionExit(Class<?> clazz, String methodInfo, Object target,
+        public abstract void atExceptionExit(Class<?> clazz, int methodId, Object target,
                 Object[] args, Throwable throwable);
 
-        public abstract void atBeforeInvoke(Class<?> clazz, String invokeInfo, Object target);
+        public abstract void atBeforeInvoke(Class<?> clazz, int invokeId, Object target);
 
-        public abstract void atAfterInvoke(Class<?> clazz, String invokeInfo, Object target);
+        public abstract void atAfterInvoke(Class<?> clazz, int invokeId, Object target);
 
-        public abstract void atInvokeException(Class<?> clazz, String invokeInfo, Object target, Throwable throwable);
+        public abstract void atInvokeException(Class<?> clazz, int invokeId, Object target, Throwable throwable);
     }
 
     static class NopSpy extends AbstractSpy {
 
         @Override
-        public void atEnter(Class<?> clazz, String methodInfo, Object target, Object[] args) {
+        public void atEnter(Class<?> clazz, int methodId, Object target, Object[] args) {
         }
 
         @Override
-        public void atExit(Class<?> clazz, String methodInfo, Object target, Object[] args,
+        public void atExit(Class<?> clazz, int methodId, Object target, Object[] args,
                 Object returnObject) {
         }
 
         @Override
-        public void atExceptionExit(Class<?> clazz, String methodInfo, Object target, Object[] args,
+        public void atExceptionExit(Class<?> clazz, int methodId, Object target, Object[] args,
                 Throwable throwable) {
         }
 
         @Override
-        public void atBeforeInvoke(Class<?> clazz, String invokeInfo, Object target) {
+        public void atBeforeInvoke(Class<?> clazz, int invokeId, Object target) {
 
         }
 
         @Override
-        public void atAfterInvoke(Class<?> clazz, String invokeInfo, Object target) {
+        public void atAfterInvoke(Class<?> clazz, int invokeId, Object target) {
 
         }
 
         @Override
-        public void atInvokeException(Class<?> clazz, String invokeInfo, Object target, Throwable throwable) {
+        public void atInvokeException(Class<?> clazz, int invokeId, Object target, Throwable throwable) {
 
         }
 